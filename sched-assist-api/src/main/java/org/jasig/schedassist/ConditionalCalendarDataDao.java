@@ -0,0 +1,55 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.IScheduleVisitor;
+
+/**
+ * Optional companion to {@link ICalendarDataDao} for calendar systems that can refuse to create an event
+ * where one already exists (e.g. a CalDAV PUT with "If-None-Match: *").
+ * 
+ * Each appointment created through this interface is stored at a location derived from the owner and the start
+ * of the block, so a second appointment for the same block is rejected by the calendar system itself. This allows
+ * callers to skip {@link ICalendarDataDao#checkForConflicts(IScheduleOwner, AvailableBlock)} before creating an
+ * appointment for a block with a visitor limit of 1.
+ * 
+ * @version $Id: ConditionalCalendarDataDao.java $
+ */
+public interface ConditionalCalendarDataDao {
+
+	/**
+	 * Create an appointment for the block, unless an appointment already exists for the block.
+	 * 
+	 * Unlike {@link ICalendarDataDao#createAppointment(IScheduleVisitor, IScheduleOwner, AvailableBlock, String)},
+	 * implementations do not guarantee that other events in the owner's calendar are examined for conflicts.
+	 * 
+	 * @param visitor
+	 * @param owner
+	 * @param block
+	 * @param eventDescription
+	 * @return the created appointment
+	 * @throws ConflictExistsException if an appointment already exists for the block
+	 */
+	VEvent createAppointmentIfAbsent(IScheduleVisitor visitor, IScheduleOwner owner, AvailableBlock block, String eventDescription) throws ConflictExistsException;
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist;
+
+import java.util.Date;
+
+import net.fortuna.ical4j.model.PeriodList;
+
+import org.jasig.schedassist.model.ICalendarAccount;
+
+/**
+ * Optional companion to {@link ICalendarDataDao} for calendar systems that can report when an account is busy
+ * without returning the underlying event data (e.g. the CalDAV free-busy-query REPORT).
+ * 
+ * Answering "is this time occupied?" from busy periods avoids retrieving and parsing every event in the window.
+ * Implementations return null when busy periods are not available for the account; callers must then fall back to
+ * {@link ICalendarDataDao#getCalendar(ICalendarAccount, Date, Date)}.
+ * 
+ * @version $Id: FreeBusyDataDao.java $
+ */
+public interface FreeBusyDataDao {
+
+	/**
+	 * Return the periods between the 2 {@link Date}s in which the {@link ICalendarAccount} is busy.
+	 * 
+	 * @param calendarAccount
+	 * @param startDate
+	 * @param endDate
+	 * @return the busy periods (possibly empty), or null if busy periods are not available for the account
+	 */
+	PeriodList getBusyPeriods(ICalendarAccount calendarAccount, Date startDate, Date endDate);
+}
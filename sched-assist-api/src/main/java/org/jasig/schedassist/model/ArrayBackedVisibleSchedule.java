@@ -0,0 +1,565 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.component.VEvent;
+
+/**
+ * {@link VisibleSchedule} implementation backed by parallel primitive arrays rather
+ * than a {@link java.util.TreeMap} of {@link AvailableBlock} keys.
+ *
+ * Entries are kept sorted by start time, then end time (the same ordering as {@link AvailableBlock#compareTo(AvailableBlock)}).
+ * Exact lookups are binary searches; conflict lookups are binary searches bounded by the longest
+ * entry stored. {@link AvailableBlock}s are only materialized when a caller asks for them.
+ *
+ * {@link #getBlockMap()} returns a read-only view over the arrays rather than a copy.
+ *
+ * Instances are not thread safe.
+ *
+ * @version $Id: ArrayBackedVisibleSchedule.java $
+ */
+public class ArrayBackedVisibleSchedule extends VisibleSchedule {
+
+	private static final long serialVersionUID = 6381046417213525830L;
+	private static final AvailableStatus[] STATUSES = AvailableStatus.values();
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private final MeetingDurations meetingDurations;
+	private long[] starts = new long[DEFAULT_CAPACITY];
+	private long[] ends = new long[DEFAULT_CAPACITY];
+	private byte[] statuses = new byte[DEFAULT_CAPACITY];
+	private short[] visitorsAttending = new short[DEFAULT_CAPACITY];
+	private int[] visitorLimits = new int[DEFAULT_CAPACITY];
+	private String[] meetingLocations = new String[DEFAULT_CAPACITY];
+	private int size = 0;
+	/**
+	 * Longest duration (in msec) of any entry ever stored; bounds the backwards search for conflicts.
+	 */
+	private long maxDuration = 0;
+
+	/**
+	 *
+	 * @param meetingDurations
+	 */
+	public ArrayBackedVisibleSchedule(final MeetingDurations meetingDurations) {
+		super(meetingDurations);
+		this.meetingDurations = meetingDurations;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#addFreeBlock(org.jasig.schedassist.model.AvailableBlock)
+	 */
+	@Override
+	public void addFreeBlock(final AvailableBlock block) {
+		final long length = AvailableBlockBuilder.convertMinutesToMsec(meetingDurations.getMinLength());
+		final long blockEnd = block.getEndTime().getTime();
+		long currentStart = block.getStartTime().getTime();
+		while(blockEnd - currentStart >= length) {
+			final long currentEnd = currentStart + length;
+			put(currentStart, currentEnd, AvailableStatus.FREE, block.getVisitorLimit(), block.getMeetingLocation(), block.getVisitorsAttending());
+			currentStart = currentEnd;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#overwriteFreeBlockOnlyIfPresent(org.jasig.schedassist.model.AvailableBlock)
+	 */
+	@Override
+	public void overwriteFreeBlockOnlyIfPresent(final AvailableBlock block) {
+		int index = indexOf(block.getStartTime().getTime(), block.getEndTime().getTime());
+		if(index >= 0) {
+			set(index, AvailableStatus.FREE, block.getVisitorLimit(), block.getMeetingLocation(), block.getVisitorsAttending());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#setBusyBlock(org.jasig.schedassist.model.AvailableBlock)
+	 */
+	@Override
+	public void setBusyBlock(final AvailableBlock block) {
+		final long start = block.getStartTime().getTime();
+		final long end = block.getEndTime().getTime();
+		int index = indexOf(start, end);
+		if(index >= 0) {
+			statuses[index] = (byte) AvailableStatus.BUSY.ordinal();
+		} else {
+			int[] conflicting = conflictingIndices(start, end);
+			for(int conflict : conflicting) {
+				statuses[conflict] = (byte) AvailableStatus.BUSY.ordinal();
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#setAttendingBlock(org.jasig.schedassist.model.AvailableBlock)
+	 */
+	@Override
+	public void setAttendingBlock(final AvailableBlock block) {
+		final long start = block.getStartTime().getTime();
+		final long end = block.getEndTime().getTime();
+		int index = indexOf(start, end);
+		if(index >= 0) {
+			statuses[index] = (byte) AvailableStatus.ATTENDING.ordinal();
+		} else {
+			int[] conflicting = conflictingIndices(start, end);
+			if(conflicting.length > 0) {
+				// remove the conflicts, highest index first so the remaining indices stay valid
+				for(int i = conflicting.length - 1; i >= 0; i--) {
+					removeAt(conflicting[i]);
+				}
+				// store only the original
+				put(start, end, AvailableStatus.ATTENDING, block.getVisitorLimit(), block.getMeetingLocation(), block.getVisitorsAttending());
+			}
+		}
+	}
+
+	/**
+	 * @return a read-only view of this schedule; changes to this instance are visible through the view
+	 */
+	@Override
+	public SortedMap<AvailableBlock, AvailableStatus> getBlockMap() {
+		return new BlockMapView(null, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getSize()
+	 */
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getScheduleStart()
+	 */
+	@Override
+	public Date getScheduleStart() {
+		return size == 0 ? null : new Date(starts[0]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getScheduleEnd()
+	 */
+	@Override
+	public Date getScheduleEnd() {
+		return size == 0 ? null : new Date(ends[size - 1]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getCalendar()
+	 */
+	@Override
+	public Calendar getCalendar() {
+		ComponentList components = new ComponentList();
+		for(int i = 0; i < size; i++) {
+			AvailableStatus status = STATUSES[statuses[i]];
+			StringBuilder eventTitle = new StringBuilder();
+			if(visitorLimits[i] > 1 && AvailableStatus.FREE.equals(status)) {
+				eventTitle.append("(");
+				eventTitle.append(visitorLimits[i] - visitorsAttending[i]);
+				eventTitle.append("/");
+				eventTitle.append(visitorLimits[i]);
+				eventTitle.append(") ");
+			}
+			eventTitle.append(status.getValue());
+			VEvent event = new VEvent(new net.fortuna.ical4j.model.DateTime(starts[i]),
+					new net.fortuna.ical4j.model.DateTime(ends[i]),
+					eventTitle.toString());
+			components.add(event);
+		}
+		return new Calendar(components);
+	}
+
+	/**
+	 * Entries are copied directly; the result is also an {@link ArrayBackedVisibleSchedule}.
+	 *
+	 * @see org.jasig.schedassist.model.VisibleSchedule#subset(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public VisibleSchedule subset(final Date start, final Date end) {
+		final long startMillis = start.getTime();
+		final long endMillis = end.getTime();
+		ArrayBackedVisibleSchedule result = new ArrayBackedVisibleSchedule(this.meetingDurations);
+		for(int i = lowerBound(startMillis, Long.MIN_VALUE); i < size && starts[i] <= endMillis; i++) {
+			if(ends[i] <= endMillis) {
+				result.append(starts[i], ends[i], statuses[i], visitorLimits[i], meetingLocations[i], visitorsAttending[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @see org.jasig.schedassist.model.VisibleSchedule#locateConflicting(org.jasig.schedassist.model.AvailableBlock)
+	 */
+	@Override
+	protected Set<AvailableBlock> locateConflicting(final AvailableBlock conflict) {
+		int[] conflicting = conflictingIndices(conflict.getStartTime().getTime(), conflict.getEndTime().getTime());
+		Set<AvailableBlock> result = new HashSet<AvailableBlock>();
+		for(int index : conflicting) {
+			result.add(blockAt(index));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getCountForStatus(org.jasig.schedassist.model.AvailableStatus)
+	 */
+	@Override
+	protected int getCountForStatus(final AvailableStatus targetStatus) {
+		final byte target = (byte) targetStatus.ordinal();
+		int count = 0;
+		for(int i = 0; i < size; i++) {
+			if(statuses[i] == target) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleSchedule#getBlockListForStatus(org.jasig.schedassist.model.AvailableStatus)
+	 */
+	@Override
+	protected List<AvailableBlock> getBlockListForStatus(final AvailableStatus targetStatus) {
+		final byte target = (byte) targetStatus.ordinal();
+		List<AvailableBlock> results = new ArrayList<AvailableBlock>();
+		for(int i = 0; i < size; i++) {
+			if(statuses[i] == target) {
+				results.add(blockAt(i));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Indices of all entries that overlap [start, end) by 1 minute or more, in ascending order.
+	 *
+	 * @param start
+	 * @param end
+	 * @return a possibly empty array of indices
+	 */
+	int[] conflictingIndices(final long start, final long end) {
+		// no entry starting at or before (start - maxDuration) can reach past start
+		int i = lowerBound(start - maxDuration + 1, Long.MIN_VALUE);
+		int[] result = new int[4];
+		int count = 0;
+		for(; i < size && starts[i] < end; i++) {
+			if(ends[i] > start) {
+				if(count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = i;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 *
+	 * @param start
+	 * @param end
+	 * @return the index of the entry with exactly this start and end, or (-(insertion point) - 1)
+	 */
+	int indexOf(final long start, final long end) {
+		int index = lowerBound(start, end);
+		if(index < size && starts[index] == start && ends[index] == end) {
+			return index;
+		}
+		return -index - 1;
+	}
+
+	/**
+	 *
+	 * @param start
+	 * @param end
+	 * @return the index of the first entry that is greater than or equal to (start, end)
+	 */
+	int lowerBound(final long start, final long end) {
+		int low = 0;
+		int high = size;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compare(starts[mid], ends[mid], start, end) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Store the entry, replacing any existing entry with the same start and end.
+	 */
+	private void put(long start, long end, AvailableStatus status, int visitorLimit, String meetingLocation, int attending) {
+		if(size > 0 && compare(starts[size - 1], ends[size - 1], start, end) < 0) {
+			// common case, blocks are usually added in order
+			append(start, end, (byte) status.ordinal(), visitorLimit, meetingLocation, toShort(attending));
+			return;
+		}
+		int index = indexOf(start, end);
+		if(index >= 0) {
+			set(index, status, visitorLimit, meetingLocation, attending);
+		} else {
+			insertAt(-index - 1, start, end, (byte) status.ordinal(), visitorLimit, meetingLocation, toShort(attending));
+		}
+	}
+
+	private void set(int index, AvailableStatus status, int visitorLimit, String meetingLocation, int attending) {
+		statuses[index] = (byte) status.ordinal();
+		visitorLimits[index] = visitorLimit;
+		meetingLocations[index] = meetingLocation;
+		visitorsAttending[index] = toShort(attending);
+	}
+
+	private void append(long start, long end, byte status, int visitorLimit, String meetingLocation, short attending) {
+		insertAt(size, start, end, status, visitorLimit, meetingLocation, attending);
+	}
+
+	private void insertAt(int index, long start, long end, byte status, int visitorLimit, String meetingLocation, short attending) {
+		ensureCapacity(size + 1);
+		int tail = size - index;
+		if(tail > 0) {
+			System.arraycopy(starts, index, starts, index + 1, tail);
+			System.arraycopy(ends, index, ends, index + 1, tail);
+			System.arraycopy(statuses, index, statuses, index + 1, tail);
+			System.arraycopy(visitorsAttending, index, visitorsAttending, index + 1, tail);
+			System.arraycopy(visitorLimits, index, visitorLimits, index + 1, tail);
+			System.arraycopy(meetingLocations, index, meetingLocations, index + 1, tail);
+		}
+		starts[index] = start;
+		ends[index] = end;
+		statuses[index] = status;
+		visitorsAttending[index] = attending;
+		visitorLimits[index] = visitorLimit;
+		meetingLocations[index] = meetingLocation;
+		maxDuration = Math.max(maxDuration, end - start);
+		size++;
+	}
+
+	private void removeAt(int index) {
+		int tail = size - index - 1;
+		if(tail > 0) {
+			System.arraycopy(starts, index + 1, starts, index, tail);
+			System.arraycopy(ends, index + 1, ends, index, tail);
+			System.arraycopy(statuses, index + 1, statuses, index, tail);
+			System.arraycopy(visitorsAttending, index + 1, visitorsAttending, index, tail);
+			System.arraycopy(visitorLimits, index + 1, visitorLimits, index, tail);
+			System.arraycopy(meetingLocations, index + 1, meetingLocations, index, tail);
+		}
+		size--;
+		meetingLocations[size] = null;
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if(minCapacity > starts.length) {
+			int newCapacity = Math.max(minCapacity, starts.length * 2);
+			starts = Arrays.copyOf(starts, newCapacity);
+			ends = Arrays.copyOf(ends, newCapacity);
+			statuses = Arrays.copyOf(statuses, newCapacity);
+			visitorsAttending = Arrays.copyOf(visitorsAttending, newCapacity);
+			visitorLimits = Arrays.copyOf(visitorLimits, newCapacity);
+			meetingLocations = Arrays.copyOf(meetingLocations, newCapacity);
+		}
+	}
+
+	private AvailableBlock blockAt(int index) {
+		return new AvailableBlock(starts[index], ends[index], visitorLimits[index], meetingLocations[index], visitorsAttending[index]);
+	}
+
+	private static short toShort(int value) {
+		return (short) Math.min(value, Short.MAX_VALUE);
+	}
+
+	/**
+	 * Same ordering as {@link AvailableBlock#compareTo(AvailableBlock)}.
+	 */
+	private static int compare(long leftStart, long leftEnd, long rightStart, long rightEnd) {
+		if(leftStart != rightStart) {
+			return leftStart < rightStart ? -1 : 1;
+		}
+		if(leftEnd != rightEnd) {
+			return leftEnd < rightEnd ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Read-only {@link SortedMap} view over the arrays, optionally bounded by
+	 * fromKey (inclusive) and toKey (exclusive). Bounds are resolved to indices on each call,
+	 * so the view tracks changes to the enclosing schedule.
+	 */
+	private final class BlockMapView extends AbstractMap<AvailableBlock, AvailableStatus> implements SortedMap<AvailableBlock, AvailableStatus> {
+		private final AvailableBlock fromKey;
+		private final AvailableBlock toKey;
+
+		BlockMapView(AvailableBlock fromKey, AvailableBlock toKey) {
+			this.fromKey = fromKey;
+			this.toKey = toKey;
+		}
+
+		private int low() {
+			return fromKey == null ? 0 : lowerBound(fromKey.getStartTime().getTime(), fromKey.getEndTime().getTime());
+		}
+
+		private int high() {
+			return toKey == null ? size : lowerBound(toKey.getStartTime().getTime(), toKey.getEndTime().getTime());
+		}
+
+		private int indexInView(Object key) {
+			if(!(key instanceof AvailableBlock)) {
+				return -1;
+			}
+			AvailableBlock block = (AvailableBlock) key;
+			int index = indexOf(block.getStartTime().getTime(), block.getEndTime().getTime());
+			if(index < low() || index >= high()) {
+				return -1;
+			}
+			return index;
+		}
+
+		@Override
+		public AvailableStatus get(Object key) {
+			int index = indexInView(key);
+			return index < 0 ? null : STATUSES[statuses[index]];
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return indexInView(key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return Math.max(0, high() - low());
+		}
+
+		@Override
+		public Set<Map.Entry<AvailableBlock, AvailableStatus>> entrySet() {
+			return new AbstractSet<Map.Entry<AvailableBlock, AvailableStatus>>() {
+				@Override
+				public Iterator<Map.Entry<AvailableBlock, AvailableStatus>> iterator() {
+					final int high = high();
+					final int low = low();
+					return new Iterator<Map.Entry<AvailableBlock, AvailableStatus>>() {
+						private int next = low;
+						@Override
+						public boolean hasNext() {
+							return next < high;
+						}
+						@Override
+						public Map.Entry<AvailableBlock, AvailableStatus> next() {
+							if(!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int index = next++;
+							return new AbstractMap.SimpleImmutableEntry<AvailableBlock, AvailableStatus>(blockAt(index), STATUSES[statuses[index]]);
+						}
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException("read-only view");
+						}
+					};
+				}
+				@Override
+				public int size() {
+					return BlockMapView.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Comparator<? super AvailableBlock> comparator() {
+			// natural ordering
+			return null;
+		}
+
+		@Override
+		public SortedMap<AvailableBlock, AvailableStatus> subMap(AvailableBlock from, AvailableBlock to) {
+			if(from.compareTo(to) > 0) {
+				throw new IllegalArgumentException("fromKey > toKey");
+			}
+			return new BlockMapView(max(fromKey, from), min(toKey, to));
+		}
+
+		@Override
+		public SortedMap<AvailableBlock, AvailableStatus> headMap(AvailableBlock to) {
+			return new BlockMapView(fromKey, min(toKey, to));
+		}
+
+		@Override
+		public SortedMap<AvailableBlock, AvailableStatus> tailMap(AvailableBlock from) {
+			return new BlockMapView(max(fromKey, from), toKey);
+		}
+
+		@Override
+		public AvailableBlock firstKey() {
+			int low = low();
+			if(low >= high()) {
+				throw new NoSuchElementException();
+			}
+			return blockAt(low);
+		}
+
+		@Override
+		public AvailableBlock lastKey() {
+			int high = high();
+			if(high <= low()) {
+				throw new NoSuchElementException();
+			}
+			return blockAt(high - 1);
+		}
+
+		private AvailableBlock max(AvailableBlock current, AvailableBlock candidate) {
+			return current == null || candidate.compareTo(current) > 0 ? candidate : current;
+		}
+
+		private AvailableBlock min(AvailableBlock current, AvailableBlock candidate) {
+			return current == null || candidate.compareTo(current) < 0 ? candidate : current;
+		}
+	}
+}
@@ -93,6 +93,24 @@ public final class AvailableBlock implements Comparable<AvailableBlock>, Seriali
 		this.visitorLimit = visitorLimit;
 		this.meetingLocation = meetingLocation;
 	}
+	/**
+	 * Construct a block from millisecond values that are already known to be valid and
+	 * truncated to the minute (e.g. values read back from another {@link AvailableBlock}).
+	 * Skips the validation and truncation performed by the other constructors.
+	 * 
+	 * @param startTime
+	 * @param endTime
+	 * @param visitorLimit
+	 * @param meetingLocation
+	 * @param visitorsAttending
+	 */
+	AvailableBlock(final long startTime, final long endTime, final int visitorLimit, final String meetingLocation, final int visitorsAttending) {
+		this.startTime = new Date(startTime);
+		this.endTime = new Date(endTime);
+		this.visitorLimit = visitorLimit;
+		this.meetingLocation = meetingLocation;
+		this.visitorsAttending = visitorsAttending;
+	}
 	/**
 	 * 
 	 * @param sourceBlock
@@ -0,0 +1,294 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.ObjectUtils;
+
+/**
+ * Mutable, sorted set of non-overlapping availability ranges.
+ *
+ * Each range is stored as a pair of millisecond values along with the visitorLimit and meetingLocation
+ * attributes of the {@link AvailableBlock} it came from. Adjacent ranges with equivalent attributes are always
+ * coalesced, so the contents of this set are equivalent to the result of {@link AvailableBlockBuilder#combine(SortedSet)}.
+ *
+ * Union ({@link #add(AvailableBlock)}) and difference ({@link #remove(AvailableBlock)}) operate directly on the ranges,
+ * costing O(k log n) where n is the number of stored ranges and k is the number of ranges the argument overlaps.
+ * This replaces the previous approach of expanding entire schedules into 1 minute {@link AvailableBlock}s.
+ *
+ * Instances are not thread safe.
+ *
+ * @version $Id: AvailableScheduleIntervalSet.java $
+ */
+public final class AvailableScheduleIntervalSet {
+
+	private final TreeMap<Long, Interval> intervals = new TreeMap<Long, Interval>();
+
+	/**
+	 * Create an empty set.
+	 */
+	public AvailableScheduleIntervalSet() {
+	}
+
+	/**
+	 * Create a set containing the union of the argument blocks.
+	 * Overlapping blocks are resolved in iteration order; later blocks take precedence.
+	 *
+	 * @param blocks
+	 */
+	public AvailableScheduleIntervalSet(final Set<AvailableBlock> blocks) {
+		addAll(blocks);
+	}
+
+	/**
+	 * Add the time range covered by the block to this set.
+	 * Any portion of an existing range that overlaps the block is replaced with the block's
+	 * visitorLimit and meetingLocation.
+	 *
+	 * @param block
+	 * @return true if this set was modified as a result of the call
+	 */
+	public boolean add(final AvailableBlock block) {
+		return add(block.getStartTime().getTime(), block.getEndTime().getTime(), block.getVisitorLimit(), block.getMeetingLocation());
+	}
+
+	/**
+	 *
+	 * @see #add(AvailableBlock)
+	 * @param blocks
+	 * @return true if this set was modified as a result of the call
+	 */
+	public boolean addAll(final Set<AvailableBlock> blocks) {
+		boolean modified = false;
+		for(AvailableBlock block : blocks) {
+			modified |= add(block);
+		}
+		return modified;
+	}
+
+	/**
+	 * Remove the time range covered by the block from this set.
+	 * The visitorLimit and meetingLocation of the argument are ignored.
+	 *
+	 * @param block
+	 * @return true if this set was modified as a result of the call
+	 */
+	public boolean remove(final AvailableBlock block) {
+		return subtract(block.getStartTime().getTime(), block.getEndTime().getTime());
+	}
+
+	/**
+	 *
+	 * @see #remove(AvailableBlock)
+	 * @param blocks
+	 * @return true if this set was modified as a result of the call
+	 */
+	public boolean removeAll(final Set<AvailableBlock> blocks) {
+		boolean modified = false;
+		for(AvailableBlock block : blocks) {
+			modified |= remove(block);
+		}
+		return modified;
+	}
+
+	/**
+	 *
+	 * @return the number of ranges in this set
+	 */
+	public int size() {
+		return this.intervals.size();
+	}
+
+	/**
+	 *
+	 * @return true if this set contains no ranges
+	 */
+	public boolean isEmpty() {
+		return this.intervals.isEmpty();
+	}
+
+	/**
+	 *
+	 * @return a new {@link SortedSet} of {@link AvailableBlock}s, one per range
+	 */
+	public SortedSet<AvailableBlock> toBlocks() {
+		SortedSet<AvailableBlock> result = new TreeSet<AvailableBlock>();
+		for(Interval interval : this.intervals.values()) {
+			result.add(interval.toBlock());
+		}
+		return result;
+	}
+
+	/**
+	 * Return the ranges in this set that fall between startTime (inclusive) and endTime (exclusive)
+	 * as {@link AvailableBlock}s. Ranges that straddle either boundary are clipped.
+	 *
+	 * @param startTime
+	 * @param endTime
+	 * @return a new, possibly empty {@link SortedSet} of {@link AvailableBlock}s
+	 */
+	public SortedSet<AvailableBlock> subset(final Date startTime, final Date endTime) {
+		final long start = startTime.getTime();
+		final long end = endTime.getTime();
+		SortedSet<AvailableBlock> result = new TreeSet<AvailableBlock>();
+		if(end <= start) {
+			return result;
+		}
+		Map.Entry<Long, Interval> floor = this.intervals.lowerEntry(start);
+		if(floor != null && floor.getValue().end > start) {
+			Interval straddle = floor.getValue();
+			result.add(straddle.clip(start, end).toBlock());
+		}
+		for(Interval interval : this.intervals.subMap(start, true, end, false).values()) {
+			result.add(interval.clip(start, end).toBlock());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param start
+	 * @param end
+	 * @param visitorLimit
+	 * @param meetingLocation
+	 * @return true if this set was modified
+	 */
+	boolean add(final long start, final long end, final int visitorLimit, final String meetingLocation) {
+		Interval candidate = new Interval(start, end, visitorLimit, meetingLocation);
+		Map.Entry<Long, Interval> floor = this.intervals.floorEntry(start);
+		if(floor != null) {
+			Interval existing = floor.getValue();
+			if(existing.end >= end && existing.sameAttributes(candidate)) {
+				// already covered by an equivalent range
+				return false;
+			}
+		}
+
+		subtract(start, end);
+
+		// coalesce with the neighbors on either side if possible
+		Map.Entry<Long, Interval> lower = this.intervals.lowerEntry(start);
+		if(lower != null && lower.getValue().end == start && lower.getValue().sameAttributes(candidate)) {
+			this.intervals.remove(lower.getKey());
+			candidate = new Interval(lower.getValue().start, candidate.end, visitorLimit, meetingLocation);
+		}
+		Interval higher = this.intervals.get(end);
+		if(higher != null && higher.sameAttributes(candidate)) {
+			this.intervals.remove(end);
+			candidate = new Interval(candidate.start, higher.end, visitorLimit, meetingLocation);
+		}
+		this.intervals.put(candidate.start, candidate);
+		return true;
+	}
+
+	/**
+	 * Remove the range [start, end) from this set, splitting any ranges that straddle
+	 * either boundary.
+	 *
+	 * @param start
+	 * @param end
+	 * @return true if this set was modified
+	 */
+	boolean subtract(final long start, final long end) {
+		boolean modified = false;
+		Map.Entry<Long, Interval> lower = this.intervals.lowerEntry(start);
+		if(lower != null && lower.getValue().end > start) {
+			Interval straddle = lower.getValue();
+			this.intervals.put(straddle.start, new Interval(straddle.start, start, straddle.visitorLimit, straddle.meetingLocation));
+			if(straddle.end > end) {
+				this.intervals.put(end, new Interval(end, straddle.end, straddle.visitorLimit, straddle.meetingLocation));
+			}
+			modified = true;
+		}
+
+		List<Interval> tails = new ArrayList<Interval>();
+		for(Iterator<Interval> i = this.intervals.subMap(start, true, end, false).values().iterator(); i.hasNext(); ) {
+			Interval covered = i.next();
+			if(covered.end > end) {
+				tails.add(new Interval(end, covered.end, covered.visitorLimit, covered.meetingLocation));
+			}
+			i.remove();
+			modified = true;
+		}
+		for(Interval tail : tails) {
+			this.intervals.put(tail.start, tail);
+		}
+		return modified;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AvailableScheduleIntervalSet " + this.intervals.values();
+	}
+
+	/**
+	 * Immutable [start, end) range with block attributes.
+	 */
+	private static final class Interval {
+		private final long start;
+		private final long end;
+		private final int visitorLimit;
+		private final String meetingLocation;
+
+		Interval(long start, long end, int visitorLimit, String meetingLocation) {
+			this.start = start;
+			this.end = end;
+			this.visitorLimit = visitorLimit;
+			this.meetingLocation = meetingLocation;
+		}
+
+		/**
+		 *
+		 * @param other
+		 * @return true if visitorLimit and meetingLocation match
+		 */
+		boolean sameAttributes(Interval other) {
+			return this.visitorLimit == other.visitorLimit && ObjectUtils.equals(this.meetingLocation, other.meetingLocation);
+		}
+
+		Interval clip(long lowerBound, long upperBound) {
+			if(this.start >= lowerBound && this.end <= upperBound) {
+				return this;
+			}
+			return new Interval(Math.max(this.start, lowerBound), Math.min(this.end, upperBound), this.visitorLimit, this.meetingLocation);
+		}
+
+		AvailableBlock toBlock() {
+			return new AvailableBlock(new Date(this.start), new Date(this.end), this.visitorLimit, this.meetingLocation);
+		}
+
+		@Override
+		public String toString() {
+			return "[" + new Date(start) + " - " + new Date(end) + ", visitorLimit=" + visitorLimit + ", meetingLocation=" + meetingLocation + "]";
+		}
+	}
+}
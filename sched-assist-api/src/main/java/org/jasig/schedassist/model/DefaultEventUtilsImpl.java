@@ -24,13 +24,16 @@ import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TimeZone;
 import java.util.UUID;
@@ -99,11 +102,19 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 	private static final FastDateFormat FASTDATEFORMAT = FastDateFormat.getInstance(ICAL_DATETIME_FORMAT, 
 			TimeZone.getTimeZone("UTC"));
 
+	/**
+	 * Names of the properties included in {@link #recurrenceCacheKey(VEvent)}.
+	 */
+	private static final Set<String> RECURRENCE_KEY_PROPERTIES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			Property.SEQUENCE, Property.LAST_MODIFIED, Property.DTSTART, Property.DTEND, Property.DURATION,
+			Property.RRULE, Property.RDATE, Property.EXRULE, Property.EXDATE, Property.RECURRENCE_ID)));
 	protected final Log LOG = LogFactory.getLog(this.getClass());
 
 	private final IAffiliationSource affiliationSource;
 	private String eventClassForPersonOwners = Clazz.CONFIDENTIAL.getValue();
 	private String eventClassForResourceOwners = Clazz.PUBLIC.getValue();
+	private RecurrenceExpansionCache recurrenceCache;
+	private int maxCachedRecurrencePeriods = 1000;
 
 	/**
 	 * Default constructor, sets the {@link IAffiliationSource} to the 
@@ -149,6 +160,35 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 	public void setEventClassForResourceOwners(String eventClassForResourceOwners) {
 		this.eventClassForResourceOwners = eventClassForResourceOwners;
 	}
+	/**
+	 * @return the cache for {@link #calculateRecurrence(VEvent, Date, Date)}, may be null
+	 */
+	public RecurrenceExpansionCache getRecurrenceCache() {
+		return recurrenceCache;
+	}
+	/**
+	 * Optional; if set, recurrence expansions are stored in and sliced from this cache.
+	 * 
+	 * @param recurrenceCache the recurrenceCache to set
+	 */
+	public void setRecurrenceCache(RecurrenceExpansionCache recurrenceCache) {
+		this.recurrenceCache = recurrenceCache;
+	}
+	/**
+	 * @return the maxCachedRecurrencePeriods
+	 */
+	public int getMaxCachedRecurrencePeriods() {
+		return maxCachedRecurrencePeriods;
+	}
+	/**
+	 * Expansions with more periods than this value are not stored in the recurrenceCache, bounding
+	 * the memory held by any one cache element. Default is 1000.
+	 * 
+	 * @param maxCachedRecurrencePeriods the maxCachedRecurrencePeriods to set
+	 */
+	public void setMaxCachedRecurrencePeriods(int maxCachedRecurrencePeriods) {
+		this.maxCachedRecurrencePeriods = maxCachedRecurrencePeriods;
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.model.IEventUtils#attendeeMatchesPerson(net.fortuna.ical4j.model.Property, org.jasig.schedassist.model.ICalendarAccount)
@@ -160,16 +200,7 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 			return false;
 		}
 
-		Cn cn = (Cn) attendee.getParameter(Cn.CN);
-		if(null == cn) {
-			return false;
-		}
-		boolean cnResult = cn.getValue().equals(calendarAccount.getDisplayName());
-
-		URI mailTo = emailToURI(calendarAccount.getEmailAddress());
-		boolean mailResult = attendee.getValue().equals(mailTo.toString());
-
-		return cnResult && mailResult;
+		return new PersonMatcher(calendarAccount).matches(attendee);
 	}
 
 	/*
@@ -369,9 +400,22 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 	 */
 	@Override
 	public boolean willEventCauseConflict(ICalendarAccount calendarAccount, VEvent event) {
-		// check to see if the owner an attendee and has ACCEPTED
-		Property ownerAttendee = getAttendeeForUserFromEvent(event, calendarAccount);
+		return willEventCauseConflict(event, getAttendeeForUserFromEvent(event, calendarAccount));
+	}
 
+	/**
+	 * Decide whether the event causes a conflict given the calendar account's own property in the event.
+	 * Both {@link #willEventCauseConflict(ICalendarAccount, VEvent)} and {@link #digestEvent(VEvent, ICalendarAccount, ICalendarAccount)}
+	 * delegate to this method; subclasses that change the conflict rules should override this method.
+	 * 
+	 * This implementation returns true if the property is the ORGANIZER, or an ATTENDEE with PARTSTAT=ACCEPTED.
+	 * 
+	 * @param event
+	 * @param ownerAttendee the ATTENDEE or ORGANIZER property matching the calendar account, may be null
+	 * @return true if the event will cause a conflict
+	 */
+	protected boolean willEventCauseConflict(VEvent event, Property ownerAttendee) {
+		// check to see if the owner an attendee and has ACCEPTED
 		if(ownerAttendee != null) {
 			if(Organizer.ORGANIZER.equals(ownerAttendee.getName())) {
 				return true;
@@ -458,6 +502,90 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 	}
 
 
+	/**
+	 * Walks the event's property list once, matching the owner and visitor against each ATTENDEE
+	 * with mailto values computed once per call rather than once per comparison.
+	 * An event without a DTSTART is digested as not causing a conflict, so that it is skipped.
+	 * 
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.IEventUtils#digestEvent(net.fortuna.ical4j.model.component.VEvent, org.jasig.schedassist.model.ICalendarAccount, org.jasig.schedassist.model.ICalendarAccount)
+	 */
+	@Override
+	public EventDigest digestEvent(VEvent event, ICalendarAccount owner,
+			ICalendarAccount visitor) {
+		Validate.notNull(event, "event cannot be null");
+		Validate.notNull(owner, "owner cannot be null");
+		PersonMatcher ownerMatcher = new PersonMatcher(owner);
+		PersonMatcher visitorMatcher = visitor == null ? null : new PersonMatcher(visitor);
+
+		boolean availableAppointment = false;
+		boolean recurring = false;
+		Property organizer = null;
+		Property ownerAttendee = null;
+		boolean visitorAttendee = false;
+		int visitorCount = 0;
+		Integer visitorLimit = null;
+		for(Object o : event.getProperties()) {
+			Property property = (Property) o;
+			final String name = property.getName();
+			if(Attendee.ATTENDEE.equals(name)) {
+				if(ownerAttendee == null && ownerMatcher.matches(property)) {
+					ownerAttendee = property;
+				}
+				Parameter role = property.getParameter(AppointmentRole.APPOINTMENT_ROLE);
+				if(null != role && AppointmentRole.VISITOR.getValue().equals(role.getValue())) {
+					visitorCount++;
+					if(!visitorAttendee && visitorMatcher != null && visitorMatcher.matches(property)) {
+						visitorAttendee = true;
+					}
+				}
+			} else if(Organizer.ORGANIZER.equals(name)) {
+				if(organizer == null) {
+					organizer = property;
+				}
+			} else if(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT.equals(name)) {
+				availableAppointment |= SchedulingAssistantAppointment.TRUE.equals(property);
+			} else if(VisitorLimit.VISITOR_LIMIT.equals(name)) {
+				if(visitorLimit == null) {
+					visitorLimit = Integer.parseInt(property.getValue());
+				}
+			} else if(RRule.RRULE.equals(name) || RDate.RDATE.equals(name)) {
+				recurring = true;
+			}
+		}
+
+		boolean ownerAttending = availableAppointment && organizer != null && ownerMatcher.matches(organizer);
+		PartStat ownerParticipation = null;
+		if(ownerAttendee != null) {
+			ownerParticipation = (PartStat) ownerAttendee.getParameter(PartStat.PARTSTAT);
+		} else if(ownerAttending) {
+			// same fallback as getAttendeeForUserFromEvent
+			ownerAttendee = organizer;
+		}
+		DtStart dtStart = event.getStartDate();
+		DtEnd dtEnd = event.getEndDate(true);
+		if(dtStart == null || dtEnd == null) {
+			if(LOG.isDebugEnabled()) {
+				LOG.debug("event has no start or end, skipping: " + event);
+			}
+			return new EventDigest(event, 0L, 0L, ownerParticipation, false, availableAppointment, ownerAttending, 
+					availableAppointment && visitorAttendee, visitorCount, visitorLimit, recurring);
+		}
+		boolean causesConflict = willEventCauseConflict(event, ownerAttendee);
+
+		return new EventDigest(event, 
+				dtStart.getDate().getTime(), 
+				dtEnd.getDate().getTime(), 
+				ownerParticipation, 
+				causesConflict, 
+				availableAppointment, 
+				ownerAttending, 
+				availableAppointment && visitorAttendee, 
+				visitorCount, 
+				visitorLimit, 
+				recurring);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.model.IEventUtils#convertScheduleForReflection(org.jasig.schedassist.model.AvailableSchedule)
@@ -654,28 +782,132 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 	@Override
 	public PeriodList calculateRecurrence(VEvent event,
 			Date startBoundary, Date endBoundary) {
-		Period period = new Period(new DateTime(startBoundary), new DateTime(endBoundary));
-		PeriodList periodList = event.calculateRecurrenceSet(period);
+		final long windowStart = startBoundary.getTime();
+		final long windowEnd = endBoundary.getTime();
+		List<Period> periodList = calculateRecurrenceSet(event, windowStart, windowEnd);
 		PeriodList results = new PeriodList();
-		for(Object o: periodList) {
-			Period p = (Period) o;
-			
+		for(Period p: periodList) {
+			Period instance;
 			if(isAllDayPeriod(p)) {
 				// this period is broken
 				// the Periods returned by ical4j's calculateRecurrenceSet have range start/ends that are off by the system default's timezone offset
 				TimeZone systemTimezone = java.util.TimeZone.getDefault();
 
 				int offset = systemTimezone.getOffset(p.getStart().getTime());
-				Period fixed = new Period(
+				instance = new Period(
 						new DateTime(DateUtils.addMilliseconds(p.getRangeStart(), -offset)), 
 						new DateTime(DateUtils.addMilliseconds(p.getRangeEnd(), -offset)));
-				results.add(fixed);
 			} else {
-				results.add(p);
+				// copy, the source may be shared through the recurrenceCache and PeriodList#add mutates its argument
+				instance = new Period(new DateTime(p.getStart()), new DateTime(p.getEnd()));
+			}
+			if(instance.getStart().getTime() < windowEnd && instance.getEnd().getTime() > windowStart) {
+				results.add(instance);
 			}
 		}
 		return results;
 	}
+	/**
+	 * Return ical4j's recurrence set for the event over a window padded by {@link #recurrenceWindowPadding(VEvent)}
+	 * on each side, consulting the recurrenceCache if set.
+	 * 
+	 * ical4j's own test for whether an instance falls in the window differs between RRULE and RDATE instances and
+	 * between DATE and DATE-TIME values (and all-day instances are offset, see {@link #calculateRecurrence(VEvent, Date, Date)}),
+	 * so the window is padded and callers are expected to select the instances that overlap the requested window.
+	 * This is also what allows a cached expansion for a wider window to answer a request for a narrower one.
+	 * 
+	 * Cache entries are keyed by {@link #recurrenceCacheKey(VEvent)} and hold the expansion for the widest window
+	 * requested so far. A miss for an event already in the cache re-expands the union of the cached and requested windows.
+	 * 
+	 * @param event
+	 * @param windowStart
+	 * @param windowEnd
+	 * @return the periods in the recurrence set of the event, a superset of those that overlap the window
+	 */
+	protected List<Period> calculateRecurrenceSet(VEvent event, long windowStart, long windowEnd) {
+		final long padding = recurrenceWindowPadding(event);
+		long expandStart = windowStart - padding;
+		long expandEnd = windowEnd + padding;
+		
+		final RecurrenceExpansionCache cache = this.recurrenceCache;
+		String key = cache == null ? null : recurrenceCacheKey(event);
+		if(key == null) {
+			return expandRecurrenceSet(event, expandStart, expandEnd);
+		}
+		
+		RecurrenceExpansion expansion = cache.get(key);
+		if(expansion != null) {
+			if(expansion.covers(expandStart, expandEnd)) {
+				return expansion.getPeriods();
+			}
+			// grow the cached window rather than replace it
+			expandStart = Math.min(expandStart, expansion.getWindowStart());
+			expandEnd = Math.max(expandEnd, expansion.getWindowEnd());
+		}
+		List<Period> expanded = expandRecurrenceSet(event, expandStart, expandEnd);
+		if(expanded.size() <= maxCachedRecurrencePeriods) {
+			expansion = new RecurrenceExpansion(expandStart, expandEnd, expanded);
+			cache.put(key, expansion);
+			return expansion.getPeriods();
+		}
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("recurrence set of " + expanded.size() + " periods exceeds maxCachedRecurrencePeriods, not caching " + key);
+		}
+		return expanded;
+	}
+	/**
+	 * 
+	 * @param event
+	 * @return one day plus the duration of the event, in milliseconds
+	 */
+	protected long recurrenceWindowPadding(VEvent event) {
+		long duration = 0;
+		DtStart start = event.getStartDate();
+		DtEnd end = event.getEndDate(true);
+		if(start != null && end != null) {
+			duration = Math.max(0, end.getDate().getTime() - start.getDate().getTime());
+		}
+		return duration + DateUtils.MILLIS_PER_DAY;
+	}
+	/**
+	 * The cache key combines the UID, SEQUENCE and LAST-MODIFIED of the event with the values
+	 * of every property that affects the recurrence set, so that an edited event never matches a stale expansion.
+	 * 
+	 * @param event
+	 * @return the cache key for the event's recurrence set, or null if the event has no UID
+	 */
+	protected String recurrenceCacheKey(VEvent event) {
+		PropertyList properties = event.getProperties();
+		Property uid = properties.getProperty(Property.UID);
+		if(uid == null || StringUtils.isBlank(uid.getValue())) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(uid.getValue());
+		for(Object o : properties) {
+			Property property = (Property) o;
+			if(RECURRENCE_KEY_PROPERTIES.contains(property.getName())) {
+				// Property#toString includes parameters such as TZID and VALUE
+				key.append('|').append(property.toString().trim());
+			}
+		}
+		return key.toString();
+	}
+	/**
+	 * 
+	 * @param event
+	 * @param windowStart
+	 * @param windowEnd
+	 * @return the result of {@link VEvent#calculateRecurrenceSet(Period)} for the window
+	 */
+	protected List<Period> expandRecurrenceSet(VEvent event, long windowStart, long windowEnd) {
+		Period period = new Period(new DateTime(windowStart), new DateTime(windowEnd));
+		PeriodList periodList = event.calculateRecurrenceSet(period);
+		List<Period> results = new ArrayList<Period>(periodList.size());
+		for(Object o : periodList) {
+			results.add((Period) o);
+		}
+		return results;
+	}
 	protected boolean isAllDayPeriod(Period period) {
 		Dur duration = period.getDuration();
 		return duration.getDays() == 1 && duration.getHours() == 0 && duration.getMinutes() == 0;
@@ -710,4 +942,31 @@ public class DefaultEventUtilsImpl implements IEventUtils {
 		return unique;
 	}
 
+	/**
+	 * Compares ATTENDEE/ORGANIZER properties against an {@link ICalendarAccount}: the CN parameter must
+	 * equal the account's display name and the value must equal the account's mailto URI.
+	 * The mailto URI is computed at most once per instance.
+	 */
+	private static final class PersonMatcher {
+		private final ICalendarAccount calendarAccount;
+		private String mailTo;
+
+		PersonMatcher(ICalendarAccount calendarAccount) {
+			this.calendarAccount = calendarAccount;
+		}
+
+		boolean matches(Property attendee) {
+			if(null == attendee) {
+				return false;
+			}
+			Cn cn = (Cn) attendee.getParameter(Cn.CN);
+			if(null == cn) {
+				return false;
+			}
+			if(this.mailTo == null) {
+				this.mailTo = emailToURI(calendarAccount.getEmailAddress()).toString();
+			}
+			return cn.getValue().equals(calendarAccount.getDisplayName()) && attendee.getValue().equals(this.mailTo);
+		}
+	}
 }
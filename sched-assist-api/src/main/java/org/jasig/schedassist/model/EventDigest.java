@@ -0,0 +1,185 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.util.Date;
+
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.parameter.PartStat;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * Immutable summary of the properties of a {@link VEvent} that the {@link VisibleScheduleBuilder}
+ * needs, computed for a specific owner (and optional visitor) in a single pass over the event's properties.
+ *
+ * The source {@link VEvent} is retained only for recurrence expansion.
+ *
+ * @see IEventUtils#digestEvent(VEvent, ICalendarAccount, ICalendarAccount)
+ * @version $Id: EventDigest.java $
+ */
+public final class EventDigest {
+
+	private final VEvent event;
+	private final long startTime;
+	private final long endTime;
+	private final PartStat ownerParticipation;
+	private final boolean causesConflict;
+	private final boolean availableAppointment;
+	private final boolean ownerAttending;
+	private final boolean visitorAttending;
+	private final int visitorCount;
+	private final Integer visitorLimit;
+	private final boolean recurring;
+
+	/**
+	 *
+	 * @param event the source event
+	 * @param startTime msec value of the event's DTSTART
+	 * @param endTime msec value of the event's (possibly derived) DTEND
+	 * @param ownerParticipation the PARTSTAT of the owner's ATTENDEE property, or null
+	 * @param causesConflict see {@link IEventUtils#willEventCauseConflict(ICalendarAccount, VEvent)}
+	 * @param availableAppointment true if the event is marked as a Scheduling Assistant appointment
+	 * @param ownerAttending see {@link IEventUtils#isAttendingAsOwner(VEvent, ICalendarAccount)}
+	 * @param visitorAttending see {@link IEventUtils#isAttendingAsVisitor(VEvent, ICalendarAccount)}
+	 * @param visitorCount see {@link IEventUtils#getScheduleVisitorCount(VEvent)}
+	 * @param visitorLimit see {@link IEventUtils#getEventVisitorLimit(VEvent)}
+	 * @param recurring see {@link IEventUtils#isEventRecurring(VEvent)}
+	 */
+	public EventDigest(VEvent event, long startTime, long endTime,
+			PartStat ownerParticipation, boolean causesConflict,
+			boolean availableAppointment, boolean ownerAttending,
+			boolean visitorAttending, int visitorCount, Integer visitorLimit,
+			boolean recurring) {
+		this.event = event;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.ownerParticipation = ownerParticipation;
+		this.causesConflict = causesConflict;
+		this.availableAppointment = availableAppointment;
+		this.ownerAttending = ownerAttending;
+		this.visitorAttending = visitorAttending;
+		this.visitorCount = visitorCount;
+		this.visitorLimit = visitorLimit;
+		this.recurring = recurring;
+	}
+	/**
+	 * @return the source event
+	 */
+	public VEvent getEvent() {
+		return event;
+	}
+	/**
+	 * @return a new {@link Date} for the event's DTSTART
+	 */
+	public Date getStartDate() {
+		return new Date(startTime);
+	}
+	/**
+	 * @return a new {@link Date} for the event's DTEND
+	 */
+	public Date getEndDate() {
+		return new Date(endTime);
+	}
+	/**
+	 * @return msec value of the event's DTSTART
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	/**
+	 * @return msec value of the event's DTEND
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+	/**
+	 * @return the PARTSTAT of the owner's ATTENDEE property, or null if the owner is not an attendee or the parameter is absent
+	 */
+	public PartStat getOwnerParticipation() {
+		return ownerParticipation;
+	}
+	/**
+	 * @return true if the event will cause a conflict for the owner
+	 */
+	public boolean isCausesConflict() {
+		return causesConflict;
+	}
+	/**
+	 * @return true if the event is marked as a Scheduling Assistant appointment
+	 */
+	public boolean isAvailableAppointment() {
+		return availableAppointment;
+	}
+	/**
+	 * @return true if the owner is the ORGANIZER of a Scheduling Assistant appointment
+	 */
+	public boolean isOwnerAttending() {
+		return ownerAttending;
+	}
+	/**
+	 * @return true if the visitor is an ATTENDEE with the visitor role of a Scheduling Assistant appointment
+	 */
+	public boolean isVisitorAttending() {
+		return visitorAttending;
+	}
+	/**
+	 * @return the number of ATTENDEEs with the visitor role
+	 */
+	public int getVisitorCount() {
+		return visitorCount;
+	}
+	/**
+	 * @return the value of the event's visitor limit property, or null if not set
+	 */
+	public Integer getVisitorLimit() {
+		return visitorLimit;
+	}
+	/**
+	 * @return the value of the visitor limit property, or 1 if not set
+	 */
+	public int getSafeVisitorLimit() {
+		return visitorLimit == null ? 1 : visitorLimit;
+	}
+	/**
+	 * @return true if the event recurs (either by RRULE or RDATE)
+	 */
+	public boolean isRecurring() {
+		return recurring;
+	}
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this)
+			.append("startTime", new Date(startTime))
+			.append("endTime", new Date(endTime))
+			.append("ownerParticipation", ownerParticipation)
+			.append("causesConflict", causesConflict)
+			.append("availableAppointment", availableAppointment)
+			.append("ownerAttending", ownerAttending)
+			.append("visitorAttending", visitorAttending)
+			.append("visitorCount", visitorCount)
+			.append("visitorLimit", visitorLimit)
+			.append("recurring", recurring)
+			.toString();
+	}
+}
@@ -151,6 +151,20 @@ public interface IEventUtils {
 	 */
 	boolean isAttendingAsOwner(VEvent event, ICalendarAccount proposedOwner);
 	
+	/**
+	 * Collect everything the {@link VisibleScheduleBuilder} needs to know about the event, relative to
+	 * the owner and visitor, into an {@link EventDigest}.
+	 * The result must be consistent with {@link #willEventCauseConflict(ICalendarAccount, VEvent)}, 
+	 * {@link #isAttendingAsOwner(VEvent, ICalendarAccount)}, {@link #isAttendingAsVisitor(VEvent, ICalendarAccount)},
+	 * {@link #getScheduleVisitorCount(VEvent)}, {@link #getEventVisitorLimit(VEvent)} and {@link #isEventRecurring(VEvent)}.
+	 * 
+	 * @param event
+	 * @param owner the calendar account of the owner
+	 * @param visitor the calendar account of the visitor, may be null
+	 * @return the digest of the event
+	 */
+	EventDigest digestEvent(VEvent event, ICalendarAccount owner, ICalendarAccount visitor);
+	
 	/**
 	 * Convert the {@link AvailableSchedule} into an iCalendar {@link Calendar}
 	 * for the purposes of reflection back into the calendar system.
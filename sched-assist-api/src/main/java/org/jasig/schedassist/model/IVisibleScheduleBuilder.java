@@ -63,6 +63,34 @@ public interface IVisibleScheduleBuilder {
 	VisibleSchedule calculateVisibleSchedule(Date startTime, Date endTime, Calendar calendar, 
 			AvailableSchedule schedule, IScheduleOwner owner, IScheduleVisitor visitor);
 	
+	/**
+	 * Calculate the {@link IScheduleOwner}'s schedule as seen by no visitor in particular, 
+	 * retaining what {@link #calculateVisibleSchedule(OwnerVisibleSchedule, IScheduleVisitor, Date, Date)}
+	 * needs to apply a specific visitor's ATTENDING blocks without the {@link Calendar}.
+	 * 
+	 * @param startTime
+	 * @param endTime
+	 * @param calendar
+	 * @param schedule
+	 * @param owner
+	 * @return an {@link OwnerVisibleSchedule} for the window
+	 */
+	OwnerVisibleSchedule calculateOwnerVisibleSchedule(Date startTime, Date endTime, Calendar calendar,
+			AvailableSchedule schedule, IScheduleOwner owner);
+	
+	/**
+	 * Return the subset of the {@link OwnerVisibleSchedule} between startTime and endTime, with the blocks
+	 * for appointments the visitor is attending marked ATTENDING. The {@link OwnerVisibleSchedule} is not modified.
+	 * 
+	 * @param ownerSchedule
+	 * @param visitor
+	 * @param startTime
+	 * @param endTime
+	 * @return a new {@link VisibleSchedule}
+	 */
+	VisibleSchedule calculateVisibleSchedule(OwnerVisibleSchedule ownerSchedule, IScheduleVisitor visitor, 
+			Date startTime, Date endTime);
+	
 	/**
 	 * This method is intended to provide a means for incorporating the {@link IScheduleVisitor}'s own calendar data
 	 * within the display of an {@link IScheduleOwner}s schedule.
@@ -0,0 +1,142 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * The {@link VisibleSchedule} of an {@link IScheduleOwner} as seen by no visitor in particular
+ * (FREE and BUSY blocks only), along with the instances of the owner's Scheduling Assistant
+ * appointments needed to apply a specific visitor's ATTENDING blocks later.
+ *
+ * Instances are built by {@link IVisibleScheduleBuilder#calculateOwnerVisibleSchedule(Date, Date, net.fortuna.ical4j.model.Calendar, AvailableSchedule, IScheduleOwner)}
+ * and are intended to be shared between visitors; the schedule must not be mutated once built.
+ *
+ * @see IVisibleScheduleBuilder#calculateVisibleSchedule(OwnerVisibleSchedule, IScheduleVisitor, Date, Date)
+ * @version $Id: OwnerVisibleSchedule.java $
+ */
+public final class OwnerVisibleSchedule implements Serializable {
+
+	private static final long serialVersionUID = 53706L;
+	private final Date startTime;
+	private final Date endTime;
+	private final VisibleSchedule schedule;
+	private final List<AppointmentInstance> appointments;
+
+	/**
+	 *
+	 * @param startTime
+	 * @param endTime
+	 * @param schedule
+	 * @param appointments
+	 */
+	public OwnerVisibleSchedule(Date startTime, Date endTime, VisibleSchedule schedule, List<AppointmentInstance> appointments) {
+		this.startTime = new Date(startTime.getTime());
+		this.endTime = new Date(endTime.getTime());
+		this.schedule = schedule;
+		this.appointments = Collections.unmodifiableList(new ArrayList<AppointmentInstance>(appointments));
+	}
+	/**
+	 * @return a copy of the start of the window this schedule was calculated for
+	 */
+	public Date getStartTime() {
+		return new Date(startTime.getTime());
+	}
+	/**
+	 * @return a copy of the end of the window this schedule was calculated for
+	 */
+	public Date getEndTime() {
+		return new Date(endTime.getTime());
+	}
+	/**
+	 *
+	 * @param start
+	 * @param end
+	 * @return true if the window this schedule was calculated for contains the arguments
+	 */
+	public boolean covers(Date start, Date end) {
+		return !start.before(startTime) && !end.after(endTime);
+	}
+	/**
+	 * @return the schedule, which must not be mutated
+	 */
+	public VisibleSchedule getSchedule() {
+		return schedule;
+	}
+	/**
+	 * @return an unmodifiable list of the appointment instances
+	 */
+	public List<AppointmentInstance> getAppointments() {
+		return appointments;
+	}
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this)
+			.append("startTime", startTime)
+			.append("endTime", endTime)
+			.append("blocks", schedule.getSize())
+			.append("appointments", appointments.size())
+			.toString();
+	}
+
+	/**
+	 * A single instance of a Scheduling Assistant appointment organized by the owner,
+	 * along with the block it occupies.
+	 *
+	 * @version $Id: OwnerVisibleSchedule.java $
+	 */
+	public static final class AppointmentInstance implements Serializable {
+		private static final long serialVersionUID = 53706L;
+		private final AvailableBlock block;
+		private final VEvent event;
+		/**
+		 *
+		 * @param block
+		 * @param event
+		 */
+		public AppointmentInstance(AvailableBlock block, VEvent event) {
+			this.block = block;
+			this.event = event;
+		}
+		/**
+		 * @return the block
+		 */
+		public AvailableBlock getBlock() {
+			return block;
+		}
+		/**
+		 * @return the event
+		 */
+		public VEvent getEvent() {
+			return event;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Period;
+
+/**
+ * Immutable value stored in a {@link RecurrenceExpansionCache}:
+ * the recurrence set of an event expanded over a window.
+ * 
+ * @version $Id: RecurrenceExpansion.java $
+ */
+public final class RecurrenceExpansion implements Serializable {
+
+	private static final long serialVersionUID = 53706L;
+	private final long windowStart;
+	private final long windowEnd;
+	private final List<Period> periods;
+	
+	/**
+	 * 
+	 * @param windowStart
+	 * @param windowEnd
+	 * @param periods
+	 */
+	public RecurrenceExpansion(long windowStart, long windowEnd, List<Period> periods) {
+		this.windowStart = windowStart;
+		this.windowEnd = windowEnd;
+		this.periods = Collections.unmodifiableList(new ArrayList<Period>(periods));
+	}
+	/**
+	 * @return the windowStart
+	 */
+	public long getWindowStart() {
+		return windowStart;
+	}
+	/**
+	 * @return the windowEnd
+	 */
+	public long getWindowEnd() {
+		return windowEnd;
+	}
+	/**
+	 * 
+	 * @param start
+	 * @param end
+	 * @return true if the expanded window contains the window argument
+	 */
+	public boolean covers(long start, long end) {
+		return windowStart <= start && end <= windowEnd;
+	}
+	/**
+	 * @return an unmodifiable view of the periods, which must not be mutated
+	 */
+	public List<Period> getPeriods() {
+		return periods;
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+/**
+ * Optional store for the recurrence sets calculated by {@link DefaultEventUtilsImpl#calculateRecurrence(net.fortuna.ical4j.model.component.VEvent, java.util.Date, java.util.Date)}.
+ * 
+ * Implementations decide how many entries to keep and for how long; {@link #get(String)} may return null 
+ * for any key at any time.
+ *
+ * @version $Id: RecurrenceExpansionCache.java $
+ */
+public interface RecurrenceExpansionCache {
+
+	/**
+	 * 
+	 * @param key
+	 * @return the expansion stored for the key, or null
+	 */
+	RecurrenceExpansion get(String key);
+	
+	/**
+	 * Store the expansion, replacing any previous expansion for the key.
+	 * 
+	 * @param key
+	 * @param expansion
+	 */
+	void put(String key, RecurrenceExpansion expansion);
+}
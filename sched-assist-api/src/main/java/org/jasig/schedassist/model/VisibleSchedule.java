@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -35,7 +36,6 @@ import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.ComponentList;
 import net.fortuna.ical4j.model.component.VEvent;
 
-import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.schedassist.ICalendarDataDao;
@@ -54,7 +54,11 @@ public class VisibleSchedule implements Serializable {
 	 */
 	private static final long serialVersionUID = -8774450894322731603L;
 	private Log LOG = LogFactory.getLog(this.getClass());
-	private SortedMap<AvailableBlock, AvailableStatus> blockMap = new TreeMap<AvailableBlock, AvailableStatus>();
+	private NavigableMap<AvailableBlock, AvailableStatus> blockMap = new TreeMap<AvailableBlock, AvailableStatus>();
+	/**
+	 * Duration in msec of the longest key ever stored in the blockMap.
+	 */
+	private long maxKeyDuration = 0;
 	private final MeetingDurations meetingDurations;
 
 	/**
@@ -78,7 +82,7 @@ public class VisibleSchedule implements Serializable {
 				// remove any existing keys
 				blockMap.remove(small);
 			}
-			this.blockMap.put(small, AvailableStatus.FREE);
+			putBlock(small, AvailableStatus.FREE);
 		}
 	}
 	/**
@@ -91,7 +95,7 @@ public class VisibleSchedule implements Serializable {
 		if(this.blockMap.containsKey(block)) {
 			// this only works because AvailableBlock's hashCode/equals doesn't take visitorLimit into account
 			this.blockMap.remove(block);
-			this.blockMap.put(block, AvailableStatus.FREE);
+			putBlock(block, AvailableStatus.FREE);
 		}
 	}
 	/**
@@ -115,7 +119,9 @@ public class VisibleSchedule implements Serializable {
 		if(this.blockMap.containsKey(block)) {
 			this.blockMap.put(block, AvailableStatus.BUSY);
 		} else {
-			LOG.debug("setBusyBlock on non-matching block: " + block);
+			if(LOG.isDebugEnabled()) {
+				LOG.debug("setBusyBlock on non-matching block: " + block);
+			}
 			Set<AvailableBlock> conflicting = locateConflicting(block);
 			for(AvailableBlock conflict: conflicting) {
 				this.blockMap.put(conflict, AvailableStatus.BUSY);
@@ -149,7 +155,7 @@ public class VisibleSchedule implements Serializable {
 					this.blockMap.remove(conflict);
 				}
 				// store only the original
-				this.blockMap.put(block, AvailableStatus.ATTENDING);
+				putBlock(block, AvailableStatus.ATTENDING);
 			}
 		}
 	}
@@ -327,44 +333,52 @@ public class VisibleSchedule implements Serializable {
 	 * 
 	 * A conflict is defined as any overlap of 1 minute or more.
 	 * 
+	 * Keys are ordered by start time, so only keys that start after (conflict start - longest key duration)
+	 * and before the conflict end can overlap; those are located with a single {@link NavigableMap#subMap(Object, boolean, Object, boolean)}.
+	 * 
 	 * @param conflict
 	 * @return a set of conflicting blocks within this instance that conflict with the block argument
 	 */
 	protected Set<AvailableBlock> locateConflicting(final AvailableBlock conflict) {
 		Set<AvailableBlock> conflictingKeys = new HashSet<AvailableBlock>();
+		final long conflictStart = conflict.getStartTime().getTime();
+		final long conflictEnd = conflict.getEndTime().getTime();
 		
-		Date conflictDayStart = DateUtils.truncate(conflict.getStartTime(), java.util.Calendar.DATE);
-		Date conflictDayEnd = DateUtils.addDays(DateUtils.truncate(conflict.getEndTime(), java.util.Calendar.DATE), 1);
-		conflictDayEnd = DateUtils.addMinutes(conflictDayEnd, -1);
-		
-		AvailableBlock rangeStart = AvailableBlockBuilder.createPreferredMinimumDurationBlock(
-				conflictDayStart,
-				meetingDurations);
-		LOG.debug("rangeStart: " + rangeStart);
-		AvailableBlock rangeEnd = AvailableBlockBuilder.createBlockEndsAt(conflictDayEnd, meetingDurations.getMinLength());
-		LOG.debug("rangeEnd: " + rangeStart);
-		
-		SortedMap<AvailableBlock, AvailableStatus> subMap = blockMap.subMap(rangeStart, rangeEnd);
-		LOG.debug("subset of blockMap size: " + subMap.size());
-		
-		for(AvailableBlock mapKey: subMap.keySet()) {
-			// all the AvailableBlock keys in the map have start/endtimes truncated to the minute
-			// shift the key slightly forward (10 seconds) so that conflicts that start or end on the
-			// same minute as a key does don't result in false positives
-			Date minuteWithinBlock = DateUtils.addSeconds(mapKey.getStartTime(), 10);
-			boolean shortCircuit = true;
-			while(shortCircuit && CommonDateOperations.equalsOrBefore(minuteWithinBlock, mapKey.getEndTime())) {
-				if(minuteWithinBlock.before(conflict.getEndTime()) 
-						&& minuteWithinBlock.after(conflict.getStartTime())) {
-					conflictingKeys.add(mapKey);
-					shortCircuit = false;
-				}
-				minuteWithinBlock = DateUtils.addMinutes(minuteWithinBlock, 1);
+		// (start, Long.MAX_VALUE) sorts after every key with the same start; (end, Long.MIN_VALUE) before every key with the same start
+		AvailableBlock lowerBound = rangeProbe(conflictStart - maxKeyDuration, Long.MAX_VALUE);
+		AvailableBlock upperBound = rangeProbe(conflictEnd, Long.MIN_VALUE);
+		NavigableMap<AvailableBlock, AvailableStatus> candidates = blockMap.subMap(lowerBound, false, upperBound, false);
+		for(AvailableBlock mapKey: candidates.keySet()) {
+			// candidates all start before the conflict ends, check that they end after it starts
+			if(mapKey.getEndTime().getTime() > conflictStart) {
+				conflictingKeys.add(mapKey);
 			}
 		}
 		
 		return conflictingKeys;
 	}
+	/**
+	 * Store the key and status, tracking the longest key duration for {@link #locateConflicting(AvailableBlock)}.
+	 * 
+	 * @param block
+	 * @param status
+	 */
+	private void putBlock(final AvailableBlock block, final AvailableStatus status) {
+		this.blockMap.put(block, status);
+		long duration = block.getEndTime().getTime() - block.getStartTime().getTime();
+		if(duration > maxKeyDuration) {
+			maxKeyDuration = duration;
+		}
+	}
+	/**
+	 * 
+	 * @param start
+	 * @param end
+	 * @return an {@link AvailableBlock} only suitable for use as a bound when searching the blockMap
+	 */
+	private static AvailableBlock rangeProbe(final long start, final long end) {
+		return new AvailableBlock(start, end, 1, null, 0);
+	}
 	/**
 	 * Iterate through the blockMap and return a count of
 	 * {@link AvailableBlock}s that match the target {@link AvailableStatus}.
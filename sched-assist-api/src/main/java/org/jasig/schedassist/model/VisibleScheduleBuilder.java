@@ -19,7 +19,9 @@
 
 package org.jasig.schedassist.model;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.SortedSet;
 
 import net.fortuna.ical4j.model.Calendar;
@@ -27,7 +29,6 @@ import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.ComponentList;
 import net.fortuna.ical4j.model.Period;
 import net.fortuna.ical4j.model.PeriodList;
-import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.VEvent;
 
 import org.apache.commons.lang.Validate;
@@ -52,6 +53,7 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 	public static final String ATTENDING = "attending";
 
 	private IEventUtils eventUtils = new DefaultEventUtilsImpl(new NullAffiliationSourceImpl());
+	private boolean arrayBackedSchedules = true;
 	
 	/**
 	 * Default Constructor, will set the eventUtils field to {@link DefaultEventUtilsImpl}.
@@ -71,6 +73,15 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 	public void setEventUtils(IEventUtils eventUtils) {
 		this.eventUtils = eventUtils;
 	}
+	/**
+	 * When true (the default), this builder returns {@link ArrayBackedVisibleSchedule}s.
+	 * Set to false to return the {@link java.util.TreeMap} backed {@link VisibleSchedule}.
+	 * 
+	 * @param arrayBackedSchedules the arrayBackedSchedules to set
+	 */
+	public void setArrayBackedSchedules(boolean arrayBackedSchedules) {
+		this.arrayBackedSchedules = arrayBackedSchedules;
+	}
 	
 	/*
 	 * (non-Javadoc)
@@ -98,6 +109,55 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 	@Override
 	public VisibleSchedule calculateVisibleSchedule(final Date startTime, final Date endTime, 
 			final Calendar calendar, final AvailableSchedule schedule, final IScheduleOwner owner, final IScheduleVisitor visitor) {
+		return calculateVisibleSchedule(startTime, endTime, calendar, schedule, owner, visitor, null);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.IVisibleScheduleBuilder#calculateOwnerVisibleSchedule(java.util.Date, java.util.Date, net.fortuna.ical4j.model.Calendar, org.jasig.schedassist.model.AvailableSchedule, org.jasig.schedassist.model.IScheduleOwner)
+	 */
+	@Override
+	public OwnerVisibleSchedule calculateOwnerVisibleSchedule(final Date startTime, final Date endTime,
+			final Calendar calendar, final AvailableSchedule schedule, final IScheduleOwner owner) {
+		List<OwnerVisibleSchedule.AppointmentInstance> appointments = new ArrayList<OwnerVisibleSchedule.AppointmentInstance>();
+		VisibleSchedule visibleSchedule = calculateVisibleSchedule(startTime, endTime, calendar, schedule, owner, null, appointments);
+		return new OwnerVisibleSchedule(startTime, endTime, visibleSchedule, appointments);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.IVisibleScheduleBuilder#calculateVisibleSchedule(org.jasig.schedassist.model.OwnerVisibleSchedule, org.jasig.schedassist.model.IScheduleVisitor, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public VisibleSchedule calculateVisibleSchedule(final OwnerVisibleSchedule ownerSchedule, final IScheduleVisitor visitor,
+			final Date startTime, final Date endTime) {
+		Validate.notNull(ownerSchedule, "ownerSchedule cannot be null");
+		Validate.notNull(startTime, "startTime cannot be null");
+		Validate.notNull(endTime, "endTime cannot be null");
+		
+		VisibleSchedule result = ownerSchedule.getSchedule().subset(startTime, endTime);
+		if(visitor != null) {
+			ICalendarAccount visitorCalendarAccount = visitor.getCalendarAccount();
+			for(OwnerVisibleSchedule.AppointmentInstance appointment : ownerSchedule.getAppointments()) {
+				if(this.eventUtils.isAttendingAsVisitor(appointment.getEvent(), visitorCalendarAccount)) {
+					result.setAttendingBlock(appointment.getBlock());
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * 
+	 * @param startTime
+	 * @param endTime
+	 * @param calendar
+	 * @param schedule
+	 * @param owner
+	 * @param visitor may be null
+	 * @param appointments if not null, receives each instance of an appointment organized by the owner
+	 * @return an appropriate {@link VisibleSchedule}
+	 */
+	protected VisibleSchedule calculateVisibleSchedule(final Date startTime, final Date endTime, 
+			final Calendar calendar, final AvailableSchedule schedule, final IScheduleOwner owner, final IScheduleVisitor visitor,
+			final List<OwnerVisibleSchedule.AppointmentInstance> appointments) {
 		Validate.notNull(startTime, "startTime cannot be null");
 		Validate.notNull(endTime, "endTime cannot be null");
 		Validate.notNull(calendar, "calendar cannot be null");
@@ -126,37 +186,26 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 		availableBlocks = availableBlocks.subSet(availabilityStartBlock, availabilityEndBlock);
 		
 		// construct our return value
-		VisibleSchedule visibleSchedule = new VisibleSchedule(durations);
+		VisibleSchedule visibleSchedule = newVisibleSchedule(durations);
 		// add the trimmed availableSchedule to the visibleSchedule as "FREE" blocks
 		visibleSchedule.addFreeBlocks(availableBlocks);
 		
 		// now iterate through the schedule and construct blocks to overwrite in the visibleSchedul
-		ComponentList events = calendar.getComponents(Component.VEVENT);
-		for(Object component : events) {
-			VEvent event = (VEvent) component;
-
-			boolean causesConflict = this.eventUtils.willEventCauseConflict(owner.getCalendarAccount(), event);
-			if(!causesConflict) {
-				if(LOG.isDebugEnabled()) {
-					LOG.debug("event will not cause conflict, skipping: " + event);
-				}
-				continue;
-			}
-
+		for(EventDigest digest : digestEvents(calendar, owner.getCalendarAccount(), visitorCalendarAccount)) {
 			// if we reach this point, this event is not skippable,
 			// it's going to be either BUSY, FREE with visitors, or ATTENDING
-			if(eventUtils.isEventRecurring(event)) {
+			if(digest.isRecurring()) {
 				// expand the recurrence rules
-				PeriodList recurrenceList = this.eventUtils.calculateRecurrence(event, startTime, endTime);
+				PeriodList recurrenceList = this.eventUtils.calculateRecurrence(digest.getEvent(), startTime, endTime);
 				for(Object o : recurrenceList) {
 					Period period = (Period) o;
-					mutateAppropriateBlockInVisibleSchedule(visibleSchedule, event, owner.getCalendarAccount(), visitorCalendarAccount, period.getStart(), period.getEnd(), true);
+					AvailableBlock eventBlock = mutateAppropriateBlockInVisibleSchedule(visibleSchedule, digest, period.getStart(), period.getEnd(), true);
+					collectAppointment(appointments, digest, eventBlock);
 				}
 			} else {	
 				// event is not recurring, just check block on start/end
-				Date startDate = event.getStartDate().getDate();
-				Date endDate = event.getEndDate(true).getDate();
-				mutateAppropriateBlockInVisibleSchedule(visibleSchedule, event, owner.getCalendarAccount(), visitorCalendarAccount, startDate, endDate, true);
+				AvailableBlock eventBlock = mutateAppropriateBlockInVisibleSchedule(visibleSchedule, digest, digest.getStartDate(), digest.getEndDate(), true);
+				collectAppointment(appointments, digest, eventBlock);
 			}
 		}
 		
@@ -198,36 +247,23 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 		availableBlocks = availableBlocks.subSet(availabilityStartBlock, availabilityEndBlock);
 		
 		// construct our return value
-		VisibleSchedule visibleSchedule = new VisibleSchedule(meetingDurations);
+		VisibleSchedule visibleSchedule = newVisibleSchedule(meetingDurations);
 		// add the trimmed availableSchedule to the visibleSchedule as "FREE" blocks
 		visibleSchedule.addFreeBlocks(availableBlocks);
 		
 		// now iterate through the schedule and construct blocks to overwrite in the visibleSchedul
-		ComponentList events = calendar.getComponents(Component.VEVENT);
-		for(Object component : events) {
-			VEvent event = (VEvent) component;
-
-			boolean causesConflict = this.eventUtils.willEventCauseConflict(calendarAccount, event);
-			if(!causesConflict) {
-				if(LOG.isDebugEnabled()) {
-					LOG.debug("event will not cause conflict, skipping: " + event);
-				}
-				continue;
-			}
-
+		for(EventDigest digest : digestEvents(calendar, calendarAccount, null)) {
 			// if we reach this point, this event is not skippable,
 			// it's going to be either BUSY, FREE with visitors, or ATTENDING
 			// whether event is recurring or not, check block on start/end
-			Date startDate = event.getStartDate().getDate();
-			Date endDate = event.getEndDate(true).getDate();
-			mutateAppropriateBlockInVisibleSchedule(visibleSchedule, event, calendarAccount, null, startDate, endDate, false);
+			mutateAppropriateBlockInVisibleSchedule(visibleSchedule, digest, digest.getStartDate(), digest.getEndDate(), false);
 						
-			if(eventUtils.isEventRecurring(event)) {
+			if(digest.isRecurring()) {
 				// expand the recurrence rules
-				PeriodList recurrenceList = this.eventUtils.calculateRecurrence(event, startTime, endTime);
+				PeriodList recurrenceList = this.eventUtils.calculateRecurrence(digest.getEvent(), startTime, endTime);
 				for(Object o : recurrenceList) {
 					Period period = (Period) o;
-					mutateAppropriateBlockInVisibleSchedule(visibleSchedule, event, calendarAccount, null, period.getStart(), period.getEnd(), false);
+					mutateAppropriateBlockInVisibleSchedule(visibleSchedule, digest, period.getStart(), period.getEnd(), false);
 				}
 			} 
 		}
@@ -237,33 +273,68 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 	}
 	
 	/**
-	 * Mutative method to alter the {@link VisibleSchedule} in an appropriate fashion according to the {@link VEvent}'s properties.
+	 * Digest each of the events in the calendar that will cause a conflict for the calendar account.
+	 * Events that will not cause a conflict are skipped.
+	 * 
+	 * @param calendar
+	 * @param calendarAccount
+	 * @param visitor the visitor's calendar account, may be null
+	 * @return a never null, but possibly empty, list of {@link EventDigest}s in calendar order
+	 */
+	protected List<EventDigest> digestEvents(Calendar calendar, ICalendarAccount calendarAccount, ICalendarAccount visitor) {
+		ComponentList events = calendar.getComponents(Component.VEVENT);
+		List<EventDigest> digests = new ArrayList<EventDigest>(events.size());
+		for(Object component : events) {
+			EventDigest digest = this.eventUtils.digestEvent((VEvent) component, calendarAccount, visitor);
+			if(!digest.isCausesConflict()) {
+				if(LOG.isDebugEnabled()) {
+					LOG.debug("event will not cause conflict, skipping: " + digest.getEvent());
+				}
+				continue;
+			}
+			digests.add(digest);
+		}
+		return digests;
+	}
+
+	/**
+	 * Add the event block to appointments if the list is not null and the digest is an appointment organized by the owner.
+	 * 
+	 * @param appointments may be null
+	 * @param digest
+	 * @param eventBlock
+	 */
+	private void collectAppointment(List<OwnerVisibleSchedule.AppointmentInstance> appointments, EventDigest digest, AvailableBlock eventBlock) {
+		if(appointments != null && digest.isAvailableAppointment() && digest.isOwnerAttending()) {
+			appointments.add(new OwnerVisibleSchedule.AppointmentInstance(eventBlock, digest.getEvent()));
+		}
+	}
+	/**
+	 * Mutative method to alter the {@link VisibleSchedule} in an appropriate fashion according to the {@link EventDigest}.
 	 * 
 	 * @param visibleSchedule
-	 * @param event
-	 * @param owner
-	 * @param visitor
+	 * @param digest
 	 * @param eventInstanceStartDate
 	 * @param eventInstanceEndDate
 	 * @param performAttendingCheck
+	 * @return the block for the event instance
 	 */
-	void mutateAppropriateBlockInVisibleSchedule(VisibleSchedule visibleSchedule, VEvent event,
-			ICalendarAccount owner, ICalendarAccount visitor, Date eventInstanceStartDate, Date eventInstanceEndDate, boolean performAttendingCheck) {
-		int visitorLimit = safeVisitorLimit(event);
+	AvailableBlock mutateAppropriateBlockInVisibleSchedule(VisibleSchedule visibleSchedule, EventDigest digest, 
+			Date eventInstanceStartDate, Date eventInstanceEndDate, boolean performAttendingCheck) {
+		int visitorLimit = digest.getSafeVisitorLimit();
 		final AvailableBlock eventBlock = AvailableBlockBuilder.createBlock(eventInstanceStartDate, eventInstanceEndDate, visitorLimit);
 		// test to see if this appointment is an available appointment
-		Property availableEventMarker = event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT);
-		if(null == availableEventMarker || !SchedulingAssistantAppointment.TRUE.equals(availableEventMarker)) {
+		if(!digest.isAvailableAppointment()) {
 			// non available appointments will ALWAYS simply be busy
 			visibleSchedule.setBusyBlock(eventBlock);
 		} else {
 			// the event is an available appointment
 			// first test if it's an ATTENDING match
-			if(performAttendingCheck && null != visitor && this.eventUtils.isAttendingAsOwner(event, owner) && this.eventUtils.isAttendingAsVisitor(event, visitor)) {
+			if(performAttendingCheck && digest.isOwnerAttending() && digest.isVisitorAttending()) {
 				visibleSchedule.setAttendingBlock(eventBlock);
-			} else if (this.eventUtils.isAttendingAsOwner(event, owner)) {
+			} else if (digest.isOwnerAttending()) {
 				// not an attending match, check visitorLimit exceeded
-				int availableVisitorCount = this.eventUtils.getScheduleVisitorCount(event);
+				int availableVisitorCount = digest.getVisitorCount();
 				if(availableVisitorCount >= visitorLimit) {
 					// busy
 					visibleSchedule.setBusyBlock(eventBlock);
@@ -279,21 +350,18 @@ public class VisibleScheduleBuilder implements IVisibleScheduleBuilder {
 				visibleSchedule.setBusyBlock(eventBlock);
 			}
 		}
+		return eventBlock;
 	}
 
 	/**
-	 * Safely return the value of the {@link VisitorLimit} of the event.
-	 * If it's not set, this returns 1.
 	 * 
-	 * @param event
-	 * @return the value of the {@link VisitorLimit}, or 1 if not set.
+	 * @param meetingDurations
+	 * @return a new, empty {@link VisibleSchedule} of the configured implementation
 	 */
-	int safeVisitorLimit(VEvent event) {
-		Integer visitorLimit = eventUtils.getEventVisitorLimit(event);
-		if(visitorLimit == null) {
-			return 1;
+	protected VisibleSchedule newVisibleSchedule(MeetingDurations meetingDurations) {
+		if(arrayBackedSchedules) {
+			return new ArrayBackedVisibleSchedule(meetingDurations);
 		}
-		 
-		return visitorLimit;
+		return new VisibleSchedule(meetingDurations);
 	}
 }
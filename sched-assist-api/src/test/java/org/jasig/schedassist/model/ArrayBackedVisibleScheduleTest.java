@@ -0,0 +1,163 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link VisibleScheduleTest} suite against {@link ArrayBackedVisibleSchedule}, and
+ * compares its results with {@link VisibleSchedule}.
+ *
+ * @version $Id: ArrayBackedVisibleScheduleTest.java $
+ */
+public class ArrayBackedVisibleScheduleTest extends VisibleScheduleTest {
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.VisibleScheduleTest#newVisibleSchedule(org.jasig.schedassist.model.MeetingDurations)
+	 */
+	@Override
+	protected VisibleSchedule newVisibleSchedule(MeetingDurations meetingDurations) {
+		return new ArrayBackedVisibleSchedule(meetingDurations);
+	}
+
+	/**
+	 * Apply the same mix of free, busy, attending and overwrite operations to both
+	 * implementations and assert the block maps are identical.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testEquivalentToTreeMapImplementation() throws Exception {
+		SortedSet<AvailableBlock> blocks = AvailableBlockBuilder.createBlocks("9:00 AM", "5:00 PM", "MWF",
+				CommonDateOperations.parseDatePhrase("20091101"),
+				CommonDateOperations.parseDatePhrase("20091130"),
+				4, "some location");
+		VisibleSchedule control = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
+		control.addFreeBlocks(blocks);
+		schedule.addFreeBlocks(blocks);
+
+		List<AvailableBlock> busy = new ArrayList<AvailableBlock>();
+		busy.add(AvailableBlockBuilder.createBlock("20091102-1130", "20091102-1200"));
+		busy.add(AvailableBlockBuilder.createBlock("20091104-1307", "20091104-1412"));
+		busy.add(AvailableBlockBuilder.createBlock("20091106-0800", "20091106-0901"));
+		busy.add(AvailableBlockBuilder.createBlock("20091109-1659", "20091109-1800"));
+		busy.add(AvailableBlockBuilder.createBlock("20091111-0000", "20091111-2359"));
+		control.setBusyBlocks(busy);
+		schedule.setBusyBlocks(busy);
+
+		List<AvailableBlock> attending = new ArrayList<AvailableBlock>();
+		attending.add(AvailableBlockBuilder.createBlock("20091113-1000", "20091113-1030"));
+		attending.add(AvailableBlockBuilder.createBlock("20091116-1000", "20091116-1100"));
+		attending.add(AvailableBlockBuilder.createBlock("20091118-1015", "20091118-1045"));
+		control.setAttendingBlocks(attending);
+		schedule.setAttendingBlocks(attending);
+
+		AvailableBlock overwrite = AvailableBlockBuilder.createBlock("20091120-1400", "20091120-1430", 4);
+		overwrite.setVisitorsAttending(2);
+		control.overwriteFreeBlockOnlyIfPresent(overwrite);
+		schedule.overwriteFreeBlockOnlyIfPresent(overwrite);
+
+		assertSameBlockMaps(control.getBlockMap(), schedule.getBlockMap());
+		Assert.assertEquals(control.getScheduleStart(), schedule.getScheduleStart());
+		Assert.assertEquals(control.getScheduleEnd(), schedule.getScheduleEnd());
+		Assert.assertEquals(control.getFreeList(), schedule.getFreeList());
+		Assert.assertEquals(control.getBusyList(), schedule.getBusyList());
+		Assert.assertEquals(control.getAttendingList(), schedule.getAttendingList());
+		Assert.assertEquals(control.getCalendar().getComponents().size(), schedule.getCalendar().getComponents().size());
+
+		Date subsetStart = CommonDateOperations.parseDatePhrase("20091104");
+		Date subsetEnd = CommonDateOperations.parseDatePhrase("20091119");
+		assertSameBlockMaps(control.subset(subsetStart, subsetEnd).getBlockMap(), schedule.subset(subsetStart, subsetEnd).getBlockMap());
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testBlockMapView() throws Exception {
+		SortedSet<AvailableBlock> blocks = AvailableBlockBuilder.createBlocks("9:00 AM", "11:00 AM", "MWF",
+				CommonDateOperations.parseDatePhrase("20091101"),
+				CommonDateOperations.parseDatePhrase("20091107"),
+				1);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
+		schedule.addFreeBlocks(blocks);
+
+		SortedMap<AvailableBlock, AvailableStatus> view = schedule.getBlockMap();
+		Assert.assertEquals(12, view.size());
+		AvailableBlock target = AvailableBlockBuilder.createBlock("20091104-0930", "20091104-1000");
+		Assert.assertEquals(AvailableStatus.FREE, view.get(target));
+		Assert.assertNull(view.get(AvailableBlockBuilder.createBlock("20091104-0930", "20091104-1001")));
+
+		// view reflects later changes
+		schedule.setBusyBlock(target);
+		Assert.assertEquals(AvailableStatus.BUSY, view.get(target));
+
+		SortedMap<AvailableBlock, AvailableStatus> wednesday = view.subMap(
+				AvailableBlockBuilder.createBlock("20091104-0000", "20091104-0030"),
+				AvailableBlockBuilder.createBlock("20091105-0000", "20091105-0030"));
+		Assert.assertEquals(4, wednesday.size());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091104-0900", "20091104-0930"), wednesday.firstKey());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091104-1030", "20091104-1100"), wednesday.lastKey());
+		Assert.assertTrue(wednesday.containsKey(target));
+		Assert.assertFalse(wednesday.containsKey(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-0930")));
+		Assert.assertEquals(2, view.headMap(AvailableBlockBuilder.createBlock("20091102-1000", "20091102-1030")).size());
+		Assert.assertEquals(4, view.tailMap(AvailableBlockBuilder.createBlock("20091106-0000", "20091106-0030")).size());
+
+		try {
+			view.put(target, AvailableStatus.FREE);
+			Assert.fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// success
+		}
+	}
+
+	/**
+	 *
+	 * @param expected
+	 * @param actual
+	 */
+	private void assertSameBlockMaps(SortedMap<AvailableBlock, AvailableStatus> expected, SortedMap<AvailableBlock, AvailableStatus> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		Iterator<Map.Entry<AvailableBlock, AvailableStatus>> actualIterator = actual.entrySet().iterator();
+		for(Map.Entry<AvailableBlock, AvailableStatus> expectedEntry : expected.entrySet()) {
+			Map.Entry<AvailableBlock, AvailableStatus> actualEntry = actualIterator.next();
+			AvailableBlock expectedBlock = expectedEntry.getKey();
+			AvailableBlock actualBlock = actualEntry.getKey();
+			Assert.assertEquals(expectedBlock, actualBlock);
+			Assert.assertEquals(expectedBlock.getVisitorLimit(), actualBlock.getVisitorLimit());
+			Assert.assertEquals(expectedBlock.getVisitorsAttending(), actualBlock.getVisitorsAttending());
+			Assert.assertEquals(expectedBlock.getMeetingLocation(), actualBlock.getMeetingLocation());
+			Assert.assertEquals(expectedEntry.getValue(), actualEntry.getValue());
+		}
+	}
+}
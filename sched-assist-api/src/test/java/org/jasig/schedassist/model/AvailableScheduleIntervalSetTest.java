@@ -0,0 +1,157 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.model;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AvailableScheduleIntervalSet}.
+ *
+ * @version $Id: AvailableScheduleIntervalSetTest.java $
+ */
+public class AvailableScheduleIntervalSetTest {
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddAdjacentCombined() throws Exception {
+		AvailableScheduleIntervalSet set = new AvailableScheduleIntervalSet();
+		Assert.assertTrue(set.add(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1000")));
+		Assert.assertTrue(set.add(AvailableBlockBuilder.createBlock("20091102-1000", "20091102-1100")));
+		Assert.assertTrue(set.add(AvailableBlockBuilder.createBlock("20091102-0800", "20091102-0900")));
+		Assert.assertEquals(1, set.size());
+		AvailableBlock only = set.toBlocks().first();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-0800", "20091102-1100"), only);
+
+		// already covered, no change
+		Assert.assertFalse(set.add(AvailableBlockBuilder.createBlock("20091102-0830", "20091102-0930")));
+		Assert.assertEquals(1, set.size());
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddAdjacentDifferentAttributesNotCombined() throws Exception {
+		AvailableScheduleIntervalSet set = new AvailableScheduleIntervalSet();
+		set.add(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1000", 1));
+		set.add(AvailableBlockBuilder.createBlock("20091102-1000", "20091102-1100", 2));
+		set.add(AvailableBlockBuilder.createBlock("20091102-1100", "20091102-1200", 2, "alternate location"));
+		Assert.assertEquals(3, set.size());
+	}
+
+	/**
+	 * Overlapping add takes the attributes of the argument for the overlapping portion.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddOverwrite() throws Exception {
+		AvailableScheduleIntervalSet set = new AvailableScheduleIntervalSet();
+		set.add(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1600", 1));
+		Assert.assertTrue(set.add(AvailableBlockBuilder.createBlock("20091102-1200", "20091102-1300", 5, "room 1")));
+
+		SortedSet<AvailableBlock> blocks = set.toBlocks();
+		Assert.assertEquals(3, blocks.size());
+		Iterator<AvailableBlock> i = blocks.iterator();
+		AvailableBlock first = i.next();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1200"), first);
+		Assert.assertEquals(1, first.getVisitorLimit());
+		AvailableBlock second = i.next();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-1200", "20091102-1300"), second);
+		Assert.assertEquals(5, second.getVisitorLimit());
+		Assert.assertEquals("room 1", second.getMeetingLocation());
+		AvailableBlock third = i.next();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-1300", "20091102-1600"), third);
+		Assert.assertEquals(1, third.getVisitorLimit());
+		Assert.assertNull(third.getMeetingLocation());
+
+		// overwrite spanning all 3 with original attributes recombines
+		Assert.assertTrue(set.add(AvailableBlockBuilder.createBlock("20091102-1130", "20091102-1330", 1)));
+		Assert.assertEquals(1, set.size());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1600"), set.toBlocks().first());
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRemove() throws Exception {
+		AvailableScheduleIntervalSet set = new AvailableScheduleIntervalSet();
+		set.add(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1700"));
+		set.add(AvailableBlockBuilder.createBlock("20091104-0900", "20091104-1700"));
+
+		// not present
+		Assert.assertFalse(set.remove(AvailableBlockBuilder.createBlock("20091103-0900", "20091103-1700")));
+		// middle of a range
+		Assert.assertTrue(set.remove(AvailableBlockBuilder.createBlock("20091102-1200", "20091102-1300")));
+		Assert.assertEquals(3, set.size());
+		SortedSet<AvailableBlock> blocks = set.toBlocks();
+		Assert.assertTrue(blocks.contains(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1200")));
+		Assert.assertTrue(blocks.contains(AvailableBlockBuilder.createBlock("20091102-1300", "20091102-1700")));
+
+		// spanning multiple ranges
+		Assert.assertTrue(set.remove(AvailableBlockBuilder.createBlock("20091102-1000", "20091104-1000")));
+		blocks = set.toBlocks();
+		Assert.assertEquals(2, blocks.size());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1000"), blocks.first());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091104-1000", "20091104-1700"), blocks.last());
+
+		// exact match
+		Assert.assertTrue(set.remove(AvailableBlockBuilder.createBlock("20091104-1000", "20091104-1700")));
+		Assert.assertEquals(1, set.size());
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubset() throws Exception {
+		AvailableScheduleIntervalSet set = new AvailableScheduleIntervalSet();
+		set.add(AvailableBlockBuilder.createBlock("20091102-0900", "20091102-1700"));
+		set.add(AvailableBlockBuilder.createBlock("20091104-0900", "20091104-1700", 3));
+		set.add(AvailableBlockBuilder.createBlock("20091106-0900", "20091106-1700"));
+
+		SortedSet<AvailableBlock> subset = set.subset(CommonDateOperations.parseDateTimePhrase("20091102-1200"),
+				CommonDateOperations.parseDateTimePhrase("20091106-1000"));
+		Assert.assertEquals(3, subset.size());
+		Iterator<AvailableBlock> i = subset.iterator();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091102-1200", "20091102-1700"), i.next());
+		AvailableBlock middle = i.next();
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091104-0900", "20091104-1700"), middle);
+		Assert.assertEquals(3, middle.getVisitorLimit());
+		Assert.assertEquals(AvailableBlockBuilder.createBlock("20091106-0900", "20091106-1000"), i.next());
+
+		Assert.assertEquals(0, set.subset(CommonDateOperations.parseDateTimePhrase("20091103-0000"),
+				CommonDateOperations.parseDateTimePhrase("20091104-0900")).size());
+
+		// set is unchanged
+		Assert.assertEquals(3, set.size());
+	}
+}
@@ -20,13 +20,18 @@
 package org.jasig.schedassist.model;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TimeZone;
@@ -35,7 +40,9 @@ import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.DateList;
 import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.ParameterList;
 import net.fortuna.ical4j.model.Period;
 import net.fortuna.ical4j.model.PeriodList;
 import net.fortuna.ical4j.model.Property;
@@ -44,8 +51,10 @@ import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.parameter.Cn;
 import net.fortuna.ical4j.model.parameter.PartStat;
 import net.fortuna.ical4j.model.parameter.Rsvp;
+import net.fortuna.ical4j.model.parameter.Value;
 import net.fortuna.ical4j.model.property.Attendee;
 import net.fortuna.ical4j.model.property.Clazz;
+import net.fortuna.ical4j.model.property.ExDate;
 import net.fortuna.ical4j.model.property.Organizer;
 import net.fortuna.ical4j.model.property.RDate;
 import net.fortuna.ical4j.model.property.Status;
@@ -937,6 +946,239 @@ public class DefaultEventUtilsImplTest {
 		}
 	}
 	
+	/**
+	 * Assert {@link DefaultEventUtilsImpl#calculateRecurrence(VEvent, Date, Date)} returns the same periods
+	 * with and without a recurrenceCache, for nested, overlapping, disjoint and boundary-touching windows.
+	 * Instances that only touch the window boundaries are not returned.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCalculateRecurrenceCached() throws Exception {
+		List<VEvent> events = new ArrayList<VEvent>();
+		Resource resource = new ClassPathResource("org/jasig/schedassist/model/recurring-allDay-event.ics");
+		events.add((VEvent) new CalendarBuilder().build(resource.getInputStream()).getComponent(VEvent.VEVENT));
+		String timed = "BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nUID:recurring-timed-event\r\nDTSTAMP:20120702T193116Z\r\n" +
+			"DTSTART:20120917T140000Z\r\nDTEND:20120917T150000Z\r\nRRULE:FREQ=DAILY;COUNT=60\r\nEXDATE:20120920T140000Z\r\n" +
+			"END:VEVENT\r\nEND:VCALENDAR\r\n";
+		events.add((VEvent) new CalendarBuilder().build(new StringReader(timed)).getComponent(VEvent.VEVENT));
+		SortedSet<AvailableBlock> blocks = AvailableBlockBuilder.createBlocks("1:00 PM", "3:00 PM", "MWF", 
+				CommonDateOperations.parseDatePhrase("20120917"), CommonDateOperations.parseDatePhrase("20121130"));
+		for(Calendar calendar : eventUtils.convertScheduleForReflection(new AvailableSchedule(blocks))) {
+			// events without a UID are not cached
+			VEvent reflection = (VEvent) calendar.getComponent(VEvent.VEVENT);
+			reflection.getProperties().add(eventUtils.generateNewUid());
+			events.add(reflection);
+		}
+		
+		String [][] windows = new String [][] {
+				{ "20121001", "20121015" }, 
+				{ "20121003", "20121010" },
+				{ "20120924", "20121020" },
+				{ "20121101", "20121108" },
+				{ "20121005", "20121006" },
+				{ "20121005-1300", "20121005-1500" },
+				{ "20121005-1500", "20121008-1300" },
+				{ "20120901", "20121231" } };
+		
+		MapRecurrenceExpansionCache cache = new MapRecurrenceExpansionCache();
+		DefaultEventUtilsImpl cached = new DefaultEventUtilsImpl(new NullAffiliationSourceImpl());
+		cached.setRecurrenceCache(cache);
+		
+		for(String [] window : windows) {
+			Date start = parseWindowBoundary(window[0]);
+			Date end = parseWindowBoundary(window[1]);
+			for(VEvent event : events) {
+				PeriodList expected = eventUtils.calculateRecurrence(event, start, end);
+				PeriodList actual = cached.calculateRecurrence(event, start, end);
+				Assert.assertEquals(describePeriods(expected), describePeriods(actual));
+			}
+		}
+		Assert.assertEquals(events.size(), cache.expansions.size());
+		Assert.assertTrue(cache.hits > 0);
+		
+		// the all-day RDATE instance on the first day of the window is included
+		PeriodList reflected = cached.calculateRecurrence(events.get(2), parseWindowBoundary("20121003"), parseWindowBoundary("20121004"));
+		Assert.assertEquals(1, reflected.size());
+		Assert.assertEquals(CommonDateOperations.parseDatePhrase("20121003"), ((Period) reflected.iterator().next()).getStart());
+		
+		// a modified event must not be answered from the cache
+		VEvent event = events.get(1);
+		event.getProperties().add(new ExDate(new DateList("20121002T140000Z", Value.DATE_TIME)));
+		Date start = parseWindowBoundary("20121001");
+		Date end = parseWindowBoundary("20121005");
+		Assert.assertEquals(3, cached.calculateRecurrence(event, start, end).size());
+		Assert.assertEquals(describePeriods(eventUtils.calculateRecurrence(event, start, end)), 
+				describePeriods(cached.calculateRecurrence(event, start, end)));
+	}
+	
+	/**
+	 * Assert {@link DefaultEventUtilsImpl#calculateRecurrence(VEvent, Date, Date)} does not return instances 
+	 * that only touch the start or end of the window (as a block adjacent to the instance), 
+	 * with or without a recurrenceCache.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCalculateRecurrenceBoundaryInstances() throws Exception {
+		String timed = "BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nUID:recurring-boundary-event\r\nDTSTAMP:20120702T193116Z\r\n" +
+			"DTSTART:20120917T140000Z\r\nDTEND:20120917T150000Z\r\nRRULE:FREQ=DAILY;COUNT=30\r\n" +
+			"END:VEVENT\r\nEND:VCALENDAR\r\n";
+		VEvent event = (VEvent) new CalendarBuilder().build(new StringReader(timed)).getComponent(VEvent.VEVENT);
+		DefaultEventUtilsImpl cached = new DefaultEventUtilsImpl(new NullAffiliationSourceImpl());
+		cached.setRecurrenceCache(new MapRecurrenceExpansionCache());
+		
+		PeriodList day = eventUtils.calculateRecurrence(event, parseWindowBoundary("20121002"), parseWindowBoundary("20121003"));
+		Assert.assertEquals(1, day.size());
+		Period instance = (Period) day.iterator().next();
+		Date instanceStart = instance.getStart();
+		Date instanceEnd = instance.getEnd();
+		
+		for(DefaultEventUtilsImpl utils : new DefaultEventUtilsImpl[] { eventUtils, cached }) {
+			// window ends when the instance starts
+			Assert.assertEquals(0, utils.calculateRecurrence(event, DateUtils.addHours(instanceStart, -1), instanceStart).size());
+			// window starts when the instance ends
+			Assert.assertEquals(0, utils.calculateRecurrence(event, instanceEnd, DateUtils.addHours(instanceEnd, 1)).size());
+			// a minute of overlap on either side
+			Assert.assertEquals(1, utils.calculateRecurrence(event, DateUtils.addHours(instanceStart, -1), DateUtils.addMinutes(instanceStart, 1)).size());
+			Assert.assertEquals(1, utils.calculateRecurrence(event, DateUtils.addMinutes(instanceEnd, -1), DateUtils.addHours(instanceEnd, 1)).size());
+		}
+	}
+	
+	/**
+	 * 
+	 * @param phrase
+	 * @return the date for either a yyyyMMdd or yyyyMMdd-HHmm phrase
+	 * @throws InputFormatException
+	 * @throws ParseException
+	 */
+	private Date parseWindowBoundary(String phrase) throws InputFormatException, ParseException {
+		return phrase.length() == 8 ? CommonDateOperations.parseDatePhrase(phrase) : makeDateTime(phrase);
+	}
+	
+	/**
+	 * 
+	 * @param periods
+	 * @return a list of the start and end times of the periods, in order
+	 */
+	private List<String> describePeriods(PeriodList periods) {
+		List<String> results = new ArrayList<String>();
+		for(Object o : periods) {
+			Period p = (Period) o;
+			results.add(p.getStart().getTime() + "-" + p.getEnd().getTime());
+		}
+		Collections.sort(results);
+		return results;
+	}
+	
+	/**
+	 * Assert {@link DefaultEventUtilsImpl#digestEvent(VEvent, ICalendarAccount, ICalendarAccount)} agrees
+	 * with the individual methods for a variety of events.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDigestEventMatchesIndividualMethods() throws Exception {
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setEmailAddress("somevisitor@wisc.edu");
+		visitorAccount.setDisplayName("Some Visitor");
+		MockScheduleVisitor visitor = new MockScheduleVisitor(visitorAccount);
+		MockCalendarAccount otherAccount = new MockCalendarAccount();
+		otherAccount.setEmailAddress("othervisitor@wisc.edu");
+		otherAccount.setDisplayName("Other Visitor");
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setEmailAddress("someowner@wisc.edu");
+		ownerAccount.setDisplayName("Some Owner");
+		MockScheduleOwner owner = new MockScheduleOwner(ownerAccount, 1);
+
+		// 1 on 1 appointment
+		VEvent oneOnOne = this.eventUtils.constructAvailableAppointment(
+				AvailableBlockBuilder.createBlock(makeDateTime("20091006-1300"), makeDateTime("20091006-1330")), 
+				owner, visitor, "description");
+		// group appointment with 2 visitors
+		VEvent group = this.eventUtils.constructAvailableAppointment(
+				AvailableBlockBuilder.createBlock(makeDateTime("20091006-1400"), makeDateTime("20091006-1500"), 5), 
+				owner, visitor, "description");
+		group.getProperties().add(this.eventUtils.constructSchedulingAssistantAttendee(otherAccount, AppointmentRole.VISITOR));
+		// ordinary events the owner accepted and declined, one recurring
+		VEvent accepted = new VEvent(new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-0900")), 
+				new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-0915")), "accepted");
+		accepted.getProperties().add(attendee(ownerAccount, PartStat.ACCEPTED));
+		accepted.getProperties().add(new RDate(new net.fortuna.ical4j.model.DateList("20091014T140000Z", net.fortuna.ical4j.model.parameter.Value.DATE_TIME)));
+		VEvent declined = new VEvent(new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-1000")), 
+				new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-1100")), "declined");
+		declined.getProperties().add(attendee(ownerAccount, PartStat.DECLINED));
+		VEvent unrelated = new VEvent(new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-1000")), 
+				new net.fortuna.ical4j.model.DateTime(makeDateTime("20091007-1100")), "unrelated");
+		unrelated.getProperties().add(attendee(otherAccount, PartStat.ACCEPTED));
+
+		for(VEvent event : new VEvent[] { oneOnOne, group, accepted, declined, unrelated }) {
+			for(ICalendarAccount visiting : new ICalendarAccount[] { visitorAccount, otherAccount, null }) {
+				EventDigest digest = this.eventUtils.digestEvent(event, ownerAccount, visiting);
+				Assert.assertSame(event, digest.getEvent());
+				Assert.assertEquals(event.getStartDate().getDate().getTime(), digest.getStartTime());
+				Assert.assertEquals(event.getEndDate(true).getDate().getTime(), digest.getEndTime());
+				Assert.assertEquals(this.eventUtils.willEventCauseConflict(ownerAccount, event), digest.isCausesConflict());
+				Assert.assertEquals(event.getProperties().contains(SchedulingAssistantAppointment.TRUE), digest.isAvailableAppointment());
+				Assert.assertEquals(this.eventUtils.isAttendingAsOwner(event, ownerAccount), digest.isOwnerAttending());
+				Assert.assertEquals(visiting != null && this.eventUtils.isAttendingAsVisitor(event, visiting), digest.isVisitorAttending());
+				Assert.assertEquals(this.eventUtils.getScheduleVisitorCount(event), digest.getVisitorCount());
+				Assert.assertEquals(this.eventUtils.getEventVisitorLimit(event), digest.getVisitorLimit());
+				Assert.assertEquals(this.eventUtils.isEventRecurring(event), digest.isRecurring());
+			}
+		}
+
+		EventDigest groupDigest = this.eventUtils.digestEvent(group, ownerAccount, otherAccount);
+		Assert.assertTrue(groupDigest.isVisitorAttending());
+		Assert.assertEquals(2, groupDigest.getVisitorCount());
+		Assert.assertEquals(5, groupDigest.getSafeVisitorLimit());
+		Assert.assertEquals(PartStat.ACCEPTED, groupDigest.getOwnerParticipation());
+		Assert.assertEquals(PartStat.DECLINED, this.eventUtils.digestEvent(declined, ownerAccount, null).getOwnerParticipation());
+		Assert.assertNull(this.eventUtils.digestEvent(unrelated, ownerAccount, null).getOwnerParticipation());
+		Assert.assertEquals(1, this.eventUtils.digestEvent(accepted, ownerAccount, null).getSafeVisitorLimit());
+	}
+	
+	/**
+	 * An event without a DTSTART is digested as not causing a conflict (and so skipped by the {@link VisibleScheduleBuilder}).
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDigestEventWithoutStart() throws Exception {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setEmailAddress("someowner@wisc.edu");
+		ownerAccount.setDisplayName("Some Owner");
+		VEvent noStart = new VEvent();
+		noStart.getProperties().add(new net.fortuna.ical4j.model.property.Summary("no start"));
+		noStart.getProperties().add(attendee(ownerAccount, PartStat.ACCEPTED));
+		
+		EventDigest digest = this.eventUtils.digestEvent(noStart, ownerAccount, null);
+		Assert.assertSame(noStart, digest.getEvent());
+		Assert.assertFalse(digest.isCausesConflict());
+		
+		ComponentList components = new ComponentList();
+		components.add(noStart);
+		VisibleScheduleBuilder builder = new VisibleScheduleBuilder(this.eventUtils);
+		AvailableSchedule schedule = new AvailableSchedule(AvailableBlockBuilder.createBlocks("9:00 AM", "10:00 AM", "MTWRF", 
+				CommonDateOperations.parseDatePhrase("20091005"), CommonDateOperations.parseDatePhrase("20091009")));
+		VisibleSchedule visible = builder.calculateVisibleSchedule(CommonDateOperations.parseDatePhrase("20091005"), 
+				CommonDateOperations.parseDatePhrase("20091010"), new Calendar(components), schedule, new MockScheduleOwner(ownerAccount, 1));
+		Assert.assertEquals(0, visible.getBusyCount());
+	}
+
+	/**
+	 * 
+	 * @param account
+	 * @param partStat
+	 * @return an ATTENDEE for the account with the specified PARTSTAT
+	 */
+	private Attendee attendee(ICalendarAccount account, PartStat partStat) {
+		ParameterList parameterList = new ParameterList();
+		parameterList.add(partStat);
+		parameterList.add(new Cn(account.getDisplayName()));
+		return new Attendee(parameterList, DefaultEventUtilsImpl.emailToURI(account.getEmailAddress()));
+	}
+
 	/**
 	 * helper method to create java.util.Date objects from a String
 	 * 
@@ -952,4 +1194,24 @@ public class DefaultEventUtilsImplTest {
 		return time;
 	}
 	
+	/**
+	 * {@link RecurrenceExpansionCache} backed by a {@link HashMap}, counting hits.
+	 */
+	private static class MapRecurrenceExpansionCache implements RecurrenceExpansionCache {
+		private final Map<String, RecurrenceExpansion> expansions = new HashMap<String, RecurrenceExpansion>();
+		private int hits = 0;
+		
+		@Override
+		public RecurrenceExpansion get(String key) {
+			RecurrenceExpansion expansion = expansions.get(key);
+			if(expansion != null) {
+				hits++;
+			}
+			return expansion;
+		}
+		@Override
+		public void put(String key, RecurrenceExpansion expansion) {
+			expansions.put(key, expansion);
+		}
+	}
 }
@@ -823,6 +823,71 @@ public class VisibleScheduleBuilderTest {
 		
 	}
 	
+	/**
+	 * Assert applying visitors to an {@link OwnerVisibleSchedule} matches calculating each visitor's
+	 * {@link VisibleSchedule} directly, and leaves the {@link OwnerVisibleSchedule} unchanged.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testOwnerVisibleScheduleMatchesDirectCalculation() throws Exception {
+		MockCalendarAccount person1 = new MockCalendarAccount();
+		person1.setEmailAddress("someowner@wisc.edu");
+		person1.setDisplayName("Some Owner");
+		MockScheduleOwner owner = new MockScheduleOwner(person1, 1);
+		
+		MockCalendarAccount person2 = new MockCalendarAccount();
+		person2.setEmailAddress("somevisitor@wisc.edu");
+		person2.setDisplayName("Some Visitor");
+		MockScheduleVisitor visitor = new MockScheduleVisitor(person2);
+		MockCalendarAccount person3 = new MockCalendarAccount();
+		person3.setEmailAddress("othervisitor@wisc.edu");
+		person3.setDisplayName("Other Visitor");
+		MockScheduleVisitor visitor2 = new MockScheduleVisitor(person3);
+		
+		ComponentList components = new ComponentList();
+		// group appointment with an open spot
+		components.add(this.eventUtils.constructAvailableAppointment(
+				AvailableBlockBuilder.createBlock(makeDateTime("20091117-1300"), makeDateTime("20091117-1330"), 4),
+				owner, visitor, "group appointment"));
+		// 1 on 1 appointments, one for each visitor
+		components.add(this.eventUtils.constructAvailableAppointment(
+				AvailableBlockBuilder.createBlock(makeDateTime("20091119-1330"), makeDateTime("20091119-1400"), 1),
+				owner, visitor, "individual appointment"));
+		components.add(this.eventUtils.constructAvailableAppointment(
+				AvailableBlockBuilder.createBlock(makeDateTime("20091119-1300"), makeDateTime("20091119-1330"), 1),
+				owner, visitor2, "individual appointment"));
+		// an ordinary busy event
+		components.add(new VEvent(new DateTime(makeDateTime("20091117-1330")), new DateTime(makeDateTime("20091117-1400")), "busy"));
+		Calendar calendar = new Calendar(components);
+		
+		Date start = makeDateTime("20091115-0000");
+		Date end = makeDateTime("20091121-0000");
+		AvailableSchedule schedule = new AvailableSchedule(AvailableBlockBuilder.createBlocks("1:00 PM", "2:00 PM", "TR", 
+				start, end, 4, null));
+		
+		OwnerVisibleSchedule ownerSchedule = this.builder.calculateOwnerVisibleSchedule(start, end, calendar, schedule, owner);
+		Assert.assertEquals(0, ownerSchedule.getSchedule().getAttendingCount());
+		Assert.assertEquals(3, ownerSchedule.getAppointments().size());
+		
+		for(MockScheduleVisitor v : new MockScheduleVisitor[] { visitor, visitor2, null }) {
+			VisibleSchedule expected = this.builder.calculateVisibleSchedule(start, end, calendar, schedule, owner, v);
+			VisibleSchedule actual = this.builder.calculateVisibleSchedule(ownerSchedule, v, start, end);
+			Assert.assertEquals(expected.getFreeList(), actual.getFreeList());
+			Assert.assertEquals(expected.getBusyList(), actual.getBusyList());
+			Assert.assertEquals(expected.getAttendingList(), actual.getAttendingList());
+		}
+		Assert.assertEquals(1, this.builder.calculateVisibleSchedule(ownerSchedule, visitor2, start, end).getAttendingCount());
+		Assert.assertEquals(2, this.builder.calculateVisibleSchedule(ownerSchedule, visitor, start, end).getAttendingCount());
+		Assert.assertEquals(0, ownerSchedule.getSchedule().getAttendingCount());
+		
+		// subset
+		Date wednesday = makeDateTime("20091118-0000");
+		VisibleSchedule thursday = this.builder.calculateVisibleSchedule(ownerSchedule, visitor, wednesday, end);
+		Assert.assertEquals(1, thursday.getAttendingCount());
+		Assert.assertEquals(2, thursday.getSize());
+	}
+	
 	/**
 	 * 
 	 * @throws Exception
@@ -35,11 +35,21 @@ import org.junit.Test;
  */
 public class VisibleScheduleTest {
 
+	/**
+	 * Subclasses override to run these tests against another implementation.
+	 * 
+	 * @param meetingDurations
+	 * @return the {@link VisibleSchedule} under test
+	 */
+	protected VisibleSchedule newVisibleSchedule(MeetingDurations meetingDurations) {
+		return new VisibleSchedule(meetingDurations);
+	}
+
 	@Test
 	public void testLocateConflicting() throws Exception {
 		AvailableBlock block = AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1130");
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlock(block);
 		
 		Assert.assertEquals(0, 
@@ -69,6 +79,40 @@ public class VisibleScheduleTest {
 		Assert.assertFalse(conflicts.contains(block));
 	}
 	
+	/**
+	 * Conflicts with keys longer than the minimum duration (e.g. double length attending blocks)
+	 * that start well before the conflict.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLocateConflictingLongKeys() throws Exception {
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
+		schedule.addFreeBlock(AvailableBlockBuilder.createBlock("20091105-0900", "20091105-1200"));
+		AvailableBlock attending = AvailableBlockBuilder.createBlock("20091105-0900", "20091105-1100");
+		schedule.setAttendingBlock(attending);
+		Assert.assertEquals(1, schedule.getAttendingCount());
+		Assert.assertEquals(2, schedule.getFreeCount());
+		
+		Set<AvailableBlock> conflicts = schedule.locateConflicting(AvailableBlockBuilder.createBlock("20091105-1045", "20091105-1050"));
+		Assert.assertEquals(1, conflicts.size());
+		Assert.assertTrue(conflicts.contains(attending));
+		
+		conflicts = schedule.locateConflicting(AvailableBlockBuilder.createBlock("20091105-1059", "20091105-1101"));
+		Assert.assertEquals(2, conflicts.size());
+		Assert.assertTrue(conflicts.contains(attending));
+		Assert.assertTrue(conflicts.contains(AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1130")));
+		
+		conflicts = schedule.locateConflicting(AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1101"));
+		Assert.assertEquals(1, conflicts.size());
+		Assert.assertFalse(conflicts.contains(attending));
+		
+		// spanning midnight
+		conflicts = schedule.locateConflicting(AvailableBlockBuilder.createBlock("20091104-2300", "20091105-0901"));
+		Assert.assertEquals(1, conflicts.size());
+		Assert.assertTrue(conflicts.contains(attending));
+	}
+	
 	/**
 	 * 
 	 * @throws Exception
@@ -77,7 +121,7 @@ public class VisibleScheduleTest {
 	public void testAddFree() throws Exception {
 		AvailableBlock block = AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1130");
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlock(block);
 		
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091105-1100"), schedule.getScheduleStart());
@@ -104,7 +148,7 @@ public class VisibleScheduleTest {
 				1);
 		
 		// reinitialize schedule, this time expand the blocks into 30 minute increments
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlocks(blocks);
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091102-0900"), schedule.getScheduleStart());
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091130-1700"), schedule.getScheduleEnd());
@@ -121,7 +165,7 @@ public class VisibleScheduleTest {
 	public void testAddBusy() throws Exception {
 		AvailableBlock block = AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1130");
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlock(block);
 		schedule.setBusyBlock(block);
 		
@@ -149,7 +193,7 @@ public class VisibleScheduleTest {
 				1);
 		
 		// reinitialize schedule, this time expand the blocks into 30 minute increments
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlocks(blocks);
 		schedule.setBusyBlocks(blocks);
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091102-0900"), schedule.getScheduleStart());
@@ -167,7 +211,7 @@ public class VisibleScheduleTest {
 	public void testAddAttending() throws Exception {
 		AvailableBlock block = AvailableBlockBuilder.createBlock("20091105-1100", "20091105-1130");
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlock(block);
 		schedule.setAttendingBlock(block);
 		
@@ -194,7 +238,7 @@ public class VisibleScheduleTest {
 				CommonDateOperations.parseDatePhrase("20091130"), 
 				1);
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlocks(blocks);
 		schedule.setAttendingBlocks(blocks);
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091102-0900"), schedule.getScheduleStart());
@@ -214,7 +258,7 @@ public class VisibleScheduleTest {
 				CommonDateOperations.parseDatePhrase("20091130"), 
 				1);
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlocks(blocks);
 		
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20091102-0900"), schedule.getScheduleStart());
@@ -256,7 +300,7 @@ public class VisibleScheduleTest {
 				CommonDateOperations.parseDatePhrase("20100828"), 
 				1);
 		
-		VisibleSchedule schedule = new VisibleSchedule(MeetingDurations.THIRTY);
+		VisibleSchedule schedule = newVisibleSchedule(MeetingDurations.THIRTY);
 		schedule.addFreeBlocks(blocks);
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20100802-0900"), schedule.getScheduleStart());
 		Assert.assertEquals(CommonDateOperations.parseDateTimePhrase("20100827-1700"), schedule.getScheduleEnd());
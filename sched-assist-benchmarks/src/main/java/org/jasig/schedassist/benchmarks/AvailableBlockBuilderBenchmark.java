@@ -0,0 +1,101 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.InputFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@link AvailableBlockBuilder} operations used when building and editing schedules.
+ *
+ * @version $Id: AvailableBlockBuilderBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvailableBlockBuilderBenchmark {
+
+	@Param({"1", "4", "12", "24"})
+	private int weeks;
+
+	@Param({"15", "30", "60"})
+	private int meetingLength;
+
+	private OwnerFixture fixture;
+	private Set<AvailableBlock> combined;
+	private SortedSet<AvailableBlock> expanded;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() {
+		fixture = OwnerFixture.generate(weeks, 0, 0);
+		combined = fixture.getAvailableSchedule().getAvailableBlocks();
+		expanded = AvailableBlockBuilder.expand(combined, meetingLength);
+	}
+
+	/**
+	 *
+	 * @return the owner's schedule expanded into meetingLength blocks
+	 */
+	@Benchmark
+	public SortedSet<AvailableBlock> expand() {
+		return AvailableBlockBuilder.expand(combined, meetingLength);
+	}
+
+	/**
+	 *
+	 * @return the expanded schedule combined back into contiguous blocks
+	 */
+	@Benchmark
+	public SortedSet<AvailableBlock> combine() {
+		return AvailableBlockBuilder.combine(expanded);
+	}
+
+	/**
+	 *
+	 * @return weekday blocks for the window
+	 * @throws InputFormatException
+	 */
+	@Benchmark
+	public SortedSet<AvailableBlock> createBlocks() throws InputFormatException {
+		return AvailableBlockBuilder.createBlocks("9:00 AM", "4:00 PM", "MTWRF", fixture.getWindowStart(), fixture.getWindowEnd());
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.component.VEvent;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.jasig.schedassist.impl.EhcacheRecurrenceExpansionCache;
+import org.jasig.schedassist.model.DefaultEventUtilsImpl;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the per-event {@link DefaultEventUtilsImpl} calls made by the VisibleScheduleBuilder.
+ * Each invocation covers every applicable event in the fixture calendar.
+ *
+ * @version $Id: EventUtilsBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventUtilsBenchmark {
+
+	@Param({"1", "4", "12", "24"})
+	private int weeks;
+
+	@Param({"5", "40"})
+	private int recurringEvents;
+
+	@Param({"2", "10"})
+	private int groupAppointmentsPerWeek;
+
+	private OwnerFixture fixture;
+	private DefaultEventUtilsImpl eventUtils;
+	private DefaultEventUtilsImpl cachingEventUtils;
+	private CacheManager cacheManager;
+	private ICalendarAccount ownerAccount;
+	private List<VEvent> events;
+	private List<VEvent> recurring;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() {
+		fixture = OwnerFixture.generate(weeks, recurringEvents, groupAppointmentsPerWeek);
+		eventUtils = new DefaultEventUtilsImpl();
+		ownerAccount = fixture.getOwner().getCalendarAccount();
+		events = fixture.getEvents();
+		recurring = fixture.getRecurringEvents();
+		
+		cacheManager = new CacheManager();
+		Cache cache = new Cache("recurrenceExpansionCache", 5000, false, false, 0, 0);
+		cacheManager.addCache(cache);
+		cachingEventUtils = new DefaultEventUtilsImpl();
+		cachingEventUtils.setRecurrenceCache(new EhcacheRecurrenceExpansionCache(cache));
+	}
+	
+	/**
+	 * 
+	 */
+	@TearDown
+	public void tearDown() {
+		cacheManager.shutdown();
+	}
+
+	/**
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void calculateRecurrence(Blackhole blackhole) {
+		for(VEvent event : recurring) {
+			blackhole.consume(eventUtils.calculateRecurrence(event, fixture.getWindowStart(), fixture.getWindowEnd()));
+		}
+	}
+
+	/**
+	 * {@link #calculateRecurrence(Blackhole)} with a warm recurrenceCache.
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void calculateRecurrenceCached(Blackhole blackhole) {
+		for(VEvent event : recurring) {
+			blackhole.consume(cachingEventUtils.calculateRecurrence(event, fixture.getWindowStart(), fixture.getWindowEnd()));
+		}
+	}
+
+	/**
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void willEventCauseConflict(Blackhole blackhole) {
+		for(VEvent event : events) {
+			blackhole.consume(eventUtils.willEventCauseConflict(ownerAccount, event));
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.ArrayBackedVisibleSchedule;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.AvailableStatus;
+import org.jasig.schedassist.model.CommonDateOperations;
+import org.jasig.schedassist.model.MeetingDurations;
+import org.jasig.schedassist.model.VisibleSchedule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link VisibleSchedule#locateConflicting(AvailableBlock)} against the
+ * original minute-by-minute search it replaced, on a dense calendar:
+ * 12 weeks of weekday 8 AM - 5 PM availability in 15 minute blocks,
+ * probed with short busy events that don't align to block boundaries.
+ *
+ * The protected method is reached through the subclasses at the end of this file.
+ *
+ * @version $Id: LocateConflictingBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocateConflictingBenchmark {
+
+	@Param({"100", "1000"})
+	private int busyEventCount;
+
+	private TreeMapProbe treeMapSchedule;
+	private ArrayBackedProbe arrayBackedSchedule;
+	private SortedMap<AvailableBlock, AvailableStatus> legacyBlockMap;
+	private AvailableBlock[] busyEvents;
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Setup
+	public void setup() throws Exception {
+		Date startDate = CommonDateOperations.parseDatePhrase("20110103");
+		Date endDate = DateUtils.addWeeks(startDate, 12);
+		SortedSet<AvailableBlock> availability = AvailableBlockBuilder.createBlocks("8:00 AM", "5:00 PM", "MTWRF", startDate, endDate, 1);
+		treeMapSchedule = new TreeMapProbe();
+		treeMapSchedule.addFreeBlocks(availability);
+		arrayBackedSchedule = new ArrayBackedProbe();
+		arrayBackedSchedule.addFreeBlocks(availability);
+		legacyBlockMap = treeMapSchedule.getBlockMap();
+
+		// fixed seed so each fork probes the same events
+		Random random = new Random(20110103L);
+		busyEvents = new AvailableBlock[busyEventCount];
+		for(int i = 0; i < busyEventCount; i++) {
+			Date day = DateUtils.addDays(startDate, random.nextInt(12 * 7));
+			// 7:00 AM - 5:59 PM, on an arbitrary minute
+			Date start = DateUtils.addMinutes(day, 7 * 60 + random.nextInt(11 * 60));
+			Date end = DateUtils.addMinutes(start, 5 + random.nextInt(55));
+			busyEvents[i] = AvailableBlockBuilder.createBlock(start, end);
+		}
+	}
+
+	/**
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void legacyMinuteWalk(Blackhole blackhole) {
+		for(AvailableBlock event : busyEvents) {
+			blackhole.consume(legacyLocateConflicting(legacyBlockMap, MeetingDurations.FIFTEEN, event));
+		}
+	}
+
+	/**
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void treeMapOverlapQuery(Blackhole blackhole) {
+		for(AvailableBlock event : busyEvents) {
+			blackhole.consume(treeMapSchedule.conflicting(event));
+		}
+	}
+
+	/**
+	 *
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void arrayBackedOverlapQuery(Blackhole blackhole) {
+		for(AvailableBlock event : busyEvents) {
+			blackhole.consume(arrayBackedSchedule.conflicting(event));
+		}
+	}
+
+	/**
+	 * Copy of the implementation of {@link VisibleSchedule#locateConflicting(AvailableBlock)}
+	 * prior to the introduction of the overlap query, kept as the baseline.
+	 *
+	 * @param blockMap
+	 * @param meetingDurations
+	 * @param conflict
+	 * @return the keys in blockMap that conflict with the block argument
+	 */
+	static Set<AvailableBlock> legacyLocateConflicting(final SortedMap<AvailableBlock, AvailableStatus> blockMap,
+			final MeetingDurations meetingDurations, final AvailableBlock conflict) {
+		Set<AvailableBlock> conflictingKeys = new HashSet<AvailableBlock>();
+
+		Date conflictDayStart = DateUtils.truncate(conflict.getStartTime(), java.util.Calendar.DATE);
+		Date conflictDayEnd = DateUtils.addDays(DateUtils.truncate(conflict.getEndTime(), java.util.Calendar.DATE), 1);
+		conflictDayEnd = DateUtils.addMinutes(conflictDayEnd, -1);
+
+		AvailableBlock rangeStart = AvailableBlockBuilder.createPreferredMinimumDurationBlock(
+				conflictDayStart,
+				meetingDurations);
+		AvailableBlock rangeEnd = AvailableBlockBuilder.createBlockEndsAt(conflictDayEnd, meetingDurations.getMinLength());
+
+		SortedMap<AvailableBlock, AvailableStatus> subMap = blockMap.subMap(rangeStart, rangeEnd);
+		for(AvailableBlock mapKey: subMap.keySet()) {
+			Date minuteWithinBlock = DateUtils.addSeconds(mapKey.getStartTime(), 10);
+			boolean shortCircuit = true;
+			while(shortCircuit && CommonDateOperations.equalsOrBefore(minuteWithinBlock, mapKey.getEndTime())) {
+				if(minuteWithinBlock.before(conflict.getEndTime())
+						&& minuteWithinBlock.after(conflict.getStartTime())) {
+					conflictingKeys.add(mapKey);
+					shortCircuit = false;
+				}
+				minuteWithinBlock = DateUtils.addMinutes(minuteWithinBlock, 1);
+			}
+		}
+		return conflictingKeys;
+	}
+
+	/**
+	 * Exposes {@link VisibleSchedule#locateConflicting(AvailableBlock)}.
+	 */
+	static class TreeMapProbe extends VisibleSchedule {
+		TreeMapProbe() {
+			super(MeetingDurations.FIFTEEN);
+		}
+		Set<AvailableBlock> conflicting(AvailableBlock block) {
+			return locateConflicting(block);
+		}
+	}
+
+	/**
+	 * Exposes {@link ArrayBackedVisibleSchedule#locateConflicting(AvailableBlock)}.
+	 */
+	static class ArrayBackedProbe extends ArrayBackedVisibleSchedule {
+		ArrayBackedProbe() {
+			super(MeetingDurations.FIFTEEN);
+		}
+		Set<AvailableBlock> conflicting(AvailableBlock block) {
+			return locateConflicting(block);
+		}
+	}
+}
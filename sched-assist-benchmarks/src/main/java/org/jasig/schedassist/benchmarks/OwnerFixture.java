@@ -0,0 +1,354 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.ParameterList;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.parameter.Cn;
+import net.fortuna.ical4j.model.parameter.CuType;
+import net.fortuna.ical4j.model.parameter.PartStat;
+import net.fortuna.ical4j.model.parameter.Rsvp;
+import net.fortuna.ical4j.model.property.Attendee;
+import net.fortuna.ical4j.model.property.RRule;
+import net.fortuna.ical4j.model.property.Uid;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.AppointmentRole;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.AvailableSchedule;
+import org.jasig.schedassist.model.CommonDateOperations;
+import org.jasig.schedassist.model.DefaultEventUtilsImpl;
+import org.jasig.schedassist.model.InputFormatException;
+import org.jasig.schedassist.model.Preferences;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.jasig.schedassist.model.mock.MockScheduleVisitor;
+
+/**
+ * Generates the data a realistic schedule owner presents to the scheduling model:
+ * an {@link AvailableSchedule}, and a {@link Calendar} of events within the same window.
+ *
+ * The availability is 1 on 1 office hours Monday, Wednesday and Friday 9 AM - 12 PM, and
+ * group sessions (visitor limit 10) Tuesday and Thursday 1 PM - 4 PM.
+ * The calendar contains:
+ * <ul>
+ * <li>weekly recurring meetings the owner has accepted, each recurring for the length of the window,</li>
+ * <li>a handful of ordinary (busy) one-off events per week that don't align to block boundaries,</li>
+ * <li>a few meetings per week the owner has declined (no conflict),</li>
+ * <li>group appointments in the Tuesday/Thursday sessions with several visitors each, and</li>
+ * <li>1 on 1 appointments between the owner and the visitor in the office hours.</li>
+ * </ul>
+ *
+ * Generation uses a fixed seed, so the same arguments always produce the same fixture.
+ *
+ * @version $Id: OwnerFixture.java $
+ */
+public final class OwnerFixture {
+
+	/**
+	 * The first day (a Monday) of every fixture window.
+	 */
+	static final String WINDOW_START = "20110103";
+	static final int GROUP_VISITOR_LIMIT = 10;
+	private static final int ONE_OFF_EVENTS_PER_WEEK = 8;
+	private static final int DECLINED_EVENTS_PER_WEEK = 2;
+	private static final int VISITOR_APPOINTMENTS_PER_WEEK = 1;
+
+	private final DefaultEventUtilsImpl eventUtils = new DefaultEventUtilsImpl();
+	private final Random random;
+	private final MockScheduleOwner owner;
+	private final MockScheduleVisitor visitor;
+	private final Date windowStart;
+	private final Date windowEnd;
+	private final AvailableSchedule availableSchedule;
+	private final List<VEvent> events = new ArrayList<VEvent>();
+	private final List<VEvent> recurringEvents = new ArrayList<VEvent>();
+	private final List<AvailableBlock> busyBlocks = new ArrayList<AvailableBlock>();
+	private int visitorSequence = 0;
+
+	/**
+	 *
+	 * @param weeks the length of the window, in weeks
+	 * @param recurringEventCount the number of weekly recurring meetings
+	 * @param groupAppointmentsPerWeek the number of group appointments per week
+	 */
+	private OwnerFixture(int weeks, int recurringEventCount, int groupAppointmentsPerWeek) {
+		if(weeks < 1) {
+			throw new IllegalArgumentException("weeks must be greater than 0: " + weeks);
+		}
+		this.random = new Random(31L * weeks + 17L * recurringEventCount + groupAppointmentsPerWeek);
+		this.owner = new MockScheduleOwner(newAccount("owner", "Schedule Owner"), 1);
+		this.owner.setPreference(Preferences.DURATIONS, "30");
+		this.visitor = new MockScheduleVisitor(newAccount("visitor", "Schedule Visitor"));
+		try {
+			this.windowStart = CommonDateOperations.parseDatePhrase(WINDOW_START);
+			this.windowEnd = DateUtils.addWeeks(windowStart, weeks);
+			SortedSet<AvailableBlock> blocks = new TreeSet<AvailableBlock>();
+			blocks.addAll(AvailableBlockBuilder.createBlocks("9:00 AM", "12:00 PM", "MWF", windowStart, windowEnd, 1));
+			blocks.addAll(AvailableBlockBuilder.createBlocks("1:00 PM", "4:00 PM", "TR", windowStart, windowEnd, GROUP_VISITOR_LIMIT));
+			this.availableSchedule = new AvailableSchedule(blocks);
+
+			for(int i = 0; i < recurringEventCount; i++) {
+				addRecurringEvent(weeks);
+			}
+			for(int week = 0; week < weeks; week++) {
+				Date weekStart = DateUtils.addWeeks(windowStart, week);
+				for(int i = 0; i < ONE_OFF_EVENTS_PER_WEEK; i++) {
+					addAttendeeEvent(weekStart, PartStat.ACCEPTED);
+				}
+				for(int i = 0; i < DECLINED_EVENTS_PER_WEEK; i++) {
+					addAttendeeEvent(weekStart, PartStat.DECLINED);
+				}
+				for(int i = 0; i < groupAppointmentsPerWeek; i++) {
+					addGroupAppointment(weekStart);
+				}
+				for(int i = 0; i < VISITOR_APPOINTMENTS_PER_WEEK; i++) {
+					addVisitorAppointment(weekStart);
+				}
+			}
+		} catch (InputFormatException e) {
+			throw new IllegalStateException("fixture date phrases are invalid", e);
+		} catch (ParseException e) {
+			throw new IllegalStateException("fixture recurrence rule is invalid", e);
+		}
+	}
+
+	/**
+	 *
+	 * @param weeks the length of the window, in weeks
+	 * @param recurringEventCount the number of weekly recurring meetings
+	 * @param groupAppointmentsPerWeek the number of group appointments per week
+	 * @return a new fixture
+	 */
+	public static OwnerFixture generate(int weeks, int recurringEventCount, int groupAppointmentsPerWeek) {
+		return new OwnerFixture(weeks, recurringEventCount, groupAppointmentsPerWeek);
+	}
+
+	/**
+	 * @return the owner
+	 */
+	public MockScheduleOwner getOwner() {
+		return owner;
+	}
+	/**
+	 * @return the visitor
+	 */
+	public MockScheduleVisitor getVisitor() {
+		return visitor;
+	}
+	/**
+	 * @return the start of the window (inclusive)
+	 */
+	public Date getWindowStart() {
+		return windowStart;
+	}
+	/**
+	 * @return the end of the window (exclusive)
+	 */
+	public Date getWindowEnd() {
+		return windowEnd;
+	}
+	/**
+	 * @return the owner's available schedule for the window
+	 */
+	public AvailableSchedule getAvailableSchedule() {
+		return availableSchedule;
+	}
+	/**
+	 * @return a new {@link Calendar} containing all of the generated events
+	 */
+	public Calendar getCalendar() {
+		ComponentList components = new ComponentList();
+		components.addAll(events);
+		return new Calendar(components);
+	}
+	/**
+	 * @return all of the generated events
+	 */
+	public List<VEvent> getEvents() {
+		return Collections.unmodifiableList(events);
+	}
+	/**
+	 * @return the generated events that have a recurrence rule
+	 */
+	public List<VEvent> getRecurringEvents() {
+		return Collections.unmodifiableList(recurringEvents);
+	}
+	/**
+	 * @return one {@link AvailableBlock} per instance of every event that conflicts for the owner, recurring instances expanded
+	 */
+	public List<AvailableBlock> getBusyBlocks() {
+		return Collections.unmodifiableList(busyBlocks);
+	}
+	/**
+	 * @return the {@link DefaultEventUtilsImpl} used to generate the appointments
+	 */
+	public DefaultEventUtilsImpl getEventUtils() {
+		return eventUtils;
+	}
+
+	/**
+	 * Add a weekly meeting on a random weekday between 8 AM and 5 PM, lasting 30 - 90 minutes.
+	 *
+	 * @param weeks
+	 * @throws ParseException
+	 */
+	private void addRecurringEvent(int weeks) throws ParseException {
+		Date start = randomWeekdayTime(windowStart, 8 * 60, 17 * 60);
+		Date end = DateUtils.addMinutes(start, 30 + 15 * random.nextInt(5));
+		VEvent event = new VEvent(new DateTime(start), new DateTime(end), "recurring meeting");
+		event.getProperties().add(new RRule(new Recur("FREQ=WEEKLY;COUNT=" + weeks)));
+		event.getProperties().add(newAttendee(owner.getCalendarAccount().getDisplayName(), owner.getCalendarAccount().getEmailAddress(), PartStat.ACCEPTED));
+		event.getProperties().add(new Uid(randomUid()));
+		events.add(event);
+		recurringEvents.add(event);
+		PeriodList instances = eventUtils.calculateRecurrence(event, windowStart, windowEnd);
+		for(Object o : instances) {
+			Period period = (Period) o;
+			busyBlocks.add(AvailableBlockBuilder.createBlock(period.getStart(), period.getEnd()));
+		}
+	}
+
+	/**
+	 * Add an event between 7 AM and 6 PM on an arbitrary minute, lasting 5 - 60 minutes, with
+	 * the owner as an attendee with the specified participation status.
+	 *
+	 * @param weekStart
+	 * @param partStat
+	 */
+	private void addAttendeeEvent(Date weekStart, PartStat partStat) {
+		Date start = randomWeekdayTime(weekStart, 7 * 60, 18 * 60);
+		Date end = DateUtils.addMinutes(start, 5 + random.nextInt(56));
+		VEvent event = new VEvent(new DateTime(start), new DateTime(end), "meeting");
+		event.getProperties().add(newAttendee(owner.getCalendarAccount().getDisplayName(), owner.getCalendarAccount().getEmailAddress(), partStat));
+		event.getProperties().add(new Uid(randomUid()));
+		events.add(event);
+		if(PartStat.ACCEPTED.equals(partStat)) {
+			busyBlocks.add(AvailableBlockBuilder.createBlock(start, end));
+		}
+	}
+
+	/**
+	 * Add a group appointment in a Tuesday/Thursday session with between 1 and {@link #GROUP_VISITOR_LIMIT} visitors.
+	 *
+	 * @param weekStart
+	 */
+	private void addGroupAppointment(Date weekStart) {
+		Date day = DateUtils.addDays(weekStart, random.nextBoolean() ? 1 : 3);
+		Date start = DateUtils.addMinutes(day, 13 * 60 + 30 * random.nextInt(6));
+		AvailableBlock block = AvailableBlockBuilder.createBlock(start, DateUtils.addMinutes(start, 30), GROUP_VISITOR_LIMIT);
+		VEvent event = eventUtils.constructAvailableAppointment(block, owner, newVisitor(), "group appointment");
+		int additionalVisitors = random.nextInt(GROUP_VISITOR_LIMIT);
+		for(int i = 0; i < additionalVisitors; i++) {
+			event.getProperties().add(eventUtils.constructSchedulingAssistantAttendee(newVisitor().getCalendarAccount(), AppointmentRole.VISITOR));
+		}
+		events.add(event);
+		busyBlocks.add(block);
+	}
+
+	/**
+	 * Add a 1 on 1 appointment between the owner and the fixture's visitor in a Monday/Wednesday/Friday session.
+	 *
+	 * @param weekStart
+	 */
+	private void addVisitorAppointment(Date weekStart) {
+		Date day = DateUtils.addDays(weekStart, 2 * random.nextInt(3));
+		Date start = DateUtils.addMinutes(day, 9 * 60 + 30 * random.nextInt(6));
+		AvailableBlock block = AvailableBlockBuilder.createBlock(start, DateUtils.addMinutes(start, 30), 1);
+		events.add(eventUtils.constructAvailableAppointment(block, owner, visitor, "visitor appointment"));
+		busyBlocks.add(block);
+	}
+
+	/**
+	 *
+	 * @param weekStart
+	 * @param earliestMinute minute of the day
+	 * @param latestMinute minute of the day
+	 * @return a random time Monday through Friday of the week
+	 */
+	private Date randomWeekdayTime(Date weekStart, int earliestMinute, int latestMinute) {
+		Date day = DateUtils.addDays(weekStart, random.nextInt(5));
+		return DateUtils.addMinutes(day, earliestMinute + random.nextInt(latestMinute - earliestMinute));
+	}
+
+	/**
+	 *
+	 * @return a new {@link MockScheduleVisitor} with a unique account
+	 */
+	private MockScheduleVisitor newVisitor() {
+		int sequence = ++visitorSequence;
+		return new MockScheduleVisitor(newAccount("visitor" + sequence, "Group Visitor " + sequence));
+	}
+
+	/**
+	 *
+	 * @return a random, but reproducible, UID value
+	 */
+	private String randomUid() {
+		return Long.toHexString(random.nextLong()) + "@fixture.jasig.org";
+	}
+
+	/**
+	 *
+	 * @param username
+	 * @param displayName
+	 * @return a new {@link MockCalendarAccount}
+	 */
+	private static MockCalendarAccount newAccount(String username, String displayName) {
+		MockCalendarAccount account = new MockCalendarAccount();
+		account.setUsername(username);
+		account.setCalendarUniqueId(username);
+		account.setDisplayName(displayName);
+		account.setEmailAddress(username + "@fixture.jasig.org");
+		return account;
+	}
+
+	/**
+	 *
+	 * @param displayName
+	 * @param emailAddress
+	 * @param partStat
+	 * @return an individual {@link Attendee} with the specified participation status
+	 */
+	private static Attendee newAttendee(String displayName, String emailAddress, PartStat partStat) {
+		ParameterList parameterList = new ParameterList();
+		parameterList.add(partStat);
+		parameterList.add(CuType.INDIVIDUAL);
+		parameterList.add(Rsvp.FALSE);
+		parameterList.add(new Cn(displayName));
+		return new Attendee(parameterList, DefaultEventUtilsImpl.emailToURI(emailAddress));
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.component.VAlarm;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Action;
+import net.fortuna.ical4j.model.property.Description;
+import net.fortuna.ical4j.model.property.Location;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.schedassist.impl.caldav.CalendarWithURI;
+import org.jasig.schedassist.impl.caldav.ProjectingCalendarParser;
+import org.jasig.schedassist.impl.caldav.xml.ReportResponseHandlerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link ReportResponseHandlerImpl#extractCalendars(java.io.InputStream)} on
+ * multistatus REPORT bodies of the given size, built from the events of an {@link OwnerFixture}
+ * (one calendar-data element per event, as returned by a CalDAV server).
+ * 
+ * Run with "-prof gc" to compare allocation of the streaming and element text paths.
+ *
+ * @version $Id: ReportResponseHandlerBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportResponseHandlerBenchmark {
+
+	@Param({"1", "8"})
+	private int megabytes;
+
+	/**
+	 * "minimal" events as generated by {@link OwnerFixture}; "typical" events also carry a
+	 * DESCRIPTION, LOCATION and VALARM, as events created by calendar clients usually do.
+	 */
+	@Param({"minimal", "typical"})
+	private String eventDetail;
+
+	private byte [] responseBody;
+	private ReportResponseHandlerImpl streamingHandler;
+	private ReportResponseHandlerImpl elementTextHandler;
+	private ReportResponseHandlerImpl projectingHandler;
+
+	/**
+	 * 
+	 * @throws UnsupportedEncodingException
+	 */
+	@Setup
+	public void setup() throws UnsupportedEncodingException {
+		OwnerFixture fixture = OwnerFixture.generate(12, 10, 4);
+		List<VEvent> events = fixture.getEvents();
+		final long targetSize = megabytes * 1024L * 1024L;
+
+		StringBuilder body = new StringBuilder();
+		body.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
+		body.append("<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n");
+		for(int i = 0; body.length() < targetSize; i++) {
+			ComponentList components = new ComponentList();
+			VEvent event = events.get(i % events.size());
+			if("typical".equals(eventDetail)) {
+				event = withTypicalDetail(event);
+			}
+			components.add(event);
+			String calendarData = new Calendar(components).toString();
+			body.append("<D:response>\n<D:href>/ucaldav/user/owner/calendar/event-").append(i).append(".ics</D:href>\n");
+			body.append("<D:propstat>\n<D:prop>\n<D:getetag>\"").append(i).append("-1\"</D:getetag>\n");
+			body.append("<C:calendar-data>").append(StringEscapeUtils.escapeXml(calendarData)).append("</C:calendar-data>\n");
+			body.append("</D:prop>\n<D:status>HTTP/1.1 200 OK</D:status>\n</D:propstat>\n</D:response>\n");
+		}
+		body.append("</D:multistatus>\n");
+		responseBody = body.toString().getBytes("UTF-8");
+
+		streamingHandler = new ReportResponseHandlerImpl();
+		elementTextHandler = new ReportResponseHandlerImpl();
+		elementTextHandler.setStreamingCalendarData(false);
+		projectingHandler = new ReportResponseHandlerImpl();
+		projectingHandler.setProjection(new ProjectingCalendarParser());
+	}
+
+	/**
+	 * 
+	 * @param source
+	 * @return a copy of the event with a description, location and alarm
+	 */
+	private static VEvent withTypicalDetail(VEvent source) {
+		try {
+			VEvent event = (VEvent) source.copy();
+			event.getProperties().add(new Description(StringUtils.repeat("Agenda item, notes and dial-in details. ", 12)));
+			event.getProperties().add(new Location("Room 1234, Computer Sciences Building"));
+			VAlarm alarm = new VAlarm(new Dur(0, 0, -15, 0));
+			alarm.getProperties().add(Action.DISPLAY);
+			alarm.getProperties().add(new Description("Reminder"));
+			event.getAlarms().add(alarm);
+			return event;
+		} catch (Exception e) {
+			throw new IllegalStateException("failed to copy event", e);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the extracted calendars
+	 */
+	@Benchmark
+	public List<CalendarWithURI> extractCalendarsStreaming() {
+		return streamingHandler.extractCalendars(new ByteArrayInputStream(responseBody));
+	}
+
+	/**
+	 * Baseline: each calendar-data element is read into a String before parsing.
+	 * 
+	 * @return the extracted calendars
+	 */
+	@Benchmark
+	public List<CalendarWithURI> extractCalendarsElementText() {
+		return elementTextHandler.extractCalendars(new ByteArrayInputStream(responseBody));
+	}
+
+	/**
+	 * Streaming, retaining only the properties read to build visible schedules.
+	 * 
+	 * @return the extracted calendars
+	 */
+	@Benchmark
+	public List<CalendarWithURI> extractCalendarsProjected() {
+		return projectingHandler.extractCalendars(new ByteArrayInputStream(responseBody));
+	}
+}
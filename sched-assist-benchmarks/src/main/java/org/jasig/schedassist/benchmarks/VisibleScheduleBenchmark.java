@@ -0,0 +1,112 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.util.Date;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.ArrayBackedVisibleSchedule;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.MeetingDurations;
+import org.jasig.schedassist.model.VisibleSchedule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link VisibleSchedule#setBusyBlock(AvailableBlock)} and {@link VisibleSchedule#subset(Date, Date)},
+ * for both {@link VisibleSchedule} implementations.
+ *
+ * setBusyBlock costs the same whether or not the affected blocks are already busy, so
+ * every invocation applies all of the fixture's busy blocks to the same schedule.
+ *
+ * @version $Id: VisibleScheduleBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisibleScheduleBenchmark {
+
+	@Param({"1", "4", "12", "24"})
+	private int weeks;
+
+	@Param({"5", "40"})
+	private int recurringEvents;
+
+	@Param({"true", "false"})
+	private boolean arrayBacked;
+
+	private List<AvailableBlock> busyBlocks;
+	private VisibleSchedule schedule;
+	private Date subsetStart;
+	private Date subsetEnd;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() {
+		OwnerFixture fixture = OwnerFixture.generate(weeks, recurringEvents, 5);
+		MeetingDurations durations = fixture.getOwner().getPreferredMeetingDurations();
+		SortedSet<AvailableBlock> expanded = AvailableBlockBuilder.expand(fixture.getAvailableSchedule().getAvailableBlocks(), durations.getMinLength());
+		schedule = arrayBacked ? new ArrayBackedVisibleSchedule(durations) : new VisibleSchedule(durations);
+		schedule.addFreeBlocks(expanded);
+		busyBlocks = fixture.getBusyBlocks();
+		// the middle week of the window, the typical visitor page
+		subsetStart = DateUtils.addWeeks(fixture.getWindowStart(), weeks / 2);
+		subsetEnd = DateUtils.addWeeks(subsetStart, 1);
+	}
+
+	/**
+	 *
+	 * @return the schedule
+	 */
+	@Benchmark
+	public VisibleSchedule setBusyBlock() {
+		for(AvailableBlock block : busyBlocks) {
+			schedule.setBusyBlock(block);
+		}
+		return schedule;
+	}
+
+	/**
+	 *
+	 * @return one week of the schedule
+	 */
+	@Benchmark
+	public VisibleSchedule subset() {
+		return schedule.subset(subsetStart, subsetEnd);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.jasig.schedassist.model.VisibleSchedule;
+import org.jasig.schedassist.model.VisibleScheduleBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link VisibleScheduleBuilder}, the code run on every visitor page load.
+ *
+ * @version $Id: VisibleScheduleBuilderBenchmark.java $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisibleScheduleBuilderBenchmark {
+
+	@Param({"1", "4", "12", "24"})
+	private int weeks;
+
+	@Param({"5", "40"})
+	private int recurringEvents;
+
+	@Param({"2", "10"})
+	private int groupAppointmentsPerWeek;
+
+	@Param({"true", "false"})
+	private boolean arrayBackedSchedules;
+
+	private OwnerFixture fixture;
+	private Calendar calendar;
+	private VisibleScheduleBuilder builder;
+
+	/**
+	 *
+	 */
+	@Setup
+	public void setup() {
+		fixture = OwnerFixture.generate(weeks, recurringEvents, groupAppointmentsPerWeek);
+		calendar = fixture.getCalendar();
+		builder = new VisibleScheduleBuilder(fixture.getEventUtils());
+		builder.setArrayBackedSchedules(arrayBackedSchedules);
+	}
+
+	/**
+	 *
+	 * @return the owner's schedule as seen by the visitor
+	 */
+	@Benchmark
+	public VisibleSchedule calculateVisibleSchedule() {
+		return builder.calculateVisibleSchedule(fixture.getWindowStart(), fixture.getWindowEnd(),
+				calendar, fixture.getAvailableSchedule(), fixture.getOwner(), fixture.getVisitor());
+	}
+
+	/**
+	 *
+	 * @return the visitor's conflicts with the owner's schedule
+	 */
+	@Benchmark
+	public VisibleSchedule calculateVisitorConflicts() {
+		return builder.calculateVisitorConflicts(fixture.getWindowStart(), fixture.getWindowEnd(),
+				calendar, fixture.getAvailableSchedule(), fixture.getOwner().getPreferredMeetingDurations(), fixture.getVisitor());
+	}
+}
@@ -26,22 +26,40 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.DateList;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.PropertyList;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.parameter.FbType;
 import net.fortuna.ical4j.model.parameter.PartStat;
 import net.fortuna.ical4j.model.property.Attendee;
+import net.fortuna.ical4j.model.property.FreeBusy;
+import net.fortuna.ical4j.model.property.RDate;
 import net.fortuna.ical4j.model.property.Status;
 import net.fortuna.ical4j.model.property.Uid;
 import net.fortuna.ical4j.model.property.Version;
@@ -64,6 +82,7 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.impl.auth.BasicScheme;
@@ -73,7 +92,9 @@ import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
+import org.jasig.schedassist.ConditionalCalendarDataDao;
 import org.jasig.schedassist.ConflictExistsException;
+import org.jasig.schedassist.FreeBusyDataDao;
 import org.jasig.schedassist.ICalendarDataDao;
 import org.jasig.schedassist.NullAffiliationSourceImpl;
 import org.jasig.schedassist.SchedulingException;
@@ -81,6 +102,8 @@ import org.jasig.schedassist.impl.caldav.xml.ReportResponseHandlerImpl;
 import org.jasig.schedassist.impl.events.AutomaticAppointmentCancellationEvent;
 import org.jasig.schedassist.impl.events.AutomaticAppointmentCancellationEvent.Reason;
 import org.jasig.schedassist.impl.events.AutomaticAttendeeRemovalEvent;
+import org.jasig.schedassist.impl.owner.AppointmentIndexDao;
+import org.jasig.schedassist.impl.owner.IndexedAppointment;
 import org.jasig.schedassist.model.AppointmentRole;
 import org.jasig.schedassist.model.AvailabilityReflection;
 import org.jasig.schedassist.model.AvailableBlock;
@@ -94,10 +117,13 @@ import org.jasig.schedassist.model.IScheduleOwner;
 import org.jasig.schedassist.model.IScheduleVisitor;
 import org.jasig.schedassist.model.SchedulingAssistantAppointment;
 import org.jasig.schedassist.model.VisitorLimit;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 /**
@@ -122,16 +148,20 @@ import org.springframework.stereotype.Service;
  * 
  * Lastly this instance constructs a {@link NoopHttpMethodInterceptorImpl} instance; if you need to
  * override the {@link HttpMethodInterceptor} a setter is provided ({@link #setMethodInterceptor(HttpMethodInterceptor)}).
+ * 
+ * If the {@link CaldavDialect} supports the free-busy-query REPORT, {@link #getBusyPeriods(ICalendarAccount, Date, Date)}
+ * uses it, and {@link #checkForConflicts(IScheduleOwner, AvailableBlock)} consults busy periods rather than event data.
  *
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: CaldavCalendarDataDaoImpl.java 50 2011-05-05 21:07:25Z nblair $
  */
 @Service("caldavCalendarDataDao")
-public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, InitializingBean {
+public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, FreeBusyDataDao, ConditionalCalendarDataDao, InitializingBean, DisposableBean {
 
 	static final Header IF_NONE_MATCH_HEADER = new BasicHeader("If-None-Match", "*");
 	static final Header ICALENDAR_CONTENT_TYPE_HEADER = new BasicHeader("Content-Type", "text/calendar");
 	static final String IF_MATCH_HEADER = "If-Match";
+	static final String ETAG_HEADER = "ETag";
 
 	private static final Header DEPTH_HEADER = new BasicHeader("Depth", "1");
 	protected final Log log = LogFactory.getLog(this.getClass());
@@ -145,10 +175,27 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	private HttpMethodInterceptor methodInterceptor = new NoopHttpMethodInterceptorImpl();
 	private boolean cancelUpdatesVisitorCalendar = false;
 	private boolean reflectionEnabled = false;
+	private int reflectionParallelism = 4;
+	private ThreadPoolExecutor reflectionExecutor;
 	private boolean preemptiveAuthenticationEnabled = false;
 	private boolean getCalendarPerformsPurgeDeclinedAttendees = true;
 	private AuthScheme preemptiveAuthenticationScheme;
 	private ApplicationEventPublisher applicationEventPublisher;
+	private CalendarFetchCoalescer calendarFetchCoalescer;
+	private CalendarMirror calendarMirror;
+	private DeclinedAttendeeReconciler declinedAttendeeReconciler;
+	private Clock clock = Clock.SYSTEM;
+	private ReportResponseHandlerImpl reportResponseHandler = new ReportResponseHandlerImpl();
+	private ReportResponseHandlerImpl projectingReportResponseHandler = newProjectingReportResponseHandler();
+	private boolean getCalendarUsesProjection = false;
+	private AppointmentIndexDao appointmentIndexDao;
+	private boolean appointmentIndexEnabled = false;
+	private int conflictRetries = 3;
+	private long conflictRetryBackoffMillis = 50L;
+	private boolean verifyConditionalCreate = true;
+	private final AtomicLong conflictRetryCount = new AtomicLong();
+	private final AtomicLong conflictRetrySuccessCount = new AtomicLong();
+	private final AtomicLong conflictRetryExhaustedCount = new AtomicLong();
 
 	/**
 	 * @param httpClient the httpClient to set
@@ -240,6 +287,83 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			ApplicationEventPublisher applicationEventPublisher) {
 		this.applicationEventPublisher = applicationEventPublisher;
 	}
+	/**
+	 * @return the calendarFetchCoalescer
+	 */
+	public CalendarFetchCoalescer getCalendarFetchCoalescer() {
+		return calendarFetchCoalescer;
+	}
+	/**
+	 * Optional; if set, concurrent {@link #getCalendar(ICalendarAccount, Date, Date)} requests
+	 * for the same account share a single REPORT.
+	 * 
+	 * @param calendarFetchCoalescer the calendarFetchCoalescer to set
+	 */
+	@Autowired(required=false)
+	public void setCalendarFetchCoalescer(CalendarFetchCoalescer calendarFetchCoalescer) {
+		this.calendarFetchCoalescer = calendarFetchCoalescer;
+	}
+	/**
+	 * @return the calendarMirror
+	 */
+	public CalendarMirror getCalendarMirror() {
+		return calendarMirror;
+	}
+	/**
+	 * Optional; if set, {@link #getCalendar(ICalendarAccount, Date, Date)} reads from the {@link CalendarMirror},
+	 * fetching only the resources that changed since the previous read.
+	 * 
+	 * @param calendarMirror the calendarMirror to set
+	 */
+	@Autowired(required=false)
+	public void setCalendarMirror(CalendarMirror calendarMirror) {
+		this.calendarMirror = calendarMirror;
+	}
+	/**
+	 * @return the declinedAttendeeReconciler
+	 */
+	public DeclinedAttendeeReconciler getDeclinedAttendeeReconciler() {
+		return declinedAttendeeReconciler;
+	}
+	/**
+	 * Optional; if set (and {@link #isGetCalendarPerformsPurgeDeclinedAttendees()}), reads queue appointments with 
+	 * declined attendees on the {@link DeclinedAttendeeReconciler} rather than purging them before returning.
+	 * 
+	 * @param declinedAttendeeReconciler the declinedAttendeeReconciler to set
+	 */
+	@Autowired(required=false)
+	public void setDeclinedAttendeeReconciler(DeclinedAttendeeReconciler declinedAttendeeReconciler) {
+		this.declinedAttendeeReconciler = declinedAttendeeReconciler;
+	}
+	/**
+	 * @return the clock
+	 */
+	public Clock getClock() {
+		return clock;
+	}
+	/**
+	 * Source of the current time for deciding whether an appointment is in the past; defaults to {@link Clock#SYSTEM}.
+	 * 
+	 * @param clock the clock to set
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+	/**
+	 * @return the reportResponseHandler
+	 */
+	public ReportResponseHandlerImpl getReportResponseHandler() {
+		return reportResponseHandler;
+	}
+	/**
+	 * Optional; a default {@link ReportResponseHandlerImpl} is used if not set.
+	 * 
+	 * @param reportResponseHandler the reportResponseHandler to set
+	 */
+	@Autowired(required=false)
+	public void setReportResponseHandler(ReportResponseHandlerImpl reportResponseHandler) {
+		this.reportResponseHandler = reportResponseHandler;
+	}
 	/**
 	 * @param cancelUpdatesVisitorCalendar the cancelUpdatesVisitorCalendar to set
 	 */
@@ -254,6 +378,23 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	public void setReflectionEnabled(boolean reflectionEnabled) {
 		this.reflectionEnabled = reflectionEnabled;
 	}
+	/**
+	 * @return the reflectionParallelism
+	 */
+	public int getReflectionParallelism() {
+		return reflectionParallelism;
+	}
+	/**
+	 * The number of DELETE and PUT requests {@link #reflectAvailableSchedule(IScheduleOwner, AvailableSchedule)} issues at once,
+	 * across all owners: the requests run on a pool of this many threads shared by all calls.
+	 * Must be set before the first reflection. Default is 4.
+	 * 
+	 * @param reflectionParallelism the reflectionParallelism to set
+	 */
+	@Value("${caldav.reflectionParallelism:4}")
+	public void setReflectionParallelism(int reflectionParallelism) {
+		this.reflectionParallelism = reflectionParallelism;
+	}
 	/**
 	 * @return the cancelUpdatesVisitorCalendar
 	 */
@@ -313,6 +454,161 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			boolean getCalendarPerformsPurgeDeclinedAttendees) {
 		this.getCalendarPerformsPurgeDeclinedAttendees = getCalendarPerformsPurgeDeclinedAttendees;
 	}
+	/**
+	 * @return the getCalendarUsesProjection
+	 */
+	public boolean isGetCalendarUsesProjection() {
+		return getCalendarUsesProjection;
+	}
+	/**
+	 * If true, {@link #getCalendar(ICalendarAccount, Date, Date)} parses events with a {@link ProjectingCalendarParser}:
+	 * the returned events contain only the properties needed to build visible schedules.
+	 * The REPORT request is from {@link CaldavDialect#generateGetVisibleScheduleCalendarRequestEntity(Date, Date)}, 
+	 * allowing the dialect to also narrow the request on the server.
+	 * Default is false.
+	 * 
+	 * @param getCalendarUsesProjection the getCalendarUsesProjection to set
+	 */
+	@Value("${caldav.getCalendarUsesProjection:false}")
+	public void setGetCalendarUsesProjection(boolean getCalendarUsesProjection) {
+		this.getCalendarUsesProjection = getCalendarUsesProjection;
+	}
+	/**
+	 * @return the {@link ReportResponseHandlerImpl} used by {@link #getCalendar(ICalendarAccount, Date, Date)} when {@link #isGetCalendarUsesProjection()}
+	 */
+	public ReportResponseHandlerImpl getProjectingReportResponseHandler() {
+		return projectingReportResponseHandler;
+	}
+	/**
+	 * @param projectingReportResponseHandler the projectingReportResponseHandler to set
+	 */
+	public void setProjectingReportResponseHandler(
+			ReportResponseHandlerImpl projectingReportResponseHandler) {
+		this.projectingReportResponseHandler = projectingReportResponseHandler;
+	}
+	/**
+	 * @return the appointmentIndexDao
+	 */
+	public AppointmentIndexDao getAppointmentIndexDao() {
+		return appointmentIndexDao;
+	}
+	/**
+	 * Optional; used only if {@link #isAppointmentIndexEnabled()}.
+	 * 
+	 * @param appointmentIndexDao the appointmentIndexDao to set
+	 */
+	@Autowired(required=false)
+	public void setAppointmentIndexDao(AppointmentIndexDao appointmentIndexDao) {
+		this.appointmentIndexDao = appointmentIndexDao;
+	}
+	/**
+	 * @return the appointmentIndexEnabled
+	 */
+	public boolean isAppointmentIndexEnabled() {
+		return appointmentIndexEnabled;
+	}
+	/**
+	 * If true (and an {@link AppointmentIndexDao} is set), the href of each appointment is indexed, 
+	 * and existing appointments are fetched from the indexed href rather than located with a REPORT.
+	 * Requires the appointment_index table. Default is false.
+	 * 
+	 * @param appointmentIndexEnabled the appointmentIndexEnabled to set
+	 */
+	@Value("${caldav.appointmentIndexEnabled:false}")
+	public void setAppointmentIndexEnabled(boolean appointmentIndexEnabled) {
+		this.appointmentIndexEnabled = appointmentIndexEnabled;
+	}
+	/**
+	 * 
+	 * @return true if {@link #isAppointmentIndexEnabled()} and an {@link AppointmentIndexDao} is set
+	 */
+	protected boolean isAppointmentIndexActive() {
+		return this.appointmentIndexEnabled && this.appointmentIndexDao != null;
+	}
+	/**
+	 * @return the conflictRetries
+	 */
+	public int getConflictRetries() {
+		return conflictRetries;
+	}
+	/**
+	 * The number of times joinAppointment and leaveAppointment retry after the appointment 
+	 * was altered concurrently (412 Precondition Failed). Default is 3; 0 disables retries.
+	 * 
+	 * @param conflictRetries the conflictRetries to set
+	 */
+	@Value("${caldav.conflictRetries:3}")
+	public void setConflictRetries(int conflictRetries) {
+		this.conflictRetries = conflictRetries;
+	}
+	/**
+	 * @return the conflictRetryBackoffMillis
+	 */
+	public long getConflictRetryBackoffMillis() {
+		return conflictRetryBackoffMillis;
+	}
+	/**
+	 * The base wait before a retry, doubled for each further retry (see {@link #backoff(int)}). Default is 50.
+	 * 
+	 * @param conflictRetryBackoffMillis the conflictRetryBackoffMillis to set
+	 */
+	@Value("${caldav.conflictRetryBackoffMillis:50}")
+	public void setConflictRetryBackoffMillis(long conflictRetryBackoffMillis) {
+		this.conflictRetryBackoffMillis = conflictRetryBackoffMillis;
+	}
+	/**
+	 * @return the verifyConditionalCreate
+	 */
+	public boolean isVerifyConditionalCreate() {
+		return verifyConditionalCreate;
+	}
+	/**
+	 * If true, {@link #createAppointmentIfAbsent(IScheduleVisitor, IScheduleOwner, AvailableBlock, String)} examines the
+	 * other events in the block after storing the appointment (one REPORT), and removes the appointment if any conflict.
+	 * Default is true. If false, only another appointment created by that method for the same block is detected; 
+	 * events the owner added since the visitor's schedule was built are not, and the appointment may double book the owner.
+	 * 
+	 * @param verifyConditionalCreate the verifyConditionalCreate to set
+	 */
+	@Value("${caldav.verifyConditionalCreate:true}")
+	public void setVerifyConditionalCreate(boolean verifyConditionalCreate) {
+		this.verifyConditionalCreate = verifyConditionalCreate;
+	}
+	/**
+	 * @return the number of retries after an appointment was altered concurrently
+	 */
+	public long getConflictRetryCount() {
+		return conflictRetryCount.get();
+	}
+	/**
+	 * @return the number of joinAppointment and leaveAppointment calls that succeeded after retrying
+	 */
+	public long getConflictRetrySuccessCount() {
+		return conflictRetrySuccessCount.get();
+	}
+	/**
+	 * @return the number of joinAppointment and leaveAppointment calls that failed after all retries
+	 */
+	public long getConflictRetryExhaustedCount() {
+		return conflictRetryExhaustedCount.get();
+	}
+	/**
+	 * Reset the conflict retry counters to 0.
+	 */
+	public void resetStatistics() {
+		conflictRetryCount.set(0);
+		conflictRetrySuccessCount.set(0);
+		conflictRetryExhaustedCount.set(0);
+	}
+	/**
+	 * 
+	 * @return a {@link ReportResponseHandlerImpl} with a default {@link ProjectingCalendarParser}
+	 */
+	protected static ReportResponseHandlerImpl newProjectingReportResponseHandler() {
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		handler.setProjection(new ProjectingCalendarParser());
+		return handler;
+	}
 	/**
 	 * 
 	 * @param scheme
@@ -338,13 +634,33 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			this.preemptiveAuthenticationScheme = identifyScheme(caldavAdminAuthScope.getScheme());
 		}
 	}
+	/**
+	 * Invokes {@link ThreadPoolExecutor#shutdownNow()} on the pool used by {@link #executeReflectionRequests(IScheduleOwner, List)}, if created.
+	 * 
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public synchronized void destroy() throws Exception {
+		if(reflectionExecutor != null) {
+			reflectionExecutor.shutdownNow();
+			reflectionExecutor = null;
+		}
+	}
 	/* (non-Javadoc)
 	 * @see org.jasig.schedassist.ICalendarDataDao#getCalendar(org.jasig.schedassist.model.ICalendarAccount, java.util.Date, java.util.Date)
 	 */
 	@Override
 	public Calendar getCalendar(ICalendarAccount calendarAccount,
 			Date startDate, Date endDate) {
-		List<CalendarWithURI> calendars = getCalendarsInternal(calendarAccount, startDate, endDate);
+		if(calendarFetchCoalescer != null) {
+			return calendarFetchCoalescer.getCalendar(calendarAccount, startDate, endDate, new CalendarFetchCoalescer.CalendarLoader() {
+				@Override
+				public Calendar loadCalendar(ICalendarAccount account, Date start, Date end) {
+					return consolidate(getCalendarsForVisibleSchedule(account, start, end));
+				}
+			});
+		}
+		List<CalendarWithURI> calendars = getCalendarsForVisibleSchedule(calendarAccount, startDate, endDate);
 		Calendar result = consolidate(calendars);
 		return result;
 	}
@@ -380,6 +696,10 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 				log.debug("createAppointment status code: " + statusCode);
 			}
 			if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED) {
+				if(isAppointmentIndexActive()) {
+					String eventHref = URI.create(generateEventUri(owner.getCalendarAccount(), event)).getRawPath();
+					indexAppointment(owner, block.getStartTime(), block.getEndTime(), new IndexedAppointment(event.getUid().getValue(), eventHref));
+				}
 				return event;
 			} else {
 				throw new CaldavDataAccessException("createAppointment for " + visitor + ", " + owner + ", " + block + " failed with unexpected status code: " + statusCode);
@@ -393,6 +713,56 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		} 
 	}
 
+	/**
+	 * The appointment is stored at an href derived from the owner and the start of the block 
+	 * (see {@link #generateSlotResourceName(IScheduleOwner, AvailableBlock)}), and so at the same href as any other appointment
+	 * for the block created by this method; the PUT sends "If-None-Match: *", so the server refuses it with
+	 * 412 Precondition Failed if such an appointment exists. The UID of the appointment remains unique 
+	 * (see {@link IEventUtils#generateNewUid()}).
+	 * 
+	 * Other events in the owner's calendar are only examined if {@link #isVerifyConditionalCreate()} is true.
+	 * 
+	 * @see org.jasig.schedassist.ConditionalCalendarDataDao#createAppointmentIfAbsent(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, org.jasig.schedassist.model.AvailableBlock, java.lang.String)
+	 */
+	@Override
+	public VEvent createAppointmentIfAbsent(IScheduleVisitor visitor,
+			IScheduleOwner owner, AvailableBlock block, String eventDescription) throws ConflictExistsException {
+		VEvent event = this.eventUtils.constructAvailableAppointment(
+				block, 
+				owner,
+				visitor, 
+				eventDescription);
+		String eventUri = generateEventUri(owner.getCalendarAccount(), generateSlotResourceName(owner, block));
+		try {
+			int statusCode = putNewEvent(owner.getCalendarAccount(), event, eventUri);
+			if(log.isDebugEnabled()) {
+				log.debug("createAppointmentIfAbsent status code: " + statusCode);
+			}
+			if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED) {
+				String eventHref = URI.create(eventUri).getRawPath();
+				if(verifyConditionalCreate) {
+					verifyNoConflicts(owner, block, event, eventHref);
+				}
+				if(isAppointmentIndexActive()) {
+					indexAppointment(owner, block.getStartTime(), block.getEndTime(), new IndexedAppointment(event.getUid().getValue(), eventHref));
+				}
+				return event;
+			} else if (statusCode == HttpStatus.SC_PRECONDITION_FAILED) {
+				if(log.isDebugEnabled()) {
+					log.debug("createAppointmentIfAbsent found existing appointment for " + owner + " at block " + block);
+				}
+				throw new ConflictExistsException("an appointment already exists for " + block);
+			} else {
+				throw new CaldavDataAccessException("createAppointmentIfAbsent for " + visitor + ", " + owner + ", " + block + " failed with unexpected status code: " + statusCode);
+			}
+		} catch (HttpException e) {
+			log.error("an HttpException occurred in createAppointmentIfAbsent for " + owner + ", " + visitor + ", " + block);
+			throw new CaldavDataAccessException(e);
+		} catch (IOException e) {
+			log.error("an IOException occurred in createAppointmentIfAbsent for " + owner + ", " + visitor + ", " + block);
+			throw new CaldavDataAccessException(e);
+		} 
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.ICalendarDataDao#cancelAppointment(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, net.fortuna.ical4j.model.component.VEvent)
@@ -412,6 +782,9 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			if(log.isDebugEnabled()) {
 				log.debug("cancelAppointment status code " + status + " for " + owner + ", " + eventUid);
 			}
+			if(isAppointmentIndexActive()) {
+				unindexAppointment(owner, startTime, endTime);
+			}
 
 			if(cancelUpdatesVisitorCalendar) {
 				CalendarWithURI visitorCalendarWithURI = getExistingAppointmentInternalForVisitor(visitor, startTime, endTime, eventUid);
@@ -429,6 +802,20 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		}
 	}
 
+	/**
+	 * Remove the {@link AppointmentIndexDao} entries for appointments that have ended.
+	 */
+	@Scheduled(fixedDelay=3600000)
+	public void removeExpiredAppointmentIndexEntries() {
+		if(isAppointmentIndexActive()) {
+			try {
+				this.appointmentIndexDao.removeEndingBefore(new Date());
+			} catch (DataAccessException e) {
+				log.warn("failed to remove expired appointment index entries", e);
+			}
+		}
+	}
+
 	/**
 	 * Construct an {@link HttpContext} with a {@link CredentialsProvider} appropriate
 	 * for the {@link ICalendarAccount} argument.
@@ -449,6 +836,61 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		context.setAttribute(ClientContext.CREDS_PROVIDER, credentialsProvider);
 		return context;
 	}
+	/**
+	 * 
+	 * @param attendeeList
+	 * @return true if any of the attendees has PARTSTAT=DECLINED
+	 */
+	protected boolean hasDeclinedAttendee(PropertyList attendeeList) {
+		for(Object a : attendeeList) {
+			Property attendee = (Property) a;
+			if(PartStat.DECLINED.equals(attendee.getParameter(PartStat.PARTSTAT))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Retrieve the complete calendar resource with a GET, for a {@link CalendarWithURI} that was projected.
+	 * 
+	 * @param calendarWithURI
+	 * @param calendarAccount
+	 * @return the complete calendar and current etag, or null if the resource no longer exists
+	 */
+	protected CalendarWithURI getCompleteCalendar(CalendarWithURI calendarWithURI, ICalendarAccount calendarAccount) {
+		URI uri = this.caldavDialect.resolveCalendarURI(calendarWithURI);
+		HttpGet method = new HttpGet(uri.toString());
+		if(log.isDebugEnabled()) {
+			log.debug("getCompleteCalendar executing " + methodToString(method) + " for " + calendarAccount);
+		}
+		HttpRequest toExecute = methodInterceptor.doWithMethod(method, calendarAccount);
+		final HttpContext context = constructHttpContext(calendarAccount);
+
+		HttpEntity entity = null;
+		try {
+			HttpResponse response = this.httpClient.execute(httpHost, toExecute, context);
+			entity = response.getEntity();
+			int statusCode = response.getStatusLine().getStatusCode();
+			log.debug("getCompleteCalendar status code: " + statusCode);
+			if(statusCode == HttpStatus.SC_OK) {
+				Calendar calendar = new CalendarBuilder().build(entity.getContent());
+				Header etag = response.getFirstHeader(ETAG_HEADER);
+				return new CalendarWithURI(calendar, calendarWithURI.getUri(), etag != null ? etag.getValue() : calendarWithURI.getEtag());
+			} else if (statusCode == HttpStatus.SC_NOT_FOUND) {
+				return null;
+			} else {
+				throw new CaldavDataAccessException("getCompleteCalendar for " + calendarAccount + ", " + calendarWithURI +" failed with unexpected status code: " + statusCode);
+			}
+		} catch (ParserException e) {
+			log.error("a ParserException occurred in getCompleteCalendar for " + calendarAccount + ", " + calendarWithURI);
+			throw new CaldavDataFormatException(e);
+		} catch (IOException e) {
+			log.error("an IOException occurred in getCompleteCalendar for " + calendarAccount + ", " + calendarWithURI);
+			throw new CaldavDataAccessException(e);
+		} finally {
+			quietlyConsume(entity);
+		}
+	}
 	/**
 	 * 
 	 * @param calendarWithURI
@@ -480,6 +922,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			throw new CaldavDataAccessException(e);
 		} finally {
 			quietlyConsume(entity);
+			invalidateInFlightFetches(calendarAccount);
 		}
 	}
 
@@ -487,33 +930,30 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 * @see org.jasig.schedassist.ICalendarDataDao#joinAppointment(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, net.fortuna.ical4j.model.component.VEvent)
 	 */
 	@Override
-	public VEvent joinAppointment(IScheduleVisitor visitor,
-			IScheduleOwner owner, VEvent appointment)
+	public VEvent joinAppointment(final IScheduleVisitor visitor,
+			final IScheduleOwner owner, VEvent appointment)
 					throws SchedulingException {
 		Date startTime = appointment.getStartDate().getDate();
 		Date endTime = appointment.getEndDate(true).getDate();
 
 		CalendarWithURI calendarWithURI = getExistingAppointmentInternal(owner, startTime, endTime);
 		if(null != calendarWithURI) {
-			VEvent event = extractSchedulingAssistantAppointment(calendarWithURI);
-
-			Attendee attendee = this.eventUtils.constructSchedulingAssistantAttendee(visitor.getCalendarAccount(), AppointmentRole.VISITOR);
-			event.getProperties().add(attendee);
-			try {
-				int statusCode = putExistingEvent(owner.getCalendarAccount(), event, calendarWithURI.getEtag());
-				log.debug("joinAppointment status code: " + statusCode);
-				if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
-					return event;
-				} else if (statusCode == HttpStatus.SC_PRECONDITION_FAILED) {
-					// event changed in the interim, fail fast
-					throw new SchedulingException("joinAppointment failed for " + visitor + " and " + owner + ", appointment was altered");
-				} else {
-					throw new CaldavDataAccessException("joinAppointment for " + visitor + ", " + owner + ", " + startTime + " failed with unexpected status code: " + statusCode);
+			return updateExistingAppointment("joinAppointment", visitor, owner, startTime, endTime, calendarWithURI, new AppointmentUpdate() {
+				@Override
+				public boolean apply(VEvent event) throws SchedulingException {
+					if(eventUtils.isAttendingAsVisitor(event, visitor.getCalendarAccount())) {
+						// already joined (e.g. the altered appointment is our own earlier attempt)
+						return false;
+					}
+					Property visitorLimitProp = event.getProperty(VisitorLimit.VISITOR_LIMIT);
+					if(visitorLimitProp != null && eventUtils.getScheduleVisitorCount(event) >= Integer.parseInt(visitorLimitProp.getValue())) {
+						throw new SchedulingException("visitor limit for this appointment has been met");
+					}
+					Attendee attendee = eventUtils.constructSchedulingAssistantAttendee(visitor.getCalendarAccount(), AppointmentRole.VISITOR);
+					event.getProperties().add(attendee);
+					return true;
 				}
-			} catch (IOException e) {
-				log.error("an IOException occurred in joinAppointment for " + owner + ", " + visitor + ", " + startTime);
-				throw new CaldavDataAccessException(e);
-			} 
+			});
 		} else {
 			log.warn("cannot joinAppointment for " + owner + ", no matching appointment found (" + appointment + ")");
 			throw new SchedulingException("joinAppointment failed for " + visitor + " and " + owner + ", no matching appointment found");
@@ -524,7 +964,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 * @see org.jasig.schedassist.ICalendarDataDao#leaveAppointment(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, net.fortuna.ical4j.model.component.VEvent)
 	 */
 	@Override
-	public VEvent leaveAppointment(IScheduleVisitor visitor,
+	public VEvent leaveAppointment(final IScheduleVisitor visitor,
 			IScheduleOwner owner, VEvent appointment)
 					throws SchedulingException {
 		Date startTime = appointment.getStartDate().getDate();
@@ -532,25 +972,20 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 
 		CalendarWithURI calendarWithURI = getExistingAppointmentInternal(owner, startTime, endTime);
 		if(null != calendarWithURI) {
-			VEvent event = extractSchedulingAssistantAppointment(calendarWithURI);
-			Uid eventUid = event.getUid();
-			Property attendee = this.eventUtils.getAttendeeForUserFromEvent(event, visitor.getCalendarAccount());
-			event.getProperties().remove(attendee);
-			try {
-				int statusCode = putExistingEvent(owner.getCalendarAccount(), event, calendarWithURI.getEtag());
-				log.debug("leaveAppointment status code: " + statusCode);
-				if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
-					log.debug("leaveAppointment owner calendar update successful");
-				} else if (statusCode == HttpStatus.SC_PRECONDITION_FAILED) {
-					// event changed in the interim, fail fast
-					throw new SchedulingException("leaveAppointment failed for " + visitor + " and " + owner + ", appointment was altered");
-				} else {
-					throw new CaldavDataAccessException("leaveAppointment for " + visitor + ", " + owner + ", " + startTime + " failed with unexpected status code: " + statusCode);
+			VEvent event = updateExistingAppointment("leaveAppointment", visitor, owner, startTime, endTime, calendarWithURI, new AppointmentUpdate() {
+				@Override
+				public boolean apply(VEvent event) {
+					Property attendee = eventUtils.getAttendeeForUserFromEvent(event, visitor.getCalendarAccount());
+					if(attendee == null) {
+						// already left
+						return false;
+					}
+					event.getProperties().remove(attendee);
+					return true;
 				}
-			} catch (IOException e) {
-				log.error("an IOException occurred in leaveAppointment for " + owner + ", " + visitor + ", " + startTime);
-				throw new CaldavDataAccessException(e);
-			} 
+			});
+			log.debug("leaveAppointment owner calendar update successful");
+			Uid eventUid = event.getUid();
 
 			if(cancelUpdatesVisitorCalendar) {
 				CalendarWithURI visitorCalendarWithURI = getExistingAppointmentInternalForVisitor(visitor, startTime, endTime, eventUid);
@@ -579,6 +1014,20 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		// use a start and end time slightly smaller than the block to avoid events that start/end on the edge of the block
 		Date start = DateUtils.addSeconds(block.getStartTime(), 1);
 		Date end = DateUtils.addSeconds(block.getEndTime(), -1);
+		PeriodList busyPeriods = getBusyPeriods(owner.getCalendarAccount(), start, end);
+		if(busyPeriods != null) {
+			for(Object o : busyPeriods) {
+				Period period = (Period) o;
+				if(period.getStart().before(end) && period.getEnd().after(start)) {
+					if(log.isDebugEnabled()) {
+						log.debug("conflict detected for " + owner + " at block " + block + ", busy period: " + period);
+					}
+					throw new ConflictExistsException("an appointment already exists for " + block);
+				}
+			}
+			return;
+		}
+		// free-busy-query unavailable, examine the events
 		List<CalendarWithURI> calendars = getCalendarsInternal(owner.getCalendarAccount(), start, end);
 		for(CalendarWithURI calendar: calendars) {
 			ComponentList events = calendar.getCalendar().getComponents(VEvent.VEVENT);
@@ -594,49 +1043,149 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		}
 	}
 
-	/* (non-Javadoc)
-	 * @see org.jasig.schedassist.ICalendarDataDao#reflectAvailableSchedule(org.jasig.schedassist.model.IScheduleOwner, org.jasig.schedassist.model.AvailableSchedule)
+	/**
+	 * Retrieve the busy periods with a free-busy-query REPORT (RFC 4791 section 7.10) against the account's calendar home.
+	 * 
+	 * Periods with FBTYPE=FREE are ignored; the remaining types (BUSY, the default, BUSY-TENTATIVE and BUSY-UNAVAILABLE)
+	 * are all returned, as events with those statuses cause conflicts.
+	 * 
+	 * @return the busy periods, or null if the {@link CaldavDialect} does not support free-busy-query or 
+	 * the server did not answer it with a VFREEBUSY
+	 * @see org.jasig.schedassist.FreeBusyDataDao#getBusyPeriods(org.jasig.schedassist.model.ICalendarAccount, java.util.Date, java.util.Date)
 	 */
 	@Override
-	public void reflectAvailableSchedule(IScheduleOwner owner,
-			AvailableSchedule schedule) {
-		if(reflectionEnabled) {
-			if(schedule.isEmpty()) {
-				return;
-			}
-			Date startDate = CommonDateOperations.beginningOfDay(schedule.getScheduleStartTime());
-			Date endDate = CommonDateOperations.endOfDay(schedule.getScheduleEndTime());
-			purgeAvailableScheduleReflections(owner, startDate, endDate);
+	public PeriodList getBusyPeriods(ICalendarAccount calendarAccount,
+			Date startDate, Date endDate) {
+		if(!caldavDialect.isFreeBusyQuerySupported()) {
+			return null;
+		}
+		String accountUri = this.caldavDialect.getCalendarAccountHome(calendarAccount);
+		ReportMethod method = new ReportMethod(accountUri);
+		method.setEntity(caldavDialect.generateFreeBusyQueryRequestEntity(startDate, endDate));
+		method.addHeader(DEPTH_HEADER);
+		if(log.isDebugEnabled()) {
+			log.debug("getBusyPeriods executing " + methodToString(method) + " for " + calendarAccount + ", start " + startDate + ", end " + endDate);
+		}
+		HttpRequest toExecute = methodInterceptor.doWithMethod(method,calendarAccount);
+		final HttpContext context = constructHttpContext(calendarAccount);
 
-			List<Calendar> calendars = this.eventUtils.convertScheduleForReflection(schedule);
-			for(Calendar calendar: calendars) {
-				Uid uid = this.eventUtils.extractUid(calendar);
-				if(uid != null) {
-					//put!
-					try {
-						int statusCode = putNewCalendar(owner.getCalendarAccount(), calendar, uid.getValue());
-						if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
-							//success
-						} else {
-							throw new CaldavDataAccessException("reflectAvailableSchedule for " + owner  + " failed with unexpected status code: " + statusCode);
-						}
-					} catch (HttpException e) {
-						log.error("an HttpException occurred in reflectAvailableSchedule for " + owner);
-						throw new CaldavDataAccessException(e);
-					} catch (IOException e) {
-						log.error("an IOException occurred in reflectAvailableSchedule for " + owner);
-						throw new CaldavDataAccessException(e);
-					}
-				} else {
-					log.warn("cannot store reflection for calendar with no UID: " + calendar);
-				}
+		HttpEntity entity = null;
+		try {
+			HttpResponse response = this.httpClient.execute(httpHost, toExecute, context);
+			entity = response.getEntity();
+			int statusCode = response.getStatusLine().getStatusCode();
+			log.debug("getBusyPeriods status code: " + statusCode);
+			if(statusCode == HttpStatus.SC_OK) {
+				Calendar calendar = new CalendarBuilder().build(entity.getContent());
+				return extractBusyPeriods(calendar);
 			}
-		} else {
-			log.debug("experimental feature 'Availability Schedule reflection' disabled by default");
+			log.info("free-busy-query for " + calendarAccount + " returned unexpected status code: " + statusCode + ", falling back to calendar-query");
+			return null;
+		} catch (ParserException e) {
+			log.warn("a ParserException occurred in getBusyPeriods for " + calendarAccount + ", falling back to calendar-query", e);
+			return null;
+		} catch (IOException e) {
+			log.error("an IOException occurred in getBusyPeriods for " + calendarAccount + ", " + startDate + ", " + endDate);
+			throw new CaldavDataAccessException(e);
+		} finally {
+			quietlyConsume(entity);
 		}
 	}
-
-	/* (non-Javadoc)
+	/**
+	 * 
+	 * @param calendar the free-busy-query response
+	 * @return the periods of the FREEBUSY properties in the calendar's VFREEBUSY components, except those with FBTYPE=FREE
+	 */
+	static PeriodList extractBusyPeriods(Calendar calendar) {
+		PeriodList result = new PeriodList();
+		for(Object component : calendar.getComponents(Component.VFREEBUSY)) {
+			for(Object property : ((Component) component).getProperties(Property.FREEBUSY)) {
+				FreeBusy freeBusy = (FreeBusy) property;
+				if(FbType.FREE.equals(freeBusy.getParameter(Parameter.FBTYPE))) {
+					continue;
+				}
+				for(Object period : freeBusy.getPeriods()) {
+					result.add((Period) period);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compares the reflections the schedule calls for with the reflections stored in the owner's calendar
+	 * (see {@link #peekAtAvailableScheduleReflections(IScheduleOwner, Date, Date)}), keyed by {@link #reflectionKey(VEvent)}.
+	 * Stored reflections that match are left in place; only the remainder are deleted, and only the missing reflections are stored.
+	 * The requests are issued {@link #getReflectionParallelism()} at a time.
+	 * 
+	 * @see org.jasig.schedassist.ICalendarDataDao#reflectAvailableSchedule(org.jasig.schedassist.model.IScheduleOwner, org.jasig.schedassist.model.AvailableSchedule)
+	 */
+	@Override
+	public void reflectAvailableSchedule(final IScheduleOwner owner,
+			AvailableSchedule schedule) {
+		if(reflectionEnabled) {
+			if(schedule.isEmpty()) {
+				return;
+			}
+			Date startDate = CommonDateOperations.beginningOfDay(schedule.getScheduleStartTime());
+			Date endDate = CommonDateOperations.endOfDay(schedule.getScheduleEndTime());
+			
+			Map<String, Calendar> missing = new HashMap<String, Calendar>();
+			for(Calendar calendar: this.eventUtils.convertScheduleForReflection(schedule)) {
+				for(Object component: calendar.getComponents(VEvent.VEVENT)) {
+					missing.put(reflectionKey((VEvent) component), calendar);
+				}
+			}
+			List<Callable<Void>> requests = new ArrayList<Callable<Void>>();
+			Set<String> storedUris = new HashSet<String>();
+			int unchanged = 0;
+			for(final CalendarWithURI stored: peekAtAvailableScheduleReflections(owner, startDate, endDate)) {
+				if(!storedUris.add(stored.getUri())) {
+					continue;
+				}
+				boolean current = false;
+				for(Object component: stored.getCalendar().getComponents(VEvent.VEVENT)) {
+					// remove, so that a duplicate stored reflection is deleted
+					if(missing.remove(reflectionKey((VEvent) component)) != null) {
+						current = true;
+					}
+				}
+				if(current) {
+					unchanged++;
+				} else {
+					requests.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							deleteReflection(owner, stored);
+							return null;
+						}
+					});
+				}
+			}
+			for(final Calendar calendar: missing.values()) {
+				final Uid uid = this.eventUtils.extractUid(calendar);
+				if(uid != null) {
+					requests.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							putReflection(owner, calendar, uid);
+							return null;
+						}
+					});
+				} else {
+					log.warn("cannot store reflection for calendar with no UID: " + calendar);
+				}
+			}
+			if(log.isDebugEnabled()) {
+				log.debug("reflectAvailableSchedule for " + owner + ": " + unchanged + " reflections unchanged, " + (requests.size() - missing.size()) + " to delete, " + missing.size() + " to store");
+			}
+			executeReflectionRequests(owner, requests);
+		} else {
+			log.debug("experimental feature 'Availability Schedule reflection' disabled by default");
+		}
+	}
+
+	/* (non-Javadoc)
 	 * @see org.jasig.schedassist.ICalendarDataDao#purgeAvailableScheduleReflections(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, java.util.Date)
 	 */
 	@Override
@@ -645,36 +1194,157 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		if(reflectionEnabled) {
 			List<CalendarWithURI> calendars = peekAtAvailableScheduleReflections(owner, startDate, endDate);
 			for(CalendarWithURI calendar: calendars) {
-				// delete!
-				URI uri = this.caldavDialect.resolveCalendarURI(calendar);
-				HttpDelete method = new HttpDelete(uri.toString());
-				if(log.isDebugEnabled()) {
-					log.debug("purgeAvailableScheduleReflections executing " + methodToString(method) + " for " + owner + ", " + startDate + ", " + endDate);
+				deleteReflection(owner, calendar);
+			}
+		} else {
+			log.debug("experimental feature 'Availability Schedule reflection' disabled");
+		}
+	}
+	
+	/**
+	 * The key identifying a reflection event's content: its SUMMARY, LOCATION, and the dates it covers (DTSTART and any RDATEs).
+	 * 
+	 * @param event
+	 * @return the key for the reflection event
+	 */
+	protected String reflectionKey(VEvent event) {
+		Set<String> dates = new TreeSet<String>();
+		if(event.getStartDate() != null) {
+			dates.add(event.getStartDate().getValue());
+		}
+		for(Object property: event.getProperties(Property.RDATE)) {
+			DateList dateList = ((RDate) property).getDates();
+			if(dateList != null) {
+				for(Object date: dateList) {
+					dates.add(date.toString());
 				}
-				final HttpContext context = constructHttpContext(owner.getCalendarAccount());
-				HttpRequest toExecute = methodInterceptor.doWithMethod(method,owner.getCalendarAccount());
-				HttpEntity entity = null;
+			}
+		}
+		StringBuilder key = new StringBuilder();
+		key.append(event.getSummary() == null ? "" : event.getSummary().getValue());
+		key.append('|');
+		key.append(event.getLocation() == null ? "" : event.getLocation().getValue());
+		key.append('|');
+		key.append(dates);
+		return key.toString();
+	}
+	
+	/**
+	 * Store a reflection calendar.
+	 * 
+	 * @param owner
+	 * @param calendar
+	 * @param uid
+	 * @throws CaldavDataAccessException if the request fails
+	 */
+	protected void putReflection(IScheduleOwner owner, Calendar calendar, Uid uid) {
+		try {
+			int statusCode = putNewCalendar(owner.getCalendarAccount(), calendar, uid.getValue());
+			if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
+				//success
+			} else {
+				throw new CaldavDataAccessException("reflectAvailableSchedule for " + owner  + " failed with unexpected status code: " + statusCode);
+			}
+		} catch (HttpException e) {
+			log.error("an HttpException occurred in reflectAvailableSchedule for " + owner);
+			throw new CaldavDataAccessException(e);
+		} catch (IOException e) {
+			log.error("an IOException occurred in reflectAvailableSchedule for " + owner);
+			throw new CaldavDataAccessException(e);
+		}
+	}
+	
+	/**
+	 * Delete a stored reflection calendar.
+	 * 
+	 * @param owner
+	 * @param calendar
+	 * @throws CaldavDataAccessException if the request fails
+	 */
+	protected void deleteReflection(IScheduleOwner owner, CalendarWithURI calendar) {
+		URI uri = this.caldavDialect.resolveCalendarURI(calendar);
+		HttpDelete method = new HttpDelete(uri.toString());
+		if(log.isDebugEnabled()) {
+			log.debug("deleteReflection executing " + methodToString(method) + " for " + owner);
+		}
+		final HttpContext context = constructHttpContext(owner.getCalendarAccount());
+		HttpRequest toExecute = methodInterceptor.doWithMethod(method,owner.getCalendarAccount());
+		HttpEntity entity = null;
+		try {
+			HttpResponse response = this.httpClient.execute(httpHost, toExecute, context);
+			entity = response.getEntity();
+			int statusCode = response.getStatusLine().getStatusCode();
+			log.debug("deleteReflection status code: " + statusCode);
+			if(statusCode == HttpStatus.SC_NO_CONTENT) {
+				//success
+			} else {
+				throw new CaldavDataAccessException("deleteReflection for " + owner + ", " + uri + " failed with unexpected status code: " + statusCode);
+			}
+		} catch (IOException e) {
+			log.error("an IOException occurred in deleteReflection for " + owner + ", " + uri);
+			throw new CaldavDataAccessException(e);
+		} finally {
+			quietlyConsume(entity);
+			invalidateInFlightFetches(owner.getCalendarAccount());
+		}
+	}
+	
+	/**
+	 * Run the requests on the pool of {@link #getReflectionParallelism()} threads shared by all owners
+	 * (a single request, or all requests if the parallelism is 1, run on the calling thread).
+	 * All requests are completed before the first failure is rethrown.
+	 * 
+	 * @param owner
+	 * @param requests
+	 * @throws CaldavDataAccessException if any request fails
+	 */
+	protected void executeReflectionRequests(IScheduleOwner owner, List<Callable<Void>> requests) {
+		if(requests.isEmpty()) {
+			return;
+		}
+		if(reflectionParallelism <= 1 || requests.size() == 1) {
+			for(Callable<Void> request: requests) {
 				try {
-					HttpResponse response = this.httpClient.execute(httpHost, toExecute, context);
-					entity = response.getEntity();
-					int statusCode = response.getStatusLine().getStatusCode();
-					log.debug("cancelAppointment status code: " + statusCode);
-					if(statusCode == HttpStatus.SC_NO_CONTENT) {
-						//success
-					} else {
-						throw new CaldavDataAccessException("purgeAvailableScheduleReflections for " + owner + ", " + startDate +  ", " + endDate +" failed with unexpected status code: " + statusCode);
-					}
-				} catch (IOException e) {
-					log.error("an IOException occurred in purgeAvailableScheduleReflections for " + owner + ", " + startDate + ", " + endDate);
+					request.call();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
 					throw new CaldavDataAccessException(e);
-				} finally {
-					quietlyConsume(entity);
 				}
 			}
-		} else {
-			log.debug("experimental feature 'Availability Schedule reflection' disabled");
+			return;
+		}
+		try {
+			RuntimeException failure = null;
+			for(Future<Void> future: getReflectionExecutor().invokeAll(requests)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if(failure == null) {
+						failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new CaldavDataAccessException(e.getCause());
+					}
+				}
+			}
+			if(failure != null) {
+				throw failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CaldavDataAccessException("interrupted reflecting available schedule for " + owner, e);
 		}
 	}
+	/**
+	 * 
+	 * @return the pool for {@link #executeReflectionRequests(IScheduleOwner, List)}, created on first use; idle threads time out
+	 */
+	protected synchronized ThreadPoolExecutor getReflectionExecutor() {
+		if(reflectionExecutor == null) {
+			reflectionExecutor = new ThreadPoolExecutor(reflectionParallelism, reflectionParallelism, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>());
+			reflectionExecutor.allowCoreThreadTimeOut(true);
+		}
+		return reflectionExecutor;
+	}
 
 	/**
 	 * 
@@ -750,9 +1420,44 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 */
 	protected List<CalendarWithURI> getCalendarsInternal(ICalendarAccount calendarAccount,
 			Date startDate, Date endDate) {
+		return getCalendarsInternal(calendarAccount, startDate, endDate, 
+				caldavDialect.generateGetCalendarRequestEntity(startDate, endDate), reportResponseHandler);
+	}
+	/**
+	 * Retrieve the calendars for {@link #getCalendar(ICalendarAccount, Date, Date)}. 
+	 * If {@link #isGetCalendarUsesProjection()}, the REPORT body is from {@link CaldavDialect#generateGetVisibleScheduleCalendarRequestEntity(Date, Date)}
+	 * and the response is parsed with the {@link #getProjectingReportResponseHandler()}.
+	 * If the {@link CalendarMirror} is set, the calendars are read from it instead.
+	 * 
+	 * @param calendarAccount
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	protected List<CalendarWithURI> getCalendarsForVisibleSchedule(ICalendarAccount calendarAccount,
+			Date startDate, Date endDate) {
+		if(calendarMirror != null) {
+			return getCalendarsFromMirror(calendarAccount, startDate, endDate);
+		}
+		if(getCalendarUsesProjection) {
+			return getCalendarsInternal(calendarAccount, startDate, endDate, 
+					caldavDialect.generateGetVisibleScheduleCalendarRequestEntity(startDate, endDate), projectingReportResponseHandler);
+		}
+		return getCalendarsInternal(calendarAccount, startDate, endDate);
+	}
+	/**
+	 * 
+	 * @param calendarAccount
+	 * @param startDate
+	 * @param endDate
+	 * @param requestEntity the body of the REPORT request
+	 * @param handler the {@link ReportResponseHandlerImpl} to parse the response with
+	 * @return
+	 */
+	protected List<CalendarWithURI> getCalendarsInternal(ICalendarAccount calendarAccount,
+			Date startDate, Date endDate, HttpEntity requestEntity, ReportResponseHandlerImpl handler) {
 
 		String accountUri = this.caldavDialect.getCalendarAccountHome(calendarAccount);
-		HttpEntity requestEntity = caldavDialect.generateGetCalendarRequestEntity(startDate, endDate);
 		ReportMethod method = new ReportMethod(accountUri);
 		method.setEntity(requestEntity);
 		//method.addHeader(CONTENT_LENGTH_HEADER, Long.toString(requestEntity.getContentLength()));
@@ -771,13 +1476,13 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			log.debug("getCalendarsInternal status code: " + statusCode);
 			if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_MULTI_STATUS) {
 				InputStream content = entity.getContent();
-				ReportResponseHandlerImpl reportResponseHandler = new ReportResponseHandlerImpl();
-				List<CalendarWithURI> calendars = reportResponseHandler.extractCalendars(content);
+				List<CalendarWithURI> calendars = handler.extractCalendars(content);
 				if(isGetCalendarPerformsPurgeDeclinedAttendees()) {
 					List<CalendarWithURI> results = new ArrayList<CalendarWithURI>();
 					for(CalendarWithURI c: calendars) {
-						if(purgeDeclinedAttendees(c, calendarAccount) != null) {
-							results.add(c);
+						CalendarWithURI purged = purgeOrEnqueueDeclinedAttendees(c, calendarAccount);
+						if(purged != null) {
+							results.add(purged);
 						}
 					}
 					return results;
@@ -794,6 +1499,221 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			quietlyConsume(entity);
 		}
 	}
+	/**
+	 * Refresh the account's {@link CalendarMirror.AccountMirror} and return the mirrored calendars
+	 * that overlap the window.
+	 * 
+	 * With sync-collection, the whole calendar collection is mirrored: the changes since the stored sync-token
+	 * are listed, removed resources are dropped, and new or changed resources are fetched with calendar-multiget.
+	 * If the server rejects the sync-token, the account is mirrored again from scratch; if it rejects sync-collection
+	 * altogether for the account's collection, {@link CalendarMirror.AccountMirror#setSyncCollectionSupported(boolean)}
+	 * is set false and etags are compared instead for that account. Only a 501 Not Implemented response turns
+	 * sync-collection off for every account, via {@link CalendarMirror#setSyncCollectionSupported(boolean)}.
+	 * 
+	 * Comparing etags, the resources in the window are listed with a calendar-query for etags only, 
+	 * and only those not mirrored with the same etag are fetched.
+	 * 
+	 * purgeDeclinedAttendees (if enabled) is applied to fetched resources only, before they are mirrored.
+	 * 
+	 * @param calendarAccount
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	protected List<CalendarWithURI> getCalendarsFromMirror(ICalendarAccount calendarAccount,
+			Date startDate, Date endDate) {
+		CalendarMirror.AccountMirror mirror = calendarMirror.getAccountMirror(calendarAccount);
+		synchronized (mirror) {
+			final long now = clock.now().getTime();
+			final long generation = mirror.getGeneration();
+			if(!mirror.needsRefresh(now, calendarMirror.getMinRefreshIntervalMillis())) {
+				return mirror.getCalendars(startDate, endDate);
+			}
+			if(calendarMirror.isSyncCollectionSupported() && mirror.isSyncCollectionSupported() 
+					&& synchronizeMirror(calendarAccount, mirror)) {
+				mirror.markRefreshed(now, generation);
+				return mirror.getCalendars(startDate, endDate);
+			}
+			
+			calendarMirror.recordEtagRefresh();
+			CalendarCollectionDelta listing = executeReport(calendarAccount, 
+					caldavDialect.generateGetEtagsRequestEntity(startDate, endDate), true, reportResponseHandler);
+			if(listing == null) {
+				throw new CaldavDataAccessException("etag listing for " + calendarAccount + " failed with unexpected status code");
+			}
+			Map<String, String> etags = listing.getEtags();
+			int removed = mirror.retainAll(etags.keySet());
+			int fetched = fetchIntoMirror(calendarAccount, mirror, changedHrefs(mirror, etags));
+			calendarMirror.recordResources(fetched, removed);
+			// sync-collection responses would no longer reflect the mirror's content
+			mirror.setSyncToken(null);
+			mirror.markRefreshed(now, generation);
+			return mirror.getCalendars(etags.keySet());
+		}
+	}
+	/**
+	 * Apply the changes since the mirror's sync-token to the mirror.
+	 * 
+	 * @param calendarAccount
+	 * @param mirror
+	 * @return false if the account's collection does not support sync-collection
+	 */
+	protected boolean synchronizeMirror(ICalendarAccount calendarAccount, CalendarMirror.AccountMirror mirror) {
+		AtomicInteger statusCode = new AtomicInteger();
+		CalendarCollectionDelta delta = executeReport(calendarAccount, 
+				caldavDialect.generateSyncCollectionRequestEntity(mirror.getSyncToken()), false, reportResponseHandler, statusCode);
+		if(delta == null && mirror.getSyncToken() != null && statusCode.get() != HttpStatus.SC_NOT_IMPLEMENTED) {
+			log.info("sync-token rejected for " + calendarAccount + ", synchronizing from scratch");
+			calendarMirror.recordFullResync();
+			mirror.clear();
+			delta = executeReport(calendarAccount, 
+					caldavDialect.generateSyncCollectionRequestEntity(null), false, reportResponseHandler, statusCode);
+		}
+		if(delta == null) {
+			if(statusCode.get() == HttpStatus.SC_NOT_IMPLEMENTED) {
+				log.warn("sync-collection not implemented by the CalDAV server, falling back to etag comparison for all accounts");
+				calendarMirror.setSyncCollectionSupported(false);
+			} else {
+				log.warn("sync-collection rejected for " + calendarAccount + ", falling back to etag comparison for the account");
+			}
+			mirror.setSyncCollectionSupported(false);
+			mirror.clear();
+			return false;
+		}
+		calendarMirror.recordSyncCollectionRefresh();
+		int removed = 0;
+		for(String href : delta.getRemoved()) {
+			if(mirror.remove(href)) {
+				removed++;
+			}
+		}
+		int fetched = fetchIntoMirror(calendarAccount, mirror, changedHrefs(mirror, delta.getEtags()));
+		calendarMirror.recordResources(fetched, removed);
+		mirror.setSyncToken(delta.getSyncToken());
+		return true;
+	}
+	/**
+	 * 
+	 * @param mirror
+	 * @param etags map of href to current etag
+	 * @return the hrefs that are not mirrored, or are mirrored with a different etag
+	 */
+	protected List<String> changedHrefs(CalendarMirror.AccountMirror mirror, Map<String, String> etags) {
+		List<String> changed = new ArrayList<String>();
+		for(Map.Entry<String, String> entry : etags.entrySet()) {
+			if(!entry.getValue().equals(mirror.getEtag(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		return changed;
+	}
+	/**
+	 * Fetch the resources with calendar-multiget REPORTs of at most {@link CalendarMirror#getMultigetBatchSize()} hrefs
+	 * and store them in the mirror (after purgeDeclinedAttendees, if enabled).
+	 * Resources removed by purgeDeclinedAttendees are removed from the mirror.
+	 * 
+	 * @param calendarAccount
+	 * @param mirror
+	 * @param hrefs
+	 * @return the number of resources fetched
+	 */
+	protected int fetchIntoMirror(ICalendarAccount calendarAccount, CalendarMirror.AccountMirror mirror, List<String> hrefs) {
+		final ReportResponseHandlerImpl handler = getCalendarUsesProjection ? projectingReportResponseHandler : reportResponseHandler;
+		final int batchSize = Math.max(1, calendarMirror.getMultigetBatchSize());
+		int fetched = 0;
+		for(int i = 0; i < hrefs.size(); i += batchSize) {
+			List<String> batch = hrefs.subList(i, Math.min(hrefs.size(), i + batchSize));
+			CalendarCollectionDelta multiget = executeReport(calendarAccount, 
+					caldavDialect.generateMultigetRequestEntity(batch), false, handler);
+			if(multiget == null) {
+				throw new CaldavDataAccessException("calendar-multiget for " + calendarAccount + " failed with unexpected status code");
+			}
+			for(CalendarWithURI c : multiget.getCalendars()) {
+				fetched++;
+				CalendarWithURI purged = isGetCalendarPerformsPurgeDeclinedAttendees() ? purgeOrEnqueueDeclinedAttendees(c, calendarAccount) : c;
+				if(purged != null) {
+					mirror.put(purged);
+				} else {
+					mirror.remove(c.getUri());
+				}
+			}
+		}
+		return fetched;
+	}
+	/**
+	 * Execute a REPORT against the account's calendar home.
+	 * 
+	 * @param calendarAccount
+	 * @param requestEntity the body of the REPORT request
+	 * @param depth if true, send "Depth: 1"; otherwise send no Depth header
+	 * @param handler the {@link ReportResponseHandlerImpl} to parse the response with
+	 * @return the parsed response, or null if the response status code was neither 200 nor 207
+	 * @throws CaldavDataAccessException if the request fails with an {@link IOException}
+	 */
+	protected CalendarCollectionDelta executeReport(ICalendarAccount calendarAccount, HttpEntity requestEntity,
+			boolean depth, ReportResponseHandlerImpl handler) {
+		return executeReport(calendarAccount, requestEntity, depth, handler, null);
+	}
+	/**
+	 * Execute a REPORT against the account's calendar home.
+	 * 
+	 * @param calendarAccount
+	 * @param requestEntity the body of the REPORT request
+	 * @param depth if true, send "Depth: 1"; otherwise send no Depth header
+	 * @param handler the {@link ReportResponseHandlerImpl} to parse the response with
+	 * @param statusCode if not null, set to the response status code
+	 * @return the parsed response, or null if the response status code was neither 200 nor 207
+	 * @throws CaldavDataAccessException if the request fails with an {@link IOException}
+	 */
+	protected CalendarCollectionDelta executeReport(ICalendarAccount calendarAccount, HttpEntity requestEntity,
+			boolean depth, ReportResponseHandlerImpl handler, AtomicInteger statusCode) {
+		String accountUri = this.caldavDialect.getCalendarAccountHome(calendarAccount);
+		ReportMethod method = new ReportMethod(accountUri);
+		method.setEntity(requestEntity);
+		if(depth) {
+			method.addHeader(DEPTH_HEADER);
+		}
+		if(log.isDebugEnabled()) {
+			log.debug("executeReport executing " + methodToString(method) + " for " + calendarAccount);
+		}
+		HttpRequest toExecute = methodInterceptor.doWithMethod(method,calendarAccount);
+		final HttpContext context = constructHttpContext(calendarAccount);
+
+		HttpEntity entity = null;
+		try {
+			HttpResponse response = this.httpClient.execute(httpHost, toExecute, context);
+			entity = response.getEntity();
+			int responseStatusCode = response.getStatusLine().getStatusCode();
+			log.debug("executeReport status code: " + responseStatusCode);
+			if(statusCode != null) {
+				statusCode.set(responseStatusCode);
+			}
+			if(responseStatusCode == HttpStatus.SC_OK || responseStatusCode == HttpStatus.SC_MULTI_STATUS) {
+				return handler.extractCollectionDelta(entity.getContent());
+			}
+			log.info("executeReport for " + calendarAccount + " returned unexpected status code: " + responseStatusCode);
+			return null;
+		} catch (IOException e) {
+			log.error("an IOException occurred in executeReport for " + calendarAccount);
+			throw new CaldavDataAccessException(e);
+		} finally {
+			quietlyConsume(entity);
+		}
+	}
+	/**
+	 * Called after every write to the account's calendar, so that {@link #getCalendar(ICalendarAccount, Date, Date)}
+	 * fetches started before the write completed are not shared with requests arriving after it.
+	 * 
+	 * @param calendarAccount
+	 */
+	protected void invalidateInFlightFetches(ICalendarAccount calendarAccount) {
+		if(calendarFetchCoalescer != null) {
+			calendarFetchCoalescer.invalidate(calendarAccount);
+		}
+		if(calendarMirror != null) {
+			calendarMirror.markStale(calendarAccount);
+		}
+	}
 	/**
 	 * Consolidate the {@link Calendar}s within the argument, returning 1.
 	 * 
@@ -890,6 +1810,10 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 * was created with the Scheduling Assistant with the specified {@link IScheduleOwner} as the owner
 	 * and the specified start and end times.
 	 * 
+	 * If the {@link AppointmentIndexDao} is enabled, the indexed href is fetched first with a single GET;
+	 * the owner's calendar is searched with a REPORT only if the appointment is not indexed, or the
+	 * indexed resource no longer contains the appointment. An appointment found by the REPORT is indexed.
+	 * 
 	 * @param owner
 	 * @param startTime
 	 * @param endTime
@@ -897,45 +1821,274 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 */
 	protected CalendarWithURI getExistingAppointmentInternal(IScheduleOwner owner,
 			Date startTime, Date endTime) {
-		final DateTime targetStartTime = new DateTime(startTime);
-		final DateTime targetEndTime = new DateTime(endTime);
-
+		final boolean indexActive = isAppointmentIndexActive();
+		if(indexActive) {
+			CalendarWithURI indexed = getIndexedAppointment(owner, startTime, endTime);
+			if(indexed != null) {
+				return indexed;
+			}
+		}
 		List<CalendarWithURI> calendars = getCalendarsInternal(owner.getCalendarAccount(), startTime, endTime);
 		for(CalendarWithURI calendarWithUri : calendars) {
-			ComponentList componentList = calendarWithUri.getCalendar().getComponents(VEvent.VEVENT);
-			if(componentList.size() != 1) {
-				// scheduling assistant creates calendars with only a single event, short-circuit on calendars with > 1 events
-				continue;
+			VEvent event = extractExistingAppointment(calendarWithUri, owner, startTime, endTime);
+			if(event != null) {
+				if(log.isDebugEnabled()) {
+					log.debug("getExistingAppointmentInternal found " + event);
+				}
+				if(indexActive) {
+					indexAppointment(owner, startTime, endTime, new IndexedAppointment(event.getUid().getValue(), calendarWithUri.getUri()));
+				}
+				return calendarWithUri;
 			}
-			for(Object o: componentList) {
-				VEvent event = (VEvent) o;
-				Date eventStart = event.getStartDate().getDate();
-				Date eventEnd = event.getEndDate(true).getDate();
-				Property schedAssistProperty = event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT);
-				if(!SchedulingAssistantAppointment.TRUE.equals(schedAssistProperty)) {
-					// immediately skip over non-scheduling assistant appointments
+		}
+		// not found
+		return null;
+	}
+	/**
+	 * 
+	 * @param calendarWithUri
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @return the single {@link VEvent} in the calendar if it is the Scheduling Assistant appointment of the owner with the specified start and end, otherwise null
+	 */
+	protected VEvent extractExistingAppointment(CalendarWithURI calendarWithUri, IScheduleOwner owner,
+			Date startTime, Date endTime) {
+		final DateTime targetStartTime = new DateTime(startTime);
+		final DateTime targetEndTime = new DateTime(endTime);
+		ComponentList componentList = calendarWithUri.getCalendar().getComponents(VEvent.VEVENT);
+		if(componentList.size() != 1) {
+			// scheduling assistant creates calendars with only a single event, short-circuit on calendars with > 1 events
+			return null;
+		}
+		VEvent event = (VEvent) componentList.get(0);
+		Date eventStart = event.getStartDate().getDate();
+		Date eventEnd = event.getEndDate(true).getDate();
+		Property schedAssistProperty = event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT);
+		if(!SchedulingAssistantAppointment.TRUE.equals(schedAssistProperty)) {
+			// immediately skip over non-scheduling assistant appointments
+			return null;
+		}
+		// check for version first
+		Property versionProperty = event.getProperty(AvailableVersion.AVAILABLE_VERSION);
+		if (AvailableVersion.AVAILABLE_VERSION_1_2.equals(versionProperty)) {
+			// event has to be (1) an available appointment
+			// with (2) owner recognized as appointment owner and
+			// (3) start and (4) end date have to match
+			if(this.eventUtils.isAttendingAsOwner(event, owner.getCalendarAccount()) &&
+					eventStart.equals(targetStartTime) &&
+					eventEnd.equals(targetEndTime)) {
+				return event;
+			}
+		}
+		return null;
+	}
+	/**
+	 * Fetch the owner's appointment from the href stored in the {@link AppointmentIndexDao}.
+	 * The entry is removed if the resource no longer exists or no longer contains the appointment.
+	 * 
+	 * The GET is unconditional: callers need the complete resource, and there is no local copy to fall back on
+	 * after a 304 Not Modified (the index stores only the href, and {@link CalendarMirror} copies may be projected
+	 * and are shared read-only), so an If-None-Match would save nothing.
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @return the matching appointment, or null if not indexed or the index entry is stale
+	 */
+	protected CalendarWithURI getIndexedAppointment(IScheduleOwner owner, Date startTime, Date endTime) {
+		IndexedAppointment entry;
+		try {
+			entry = this.appointmentIndexDao.lookup(owner, startTime, endTime);
+		} catch (DataAccessException e) {
+			log.warn("appointment index lookup failed for " + owner + ", " + startTime + " - " + endTime + ", falling back to REPORT", e);
+			return null;
+		}
+		if(entry == null) {
+			return null;
+		}
+		ICalendarAccount calendarAccount = owner.getCalendarAccount();
+		CalendarWithURI calendarWithUri = getCompleteCalendar(new CalendarWithURI(null, entry.getEventHref()), calendarAccount);
+		if(calendarWithUri != null && extractExistingAppointment(calendarWithUri, owner, startTime, endTime) != null) {
+			if(isGetCalendarPerformsPurgeDeclinedAttendees()) {
+				calendarWithUri = purgeOrEnqueueDeclinedAttendees(calendarWithUri, calendarAccount);
+				if(calendarWithUri == null) {
+					// appointment cancelled by purge
+					unindexAppointment(owner, startTime, endTime);
+				}
+			}
+			if(log.isDebugEnabled()) {
+				log.debug("getIndexedAppointment found " + entry + " for " + owner);
+			}
+			return calendarWithUri;
+		}
+		log.debug("appointment index entry " + entry + " for " + owner + " is stale");
+		unindexAppointment(owner, startTime, endTime);
+		return null;
+	}
+	/**
+	 * Store the appointment in the {@link AppointmentIndexDao}; failures are logged and ignored.
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @param appointment
+	 */
+	protected void indexAppointment(IScheduleOwner owner, Date startTime, Date endTime, IndexedAppointment appointment) {
+		try {
+			this.appointmentIndexDao.store(owner, startTime, endTime, appointment);
+		} catch (DataAccessException e) {
+			log.warn("failed to index " + appointment + " for " + owner + ", " + startTime + " - " + endTime, e);
+		}
+	}
+	/**
+	 * Remove the appointment from the {@link AppointmentIndexDao}; failures are logged and ignored.
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 */
+	protected void unindexAppointment(IScheduleOwner owner, Date startTime, Date endTime) {
+		try {
+			this.appointmentIndexDao.remove(owner, startTime, endTime);
+		} catch (DataAccessException e) {
+			log.warn("failed to remove appointment index entry for " + owner + ", " + startTime + " - " + endTime, e);
+		}
+	}
+	/**
+	 * 
+	 * @param owner
+	 * @param block
+	 * @return a resource name (without ".ics") unique to the owner and the start of the block: "sched-assist-" + owner id + "-" + UTC start time
+	 */
+	protected String generateSlotResourceName(IScheduleOwner owner, AvailableBlock block) {
+		DateTime start = new DateTime(block.getStartTime());
+		start.setUtc(true);
+		return "sched-assist-" + owner.getId() + "-" + start.toString();
+	}
+	/**
+	 * Examine the events in the owner's calendar during the block, other than the appointment just created.
+	 * If any would cause a conflict, the appointment is deleted.
+	 * 
+	 * @param owner
+	 * @param block
+	 * @param appointment the appointment just created
+	 * @param appointmentHref the href of the appointment
+	 * @throws ConflictExistsException if another event conflicts with the appointment
+	 */
+	protected void verifyNoConflicts(IScheduleOwner owner, AvailableBlock block, VEvent appointment, String appointmentHref) throws ConflictExistsException {
+		Date start = DateUtils.addSeconds(block.getStartTime(), 1);
+		Date end = DateUtils.addSeconds(block.getEndTime(), -1);
+		String appointmentUid = appointment.getUid().getValue();
+		List<CalendarWithURI> calendars = getCalendarsInternal(owner.getCalendarAccount(), start, end);
+		for(CalendarWithURI calendar: calendars) {
+			ComponentList events = calendar.getCalendar().getComponents(VEvent.VEVENT);
+			for(Object component : events) {
+				VEvent event = (VEvent) component;
+				if(event.getUid() != null && appointmentUid.equals(event.getUid().getValue())) {
 					continue;
 				}
-				// check for version first
-				Property versionProperty = event.getProperty(AvailableVersion.AVAILABLE_VERSION);
-				if (AvailableVersion.AVAILABLE_VERSION_1_2.equals(versionProperty)) {
-					// event has to be (1) an available appointment
-					// with (2) owner recognized as appointment owner and
-					// (3) start and (4) end date have to match
-					if(this.eventUtils.isAttendingAsOwner(event, owner.getCalendarAccount()) &&
-							eventStart.equals(targetStartTime) &&
-							eventEnd.equals(targetEndTime)) {
-						if(log.isDebugEnabled()) {
-							log.debug("getExistingAppointmentInternal found " + event);
-						}
-
-						return calendarWithUri;
+				if(this.eventUtils.willEventCauseConflict(owner.getCalendarAccount(), event)) {
+					log.info("conflict detected after createAppointmentIfAbsent for " + owner + " at block " + block + ", removing " + appointmentUid);
+					int status = deleteCalendar(new CalendarWithURI(null, appointmentHref), owner.getCalendarAccount());
+					if(log.isDebugEnabled()) {
+						log.debug("verifyNoConflicts delete status code " + status + " for " + owner + ", " + appointmentUid);
 					}
+					throw new ConflictExistsException("an appointment already exists for " + block);
 				}
 			}
 		}
-		// not found
-		return null;
+	}
+	/**
+	 * A change to the attendees of an existing appointment.
+	 */
+	protected static interface AppointmentUpdate {
+		/**
+		 * Apply the change to the event.
+		 * 
+		 * @param event
+		 * @return true if the event was changed and must be stored, false if the change is already present
+		 * @throws SchedulingException if the change can no longer be applied
+		 */
+		boolean apply(VEvent event) throws SchedulingException;
+	}
+	/**
+	 * Apply the update to the appointment and store it with the etag of the {@link CalendarWithURI}.
+	 * 
+	 * If the server responds 412 Precondition Failed (the appointment was altered in the interim), the appointment
+	 * is fetched again by its href and the update re-applied, up to {@link #getConflictRetries()} times, waiting
+	 * {@link #backoff(int)} before each attempt.
+	 * 
+	 * @param operation name of the operation, for messages
+	 * @param visitor
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @param calendarWithURI
+	 * @param update
+	 * @return the stored event
+	 * @throws SchedulingException if the update cannot be applied, or the appointment remains altered after the retries
+	 */
+	protected VEvent updateExistingAppointment(String operation, IScheduleVisitor visitor, IScheduleOwner owner, 
+			Date startTime, Date endTime, CalendarWithURI calendarWithURI, AppointmentUpdate update) throws SchedulingException {
+		for(int attempt = 0; ; attempt++) {
+			VEvent event = extractSchedulingAssistantAppointment(calendarWithURI);
+			if(!update.apply(event)) {
+				return event;
+			}
+			int statusCode;
+			try {
+				statusCode = putExistingEvent(owner.getCalendarAccount(), event, calendarWithURI);
+			} catch (IOException e) {
+				log.error("an IOException occurred in " + operation + " for " + owner + ", " + visitor + ", " + startTime);
+				throw new CaldavDataAccessException(e);
+			}
+			log.debug(operation + " status code: " + statusCode);
+			if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
+				if(attempt > 0) {
+					conflictRetrySuccessCount.incrementAndGet();
+				}
+				return event;
+			} else if (statusCode == HttpStatus.SC_PRECONDITION_FAILED) {
+				// event changed in the interim
+				if(attempt >= conflictRetries) {
+					conflictRetryExhaustedCount.incrementAndGet();
+					throw new SchedulingException(operation + " failed for " + visitor + " and " + owner + ", appointment was altered");
+				}
+				conflictRetryCount.incrementAndGet();
+				backoff(attempt);
+				CalendarWithURI current = getCompleteCalendar(calendarWithURI, owner.getCalendarAccount());
+				if(current == null || extractExistingAppointment(current, owner, startTime, endTime) == null) {
+					throw new SchedulingException(operation + " failed for " + visitor + " and " + owner + ", appointment was removed");
+				}
+				if(log.isDebugEnabled()) {
+					log.debug(operation + " retrying for " + visitor + ", " + owner + ", " + startTime + " after attempt " + (attempt + 1));
+				}
+				calendarWithURI = current;
+			} else {
+				throw new CaldavDataAccessException(operation + " for " + visitor + ", " + owner + ", " + startTime + " failed with unexpected status code: " + statusCode);
+			}
+		}
+	}
+	/**
+	 * Sleep before retrying after the attempt; a random time between half and all of
+	 * {@link #getConflictRetryBackoffMillis()} * 2^attempt, so that competing requests spread out.
+	 * 
+	 * @param attempt the attempt that failed, starting at 0
+	 * @throws SchedulingException if interrupted
+	 */
+	protected void backoff(int attempt) throws SchedulingException {
+		long max = conflictRetryBackoffMillis << Math.min(attempt, 10);
+		if(max <= 0) {
+			return;
+		}
+		long sleep = max / 2 + (long) (Math.random() * (max / 2 + 1));
+		try {
+			Thread.sleep(sleep);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SchedulingException("interrupted waiting to retry", e);
+		}
 	}
 	/**
 	 * Special method used when cancelUpdatesVisitorCalendar is set to true.
@@ -1016,6 +2169,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			return statusCode;
 		} finally {
 			EntityUtils.consume(entity);
+			invalidateInFlightFetches(eventOwner);
 		}
 
 	}
@@ -1029,8 +2183,18 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 * @throws IOException
 	 */
 	protected int putNewEvent(ICalendarAccount eventOwner, VEvent event) throws HttpException, IOException {
-		String uri = generateEventUri(eventOwner, event);
-
+		return putNewEvent(eventOwner, event, generateEventUri(eventOwner, event));
+	}
+	/**
+	 * 
+	 * @param eventOwner
+	 * @param event
+	 * @param uri the uri to PUT the event to
+	 * @return the HTTP status code
+	 * @throws HttpException
+	 * @throws IOException
+	 */
+	protected int putNewEvent(ICalendarAccount eventOwner, VEvent event, String uri) throws HttpException, IOException {
 		HttpPut method = constructPutMethod(uri, event);
 		method.addHeader(IF_NONE_MATCH_HEADER);
 
@@ -1056,6 +2220,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			return statusCode;
 		} finally {
 			EntityUtils.consume(entity);
+			invalidateInFlightFetches(eventOwner);
 		}
 
 	}
@@ -1071,8 +2236,35 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 	 * @throws IOException
 	 */
 	protected int putExistingEvent(ICalendarAccount eventOwner, VEvent event, String etag) throws IOException {
-		String uri = generateEventUri(eventOwner, event);
-
+		return putExistingEvent(eventOwner, event, etag, generateEventUri(eventOwner, event));
+	}
+	/**
+	 * Update an existing event, stored at the uri of the {@link CalendarWithURI}, using CalDAV PUT.
+	 * Appointments created by {@link #createAppointmentIfAbsent(IScheduleVisitor, IScheduleOwner, AvailableBlock, String)}
+	 * are not stored at an href derived from their UID.
+	 * 
+	 * @param eventOwner
+	 * @param event
+	 * @param calendarWithURI the stored version of the event
+	 * @return the HTTP status code
+	 * @throws IOException
+	 */
+	protected int putExistingEvent(ICalendarAccount eventOwner, VEvent event, CalendarWithURI calendarWithURI) throws IOException {
+		if(calendarWithURI.getUri() == null) {
+			return putExistingEvent(eventOwner, event, calendarWithURI.getEtag());
+		}
+		return putExistingEvent(eventOwner, event, calendarWithURI.getEtag(), this.caldavDialect.resolveCalendarURI(calendarWithURI).toString());
+	}
+	/**
+	 * 
+	 * @param eventOwner
+	 * @param event
+	 * @param etag
+	 * @param uri the uri to PUT the event to
+	 * @return the HTTP status code
+	 * @throws IOException
+	 */
+	protected int putExistingEvent(ICalendarAccount eventOwner, VEvent event, String etag, String uri) throws IOException {
 		HttpPut method = constructPutMethod(uri, event);
 		method.addHeader(IF_MATCH_HEADER, etag);
 
@@ -1093,8 +2285,67 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			return statusCode;
 		} finally {
 			EntityUtils.consume(entity);
+			invalidateInFlightFetches(eventOwner);
 		}
 	}
+	/**
+	 * Without a {@link DeclinedAttendeeReconciler}, returns {@link #purgeDeclinedAttendees(CalendarWithURI, ICalendarAccount)}.
+	 * With one, appointments that purgeDeclinedAttendees would alter are queued on it, and the argument returned unaltered.
+	 * 
+	 * @param calendarWithURI
+	 * @param owner
+	 * @return the calendar, or null if it was removed by purgeDeclinedAttendees
+	 */
+	protected CalendarWithURI purgeOrEnqueueDeclinedAttendees(CalendarWithURI calendarWithURI, ICalendarAccount owner) {
+		if(declinedAttendeeReconciler == null) {
+			return purgeDeclinedAttendees(calendarWithURI, owner);
+		}
+		if(isPurgeCandidate(calendarWithURI, owner)) {
+			declinedAttendeeReconciler.enqueue(owner, calendarWithURI.getUri(), calendarWithURI.getEtag(), new DeclinedAttendeeReconciler.Purger() {
+				@Override
+				public void purge(ICalendarAccount account, String href, String etag) {
+					reconcileDeclinedAttendees(account, href, etag);
+				}
+			});
+		}
+		return calendarWithURI;
+	}
+	/**
+	 * 
+	 * @param calendarWithURI
+	 * @param owner
+	 * @return true if the calendar contains a single, future {@link SchedulingAssistantAppointment} of the owner with a declined attendee
+	 */
+	protected boolean isPurgeCandidate(CalendarWithURI calendarWithURI, ICalendarAccount owner) {
+		ComponentList componentList = calendarWithURI.getCalendar().getComponents(VEvent.VEVENT);
+		if(componentList.size() != 1) {
+			return false;
+		}
+		VEvent event = (VEvent) componentList.get(0);
+		return !event.getStartDate().getDate().before(clock.now()) 
+			&& SchedulingAssistantAppointment.TRUE.equals(event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT))
+			&& this.eventUtils.isAttendingAsOwner(event, owner)
+			&& hasDeclinedAttendee(this.eventUtils.getAttendeeListFromEvent(event));
+	}
+	/**
+	 * Invoked by the {@link DeclinedAttendeeReconciler}: retrieve the current version of the appointment and
+	 * apply {@link #purgeDeclinedAttendees(CalendarWithURI, ICalendarAccount)}.
+	 * 
+	 * @param owner
+	 * @param href
+	 * @param etag the etag when the appointment was queued
+	 */
+	protected void reconcileDeclinedAttendees(ICalendarAccount owner, String href, String etag) {
+		CalendarWithURI current = getCompleteCalendar(new CalendarWithURI(null, href, etag), owner);
+		if(current == null) {
+			log.debug("reconcileDeclinedAttendees found " + href + " already removed");
+			return;
+		}
+		if(log.isDebugEnabled() && etag != null && !etag.equals(current.getEtag())) {
+			log.debug("reconcileDeclinedAttendees " + href + " changed since queued (etag " + etag + ", now " + current.getEtag() + ")");
+		}
+		purgeDeclinedAttendees(current, owner);
+	}
 	/**
 	 * This method will inspect {@link IScheduleVisitor} {@link Attendee}s among the {@link SchedulingAssistantAppointment}s
 	 * in the {@link Calendar} argument.
@@ -1116,7 +2367,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 		}
 		for(Object o: componentList) {
 			VEvent event = (VEvent) o;
-			if(event.getStartDate().getDate().before(new java.util.Date())) {
+			if(event.getStartDate().getDate().before(clock.now())) {
 				// short-circuit non events in the past
 				continue;
 			}
@@ -1124,6 +2375,14 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 			final boolean isAttendingAsOwner = this.eventUtils.isAttendingAsOwner(event, owner);
 			if(hasAvailableAppointmentProperty && isAttendingAsOwner) {
 				PropertyList attendeeList = this.eventUtils.getAttendeeListFromEvent(event);		
+				if(calendarWithURI.isProjected() && hasDeclinedAttendee(attendeeList)) {
+					// the event will be altered; start again from the complete event
+					CalendarWithURI complete = getCompleteCalendar(calendarWithURI, owner);
+					if(complete == null) {
+						return null;
+					}
+					return purgeDeclinedAttendees(complete, owner);
+				}
 				Property visitorLimitProp = event.getProperty(VisitorLimit.VISITOR_LIMIT);
 				final int visitorLimit = Integer.parseInt(visitorLimitProp.getValue());
 
@@ -1146,7 +2405,7 @@ public class CaldavCalendarDataDaoImpl implements ICalendarDataDao, Initializing
 								event.getProperties().remove(attendee);
 
 								try {
-									int statusCode = putExistingEvent(owner, event, calendarWithURI.getEtag());
+									int statusCode = putExistingEvent(owner, event, calendarWithURI);
 									log.debug("purgeDeclinedAttendees leave status code: " + statusCode);
 									if(statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_NO_CONTENT) {
 										log.warn("purgeDeclinedAttendees successfully removed declined attendee from group appointment " + event);
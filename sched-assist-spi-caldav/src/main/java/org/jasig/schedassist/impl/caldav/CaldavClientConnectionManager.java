@@ -0,0 +1,285 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * {@link ThreadSafeClientConnManager} for the CalDAV server that records pool statistics:
+ * connections leased, available and the number of threads waiting for a connection,
+ * along with the number of leases, lease timeouts and the time spent waiting for a lease.
+ *
+ * {@link #evictIdleConnections()} closes expired connections and connections idle longer than
+ * {@link #getIdleConnectionTimeoutSeconds()}; it is annotated with {@link Scheduled}.
+ *
+ * @see CaldavHttpClientFactory
+ * @version $Id: CaldavClientConnectionManager.java $
+ */
+public class CaldavClientConnectionManager extends ThreadSafeClientConnManager {
+
+	private final Log log = LogFactory.getLog(this.getClass());
+	private final AtomicLong leaseCount = new AtomicLong();
+	private final AtomicLong leaseTimeoutCount = new AtomicLong();
+	private final AtomicLong totalLeaseWaitMillis = new AtomicLong();
+	private final AtomicLong maxLeaseWaitMillis = new AtomicLong();
+	private final AtomicLong evictionRuns = new AtomicLong();
+	private volatile long idleConnectionTimeoutSeconds = 60;
+
+	/**
+	 *
+	 * @param schemeRegistry
+	 * @param connectionTimeToLive maximum lifetime of a pooled connection, values <= 0 mean indefinitely
+	 * @param timeUnit unit for connectionTimeToLive
+	 */
+	public CaldavClientConnectionManager(SchemeRegistry schemeRegistry, long connectionTimeToLive, TimeUnit timeUnit) {
+		super(schemeRegistry, connectionTimeToLive, timeUnit);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#createConnectionPool(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	protected ConnPoolByRoute createConnectionPool(long connTTL, TimeUnit connTTLTimeUnit) {
+		return new StatisticsConnPoolByRoute(connOperator, connPerRoute, 20, connTTL, connTTLTimeUnit);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager#requestConnection(org.apache.http.conn.routing.HttpRoute, java.lang.Object)
+	 */
+	@Override
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final ClientConnectionRequest request = super.requestConnection(route, state);
+		return new ClientConnectionRequest() {
+			@Override
+			public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+					throws InterruptedException, ConnectionPoolTimeoutException {
+				final long start = System.currentTimeMillis();
+				try {
+					ManagedClientConnection connection = request.getConnection(timeout, tunit);
+					leaseCount.incrementAndGet();
+					return connection;
+				} catch (ConnectionPoolTimeoutException e) {
+					leaseTimeoutCount.incrementAndGet();
+					log.warn("timed out waiting for a CalDAV connection, " + toString());
+					throw e;
+				} finally {
+					recordLeaseWait(System.currentTimeMillis() - start);
+				}
+			}
+			@Override
+			public void abortRequest() {
+				request.abortRequest();
+			}
+		};
+	}
+	/**
+	 * Close expired connections and connections idle for longer than {@link #getIdleConnectionTimeoutSeconds()}.
+	 */
+	@Scheduled(fixedDelay=30000)
+	public void evictIdleConnections() {
+		closeExpiredConnections();
+		if(idleConnectionTimeoutSeconds > 0) {
+			closeIdleConnections(idleConnectionTimeoutSeconds, TimeUnit.SECONDS);
+		}
+		evictionRuns.incrementAndGet();
+		if(log.isDebugEnabled()) {
+			log.debug("evictIdleConnections complete, " + toString());
+		}
+	}
+	/**
+	 *
+	 * @param waitMillis
+	 */
+	private void recordLeaseWait(long waitMillis) {
+		totalLeaseWaitMillis.addAndGet(waitMillis);
+		long max = maxLeaseWaitMillis.get();
+		while(waitMillis > max && !maxLeaseWaitMillis.compareAndSet(max, waitMillis)) {
+			max = maxLeaseWaitMillis.get();
+		}
+	}
+	/**
+	 * @return the idleConnectionTimeoutSeconds
+	 */
+	public long getIdleConnectionTimeoutSeconds() {
+		return idleConnectionTimeoutSeconds;
+	}
+	/**
+	 * Connections idle longer than this are closed by {@link #evictIdleConnections()}. Default is 60;
+	 * values <= 0 disable closing idle connections.
+	 *
+	 * @param idleConnectionTimeoutSeconds the idleConnectionTimeoutSeconds to set
+	 */
+	public void setIdleConnectionTimeoutSeconds(long idleConnectionTimeoutSeconds) {
+		this.idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+	}
+	/**
+	 * @return the number of connections currently leased
+	 */
+	public int getLeasedConnections() {
+		return ((StatisticsConnPoolByRoute) pool).getLeasedCount();
+	}
+	/**
+	 * @return the number of open connections available for lease
+	 */
+	public int getAvailableConnections() {
+		return ((StatisticsConnPoolByRoute) pool).getAvailableCount();
+	}
+	/**
+	 * @return the number of threads waiting for a connection
+	 */
+	public int getPendingRequests() {
+		return ((StatisticsConnPoolByRoute) pool).getPendingCount();
+	}
+	/**
+	 * @return the number of successful leases
+	 */
+	public long getLeaseCount() {
+		return leaseCount.get();
+	}
+	/**
+	 * @return the number of lease requests that timed out
+	 */
+	public long getLeaseTimeoutCount() {
+		return leaseTimeoutCount.get();
+	}
+	/**
+	 * @return total time spent waiting for leases, in milliseconds
+	 */
+	public long getTotalLeaseWaitMillis() {
+		return totalLeaseWaitMillis.get();
+	}
+	/**
+	 * @return the longest time spent waiting for a single lease, in milliseconds
+	 */
+	public long getMaxLeaseWaitMillis() {
+		return maxLeaseWaitMillis.get();
+	}
+	/**
+	 * @return the average time spent waiting for a lease (including those that timed out), in milliseconds
+	 */
+	public double getAverageLeaseWaitMillis() {
+		long requests = leaseCount.get() + leaseTimeoutCount.get();
+		if(requests == 0) {
+			return 0;
+		}
+		return (double) totalLeaseWaitMillis.get() / requests;
+	}
+	/**
+	 * @return the number of times {@link #evictIdleConnections()} has run
+	 */
+	public long getEvictionRuns() {
+		return evictionRuns.get();
+	}
+	/**
+	 * Reset the lease counters to 0.
+	 */
+	public void resetStatistics() {
+		leaseCount.set(0);
+		leaseTimeoutCount.set(0);
+		totalLeaseWaitMillis.set(0);
+		maxLeaseWaitMillis.set(0);
+	}
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CaldavClientConnectionManager [maxTotal=" + getMaxTotal()
+				+ ", defaultMaxPerRoute=" + getDefaultMaxPerRoute()
+				+ ", leased=" + getLeasedConnections()
+				+ ", available=" + getAvailableConnections()
+				+ ", pending=" + getPendingRequests()
+				+ ", leaseCount=" + getLeaseCount()
+				+ ", leaseTimeoutCount=" + getLeaseTimeoutCount()
+				+ ", maxLeaseWaitMillis=" + getMaxLeaseWaitMillis() + "]";
+	}
+
+	/**
+	 * {@link ConnPoolByRoute} that exposes the size of its leased, free and waiting queues.
+	 */
+	static class StatisticsConnPoolByRoute extends ConnPoolByRoute {
+		/**
+		 *
+		 * @param operator
+		 * @param connPerRoute
+		 * @param maxTotalConnections
+		 * @param connTTL
+		 * @param connTTLTimeUnit
+		 */
+		StatisticsConnPoolByRoute(ClientConnectionOperator operator, ConnPerRoute connPerRoute,
+				int maxTotalConnections, long connTTL, TimeUnit connTTLTimeUnit) {
+			super(operator, connPerRoute, maxTotalConnections, connTTL, connTTLTimeUnit);
+		}
+		/**
+		 *
+		 * @return the number of leased connections
+		 */
+		int getLeasedCount() {
+			final Lock lock = getLock();
+			lock.lock();
+			try {
+				return leasedConnections.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+		/**
+		 *
+		 * @return the number of free connections
+		 */
+		int getAvailableCount() {
+			final Lock lock = getLock();
+			lock.lock();
+			try {
+				return freeConnections.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+		/**
+		 *
+		 * @return the number of threads waiting for a connection
+		 */
+		int getPendingCount() {
+			final Lock lock = getLock();
+			lock.lock();
+			try {
+				return waitingThreads.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
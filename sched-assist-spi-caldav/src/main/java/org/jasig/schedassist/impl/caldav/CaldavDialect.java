@@ -20,6 +20,7 @@
 package org.jasig.schedassist.impl.caldav;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.Date;
 
 import net.fortuna.ical4j.model.Calendar;
@@ -150,4 +151,63 @@ public interface CaldavDialect {
 	 * @return a {@link RequestEntity} used with the REPORT request to retrieve an account's Calendar data between the 2 {@link Date}s
 	 */
 	HttpEntity generateGetCalendarRequestEntity(Date startDate, Date endDate);
+	
+	/**
+	 * Generate an appropriate {@link HttpEntity} body for a REPORT request that retrieves the calendar data 
+	 * needed to build visible schedules for events between the 2 {@link Date} arguments.
+	 * 
+	 * Implementations may narrow the request (e.g. select only some properties, or exclude events that 
+	 * cannot conflict) where the CalDAV server supports it; the {@link Calendar}s in the response may 
+	 * therefore be incomplete and must not be written back to the server.
+	 * Implementations may also simply return {@link #generateGetCalendarRequestEntity(Date, Date)}.
+	 * 
+	 * @param startDate
+	 * @param endDate
+	 * @return a {@link HttpEntity} for the REPORT request
+	 */
+	HttpEntity generateGetVisibleScheduleCalendarRequestEntity(Date startDate, Date endDate);
+	
+	/**
+	 * Generate the {@link HttpEntity} body for a calendar-query REPORT that lists only the href and etag
+	 * of each calendar resource with events between the 2 {@link Date} arguments.
+	 * 
+	 * @param startDate
+	 * @param endDate
+	 * @return a {@link HttpEntity} for the REPORT request
+	 */
+	HttpEntity generateGetEtagsRequestEntity(Date startDate, Date endDate);
+	
+	/**
+	 * Generate the {@link HttpEntity} body for a calendar-multiget REPORT (RFC 4791) that retrieves 
+	 * the etag and calendar-data of each of the hrefs.
+	 * 
+	 * @param hrefs hrefs as returned by the CalDAV server
+	 * @return a {@link HttpEntity} for the REPORT request
+	 */
+	HttpEntity generateMultigetRequestEntity(Collection<String> hrefs);
+	
+	/**
+	 * Generate the {@link HttpEntity} body for a sync-collection REPORT (RFC 6578) that lists the href and
+	 * etag of each calendar resource changed or removed since the sync token.
+	 * 
+	 * @param syncToken the sync token from the previous sync-collection response, or null for an initial sync
+	 * @return a {@link HttpEntity} for the REPORT request
+	 */
+	HttpEntity generateSyncCollectionRequestEntity(String syncToken);
+	
+	/**
+	 * 
+	 * @return true if the CalDAV server answers the free-busy-query REPORT (RFC 4791 section 7.10) on calendar collections
+	 */
+	boolean isFreeBusyQuerySupported();
+	
+	/**
+	 * Generate the {@link HttpEntity} body for a free-busy-query REPORT that retrieves a VFREEBUSY
+	 * with the periods between the 2 {@link Date} arguments in which the account is busy.
+	 * 
+	 * @param startDate
+	 * @param endDate
+	 * @return a {@link HttpEntity} for the REPORT request
+	 */
+	HttpEntity generateFreeBusyQueryRequestEntity(Date startDate, Date endDate);
 }
\ No newline at end of file
@@ -23,6 +23,7 @@
 package org.jasig.schedassist.impl.caldav;
 
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
@@ -144,12 +145,26 @@ public class CaldavEventUtilsImpl extends DefaultEventUtilsImpl implements Initi
 		return event;
 	}
 	
-	/* (non-Javadoc)
+	/**
+	 * The attendee list is not consulted, so this implementation skips looking up the calendar account's attendee.
+	 * 
+	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.model.DefaultEventUtilsImpl#willEventCauseConflict(org.jasig.schedassist.model.ICalendarAccount, net.fortuna.ical4j.model.component.VEvent)
 	 */
 	@Override
 	public boolean willEventCauseConflict(ICalendarAccount calendarAccount,
 			VEvent event) {
+		return willEventCauseConflict(event, null);
+	}
+
+	/**
+	 * Events cause conflicts unless they are CANCELLED or TRANSPARENT, regardless of the calendar account's participation.
+	 * 
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.DefaultEventUtilsImpl#willEventCauseConflict(net.fortuna.ical4j.model.component.VEvent, net.fortuna.ical4j.model.Property)
+	 */
+	@Override
+	protected boolean willEventCauseConflict(VEvent event, Property ownerAttendee) {
 		if(event == null) {
 			return false;
 		}
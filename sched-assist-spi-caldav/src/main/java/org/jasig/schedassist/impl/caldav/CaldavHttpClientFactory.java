@@ -0,0 +1,255 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.params.ConnManagerPNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Constructs the pooled {@link CaldavClientConnectionManager} and the {@link DefaultHttpClient}
+ * used by {@link CaldavCalendarDataDaoImpl}.
+ *
+ * Configurable properties:
+ * <ul>
+ * <li>maxTotalConnections: maximum connections in the pool (default 200)</li>
+ * <li>defaultMaxConnectionsPerRoute: maximum connections per route (default 20)</li>
+ * <li>caldavHost and maxConnectionsForCaldavHost: optional limit for the route to the CalDAV server, overriding the default</li>
+ * <li>connectionTimeToLiveSeconds: maximum lifetime of a pooled connection, values <= 0 mean indefinitely (default 0)</li>
+ * <li>idleConnectionTimeoutSeconds: pooled connections idle longer than this are closed (default 60)</li>
+ * <li>keepAliveSeconds: how long to keep a connection when the server does not send a Keep-Alive timeout (default 30)</li>
+ * <li>leaseTimeoutMillis: how long to wait for a connection from the pool before failing; 0 waits indefinitely (default 5000)</li>
+ * <li>connectionTimeoutMillis and soTimeoutMillis: socket connect and read timeouts (default 5000)</li>
+ * <li>staleCheckingEnabled: check pooled connections for staleness before use (default true)</li>
+ * </ul>
+ *
+ * @version $Id: CaldavHttpClientFactory.java $
+ */
+public class CaldavHttpClientFactory {
+
+	private final SchemeRegistry schemeRegistry;
+	private int maxTotalConnections = 200;
+	private int defaultMaxConnectionsPerRoute = 20;
+	private HttpHost caldavHost;
+	private int maxConnectionsForCaldavHost = 0;
+	private long connectionTimeToLiveSeconds = 0;
+	private long idleConnectionTimeoutSeconds = 60;
+	private long keepAliveSeconds = 30;
+	private long leaseTimeoutMillis = 5000;
+	private int connectionTimeoutMillis = 5000;
+	private int soTimeoutMillis = 5000;
+	private boolean staleCheckingEnabled = true;
+
+	/**
+	 *
+	 * @see SchemeRegistryProvider
+	 * @param schemeRegistry
+	 */
+	public CaldavHttpClientFactory(SchemeRegistry schemeRegistry) {
+		Validate.notNull(schemeRegistry, "schemeRegistry cannot be null");
+		this.schemeRegistry = schemeRegistry;
+	}
+	/**
+	 *
+	 * @return a new {@link CaldavClientConnectionManager} configured from this instance's properties
+	 */
+	public CaldavClientConnectionManager createConnectionManager() {
+		CaldavClientConnectionManager connectionManager = new CaldavClientConnectionManager(schemeRegistry,
+				connectionTimeToLiveSeconds, TimeUnit.SECONDS);
+		connectionManager.setMaxTotal(maxTotalConnections);
+		connectionManager.setDefaultMaxPerRoute(defaultMaxConnectionsPerRoute);
+		if(caldavHost != null && maxConnectionsForCaldavHost > 0) {
+			boolean secure = "https".equalsIgnoreCase(caldavHost.getSchemeName());
+			connectionManager.setMaxForRoute(new HttpRoute(caldavHost, null, secure), maxConnectionsForCaldavHost);
+		}
+		connectionManager.setIdleConnectionTimeoutSeconds(idleConnectionTimeoutSeconds);
+		return connectionManager;
+	}
+	/**
+	 *
+	 * @param connectionManager
+	 * @return a new {@link DefaultHttpClient} using the connection manager and configured from this instance's properties
+	 */
+	public DefaultHttpClient createHttpClient(CaldavClientConnectionManager connectionManager) {
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectionTimeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, soTimeoutMillis);
+		HttpConnectionParams.setStaleCheckingEnabled(params, staleCheckingEnabled);
+		// read by DefaultRequestDirector when leasing a connection from the pool
+		params.setLongParameter(ConnManagerPNames.TIMEOUT, leaseTimeoutMillis);
+
+		DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, params);
+		final long defaultKeepAliveMillis = keepAliveSeconds * 1000L;
+		httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				if(duration < 0) {
+					return defaultKeepAliveMillis;
+				}
+				return duration;
+			}
+		});
+		return httpClient;
+	}
+	/**
+	 * @return the maxTotalConnections
+	 */
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+	/**
+	 * @param maxTotalConnections the maxTotalConnections to set
+	 */
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+	/**
+	 * @return the defaultMaxConnectionsPerRoute
+	 */
+	public int getDefaultMaxConnectionsPerRoute() {
+		return defaultMaxConnectionsPerRoute;
+	}
+	/**
+	 * @param defaultMaxConnectionsPerRoute the defaultMaxConnectionsPerRoute to set
+	 */
+	public void setDefaultMaxConnectionsPerRoute(int defaultMaxConnectionsPerRoute) {
+		this.defaultMaxConnectionsPerRoute = defaultMaxConnectionsPerRoute;
+	}
+	/**
+	 * @return the caldavHost
+	 */
+	public HttpHost getCaldavHost() {
+		return caldavHost;
+	}
+	/**
+	 * @param caldavHost the caldavHost to set
+	 */
+	public void setCaldavHost(HttpHost caldavHost) {
+		this.caldavHost = caldavHost;
+	}
+	/**
+	 * @return the maxConnectionsForCaldavHost
+	 */
+	public int getMaxConnectionsForCaldavHost() {
+		return maxConnectionsForCaldavHost;
+	}
+	/**
+	 * @param maxConnectionsForCaldavHost the maxConnectionsForCaldavHost to set
+	 */
+	public void setMaxConnectionsForCaldavHost(int maxConnectionsForCaldavHost) {
+		this.maxConnectionsForCaldavHost = maxConnectionsForCaldavHost;
+	}
+	/**
+	 * @return the connectionTimeToLiveSeconds
+	 */
+	public long getConnectionTimeToLiveSeconds() {
+		return connectionTimeToLiveSeconds;
+	}
+	/**
+	 * @param connectionTimeToLiveSeconds the connectionTimeToLiveSeconds to set
+	 */
+	public void setConnectionTimeToLiveSeconds(long connectionTimeToLiveSeconds) {
+		this.connectionTimeToLiveSeconds = connectionTimeToLiveSeconds;
+	}
+	/**
+	 * @return the idleConnectionTimeoutSeconds
+	 */
+	public long getIdleConnectionTimeoutSeconds() {
+		return idleConnectionTimeoutSeconds;
+	}
+	/**
+	 * @param idleConnectionTimeoutSeconds the idleConnectionTimeoutSeconds to set
+	 */
+	public void setIdleConnectionTimeoutSeconds(long idleConnectionTimeoutSeconds) {
+		this.idleConnectionTimeoutSeconds = idleConnectionTimeoutSeconds;
+	}
+	/**
+	 * @return the keepAliveSeconds
+	 */
+	public long getKeepAliveSeconds() {
+		return keepAliveSeconds;
+	}
+	/**
+	 * @param keepAliveSeconds the keepAliveSeconds to set
+	 */
+	public void setKeepAliveSeconds(long keepAliveSeconds) {
+		this.keepAliveSeconds = keepAliveSeconds;
+	}
+	/**
+	 * @return the leaseTimeoutMillis
+	 */
+	public long getLeaseTimeoutMillis() {
+		return leaseTimeoutMillis;
+	}
+	/**
+	 * @param leaseTimeoutMillis the leaseTimeoutMillis to set
+	 */
+	public void setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+		this.leaseTimeoutMillis = leaseTimeoutMillis;
+	}
+	/**
+	 * @return the connectionTimeoutMillis
+	 */
+	public int getConnectionTimeoutMillis() {
+		return connectionTimeoutMillis;
+	}
+	/**
+	 * @param connectionTimeoutMillis the connectionTimeoutMillis to set
+	 */
+	public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+		this.connectionTimeoutMillis = connectionTimeoutMillis;
+	}
+	/**
+	 * @return the soTimeoutMillis
+	 */
+	public int getSoTimeoutMillis() {
+		return soTimeoutMillis;
+	}
+	/**
+	 * @param soTimeoutMillis the soTimeoutMillis to set
+	 */
+	public void setSoTimeoutMillis(int soTimeoutMillis) {
+		this.soTimeoutMillis = soTimeoutMillis;
+	}
+	/**
+	 * @return the staleCheckingEnabled
+	 */
+	public boolean isStaleCheckingEnabled() {
+		return staleCheckingEnabled;
+	}
+	/**
+	 * @param staleCheckingEnabled the staleCheckingEnabled to set
+	 */
+	public void setStaleCheckingEnabled(boolean staleCheckingEnabled) {
+		this.staleCheckingEnabled = staleCheckingEnabled;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The content of a WebDAV multistatus response to a calendar REPORT: the {@link CalendarWithURI}s
+ * for responses that included calendar-data, the etag of every resource listed, the hrefs of resources
+ * reported as removed (status 404, as in a sync-collection response), and the sync-token, if any.
+ *
+ * @see org.jasig.schedassist.impl.caldav.xml.ReportResponseHandlerImpl#extractCollectionDelta(java.io.InputStream)
+ * @version $Id: CalendarCollectionDelta.java $
+ */
+public class CalendarCollectionDelta {
+
+	private final List<CalendarWithURI> calendars = new ArrayList<CalendarWithURI>();
+	private final Map<String, String> etags = new LinkedHashMap<String, String>();
+	private final List<String> removed = new ArrayList<String>();
+	private String syncToken;
+
+	/**
+	 * @return the calendars, in document order
+	 */
+	public List<CalendarWithURI> getCalendars() {
+		return calendars;
+	}
+	/**
+	 * @return map of href to etag for each resource listed with an etag, in document order
+	 */
+	public Map<String, String> getEtags() {
+		return Collections.unmodifiableMap(etags);
+	}
+	/**
+	 * @return the hrefs of resources that have been removed
+	 */
+	public List<String> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+	/**
+	 * @return the syncToken, or null if the response did not contain one
+	 */
+	public String getSyncToken() {
+		return syncToken;
+	}
+	/**
+	 * @param calendar
+	 */
+	public void addCalendar(CalendarWithURI calendar) {
+		this.calendars.add(calendar);
+	}
+	/**
+	 * @param href
+	 * @param etag
+	 */
+	public void addEtag(String href, String etag) {
+		this.etags.put(href, etag);
+	}
+	/**
+	 * @param href
+	 */
+	public void addRemoved(String href) {
+		this.removed.add(href);
+	}
+	/**
+	 * @param syncToken the syncToken to set
+	 */
+	public void setSyncToken(String syncToken) {
+		this.syncToken = syncToken;
+	}
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CalendarCollectionDelta [calendars=" + calendars.size() + ", etags=" + etags.size()
+				+ ", removed=" + removed.size() + ", syncToken=" + syncToken + "]";
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.ICalendarDataDao;
+import org.jasig.schedassist.model.ICalendarAccount;
+
+/**
+ * Single-flight coalescing for {@link ICalendarDataDao#getCalendar(ICalendarAccount, Date, Date)}.
+ *
+ * When a request arrives for an account while a fetch for the same account is in flight, and the
+ * window of the in flight fetch covers the requested window, the request waits for and shares the result
+ * of the in flight fetch rather than issuing its own.
+ * The window of each fetch is widened to whole multiples of {@link #getWindowGranularityMinutes()} so that requests
+ * for nearly the same window (e.g. "now" through 3 weeks from now, computed a second apart) are covered by a single fetch.
+ *
+ * The {@link Calendar} returned is shared by all of the coalesced callers and must be treated as read-only.
+ * It may also contain events outside of the requested window (but within the widened window).
+ *
+ * Writes to an account must call {@link #invalidate(ICalendarAccount)} so that requests arriving after the write
+ * do not share a fetch that started before it.
+ *
+ * @version $Id: CalendarFetchCoalescer.java $
+ */
+public class CalendarFetchCoalescer {
+
+	protected final Log log = LogFactory.getLog(this.getClass());
+	private final Map<String, List<InFlightFetch>> inFlight = new HashMap<String, List<InFlightFetch>>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong fetchCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong failedFetchCount = new AtomicLong();
+	private int windowGranularityMinutes = 1;
+
+	/**
+	 * Callback that performs the actual fetch.
+	 */
+	public static interface CalendarLoader {
+		/**
+		 *
+		 * @param calendarAccount
+		 * @param startDate
+		 * @param endDate
+		 * @return the calendar for the account between the dates
+		 */
+		Calendar loadCalendar(ICalendarAccount calendarAccount, Date startDate, Date endDate);
+	}
+
+	/**
+	 * @return the windowGranularityMinutes
+	 */
+	public int getWindowGranularityMinutes() {
+		return windowGranularityMinutes;
+	}
+	/**
+	 * The start of each fetch window is rounded down, and the end rounded up, to a multiple of this many minutes.
+	 * Default is 1; 0 disables widening (only requests for covered windows are coalesced).
+	 *
+	 * @param windowGranularityMinutes the windowGranularityMinutes to set
+	 */
+	public void setWindowGranularityMinutes(int windowGranularityMinutes) {
+		this.windowGranularityMinutes = windowGranularityMinutes;
+	}
+	/**
+	 * @return the number of calls to {@link #getCalendar(ICalendarAccount, Date, Date, CalendarLoader)}
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+	/**
+	 * @return the number of calls that invoked the {@link CalendarLoader}
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+	/**
+	 * @return the number of calls that shared the result of an in flight fetch
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+	/**
+	 * @return the number of fetches that failed with an exception
+	 */
+	public long getFailedFetchCount() {
+		return failedFetchCount.get();
+	}
+	/**
+	 * @return the number of fetches currently in flight
+	 */
+	public int getInFlightCount() {
+		synchronized (inFlight) {
+			int count = 0;
+			for(List<InFlightFetch> fetches : inFlight.values()) {
+				count += fetches.size();
+			}
+			return count;
+		}
+	}
+	/**
+	 * Reset all counters to 0.
+	 */
+	public void resetStatistics() {
+		requestCount.set(0);
+		fetchCount.set(0);
+		coalescedCount.set(0);
+		failedFetchCount.set(0);
+	}
+
+	/**
+	 * Return the calendar for the account, either by joining an in flight fetch that covers
+	 * the window or by invoking the loader for a widened window.
+	 *
+	 * @param calendarAccount
+	 * @param startDate
+	 * @param endDate
+	 * @param loader
+	 * @return the calendar, which must not be modified
+	 * @throws CaldavDataAccessException if the in flight fetch this request joined failed, or if interrupted while waiting
+	 */
+	public Calendar getCalendar(ICalendarAccount calendarAccount, Date startDate, Date endDate, CalendarLoader loader) {
+		requestCount.incrementAndGet();
+		final String key = calendarAccount.getCalendarUniqueId();
+		final long start = startDate.getTime();
+		final long end = endDate.getTime();
+
+		InFlightFetch fetch = null;
+		boolean leader = false;
+		synchronized (inFlight) {
+			List<InFlightFetch> fetches = inFlight.get(key);
+			if(fetches == null) {
+				fetches = new ArrayList<InFlightFetch>();
+				inFlight.put(key, fetches);
+			}
+			for(InFlightFetch candidate : fetches) {
+				if(candidate.covers(start, end)) {
+					fetch = candidate;
+					break;
+				}
+			}
+			if(fetch == null) {
+				fetch = new InFlightFetch(floor(start), ceiling(end));
+				fetches.add(fetch);
+				leader = true;
+			}
+		}
+
+		if(!leader) {
+			coalescedCount.incrementAndGet();
+			if(log.isDebugEnabled()) {
+				log.debug("getCalendar for " + calendarAccount + ", start " + startDate + ", end " + endDate + " joining in flight fetch " + fetch);
+			}
+			return fetch.await();
+		}
+
+		fetchCount.incrementAndGet();
+		try {
+			Calendar result = loader.loadCalendar(calendarAccount, new Date(fetch.startTime), new Date(fetch.endTime));
+			fetch.complete(result, null);
+			return result;
+		} catch (RuntimeException e) {
+			failedFetchCount.incrementAndGet();
+			fetch.complete(null, e);
+			throw e;
+		} catch (Error e) {
+			failedFetchCount.incrementAndGet();
+			fetch.complete(null, e);
+			throw e;
+		} finally {
+			remove(key, fetch);
+		}
+	}
+
+	/**
+	 * Detach all in flight fetches for the account; subsequent requests will start a new fetch.
+	 * Callers already waiting on a detached fetch still receive its result.
+	 *
+	 * @param calendarAccount
+	 */
+	public void invalidate(ICalendarAccount calendarAccount) {
+		if(calendarAccount == null) {
+			return;
+		}
+		synchronized (inFlight) {
+			inFlight.remove(calendarAccount.getCalendarUniqueId());
+		}
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @param fetch
+	 */
+	private void remove(String key, InFlightFetch fetch) {
+		synchronized (inFlight) {
+			List<InFlightFetch> fetches = inFlight.get(key);
+			if(fetches != null) {
+				fetches.remove(fetch);
+				if(fetches.isEmpty()) {
+					inFlight.remove(key);
+				}
+			}
+		}
+	}
+	/**
+	 *
+	 * @param time
+	 * @return the time rounded down to the window granularity
+	 */
+	long floor(long time) {
+		long granularity = windowGranularityMinutes * 60000L;
+		if(granularity <= 0) {
+			return time;
+		}
+		return time - (time % granularity);
+	}
+	/**
+	 *
+	 * @param time
+	 * @return the time rounded up to the window granularity
+	 */
+	long ceiling(long time) {
+		long floor = floor(time);
+		if(floor == time) {
+			return time;
+		}
+		return floor + windowGranularityMinutes * 60000L;
+	}
+
+	/**
+	 * A fetch in progress and the result it eventually produces.
+	 */
+	private static class InFlightFetch {
+		private final long startTime;
+		private final long endTime;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile Calendar result;
+		private volatile Throwable failure;
+
+		/**
+		 * @param startTime
+		 * @param endTime
+		 */
+		InFlightFetch(long startTime, long endTime) {
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+		/**
+		 *
+		 * @param start
+		 * @param end
+		 * @return true if this fetch's window contains the arguments
+		 */
+		boolean covers(long start, long end) {
+			return startTime <= start && end <= endTime;
+		}
+		/**
+		 *
+		 * @param result
+		 * @param failure
+		 */
+		void complete(Calendar result, Throwable failure) {
+			this.result = result;
+			this.failure = failure;
+			latch.countDown();
+		}
+		/**
+		 *
+		 * @return the result of the fetch
+		 */
+		Calendar await() {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CaldavDataAccessException("interrupted while waiting for in flight getCalendar", e);
+			}
+			if(failure != null) {
+				throw new CaldavDataAccessException("in flight getCalendar failed", failure);
+			}
+			return result;
+		}
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "InFlightFetch [startTime=" + new Date(startTime) + ", endTime=" + new Date(endTime) + "]";
+		}
+	}
+}
@@ -0,0 +1,464 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.DtEnd;
+import net.fortuna.ical4j.model.property.DtStart;
+
+import org.jasig.schedassist.model.ICalendarAccount;
+
+/**
+ * Per account local copy of the calendar resources retrieved from the CalDAV server,
+ * keyed by href, along with the WebDAV sync-token for the account's calendar collection.
+ *
+ * {@link CaldavCalendarDataDaoImpl} refreshes an account's {@link AccountMirror} with a sync-collection REPORT
+ * (RFC 6578), or, if the account's collection doesn't support it, by comparing the etags listed by a calendar-query
+ * with those of the mirrored resources. In both cases only new and changed resources are fetched and parsed.
+ * A collection that rejects sync-collection is recorded on its {@link AccountMirror}; only a server that does not
+ * implement the REPORT at all turns sync-collection off for every account.
+ *
+ * Accounts are retained in least recently used order up to {@link #getMaxAccounts()}.
+ * The {@link CalendarWithURI}s held are shared by all readers and must be treated as read-only.
+ *
+ * @version $Id: CalendarMirror.java $
+ */
+public class CalendarMirror {
+
+	private final Map<String, AccountMirror> accounts = new LinkedHashMap<String, AccountMirror>(16, 0.75f, true);
+	private volatile int maxAccounts = 1000;
+	private volatile long minRefreshIntervalMillis = 0;
+	private volatile boolean syncCollectionEnabled = true;
+	private volatile boolean syncCollectionSupported = true;
+	private volatile int multigetBatchSize = 100;
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong syncCollectionRefreshCount = new AtomicLong();
+	private final AtomicLong etagRefreshCount = new AtomicLong();
+	private final AtomicLong fullResyncCount = new AtomicLong();
+	private final AtomicLong resourcesFetchedCount = new AtomicLong();
+	private final AtomicLong resourcesRemovedCount = new AtomicLong();
+
+	/**
+	 * @return the maxAccounts
+	 */
+	public int getMaxAccounts() {
+		return maxAccounts;
+	}
+	/**
+	 * The maximum number of accounts mirrored; the least recently used account is evicted when exceeded.
+	 * Default is 1000.
+	 *
+	 * @param maxAccounts the maxAccounts to set
+	 */
+	public void setMaxAccounts(int maxAccounts) {
+		this.maxAccounts = maxAccounts;
+	}
+	/**
+	 * @return the minRefreshIntervalMillis
+	 */
+	public long getMinRefreshIntervalMillis() {
+		return minRefreshIntervalMillis;
+	}
+	/**
+	 * An account refreshed less than this many milliseconds ago is read from the mirror without contacting
+	 * the CalDAV server, unless the Scheduling Assistant has written to the account since.
+	 * Default is 0 (refresh on every read).
+	 *
+	 * @param minRefreshIntervalMillis the minRefreshIntervalMillis to set
+	 */
+	public void setMinRefreshIntervalMillis(long minRefreshIntervalMillis) {
+		this.minRefreshIntervalMillis = minRefreshIntervalMillis;
+	}
+	/**
+	 * @return the syncCollectionEnabled
+	 */
+	public boolean isSyncCollectionEnabled() {
+		return syncCollectionEnabled;
+	}
+	/**
+	 * If false, always refresh by comparing etags. Default is true.
+	 *
+	 * @param syncCollectionEnabled the syncCollectionEnabled to set
+	 */
+	public void setSyncCollectionEnabled(boolean syncCollectionEnabled) {
+		this.syncCollectionEnabled = syncCollectionEnabled;
+	}
+	/**
+	 * @return true if sync-collection REPORTs are enabled and the server has not reported that it does not implement them
+	 */
+	public boolean isSyncCollectionSupported() {
+		return syncCollectionEnabled && syncCollectionSupported;
+	}
+	/**
+	 * Set to false when the server answers a sync-collection REPORT with 501 Not Implemented.
+	 * A collection that rejects it otherwise is recorded with {@link AccountMirror#setSyncCollectionSupported(boolean)}.
+	 *
+	 * @param syncCollectionSupported the syncCollectionSupported to set
+	 */
+	public void setSyncCollectionSupported(boolean syncCollectionSupported) {
+		this.syncCollectionSupported = syncCollectionSupported;
+	}
+	/**
+	 * @return the multigetBatchSize
+	 */
+	public int getMultigetBatchSize() {
+		return multigetBatchSize;
+	}
+	/**
+	 * The maximum number of hrefs in a single calendar-multiget REPORT. Default is 100.
+	 *
+	 * @param multigetBatchSize the multigetBatchSize to set
+	 */
+	public void setMultigetBatchSize(int multigetBatchSize) {
+		this.multigetBatchSize = multigetBatchSize;
+	}
+	/**
+	 * @return the number of accounts mirrored
+	 */
+	public int getAccountCount() {
+		synchronized (accounts) {
+			return accounts.size();
+		}
+	}
+	/**
+	 * @return the number of reads served by the mirror
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+	/**
+	 * @return the number of refreshes with sync-collection
+	 */
+	public long getSyncCollectionRefreshCount() {
+		return syncCollectionRefreshCount.get();
+	}
+	/**
+	 * @return the number of refreshes by etag comparison
+	 */
+	public long getEtagRefreshCount() {
+		return etagRefreshCount.get();
+	}
+	/**
+	 * @return the number of times a sync-token was rejected and the account was mirrored again from scratch
+	 */
+	public long getFullResyncCount() {
+		return fullResyncCount.get();
+	}
+	/**
+	 * @return the number of resources fetched and parsed
+	 */
+	public long getResourcesFetchedCount() {
+		return resourcesFetchedCount.get();
+	}
+	/**
+	 * @return the number of resources removed from the mirror
+	 */
+	public long getResourcesRemovedCount() {
+		return resourcesRemovedCount.get();
+	}
+	/**
+	 * Reset all counters to 0.
+	 */
+	public void resetStatistics() {
+		requestCount.set(0);
+		syncCollectionRefreshCount.set(0);
+		etagRefreshCount.set(0);
+		fullResyncCount.set(0);
+		resourcesFetchedCount.set(0);
+		resourcesRemovedCount.set(0);
+	}
+	/**
+	 * Discard all mirrored accounts, and forget that the server rejected sync-collection.
+	 */
+	public void clear() {
+		synchronized (accounts) {
+			accounts.clear();
+		}
+		syncCollectionSupported = true;
+	}
+
+	/**
+	 * Return the {@link AccountMirror} for the account, creating it (and evicting the least recently
+	 * used account if necessary) if absent.
+	 *
+	 * @param calendarAccount
+	 * @return never null
+	 */
+	public AccountMirror getAccountMirror(ICalendarAccount calendarAccount) {
+		requestCount.incrementAndGet();
+		final String key = calendarAccount.getCalendarUniqueId();
+		synchronized (accounts) {
+			AccountMirror mirror = accounts.get(key);
+			if(mirror == null) {
+				mirror = new AccountMirror();
+				accounts.put(key, mirror);
+				while(accounts.size() > maxAccounts) {
+					accounts.remove(accounts.keySet().iterator().next());
+				}
+			}
+			return mirror;
+		}
+	}
+	/**
+	 * Called after writes to the account's calendar so the next read refreshes it,
+	 * regardless of {@link #getMinRefreshIntervalMillis()}.
+	 *
+	 * @param calendarAccount
+	 */
+	public void markStale(ICalendarAccount calendarAccount) {
+		AccountMirror mirror;
+		synchronized (accounts) {
+			mirror = accounts.get(calendarAccount.getCalendarUniqueId());
+		}
+		if(mirror != null) {
+			mirror.markStale();
+		}
+	}
+	/**
+	 * Stop mirroring the account.
+	 *
+	 * @param calendarAccount
+	 */
+	public void remove(ICalendarAccount calendarAccount) {
+		synchronized (accounts) {
+			accounts.remove(calendarAccount.getCalendarUniqueId());
+		}
+	}
+
+	/**
+	 * Record a refresh with sync-collection.
+	 */
+	void recordSyncCollectionRefresh() {
+		syncCollectionRefreshCount.incrementAndGet();
+	}
+	/**
+	 * Record a refresh by etag comparison.
+	 */
+	void recordEtagRefresh() {
+		etagRefreshCount.incrementAndGet();
+	}
+	/**
+	 * Record a rejected sync-token.
+	 */
+	void recordFullResync() {
+		fullResyncCount.incrementAndGet();
+	}
+	/**
+	 * @param fetched number of resources fetched
+	 * @param removed number of resources removed
+	 */
+	void recordResources(int fetched, int removed) {
+		resourcesFetchedCount.addAndGet(fetched);
+		resourcesRemovedCount.addAndGet(removed);
+	}
+
+	/**
+	 * Determine if any VEVENT within the calendar may occur within the window.
+	 * Recurring events are always included; instances are expanded within the window by the consumer
+	 * (e.g. the {@link org.jasig.schedassist.model.VisibleScheduleBuilder}).
+	 *
+	 * @param calendarWithURI
+	 * @param startDate
+	 * @param endDate
+	 * @return true if the calendar contains an event that overlaps the window
+	 */
+	static boolean overlaps(CalendarWithURI calendarWithURI, Date startDate, Date endDate) {
+		for(Object o : calendarWithURI.getCalendar().getComponents(Component.VEVENT)) {
+			VEvent event = (VEvent) o;
+			if(event.getProperty(Property.RRULE) != null || event.getProperty(Property.RDATE) != null) {
+				return true;
+			}
+			DtStart dtStart = event.getStartDate();
+			if(dtStart == null || dtStart.getDate() == null) {
+				// cannot tell; let the consumer decide
+				return true;
+			}
+			Date eventStart = dtStart.getDate();
+			DtEnd dtEnd = event.getEndDate();
+			Date eventEnd = dtEnd == null || dtEnd.getDate() == null ? eventStart : dtEnd.getDate();
+			if(eventStart.before(endDate) && (eventEnd.after(startDate) || !eventStart.before(startDate))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The mirrored resources and sync-token for a single account.
+	 * Refreshes must synchronize on the instance.
+	 */
+	public static class AccountMirror {
+		private final Map<String, CalendarWithURI> resources = new LinkedHashMap<String, CalendarWithURI>();
+		private final AtomicLong generation = new AtomicLong();
+		private String syncToken;
+		private long lastRefreshTime = 0;
+		private long refreshedGeneration = -1;
+		private boolean syncCollectionSupported = true;
+
+		/**
+		 * @return the syncToken, or null if the account has not been synchronized
+		 */
+		public String getSyncToken() {
+			return syncToken;
+		}
+		/**
+		 * @param syncToken the syncToken to set
+		 */
+		public void setSyncToken(String syncToken) {
+			this.syncToken = syncToken;
+		}
+		/**
+		 * @return false if the account's collection has rejected a sync-collection REPORT without a sync-token
+		 */
+		public boolean isSyncCollectionSupported() {
+			return syncCollectionSupported;
+		}
+		/**
+		 * Retained until the account is evicted or the {@link CalendarMirror} cleared;
+		 * not reset by {@link #clear()}.
+		 * 
+		 * @param syncCollectionSupported the syncCollectionSupported to set
+		 */
+		public void setSyncCollectionSupported(boolean syncCollectionSupported) {
+			this.syncCollectionSupported = syncCollectionSupported;
+		}
+		/**
+		 * @return the number of resources mirrored
+		 */
+		public int size() {
+			return resources.size();
+		}
+		/**
+		 * @param href
+		 * @return the mirrored resource, or null
+		 */
+		public CalendarWithURI get(String href) {
+			return resources.get(href);
+		}
+		/**
+		 * @param href
+		 * @return the etag of the mirrored resource, or null if not mirrored
+		 */
+		public String getEtag(String href) {
+			CalendarWithURI existing = resources.get(href);
+			return existing == null ? null : existing.getEtag();
+		}
+		/**
+		 * @param calendarWithURI resource to add or replace, keyed by {@link CalendarWithURI#getUri()}
+		 */
+		public void put(CalendarWithURI calendarWithURI) {
+			resources.put(calendarWithURI.getUri(), calendarWithURI);
+		}
+		/**
+		 * @param href
+		 * @return true if the resource was mirrored
+		 */
+		public boolean remove(String href) {
+			return resources.remove(href) != null;
+		}
+		/**
+		 * Remove all resources whose hrefs are not in the argument.
+		 *
+		 * @param hrefs
+		 * @return the number of resources removed
+		 */
+		public int retainAll(Collection<String> hrefs) {
+			int before = resources.size();
+			resources.keySet().retainAll(hrefs);
+			return before - resources.size();
+		}
+		/**
+		 * Remove all resources and the sync-token.
+		 */
+		public void clear() {
+			resources.clear();
+			syncToken = null;
+		}
+		/**
+		 *
+		 * @param startDate
+		 * @param endDate
+		 * @return the mirrored resources that contain events that overlap the window
+		 */
+		public List<CalendarWithURI> getCalendars(Date startDate, Date endDate) {
+			List<CalendarWithURI> results = new ArrayList<CalendarWithURI>();
+			for(CalendarWithURI calendarWithURI : resources.values()) {
+				if(overlaps(calendarWithURI, startDate, endDate)) {
+					results.add(calendarWithURI);
+				}
+			}
+			return results;
+		}
+		/**
+		 * @param hrefs
+		 * @return the mirrored resources for the hrefs, in order, omitting any not mirrored
+		 */
+		public List<CalendarWithURI> getCalendars(Collection<String> hrefs) {
+			List<CalendarWithURI> results = new ArrayList<CalendarWithURI>();
+			for(String href : hrefs) {
+				CalendarWithURI calendarWithURI = resources.get(href);
+				if(calendarWithURI != null) {
+					results.add(calendarWithURI);
+				}
+			}
+			return results;
+		}
+		/**
+		 * May be called without synchronizing on the instance.
+		 */
+		void markStale() {
+			generation.incrementAndGet();
+		}
+		/**
+		 * @return the current generation, to be passed to {@link #markRefreshed(long, long)} when the refresh started with it completes
+		 */
+		long getGeneration() {
+			return generation.get();
+		}
+		/**
+		 *
+		 * @param now
+		 * @param minRefreshIntervalMillis
+		 * @return true if the account has never been refreshed, was marked stale since, or was refreshed longer ago than the interval
+		 */
+		boolean needsRefresh(long now, long minRefreshIntervalMillis) {
+			return refreshedGeneration != generation.get() || now - lastRefreshTime >= minRefreshIntervalMillis;
+		}
+		/**
+		 *
+		 * @param now
+		 * @param refreshGeneration the value of {@link #getGeneration()} when the refresh started
+		 */
+		void markRefreshed(long now, long refreshGeneration) {
+			this.lastRefreshTime = now;
+			this.refreshedGeneration = refreshGeneration;
+		}
+	}
+}
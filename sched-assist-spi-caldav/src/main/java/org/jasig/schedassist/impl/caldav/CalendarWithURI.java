@@ -36,6 +36,7 @@ public class CalendarWithURI {
 	private final Calendar calendar;
 	private final String uri;
 	private final String etag;
+	private final boolean projected;
 	
 	/**
 	 * 
@@ -51,9 +52,19 @@ public class CalendarWithURI {
 	 * @param etag
 	 */
 	public CalendarWithURI(Calendar calendar, String uri, String etag) {
+		this(calendar, uri, etag, false);
+	}
+	/**
+	 * @param calendar
+	 * @param uri
+	 * @param etag
+	 * @param projected true if the calendar was parsed with a {@link ProjectingCalendarParser}
+	 */
+	public CalendarWithURI(Calendar calendar, String uri, String etag, boolean projected) {
 		this.calendar = calendar;
 		this.uri = uri;
 		this.etag = etag;
+		this.projected = projected;
 	}
 	/**
 	 * @return the calendar
@@ -73,13 +84,22 @@ public class CalendarWithURI {
 	public String getEtag() {
 		return etag;
 	}
+	/**
+	 * If true, the calendar contains only the properties retained by a {@link ProjectingCalendarParser}
+	 * and must not be written back to the CalDAV server.
+	 * 
+	 * @return the projected
+	 */
+	public boolean isProjected() {
+		return projected;
+	}
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
 		return "CalendarWithURI [calendar=" + calendar + ", uri=" + uri
-				+ ", etag=" + etag + "]";
+				+ ", etag=" + etag + ", projected=" + projected + "]";
 	}
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
@@ -0,0 +1,45 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.Date;
+
+/**
+ * Source of the current time, so that comparisons against "now" can be tested.
+ * 
+ * @version $Id: Clock.java $
+ */
+public interface Clock {
+
+	/**
+	 * {@link Clock} backed by the system clock.
+	 */
+	Clock SYSTEM = new Clock() {
+		@Override
+		public Date now() {
+			return new Date();
+		}
+	};
+	
+	/**
+	 * 
+	 * @return the current time
+	 */
+	Date now();
+}
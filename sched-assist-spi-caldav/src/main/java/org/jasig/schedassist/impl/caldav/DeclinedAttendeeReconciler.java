@@ -0,0 +1,233 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Background queue for appointments with declined attendees.
+ * 
+ * Reads of an owner's calendar only detect appointments that purgeDeclinedAttendees would alter, and 
+ * {@link #enqueue(ICalendarAccount, String, String, Purger)} them; the cancellations and attendee removals 
+ * (and the events they publish) are performed by a bounded pool of worker threads, so the latency of a read does
+ * not include the latency of those writes.
+ * 
+ * Requests are deduplicated by href: an appointment already waiting or being purged is not queued again (its etag is updated).
+ * An appointment stays pending until its purge finishes; if a different etag arrived while it was being purged, 
+ * the worker purges it once more with that etag before releasing it.
+ * At most {@link #getQueueCapacity()} appointments wait; further requests are dropped, to be detected again by a later read.
+ * 
+ * This class implements {@link DisposableBean}; {@link #destroy()} invokes {@link ThreadPoolExecutor#shutdownNow()}.
+ * 
+ * @version $Id: DeclinedAttendeeReconciler.java $
+ */
+public class DeclinedAttendeeReconciler implements DisposableBean {
+
+	protected final Log log = LogFactory.getLog(this.getClass());
+	private final ThreadPoolExecutor executor;
+	private final int queueCapacity;
+	private final ConcurrentMap<String, String> pending = new ConcurrentHashMap<String, String>();
+	private final AtomicLong enqueuedCount = new AtomicLong();
+	private final AtomicLong duplicateCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong purgeCount = new AtomicLong();
+	private final AtomicLong failedPurgeCount = new AtomicLong();
+	private final AtomicLong rerunCount = new AtomicLong();
+
+	/**
+	 * Callback that performs the purge.
+	 */
+	public static interface Purger {
+		/**
+		 * 
+		 * @param owner the owner of the calendar
+		 * @param href the href of the appointment
+		 * @param etag the etag of the appointment when it was detected (may be null)
+		 */
+		void purge(ICalendarAccount owner, String href, String etag);
+	}
+
+	/**
+	 * 
+	 * @param threads the number of purges that may run at once
+	 * @param queueCapacity the number of appointments that may wait to be purged
+	 */
+	public DeclinedAttendeeReconciler(int threads, int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	/**
+	 * @return the number of purges that may run at once
+	 */
+	public int getThreads() {
+		return executor.getMaximumPoolSize();
+	}
+	/**
+	 * @return the number of appointments that may wait to be purged
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	/**
+	 * @return the number of appointments waiting or being purged
+	 */
+	public int getQueueDepth() {
+		return pending.size();
+	}
+	/**
+	 * @return the number of appointments queued
+	 */
+	public long getEnqueuedCount() {
+		return enqueuedCount.get();
+	}
+	/**
+	 * @return the number of requests for appointments that were already waiting or being purged
+	 */
+	public long getDuplicateCount() {
+		return duplicateCount.get();
+	}
+	/**
+	 * @return the number of requests dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	/**
+	 * @return the number of purges completed
+	 */
+	public long getPurgeCount() {
+		return purgeCount.get();
+	}
+	/**
+	 * @return the number of purges that failed with an exception
+	 */
+	public long getFailedPurgeCount() {
+		return failedPurgeCount.get();
+	}
+	/**
+	 * @return the number of purges run again because a newer etag arrived while the appointment was being purged
+	 */
+	public long getRerunCount() {
+		return rerunCount.get();
+	}
+	/**
+	 * Reset all counters to 0.
+	 */
+	public void resetStatistics() {
+		enqueuedCount.set(0);
+		duplicateCount.set(0);
+		droppedCount.set(0);
+		purgeCount.set(0);
+		failedPurgeCount.set(0);
+		rerunCount.set(0);
+	}
+
+	/**
+	 * Queue the appointment to be purged by the {@link Purger}, unless it is already waiting.
+	 * 
+	 * @param owner
+	 * @param href
+	 * @param etag
+	 * @param purger
+	 * @return true if the appointment is waiting to be purged, false if the request was dropped
+	 */
+	public boolean enqueue(final ICalendarAccount owner, final String href, String etag, final Purger purger) {
+		final String etagValue = etag == null ? "" : etag;
+		while(pending.putIfAbsent(href, etagValue) != null) {
+			// already waiting or being purged; record the latest version (unless the purge finished in the meantime)
+			if(pending.replace(href, etagValue) != null) {
+				duplicateCount.incrementAndGet();
+				return true;
+			}
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					String currentEtag = pending.get(href);
+					boolean removed = false;
+					try {
+						while(!removed) {
+							purge(owner, href, currentEtag, purger);
+							// the href stays in pending until here; rerun only if a newer etag arrived meanwhile
+							removed = pending.remove(href, currentEtag);
+							if(!removed) {
+								currentEtag = pending.get(href);
+								rerunCount.incrementAndGet();
+							}
+						}
+					} finally {
+						if(!removed) {
+							pending.remove(href);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.remove(href);
+			droppedCount.incrementAndGet();
+			log.warn("dropping purge of " + href + " for " + owner + ", " + getQueueDepth() + " waiting");
+			return false;
+		}
+		enqueuedCount.incrementAndGet();
+		if(log.isDebugEnabled()) {
+			log.debug("queued purge of " + href + " for " + owner);
+		}
+		return true;
+	}
+	/**
+	 * 
+	 * @param owner
+	 * @param href
+	 * @param etag the etag, or "" if none
+	 * @param purger
+	 */
+	protected void purge(ICalendarAccount owner, String href, String etag, Purger purger) {
+		try {
+			purger.purge(owner, href, "".equals(etag) ? null : etag);
+			purgeCount.incrementAndGet();
+		} catch (RuntimeException e) {
+			failedPurgeCount.incrementAndGet();
+			log.error("purge failed for " + owner + ", " + href, e);
+		}
+	}
+	/**
+	 * Invokes {@link ThreadPoolExecutor#shutdownNow()}.
+	 * 
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		executor.shutdownNow();
+	}
+}
@@ -23,15 +23,22 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
 
 import javax.annotation.Resource;
 
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.property.ProdId;
+import net.fortuna.ical4j.model.property.Status;
+import net.fortuna.ical4j.model.property.Transp;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -45,6 +52,18 @@ import org.springframework.beans.factory.annotation.Autowired;
  * Class to encapsulate generation of the dialect between the scheduling assistant
  * and the CalDAV server.
  * 
+ * {@link #generateGetVisibleScheduleCalendarRequestEntity(Date, Date)} can narrow the calendar-query
+ * with optional features that not every CalDAV server supports; each is disabled by default:
+ * <ul>
+ * <li>calendarDataSelectionEnabled: request only {@link #getSelectedEventPropertyNames()} of each VEVENT
+ * (RFC 4791 calendar-data comp/prop selection).</li>
+ * <li>excludeTransparentEvents and excludeCancelledEvents: prop-filters that omit events with TRANSP:TRANSPARENT
+ * or STATUS:CANCELLED. Events without the property must still match, so these filters use the 
+ * test="anyof" attribute on prop-filter (draft-daboo-caldav-extensions); only enable them for servers that support it.</li>
+ * </ul>
+ * 
+ * freeBusyQuerySupported (disabled by default) advertises that the server answers the free-busy-query REPORT.
+ * 
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: DefaultCaldavDialectImpl.java 51 2011-05-06 14:35:33Z nblair $
  */
@@ -66,6 +85,11 @@ public class DefaultCaldavDialectImpl implements CaldavDialect{
 	private String accountHomeSuffix = "/calendar/";
 	private IEventUtils eventUtils;
 	private String userPathSegmentAttributeName = "uid";
+	private boolean calendarDataSelectionEnabled = false;
+	private boolean excludeTransparentEvents = false;
+	private boolean excludeCancelledEvents = false;
+	private boolean freeBusyQuerySupported = false;
+	private Set<String> selectedEventPropertyNames = new TreeSet<String>(ProjectingCalendarParser.DEFAULT_RETAINED_PROPERTY_NAMES);
 	private Log log = LogFactory.getLog(this.getClass());
 	
 	/**
@@ -105,6 +129,71 @@ public class DefaultCaldavDialectImpl implements CaldavDialect{
 	public void setUserPathSegmentAttributeName(String userPathSegmentAttributeName) {
 		this.userPathSegmentAttributeName = userPathSegmentAttributeName;
 	}
+	/**
+	 * @return the calendarDataSelectionEnabled
+	 */
+	public boolean isCalendarDataSelectionEnabled() {
+		return calendarDataSelectionEnabled;
+	}
+	/**
+	 * @param calendarDataSelectionEnabled the calendarDataSelectionEnabled to set
+	 */
+	public void setCalendarDataSelectionEnabled(boolean calendarDataSelectionEnabled) {
+		this.calendarDataSelectionEnabled = calendarDataSelectionEnabled;
+	}
+	/**
+	 * @return the excludeTransparentEvents
+	 */
+	public boolean isExcludeTransparentEvents() {
+		return excludeTransparentEvents;
+	}
+	/**
+	 * @param excludeTransparentEvents the excludeTransparentEvents to set
+	 */
+	public void setExcludeTransparentEvents(boolean excludeTransparentEvents) {
+		this.excludeTransparentEvents = excludeTransparentEvents;
+	}
+	/**
+	 * @return the excludeCancelledEvents
+	 */
+	public boolean isExcludeCancelledEvents() {
+		return excludeCancelledEvents;
+	}
+	/**
+	 * @param excludeCancelledEvents the excludeCancelledEvents to set
+	 */
+	public void setExcludeCancelledEvents(boolean excludeCancelledEvents) {
+		this.excludeCancelledEvents = excludeCancelledEvents;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#isFreeBusyQuerySupported()
+	 */
+	@Override
+	public boolean isFreeBusyQuerySupported() {
+		return freeBusyQuerySupported;
+	}
+	/**
+	 * @param freeBusyQuerySupported the freeBusyQuerySupported to set
+	 */
+	public void setFreeBusyQuerySupported(boolean freeBusyQuerySupported) {
+		this.freeBusyQuerySupported = freeBusyQuerySupported;
+	}
+	/**
+	 * @return the selectedEventPropertyNames
+	 */
+	public Set<String> getSelectedEventPropertyNames() {
+		return selectedEventPropertyNames;
+	}
+	/**
+	 * VEVENT properties requested when calendarDataSelectionEnabled is true; 
+	 * default is {@link ProjectingCalendarParser#DEFAULT_RETAINED_PROPERTY_NAMES}.
+	 * 
+	 * @param selectedEventPropertyNames the selectedEventPropertyNames to set
+	 */
+	public void setSelectedEventPropertyNames(Collection<String> selectedEventPropertyNames) {
+		this.selectedEventPropertyNames = new TreeSet<String>(selectedEventPropertyNames);
+	}
 	/* (non-Javadoc)
 	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#getCaldavHost()
 	 */
@@ -135,8 +224,22 @@ public class DefaultCaldavDialectImpl implements CaldavDialect{
 	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateGetCalendarRequestEntity(java.util.Date, java.util.Date)
 	 */
 	public HttpEntity generateGetCalendarRequestEntity(Date startDate, Date endDate) {
-		final String content = generateGetCalendarRequestXML(startDate, endDate);
-		
+		return generateRequestEntity(generateGetCalendarRequestXML(startDate, endDate));
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateGetVisibleScheduleCalendarRequestEntity(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public HttpEntity generateGetVisibleScheduleCalendarRequestEntity(Date startDate, Date endDate) {
+		return generateRequestEntity(generateGetVisibleScheduleCalendarRequestXML(startDate, endDate));
+	}
+	/**
+	 * 
+	 * @param content
+	 * @return a text/xml {@link HttpEntity} for the content
+	 */
+	protected HttpEntity generateRequestEntity(String content) {
 		StringEntity requestEntity;
 		try {
 			requestEntity = new StringEntity(content, "text/xml", UTF_8);
@@ -173,6 +276,156 @@ public class DefaultCaldavDialectImpl implements CaldavDialect{
 		log.debug(result);
 		return result;
 	}
+	/**
+	 * Generate the calendar-query XML for {@link #generateGetVisibleScheduleCalendarRequestEntity(Date, Date)}.
+	 * Identical to {@link #generateGetCalendarRequestXML(Date, Date)} unless one of the optional features is enabled.
+	 * 
+	 * @param startDate
+	 * @param endDate
+	 * @return calendar-query XML content for REPORT request
+	 */
+	protected String generateGetVisibleScheduleCalendarRequestXML(Date startDate, Date endDate) {
+		if(!calendarDataSelectionEnabled && !excludeTransparentEvents && !excludeCancelledEvents) {
+			return generateGetCalendarRequestXML(startDate, endDate);
+		}
+		StringBuilder content = new StringBuilder();
+		content.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+		content.append("<C:calendar-query xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">");
+		content.append("  <D:prop>");
+		content.append("    <D:getetag/>");
+		if(calendarDataSelectionEnabled) {
+			content.append("    <C:calendar-data>");
+			content.append("      <C:comp name=\"VCALENDAR\">");
+			content.append("        <C:allprop/>");
+			content.append("        <C:comp name=\"VEVENT\">");
+			for(String propertyName : selectedEventPropertyNames) {
+				content.append("          <C:prop name=\"" + propertyName + "\"/>");
+			}
+			content.append("        </C:comp>");
+			content.append("        <C:comp name=\"VTIMEZONE\">");
+			content.append("          <C:allprop/>");
+			content.append("          <C:allcomp/>");
+			content.append("        </C:comp>");
+			content.append("      </C:comp>");
+			content.append("    </C:calendar-data>");
+		} else {
+			content.append("    <C:calendar-data/>");
+		}
+		content.append("  </D:prop>");
+		content.append("  <C:filter>");
+		content.append("    <C:comp-filter name=\"VCALENDAR\">");
+		content.append("      <C:comp-filter name=\"VEVENT\">");
+		content.append("        <C:time-range start=\"" + formatDateTime(startDate) + "\" end=\"" + formatDateTime(endDate) + "\"/>");
+		if(excludeTransparentEvents) {
+			appendExclusionPropFilter(content, Property.TRANSP, Transp.TRANSPARENT.getValue());
+		}
+		if(excludeCancelledEvents) {
+			appendExclusionPropFilter(content, Property.STATUS, Status.VEVENT_CANCELLED.getValue());
+		}
+		content.append("      </C:comp-filter>");
+		content.append("    </C:comp-filter>");
+		content.append("  </C:filter>");
+		content.append("</C:calendar-query>");
+		String result = content.toString();
+		log.debug(result);
+		return result;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateGetEtagsRequestEntity(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public HttpEntity generateGetEtagsRequestEntity(Date startDate, Date endDate) {
+		StringBuilder content = new StringBuilder();
+		content.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+		content.append("<C:calendar-query xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">");
+		content.append("  <D:prop>");
+		content.append("    <D:getetag/>");
+		content.append("  </D:prop>");
+		content.append("  <C:filter>");
+		content.append("    <C:comp-filter name=\"VCALENDAR\">");
+		content.append("      <C:comp-filter name=\"VEVENT\">");
+		content.append("        <C:time-range start=\"" + formatDateTime(startDate) + "\" end=\"" + formatDateTime(endDate) + "\"/>");
+		content.append("      </C:comp-filter>");
+		content.append("    </C:comp-filter>");
+		content.append("  </C:filter>");
+		content.append("</C:calendar-query>");
+		String result = content.toString();
+		log.debug(result);
+		return generateRequestEntity(result);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateMultigetRequestEntity(java.util.Collection)
+	 */
+	@Override
+	public HttpEntity generateMultigetRequestEntity(Collection<String> hrefs) {
+		StringBuilder content = new StringBuilder();
+		content.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+		content.append("<C:calendar-multiget xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">");
+		content.append("  <D:prop>");
+		content.append("    <D:getetag/>");
+		content.append("    <C:calendar-data/>");
+		content.append("  </D:prop>");
+		for(String href : hrefs) {
+			content.append("  <D:href>" + StringEscapeUtils.escapeXml(href) + "</D:href>");
+		}
+		content.append("</C:calendar-multiget>");
+		String result = content.toString();
+		log.debug(result);
+		return generateRequestEntity(result);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateSyncCollectionRequestEntity(java.lang.String)
+	 */
+	@Override
+	public HttpEntity generateSyncCollectionRequestEntity(String syncToken) {
+		StringBuilder content = new StringBuilder();
+		content.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+		content.append("<D:sync-collection xmlns:D=\"DAV:\">");
+		if(syncToken == null) {
+			content.append("  <D:sync-token/>");
+		} else {
+			content.append("  <D:sync-token>" + StringEscapeUtils.escapeXml(syncToken) + "</D:sync-token>");
+		}
+		content.append("  <D:sync-level>1</D:sync-level>");
+		content.append("  <D:prop>");
+		content.append("    <D:getetag/>");
+		content.append("  </D:prop>");
+		content.append("</D:sync-collection>");
+		String result = content.toString();
+		log.debug(result);
+		return generateRequestEntity(result);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateFreeBusyQueryRequestEntity(java.util.Date, java.util.Date)
+	 */
+	@Override
+	public HttpEntity generateFreeBusyQueryRequestEntity(Date startDate, Date endDate) {
+		StringBuilder content = new StringBuilder();
+		content.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+		content.append("<C:free-busy-query xmlns:C=\"urn:ietf:params:xml:ns:caldav\">");
+		content.append("  <C:time-range start=\"" + formatDateTime(startDate) + "\" end=\"" + formatDateTime(endDate) + "\"/>");
+		content.append("</C:free-busy-query>");
+		String result = content.toString();
+		log.debug(result);
+		return generateRequestEntity(result);
+	}
+	/**
+	 * Append a prop-filter that matches components where the property is not defined or does not have the value.
+	 * 
+	 * @param content
+	 * @param propertyName
+	 * @param value
+	 */
+	protected void appendExclusionPropFilter(StringBuilder content, String propertyName, String value) {
+		content.append("        <C:prop-filter name=\"" + propertyName + "\" test=\"anyof\">");
+		content.append("          <C:is-not-defined/>");
+		content.append("          <C:text-match collation=\"i;ascii-casemap\" negate-condition=\"yes\">" + value + "</C:text-match>");
+		content.append("        </C:prop-filter>");
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.impl.caldav.CaldavDialect#generateCreateAppointmentRequestEntity(net.fortuna.ical4j.model.component.VEvent)
@@ -0,0 +1,227 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.CalendarParser;
+import net.fortuna.ical4j.data.CalendarParserFactory;
+import net.fortuna.ical4j.data.ContentHandler;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+
+import org.jasig.schedassist.model.AvailabilityReflection;
+import org.jasig.schedassist.model.AvailableVersion;
+import org.jasig.schedassist.model.SchedulingAssistantAppointment;
+import org.jasig.schedassist.model.VisitorLimit;
+
+/**
+ * {@link CalendarParser} that passes only the content the Scheduling Assistant reads when
+ * building visible schedules on to the {@link ContentHandler} (e.g. a {@link CalendarBuilder}).
+ *
+ * Within VEVENTs (and any other component but VTIMEZONE) only the properties named by
+ * {@link #getRetainedPropertyNames()} are passed on; all other properties (DESCRIPTION, SUMMARY, LOCATION, etc.)
+ * and all nested components (VALARM) are skipped before ical4j constructs them.
+ * VTIMEZONEs, and the VCALENDAR's own properties, are passed on intact so that dates are resolved as usual.
+ *
+ * The resulting {@link net.fortuna.ical4j.model.Calendar}s are suitable for reading only; events must never be
+ * written back to the CalDAV server from them.
+ *
+ * Instances are thread safe.
+ *
+ * @see CalendarWithURI#isProjected()
+ * @version $Id: ProjectingCalendarParser.java $
+ */
+public class ProjectingCalendarParser implements CalendarParser {
+
+	/**
+	 * Properties read by the {@link org.jasig.schedassist.model.VisibleScheduleBuilder},
+	 * {@link org.jasig.schedassist.model.IEventUtils} and purgeDeclinedAttendees.
+	 */
+	public static final Set<String> DEFAULT_RETAINED_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			Property.UID, Property.SEQUENCE, Property.LAST_MODIFIED,
+			Property.DTSTART, Property.DTEND, Property.DURATION,
+			Property.RRULE, Property.RDATE, Property.EXRULE, Property.EXDATE, Property.RECURRENCE_ID,
+			Property.ATTENDEE, Property.ORGANIZER, Property.STATUS, Property.TRANSP,
+			SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT, VisitorLimit.VISITOR_LIMIT,
+			AvailableVersion.AVAILABLE_VERSION, AvailabilityReflection.AVAILABILITY_REFLECTION)));
+
+	private volatile Set<String> retainedPropertyNames = DEFAULT_RETAINED_PROPERTY_NAMES;
+
+	/**
+	 * @return the retainedPropertyNames
+	 */
+	public Set<String> getRetainedPropertyNames() {
+		return retainedPropertyNames;
+	}
+	/**
+	 * Names of the component properties to pass on; default is {@link #DEFAULT_RETAINED_PROPERTY_NAMES}.
+	 *
+	 * @param retainedPropertyNames the retainedPropertyNames to set
+	 */
+	public void setRetainedPropertyNames(Set<String> retainedPropertyNames) {
+		Set<String> names = new HashSet<String>();
+		for(String name : retainedPropertyNames) {
+			names.add(name.toUpperCase());
+		}
+		this.retainedPropertyNames = Collections.unmodifiableSet(names);
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see net.fortuna.ical4j.data.CalendarParser#parse(java.io.InputStream, net.fortuna.ical4j.data.ContentHandler)
+	 */
+	@Override
+	public void parse(InputStream in, ContentHandler handler)
+			throws IOException, ParserException {
+		CalendarParserFactory.getInstance().createParser().parse(in, new ProjectingContentHandler(handler, retainedPropertyNames));
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see net.fortuna.ical4j.data.CalendarParser#parse(java.io.Reader, net.fortuna.ical4j.data.ContentHandler)
+	 */
+	@Override
+	public void parse(Reader in, ContentHandler handler) throws IOException,
+			ParserException {
+		CalendarParserFactory.getInstance().createParser().parse(in, new ProjectingContentHandler(handler, retainedPropertyNames));
+	}
+
+	/**
+	 * {@link ContentHandler} decorator that drops the skipped properties and components.
+	 */
+	static class ProjectingContentHandler implements ContentHandler {
+		private final ContentHandler delegate;
+		private final Set<String> retainedPropertyNames;
+		// nesting depth of components, 1 within VEVENT/VTIMEZONE, 2 within VALARM/STANDARD
+		private int componentDepth = 0;
+		private boolean inTimeZone = false;
+		// depth of the outermost skipped component, or 0 when not skipping
+		private int skippedComponentDepth = 0;
+		private boolean skippingProperty = false;
+
+		/**
+		 *
+		 * @param delegate
+		 * @param retainedPropertyNames
+		 */
+		ProjectingContentHandler(ContentHandler delegate, Set<String> retainedPropertyNames) {
+			this.delegate = delegate;
+			this.retainedPropertyNames = retainedPropertyNames;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#startCalendar()
+		 */
+		@Override
+		public void startCalendar() {
+			delegate.startCalendar();
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#endCalendar()
+		 */
+		@Override
+		public void endCalendar() {
+			delegate.endCalendar();
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#startComponent(java.lang.String)
+		 */
+		@Override
+		public void startComponent(String name) {
+			componentDepth++;
+			if(componentDepth == 1) {
+				inTimeZone = Component.VTIMEZONE.equalsIgnoreCase(name);
+			} else if(!inTimeZone && skippedComponentDepth == 0) {
+				skippedComponentDepth = componentDepth;
+			}
+			if(skippedComponentDepth == 0) {
+				delegate.startComponent(name);
+			}
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#endComponent(java.lang.String)
+		 */
+		@Override
+		public void endComponent(String name) {
+			if(skippedComponentDepth == 0) {
+				delegate.endComponent(name);
+			} else if(skippedComponentDepth == componentDepth) {
+				skippedComponentDepth = 0;
+			}
+			componentDepth--;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#startProperty(java.lang.String)
+		 */
+		@Override
+		public void startProperty(String name) {
+			skippingProperty = skippedComponentDepth != 0
+				|| (componentDepth > 0 && !inTimeZone && !retainedPropertyNames.contains(name.toUpperCase()));
+			if(!skippingProperty) {
+				delegate.startProperty(name);
+			}
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#parameter(java.lang.String, java.lang.String)
+		 */
+		@Override
+		public void parameter(String name, String value) throws URISyntaxException {
+			if(!skippingProperty) {
+				delegate.parameter(name, value);
+			}
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#propertyValue(java.lang.String)
+		 */
+		@Override
+		public void propertyValue(String value) throws URISyntaxException,
+				ParseException, IOException {
+			if(!skippingProperty) {
+				delegate.propertyValue(value);
+			}
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see net.fortuna.ical4j.data.ContentHandler#endProperty(java.lang.String)
+		 */
+		@Override
+		public void endProperty(String name) {
+			if(!skippingProperty) {
+				delegate.endProperty(name);
+			}
+			skippingProperty = false;
+		}
+	}
+}
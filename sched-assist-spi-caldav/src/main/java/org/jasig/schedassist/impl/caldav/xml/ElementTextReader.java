@@ -0,0 +1,193 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav.xml;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * {@link Reader} over the text content of the current element of an {@link XMLStreamReader}.
+ *
+ * Must be constructed while the {@link XMLStreamReader} is positioned on a START_ELEMENT.
+ * Characters are copied directly from the parser's buffer with {@link XMLStreamReader#getTextCharacters(int, char[], int, int)},
+ * so the element's content is never materialized as a single String.
+ * The reader reaches end of stream at the matching END_ELEMENT, leaving the {@link XMLStreamReader} positioned on it
+ * (as {@link XMLStreamReader#getElementText()} would).
+ *
+ * Like {@link XMLStreamReader#getElementText()}, a nested START_ELEMENT is an error. {@link XMLStreamException}s are
+ * wrapped in {@link IOException}s; the original is available from {@link #getStreamException()}.
+ *
+ * Not thread safe.
+ *
+ * @version $Id: ElementTextReader.java $
+ */
+class ElementTextReader extends Reader {
+
+	private final XMLStreamReader parser;
+	private final char [] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private int textOffset = 0;
+	private boolean inText = false;
+	private boolean endOfElement = false;
+	private XMLStreamException streamException;
+
+	/**
+	 *
+	 * @param parser
+	 * @param buffer buffer for characters copied from the parser; may be reused by subsequent instances once this instance is exhausted
+	 * @throws IllegalStateException if the parser is not positioned on a START_ELEMENT
+	 */
+	ElementTextReader(XMLStreamReader parser, char [] buffer) {
+		if(parser.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			throw new IllegalStateException("parser must be positioned on START_ELEMENT, was " + parser.getEventType());
+		}
+		if(buffer.length == 0) {
+			throw new IllegalArgumentException("buffer cannot be empty");
+		}
+		this.parser = parser;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * The iCalendar parser reads a single character at a time; served from the buffer
+	 * to avoid {@link Reader#read()}'s per call allocation.
+	 *
+	 * @see java.io.Reader#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		if(position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Reader#read(char[], int, int)
+	 */
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(position == limit && !fill()) {
+			return -1;
+		}
+		int count = Math.min(len, limit - position);
+		System.arraycopy(buffer, position, cbuf, off, count);
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Refill the buffer from the parser.
+	 *
+	 * @return false at the end of the element
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		try {
+			while(!endOfElement) {
+				if(inText) {
+					int copied = parser.getTextCharacters(textOffset, buffer, 0, buffer.length);
+					if(copied > 0) {
+						textOffset += copied;
+						position = 0;
+						limit = copied;
+						return true;
+					}
+					inText = false;
+				}
+				advance();
+			}
+			return false;
+		} catch (XMLStreamException e) {
+			this.streamException = e;
+			throw new IOException("caught XMLStreamException reading element text: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Move the parser to the next event that contributes text, or to the END_ELEMENT.
+	 *
+	 * @throws XMLStreamException
+	 */
+	private void advance() throws XMLStreamException {
+		int eventType = parser.next();
+		switch(eventType) {
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+			inText = true;
+			textOffset = 0;
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			endOfElement = true;
+			break;
+		case XMLStreamConstants.COMMENT:
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			break;
+		case XMLStreamConstants.END_DOCUMENT:
+			throw new XMLStreamException("unexpected end of document while reading element text", parser.getLocation());
+		case XMLStreamConstants.START_ELEMENT:
+			throw new XMLStreamException("element text must not contain elements", parser.getLocation());
+		default:
+			throw new XMLStreamException("unexpected event type " + eventType + " while reading element text", parser.getLocation());
+		}
+	}
+
+	/**
+	 * Consume the remainder of the element (e.g. after the consumer of this reader stopped on a parse error),
+	 * leaving the parser positioned on the END_ELEMENT.
+	 *
+	 * @throws XMLStreamException
+	 */
+	void skipToEndOfElement() throws XMLStreamException {
+		if(streamException != null) {
+			throw streamException;
+		}
+		position = limit;
+		while(!endOfElement) {
+			inText = false;
+			advance();
+		}
+	}
+
+	/**
+	 * @return the {@link XMLStreamException} raised while reading, or null
+	 */
+	XMLStreamException getStreamException() {
+		return streamException;
+	}
+
+	/**
+	 * Does not close the underlying {@link XMLStreamReader}.
+	 *
+	 * @see java.io.Reader#close()
+	 */
+	@Override
+	public void close() {
+	}
+}
@@ -26,9 +26,12 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
@@ -44,7 +47,9 @@ import net.fortuna.ical4j.util.CompatibilityHints;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.impl.caldav.CalendarCollectionDelta;
 import org.jasig.schedassist.impl.caldav.CalendarWithURI;
+import org.jasig.schedassist.impl.caldav.ProjectingCalendarParser;
 import org.jasig.schedassist.impl.caldav.ReportMethod;
 
 
@@ -52,6 +57,17 @@ import org.jasig.schedassist.impl.caldav.ReportMethod;
  * StaX based parser for handling the response body of {@link ReportMethod}
  * requests.
  * 
+ * By default the content of each calendar-data element is streamed from the StaX parser into
+ * the iCalendar parser (see {@link ElementTextReader}) rather than first copied into a String.
+ * 
+ * If a {@link ProjectingCalendarParser} is set, calendars are parsed with it and the results are
+ * marked as projected (see {@link CalendarWithURI#isProjected()}).
+ * 
+ * When debug logging is enabled, the response body is captured for logging; capture is limited to
+ * the first {@link #getMaxCapturedContentBytes()} bytes of 1 in every {@link #getCaptureSampleInterval()} responses.
+ * 
+ * Instances are thread safe and may be shared.
+ * 
  * This class has a static initializer that sets 
  * {@link CompatibilityHints#KEY_RELAXED_UNFOLDING} to true.
  * 
@@ -66,9 +82,78 @@ public class ReportResponseHandlerImpl {
 	protected static final String WEBDAV_NS = "DAV:";
 	protected static final String HREF = "href";
 	protected static final String ETAG = "getetag";
+	protected static final String RESPONSE = "response";
+	protected static final String PROPSTAT = "propstat";
+	protected static final String STATUS = "status";
+	protected static final String SYNC_TOKEN = "sync-token";
 	protected static final String CALDAV_NS = "urn:ietf:params:xml:ns:caldav";
 	protected static final String CALENDAR_DATA = "calendar-data";
+	private static final int CALENDAR_DATA_BUFFER_SIZE = 4096;
 	protected final Log log = LogFactory.getLog(this.getClass());
+	private final AtomicLong responseCount = new AtomicLong();
+	private volatile boolean streamingCalendarData = true;
+	private volatile int maxCapturedContentBytes = 65536;
+	private volatile int captureSampleInterval = 1;
+	private volatile ProjectingCalendarParser projection;
+	
+	/**
+	 * @return the streamingCalendarData
+	 */
+	public boolean isStreamingCalendarData() {
+		return streamingCalendarData;
+	}
+	/**
+	 * If true (the default), calendar-data is streamed into the iCalendar parser; 
+	 * if false, each calendar-data element is read into a String first.
+	 * 
+	 * @param streamingCalendarData the streamingCalendarData to set
+	 */
+	public void setStreamingCalendarData(boolean streamingCalendarData) {
+		this.streamingCalendarData = streamingCalendarData;
+	}
+	/**
+	 * @return the projection
+	 */
+	public ProjectingCalendarParser getProjection() {
+		return projection;
+	}
+	/**
+	 * Set to parse calendars with a {@link ProjectingCalendarParser}; default is null (full parse).
+	 * 
+	 * @param projection the projection to set
+	 */
+	public void setProjection(ProjectingCalendarParser projection) {
+		this.projection = projection;
+	}
+	/**
+	 * @return the maxCapturedContentBytes
+	 */
+	public int getMaxCapturedContentBytes() {
+		return maxCapturedContentBytes;
+	}
+	/**
+	 * Maximum number of bytes of a response captured for debug logging (default 64 KB).
+	 * 
+	 * @param maxCapturedContentBytes the maxCapturedContentBytes to set
+	 */
+	public void setMaxCapturedContentBytes(int maxCapturedContentBytes) {
+		this.maxCapturedContentBytes = maxCapturedContentBytes;
+	}
+	/**
+	 * @return the captureSampleInterval
+	 */
+	public int getCaptureSampleInterval() {
+		return captureSampleInterval;
+	}
+	/**
+	 * When debug logging is enabled, capture 1 in every captureSampleInterval responses (default 1, every response).
+	 * Values < 1 disable capture.
+	 * 
+	 * @param captureSampleInterval the captureSampleInterval to set
+	 */
+	public void setCaptureSampleInterval(int captureSampleInterval) {
+		this.captureSampleInterval = captureSampleInterval;
+	}
 	
 	/**
 	 * Extracts a {@link List} of {@link Calendar}s from the {@link InputStream}, if present.
@@ -78,13 +163,24 @@ public class ReportResponseHandlerImpl {
 	 * @throws XmlParsingException in the event the stream could not be properly parsed
 	 */
 	public List<CalendarWithURI> extractCalendars(InputStream inputStream) {
-		List<CalendarWithURI> results = new ArrayList<CalendarWithURI>();
-		ByteArrayOutputStream capturedContent = null;
+		return extractCollectionDelta(inputStream).getCalendars();
+	}
+	/**
+	 * Extracts the content of a multistatus response, e.g. to a calendar-query, calendar-multiget or 
+	 * sync-collection REPORT. See {@link CalendarCollectionDelta}.
+	 * 
+	 * @param inputStream
+	 * @return a never null {@link CalendarCollectionDelta}
+	 * @throws XmlParsingException in the event the stream could not be properly parsed
+	 */
+	public CalendarCollectionDelta extractCollectionDelta(InputStream inputStream) {
+		CalendarCollectionDelta results = new CalendarCollectionDelta();
+		BoundedCapture capturedContent = null;
 		XMLInputFactory factory = XMLInputFactory.newInstance();
 		try {
 			InputStream localReference = inputStream;
-			if(log.isDebugEnabled()) {
-				capturedContent = new ByteArrayOutputStream();
+			if(log.isDebugEnabled() && shouldCapture()) {
+				capturedContent = new BoundedCapture(maxCapturedContentBytes);
 				localReference = new TeeInputStream(inputStream, capturedContent);
 			}
 			BufferedInputStream buffered = new BufferedInputStream(localReference);
@@ -96,32 +192,71 @@ public class ReportResponseHandlerImpl {
 			}
 			buffered.reset();
 			XMLStreamReader parser = factory.createXMLStreamReader(buffered);
-			
-			String currentUri = null;
-			String currentEtag = null;
-			for (int eventType = parser.next(); eventType != XMLStreamConstants.END_DOCUMENT; eventType = parser.next()) {
-				switch(eventType) {
-				case XMLStreamConstants.START_ELEMENT:
-					QName name= parser.getName();
-					if(isWebdavHrefElement(name)) {
-						currentUri = parser.getElementText();
-					} else if (isWebdavEtagElement(name)){
-						currentEtag = parser.getElementText();
-					} else if(isCalendarDataElement(name)) {
-						Calendar cal = extractCalendar(parser.getElementText());
-						if(cal != null) {
-							CalendarWithURI withUri = new CalendarWithURI(cal, currentUri, currentEtag);
-							results.add(withUri);
-						} else if(log.isDebugEnabled()) {
-							log.debug("extractCalendar returned null for " + currentUri + ", skipping");
+			// shared by every calendar-data element in the response
+			final char [] calendarDataBuffer = streamingCalendarData ? new char[CALENDAR_DATA_BUFFER_SIZE] : null;
+			final boolean projected = projection != null;
+			try {
+				String currentUri = null;
+				String currentEtag = null;
+				String responseStatus = null;
+				boolean inPropstat = false;
+				List<Calendar> responseCalendars = new ArrayList<Calendar>();
+				for (int eventType = parser.next(); eventType != XMLStreamConstants.END_DOCUMENT; eventType = parser.next()) {
+					switch(eventType) {
+					case XMLStreamConstants.START_ELEMENT:
+						QName name= parser.getName();
+						if(isWebdavElement(name, RESPONSE)) {
+							currentUri = null;
+							currentEtag = null;
+							responseStatus = null;
+						} else if(isWebdavElement(name, PROPSTAT)) {
+							inPropstat = true;
+						} else if(isWebdavHrefElement(name)) {
+							currentUri = parser.getElementText();
+						} else if (isWebdavEtagElement(name)){
+							currentEtag = parser.getElementText();
+						} else if (!inPropstat && isWebdavElement(name, STATUS)) {
+							responseStatus = parser.getElementText();
+						} else if (isWebdavElement(name, SYNC_TOKEN)) {
+							results.setSyncToken(parser.getElementText());
+						} else if(isCalendarDataElement(name)) {
+							Calendar cal = calendarDataBuffer != null ? extractCalendar(parser, calendarDataBuffer) : extractCalendar(parser.getElementText());
+							if(cal != null) {
+								responseCalendars.add(cal);
+							} else if(log.isDebugEnabled()) {
+								log.debug("extractCalendar returned null for " + currentUri + ", skipping");
+							}
 						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						QName endName = parser.getName();
+						if(isWebdavElement(endName, PROPSTAT)) {
+							inPropstat = false;
+						} else if(isWebdavElement(endName, RESPONSE)) {
+							if(isNotFound(responseStatus)) {
+								results.addRemoved(currentUri);
+							} else if(currentUri != null && currentEtag != null) {
+								results.addEtag(currentUri, currentEtag);
+							}
+							// the etag may follow calendar-data within the response
+							for(Calendar cal : responseCalendars) {
+								results.addCalendar(new CalendarWithURI(cal, currentUri, currentEtag, projected));
+							}
+							responseCalendars.clear();
+						}
+						break;
 					}
-					break;
 				}
+				// tolerate calendar-data outside of a response element
+				for(Calendar cal : responseCalendars) {
+					results.addCalendar(new CalendarWithURI(cal, currentUri, currentEtag, projected));
+				}
+			} finally {
+				parser.close();
 			}
 			
 			if(log.isDebugEnabled()) {
-				log.debug("extracted " + results.size() + " calendar from " + capturedContent.toString());
+				log.debug("extracted " + results + " from " + (capturedContent != null ? capturedContent.toString() : "(response not captured)"));
 			}
 			
 		} catch (XMLStreamException e) {
@@ -138,6 +273,42 @@ public class ReportResponseHandlerImpl {
 
 		return results;
 	}
+	/**
+	 * 
+	 * @param status the content of a WebDAV status element, e.g. "HTTP/1.1 404 Not Found"
+	 * @return true if the status code is 404
+	 */
+	protected boolean isNotFound(String status) {
+		if(status == null) {
+			return false;
+		}
+		String [] tokens = status.trim().split("\\s+");
+		return tokens.length > 1 && "404".equals(tokens[1]);
+	}
+	/**
+	 * 
+	 * @return true if the current response should be captured for debug logging
+	 */
+	protected boolean shouldCapture() {
+		final int interval = captureSampleInterval;
+		if(interval < 1 || maxCapturedContentBytes < 1) {
+			return false;
+		}
+		return responseCount.getAndIncrement() % interval == 0;
+	}
+	/**
+	 * 
+	 * @param qname
+	 * @param localName
+	 * @return true if the argument is the WebDAV element with the local name
+	 */
+	protected boolean isWebdavElement(QName qname, String localName) {
+		if(qname == null) {
+			return false;
+		} else {
+			return WEBDAV_NS.equals(qname.getNamespaceURI()) && localName.equals(qname.getLocalPart());
+		}
+	}
 	/**
 	 * 
 	 * @param qname
@@ -181,10 +352,35 @@ public class ReportResponseHandlerImpl {
 	 * @return a {@link Calendar} from the text, or null if not parseable
 	 */
 	protected Calendar extractCalendar(String text) {
-		CalendarBuilder builder = new CalendarBuilder();
+		return extractCalendar(new StringReader(text));
+	}
+	/**
+	 * Parse the content of the calendar-data element the parser is positioned on, leaving the 
+	 * parser positioned on the element's END_ELEMENT.
+	 * 
+	 * @param parser an {@link XMLStreamReader} positioned on a calendar-data START_ELEMENT
+	 * @param buffer character buffer, reusable once this method returns
+	 * @return a {@link Calendar} from the element's content, or null if not parseable
+	 * @throws XMLStreamException if the XML itself is malformed
+	 */
+	protected Calendar extractCalendar(XMLStreamReader parser, char [] buffer) throws XMLStreamException {
+		ElementTextReader reader = new ElementTextReader(parser, buffer);
+		Calendar result = extractCalendar(reader);
+		// rethrows any XMLStreamException hit while reading; otherwise consumes what the iCalendar parser left
+		reader.skipToEndOfElement();
+		return result;
+	}
+	/**
+	 * 
+	 * @param reader
+	 * @return a {@link Calendar} from the reader, or null if not parseable
+	 */
+	protected Calendar extractCalendar(Reader reader) {
+		final ProjectingCalendarParser projectingParser = this.projection;
+		CalendarBuilder builder = projectingParser != null ? new CalendarBuilder(projectingParser) : new CalendarBuilder();
 		Calendar result;
 		try {
-			result = builder.build(new StringReader(text));
+			result = builder.build(reader);
 			return result;
 		} catch (IOException e) {
 			log.warn("caught IOException", e);
@@ -195,4 +391,67 @@ public class ReportResponseHandlerImpl {
 		}
 	}
 	
+	/**
+	 * {@link ByteArrayOutputStream} that retains at most a fixed number of bytes.
+	 */
+	static class BoundedCapture extends ByteArrayOutputStream {
+		private final int limit;
+		private long discarded = 0;
+		/**
+		 * 
+		 * @param limit
+		 */
+		BoundedCapture(int limit) {
+			super(Math.min(limit, 8192));
+			this.limit = limit;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.ByteArrayOutputStream#write(int)
+		 */
+		@Override
+		public synchronized void write(int b) {
+			if(count < limit) {
+				super.write(b);
+			} else {
+				discarded++;
+			}
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.ByteArrayOutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			int retained = Math.max(0, Math.min(len, limit - count));
+			if(retained > 0) {
+				super.write(b, off, retained);
+			}
+			discarded += len - retained;
+		}
+		/**
+		 * 
+		 * @return the number of bytes not retained
+		 */
+		synchronized long getDiscarded() {
+			return discarded;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.ByteArrayOutputStream#toString()
+		 */
+		@Override
+		public synchronized String toString() {
+			String content;
+			try {
+				content = toString("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				content = super.toString();
+			}
+			if(discarded > 0) {
+				return content + "... [" + discarded + " more bytes not captured]";
+			}
+			return content;
+		}
+	}
 }
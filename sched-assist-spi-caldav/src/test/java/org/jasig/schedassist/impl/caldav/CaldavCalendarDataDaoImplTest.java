@@ -20,38 +20,74 @@
 package org.jasig.schedassist.impl.caldav;
 
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.PeriodList;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.parameter.PartStat;
+import net.fortuna.ical4j.model.property.CalScale;
+import net.fortuna.ical4j.model.property.ProdId;
 import net.fortuna.ical4j.model.property.Uid;
+import net.fortuna.ical4j.model.property.Version;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.protocol.HttpContext;
+import org.jasig.schedassist.ConflictExistsException;
+import org.jasig.schedassist.NullAffiliationSourceImpl;
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.impl.events.AutomaticAppointmentCancellationEvent;
+import org.jasig.schedassist.impl.owner.AppointmentIndexDao;
+import org.jasig.schedassist.impl.owner.IndexedAppointment;
+import org.jasig.schedassist.model.AppointmentRole;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.AvailableSchedule;
 import org.jasig.schedassist.model.DefaultEventUtilsImpl;
 import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.jasig.schedassist.model.mock.MockScheduleVisitor;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
@@ -389,4 +425,684 @@ public class CaldavCalendarDataDaoImplTest {
 		Assert.assertNotNull(calendar);
 		
 	}
+	
+	/**
+	 * With free-busy-query supported, checkForConflicts consults the VFREEBUSY; FBTYPE=FREE periods do not conflict.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCheckForConflictsFreeBusy() throws Exception {
+		CaldavCalendarDataDaoImpl calendarDataDao = new CaldavCalendarDataDaoImpl();
+		ICalendarAccount calendarAccount = mock(ICalendarAccount.class);
+		when(calendarAccount.getAttributeValue("uid")).thenReturn("username");
+		IScheduleOwner owner = mock(IScheduleOwner.class);
+		when(owner.getCalendarAccount()).thenReturn(calendarAccount);
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		dialect.setCaldavHost(URI.create("http://localhost:8080/"));
+		dialect.setFreeBusyQuerySupported(true);
+		calendarDataDao.setCaldavDialect(dialect);
+		DefaultCredentialsProviderFactoryImpl credentialsProviderFactory = new DefaultCredentialsProviderFactoryImpl();
+		credentialsProviderFactory.setCaldavAdminUsername("username");
+		credentialsProviderFactory.setCaldavAdminPassword("password");
+		calendarDataDao.setCredentialsProviderFactory(credentialsProviderFactory);
+		
+		Resource freeBusyResponse = new ClassPathResource("caldav-examples/free-busy-response.ics");
+		HttpResponse response = mock(HttpResponse.class);
+		HttpEntity entity = mock(HttpEntity.class);
+		when(entity.getContent()).thenReturn(freeBusyResponse.getInputStream(), freeBusyResponse.getInputStream(), freeBusyResponse.getInputStream());
+		StatusLine statusLine = mock(StatusLine.class);
+		when(statusLine.getStatusCode()).thenReturn(200);
+		when(response.getStatusLine()).thenReturn(statusLine);
+		when(response.getEntity()).thenReturn(entity);
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(response);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		PeriodList busy = calendarDataDao.getBusyPeriods(calendarAccount, new DateTime("20110502T140000Z"), new DateTime("20110503T000000Z"));
+		Assert.assertEquals(2, busy.size());
+		
+		try {
+			calendarDataDao.checkForConflicts(owner, AvailableBlockBuilder.createBlock(new DateTime("20110502T153000Z"), new DateTime("20110502T160000Z")));
+			Assert.fail("expected ConflictExistsException not thrown");
+		} catch (ConflictExistsException e) {
+			// success
+		}
+		calendarDataDao.checkForConflicts(owner, AvailableBlockBuilder.createBlock(new DateTime("20110502T190000Z"), new DateTime("20110502T193000Z")));
+	}
+	
+	/**
+	 * With the appointment index enabled, an indexed appointment is fetched with a GET of the indexed href.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetExistingAppointmentIndexed() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock();
+		VEvent appointment = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(block, owner, mockVisitor(), "indexed");
+		String uid = appointment.getUid().getValue();
+		
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		AppointmentIndexDao appointmentIndexDao = mock(AppointmentIndexDao.class);
+		when(appointmentIndexDao.lookup(owner, block.getStartTime(), block.getEndTime())).thenReturn(new IndexedAppointment(uid, "/ucaldav/user/owner/calendar/" + uid + ".ics"));
+		calendarDataDao.setAppointmentIndexDao(appointmentIndexDao);
+		
+		HttpResponse response = mockResponse(200, toCalendar(appointment).toString());
+		HttpClient httpClient = mock(HttpClient.class);
+		ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+		when(httpClient.execute((HttpHost) eq(null), request.capture(), isA(HttpContext.class))).thenReturn(response);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		VEvent result = calendarDataDao.getExistingAppointment(owner, block);
+		Assert.assertNotNull(result);
+		Assert.assertEquals(uid, result.getUid().getValue());
+		Assert.assertEquals(1, request.getAllValues().size());
+		HttpRequest get = request.getValue();
+		Assert.assertTrue(get instanceof HttpGet);
+		Assert.assertEquals("http://localhost:8080/ucaldav/user/owner/calendar/" + uid + ".ics", ((HttpGet) get).getURI().toString());
+		verify(appointmentIndexDao, never()).remove(owner, block.getStartTime(), block.getEndTime());
+	}
+	
+	/**
+	 * A stale index entry (the GET returns 404) is removed, the appointment is located with a REPORT and re-indexed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetExistingAppointmentStaleIndex() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock();
+		VEvent appointment = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(block, owner, mockVisitor(), "moved");
+		String uid = appointment.getUid().getValue();
+		
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		AppointmentIndexDao appointmentIndexDao = mock(AppointmentIndexDao.class);
+		when(appointmentIndexDao.lookup(owner, block.getStartTime(), block.getEndTime())).thenReturn(new IndexedAppointment(uid, "/ucaldav/user/owner/calendar/" + uid + ".ics"));
+		calendarDataDao.setAppointmentIndexDao(appointmentIndexDao);
+		
+		HttpResponse notFound = mockResponse(404, "");
+		StringBuilder report = new StringBuilder();
+		report.append("<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\"><D:response>");
+		report.append("<D:href>/ucaldav/user/owner/calendar/moved.ics</D:href><D:propstat><D:prop><D:getetag>\"2\"</D:getetag>");
+		report.append("<C:calendar-data><![CDATA[").append(toCalendar(appointment).toString()).append("]]></C:calendar-data>");
+		report.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+		HttpResponse multiStatus = mockResponse(207, report.toString());
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(notFound, multiStatus);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		VEvent result = calendarDataDao.getExistingAppointment(owner, block);
+		Assert.assertNotNull(result);
+		Assert.assertEquals(uid, result.getUid().getValue());
+		verify(appointmentIndexDao).remove(owner, block.getStartTime(), block.getEndTime());
+		ArgumentCaptor<IndexedAppointment> stored = ArgumentCaptor.forClass(IndexedAppointment.class);
+		verify(appointmentIndexDao).store(eq(owner), eq(block.getStartTime()), eq(block.getEndTime()), stored.capture());
+		Assert.assertEquals(uid, stored.getValue().getEventUid());
+		Assert.assertEquals("/ucaldav/user/owner/calendar/moved.ics", stored.getValue().getEventHref());
+	}
+	
+	/**
+	 * With the appointment index disabled, the {@link AppointmentIndexDao} is not consulted.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetExistingAppointmentIndexDisabled() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock();
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		calendarDataDao.setAppointmentIndexEnabled(false);
+		AppointmentIndexDao appointmentIndexDao = mock(AppointmentIndexDao.class);
+		calendarDataDao.setAppointmentIndexDao(appointmentIndexDao);
+		
+		HttpResponse multiStatus = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"></D:multistatus>");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(multiStatus);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		Assert.assertNull(calendarDataDao.getExistingAppointment(owner, block));
+		verify(appointmentIndexDao, never()).lookup(any(IScheduleOwner.class), any(java.util.Date.class), any(java.util.Date.class));
+	}
+	
+	/**
+	 * joinAppointment fetches the appointment again after a 412 Precondition Failed, and re-applies the change.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testJoinAppointmentRetriesAfterConflict() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock(2);
+		VEvent appointment = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(block, owner, mockVisitor(), "group");
+		CaldavCalendarDataDaoImpl calendarDataDao = newConflictingCalendarDataDao(owner, block, appointment);
+		HttpResponse get = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse preconditionFailed = mockResponse(412, "");
+		HttpResponse refetch = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse created = mockResponse(201, "");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(get, preconditionFailed, refetch, created);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		MockScheduleVisitor visitor = mockVisitor("visitor2");
+		VEvent result = calendarDataDao.joinAppointment(visitor, owner, appointment);
+		Assert.assertTrue(new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()).isAttendingAsVisitor(result, visitor.getCalendarAccount()));
+		Assert.assertEquals(1, calendarDataDao.getConflictRetryCount());
+		Assert.assertEquals(1, calendarDataDao.getConflictRetrySuccessCount());
+		Assert.assertEquals(0, calendarDataDao.getConflictRetryExhaustedCount());
+	}
+	
+	/**
+	 * joinAppointment re-checks the visitor limit on the appointment fetched after a 412 Precondition Failed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testJoinAppointmentConflictVisitorLimitMet() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock(2);
+		CaldavEventUtilsImpl eventUtils = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl());
+		VEvent appointment = eventUtils.constructAvailableAppointment(block, owner, mockVisitor(), "group");
+		VEvent altered = (VEvent) appointment.copy();
+		altered.getProperties().add(eventUtils.constructSchedulingAssistantAttendee(mockVisitor("visitor3").getCalendarAccount(), AppointmentRole.VISITOR));
+		CaldavCalendarDataDaoImpl calendarDataDao = newConflictingCalendarDataDao(owner, block, appointment);
+		HttpResponse get = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse preconditionFailed = mockResponse(412, "");
+		HttpResponse refetch = mockResponse(200, toCalendar(altered).toString());
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(get, preconditionFailed, refetch);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		try {
+			calendarDataDao.joinAppointment(mockVisitor("visitor2"), owner, appointment);
+			Assert.fail("expected SchedulingException not thrown");
+		} catch (SchedulingException e) {
+			// success
+		}
+		verify(httpClient, times(3)).execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class));
+	}
+	
+	/**
+	 * leaveAppointment fails once the retries are exhausted.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLeaveAppointmentConflictRetriesExhausted() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock(2);
+		MockScheduleVisitor visitor = mockVisitor();
+		VEvent appointment = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(block, owner, visitor, "group");
+		CaldavCalendarDataDaoImpl calendarDataDao = newConflictingCalendarDataDao(owner, block, appointment);
+		calendarDataDao.setConflictRetries(1);
+		HttpResponse get = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse preconditionFailed = mockResponse(412, "");
+		HttpResponse refetch = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse stillFailed = mockResponse(412, "");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(get, preconditionFailed, refetch, stillFailed);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		try {
+			calendarDataDao.leaveAppointment(visitor, owner, appointment);
+			Assert.fail("expected SchedulingException not thrown");
+		} catch (SchedulingException e) {
+			// success
+		}
+		Assert.assertEquals(1, calendarDataDao.getConflictRetryCount());
+		Assert.assertEquals(0, calendarDataDao.getConflictRetrySuccessCount());
+		Assert.assertEquals(1, calendarDataDao.getConflictRetryExhaustedCount());
+	}
+	
+	/**
+	 * createAppointmentIfAbsent PUTs each appointment for a block to the same href (each with a unique UID); 
+	 * the server's 412 Precondition Failed is reported as a {@link ConflictExistsException}.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreateAppointmentIfAbsent() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock();
+		CaldavCalendarDataDaoImpl calendarDataDao = new CaldavCalendarDataDaoImpl();
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		dialect.setCaldavHost(URI.create("http://localhost:8080"));
+		dialect.setEventUtils(new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()));
+		calendarDataDao.setCaldavDialect(dialect);
+		DefaultCredentialsProviderFactoryImpl credentialsProviderFactory = new DefaultCredentialsProviderFactoryImpl();
+		credentialsProviderFactory.setCaldavAdminUsername("username");
+		credentialsProviderFactory.setCaldavAdminPassword("password");
+		calendarDataDao.setCredentialsProviderFactory(credentialsProviderFactory);
+		calendarDataDao.setVerifyConditionalCreate(false);
+		
+		HttpResponse created = mockResponse(201, "");
+		HttpResponse preconditionFailed = mockResponse(412, "");
+		HttpClient httpClient = mock(HttpClient.class);
+		ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+		when(httpClient.execute((HttpHost) eq(null), request.capture(), isA(HttpContext.class))).thenReturn(created, preconditionFailed);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		VEvent event = calendarDataDao.createAppointmentIfAbsent(mockVisitor(), owner, block, "first");
+		String resourceName = calendarDataDao.generateSlotResourceName(owner, block);
+		Assert.assertFalse(resourceName.equals(event.getUid().getValue()));
+		try {
+			calendarDataDao.createAppointmentIfAbsent(mockVisitor("visitor2"), owner, block, "second");
+			Assert.fail("expected ConflictExistsException not thrown");
+		} catch (ConflictExistsException e) {
+			// success
+		}
+		List<HttpRequest> puts = request.getAllValues();
+		Assert.assertEquals(2, puts.size());
+		Assert.assertEquals("http://localhost:8080/ucaldav/user/owner/calendar/" + resourceName + ".ics", ((HttpPut) puts.get(0)).getURI().toString());
+		Assert.assertEquals(((HttpPut) puts.get(0)).getURI(), ((HttpPut) puts.get(1)).getURI());
+		Assert.assertEquals("*", puts.get(1).getFirstHeader("If-None-Match").getValue());
+	}
+	
+	/**
+	 * With a {@link DeclinedAttendeeReconciler}, getCalendar returns an appointment with a declined visitor unaltered;
+	 * the appointment is cancelled in the background.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetCalendarQueuesDeclinedAttendees() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		AvailableBlock block = futureBlock();
+		MockScheduleVisitor visitor = mockVisitor();
+		CaldavEventUtilsImpl eventUtils = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl());
+		VEvent appointment = eventUtils.constructAvailableAppointment(block, owner, visitor, "declined");
+		Property attendee = eventUtils.getAttendeeForUserFromEvent(appointment, visitor.getCalendarAccount());
+		attendee.getParameters().remove(attendee.getParameter(PartStat.PARTSTAT));
+		attendee.getParameters().add(PartStat.DECLINED);
+		
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		calendarDataDao.setAppointmentIndexEnabled(false);
+		ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+		calendarDataDao.setApplicationEventPublisher(publisher);
+		DeclinedAttendeeReconciler reconciler = new DeclinedAttendeeReconciler(1, 10);
+		calendarDataDao.setDeclinedAttendeeReconciler(reconciler);
+		
+		StringBuilder report = new StringBuilder();
+		report.append("<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\"><D:response>");
+		report.append("<D:href>/ucaldav/user/owner/calendar/declined.ics</D:href><D:propstat><D:prop><D:getetag>\"1\"</D:getetag>");
+		report.append("<C:calendar-data><![CDATA[").append(toCalendar(appointment).toString()).append("]]></C:calendar-data>");
+		report.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response></D:multistatus>");
+		HttpResponse multiStatus = mockResponse(207, report.toString());
+		HttpResponse get = mockResponse(200, toCalendar(appointment).toString());
+		HttpResponse deleted = mockResponse(204, "");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(multiStatus, get, deleted);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		try {
+			Calendar calendar = calendarDataDao.getCalendar(owner.getCalendarAccount(), block.getStartTime(), block.getEndTime());
+			Assert.assertEquals(1, calendar.getComponents(VEvent.VEVENT).size());
+			
+			long deadline = System.currentTimeMillis() + 5000L;
+			while(reconciler.getPurgeCount() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(1, reconciler.getPurgeCount());
+			verify(publisher).publishEvent(isA(AutomaticAppointmentCancellationEvent.class));
+			verify(httpClient, times(3)).execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class));
+		} finally {
+			reconciler.destroy();
+		}
+	}
+	
+	/**
+	 * A collection that rejects sync-collection falls back to etag comparison for its account only.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSyncCollectionRejectedForOneAccount() throws Exception {
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		CalendarMirror calendarMirror = new CalendarMirror();
+		calendarDataDao.setCalendarMirror(calendarMirror);
+		ICalendarAccount rejecting = mockMirroredAccount("owner1");
+		ICalendarAccount supporting = mockMirroredAccount("owner2");
+		
+		HttpResponse forbidden = mockResponse(403, "");
+		HttpResponse etags = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpResponse sync = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"><D:sync-token>token-1</D:sync-token></D:multistatus>");
+		HttpResponse etagsAgain = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(forbidden, etags, sync, etagsAgain);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		java.util.Date start = new java.util.Date();
+		java.util.Date end = DateUtils.addDays(start, 7);
+		calendarDataDao.getCalendarsFromMirror(rejecting, start, end);
+		calendarDataDao.getCalendarsFromMirror(supporting, start, end);
+		calendarDataDao.getCalendarsFromMirror(rejecting, start, end);
+		
+		Assert.assertTrue(calendarMirror.isSyncCollectionSupported());
+		Assert.assertFalse(calendarMirror.getAccountMirror(rejecting).isSyncCollectionSupported());
+		Assert.assertTrue(calendarMirror.getAccountMirror(supporting).isSyncCollectionSupported());
+		Assert.assertEquals("token-1", calendarMirror.getAccountMirror(supporting).getSyncToken());
+		Assert.assertEquals(1, calendarMirror.getSyncCollectionRefreshCount());
+		Assert.assertEquals(2, calendarMirror.getEtagRefreshCount());
+		verify(httpClient, times(4)).execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class));
+	}
+	
+	/**
+	 * A 501 Not Implemented response to sync-collection turns it off for every account.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSyncCollectionNotImplemented() throws Exception {
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		CalendarMirror calendarMirror = new CalendarMirror();
+		calendarDataDao.setCalendarMirror(calendarMirror);
+		
+		HttpResponse notImplemented = mockResponse(501, "");
+		HttpResponse etags = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpResponse etagsAgain = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(notImplemented, etags, etagsAgain);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		java.util.Date start = new java.util.Date();
+		java.util.Date end = DateUtils.addDays(start, 7);
+		calendarDataDao.getCalendarsFromMirror(mockMirroredAccount("owner1"), start, end);
+		calendarDataDao.getCalendarsFromMirror(mockMirroredAccount("owner2"), start, end);
+		
+		Assert.assertFalse(calendarMirror.isSyncCollectionSupported());
+		Assert.assertEquals(0, calendarMirror.getSyncCollectionRefreshCount());
+		Assert.assertEquals(2, calendarMirror.getEtagRefreshCount());
+		verify(httpClient, times(3)).execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class));
+	}
+	
+	/**
+	 * Within minRefreshIntervalMillis of the configured {@link Clock}, reads are served from the mirror.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMirrorRefreshUsesClock() throws Exception {
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		CalendarMirror calendarMirror = new CalendarMirror();
+		calendarMirror.setSyncCollectionEnabled(false);
+		calendarMirror.setMinRefreshIntervalMillis(60000L);
+		calendarDataDao.setCalendarMirror(calendarMirror);
+		final java.util.Date start = new java.util.Date();
+		final java.util.Date[] now = new java.util.Date[] { start };
+		calendarDataDao.setClock(new Clock() {
+			@Override
+			public Date now() {
+				return now[0];
+			}
+		});
+		
+		HttpResponse etags = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpResponse etagsAgain = mockResponse(207, "<D:multistatus xmlns:D=\"DAV:\"/>");
+		HttpClient httpClient = mock(HttpClient.class);
+		when(httpClient.execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class))).thenReturn(etags, etagsAgain);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		ICalendarAccount account = mockMirroredAccount("owner1");
+		java.util.Date end = DateUtils.addDays(start, 7);
+		calendarDataDao.getCalendarsFromMirror(account, start, end);
+		now[0] = DateUtils.addSeconds(start, 59);
+		calendarDataDao.getCalendarsFromMirror(account, start, end);
+		Assert.assertEquals(1, calendarMirror.getEtagRefreshCount());
+		now[0] = DateUtils.addSeconds(start, 60);
+		calendarDataDao.getCalendarsFromMirror(account, start, end);
+		Assert.assertEquals(2, calendarMirror.getEtagRefreshCount());
+		verify(httpClient, times(2)).execute((HttpHost) eq(null), isA(HttpRequest.class), isA(HttpContext.class));
+	}
+	
+	/**
+	 * Reflection requests for every owner run on one pool, shut down by destroy.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReflectionExecutorShared() throws Exception {
+		CaldavCalendarDataDaoImpl calendarDataDao = new CaldavCalendarDataDaoImpl();
+		calendarDataDao.setReflectionParallelism(2);
+		final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+		List<Callable<Void>> requests = new ArrayList<Callable<Void>>();
+		for(int i = 0; i < 4; i++) {
+			requests.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					threadNames.add(Thread.currentThread().getName());
+					return null;
+				}
+			});
+		}
+		calendarDataDao.executeReflectionRequests(mockOwner(), requests);
+		ThreadPoolExecutor executor = calendarDataDao.getReflectionExecutor();
+		calendarDataDao.executeReflectionRequests(mockOwner(), requests);
+		Assert.assertSame(executor, calendarDataDao.getReflectionExecutor());
+		Assert.assertTrue(threadNames.size() <= 2);
+		Assert.assertEquals(2, executor.getMaximumPoolSize());
+		
+		calendarDataDao.destroy();
+		Assert.assertTrue(executor.isShutdown());
+	}
+	
+	/**
+	 * isPurgeCandidate compares the start of the appointment against the configured {@link Clock}.
+	 */
+	@Test
+	public void testIsPurgeCandidateUsesClock() {
+		MockScheduleOwner owner = mockOwner();
+		final AvailableBlock block = futureBlock();
+		MockScheduleVisitor visitor = mockVisitor();
+		CaldavEventUtilsImpl eventUtils = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl());
+		VEvent appointment = eventUtils.constructAvailableAppointment(block, owner, visitor, "declined");
+		Property attendee = eventUtils.getAttendeeForUserFromEvent(appointment, visitor.getCalendarAccount());
+		attendee.getParameters().remove(attendee.getParameter(PartStat.PARTSTAT));
+		attendee.getParameters().add(PartStat.DECLINED);
+		CalendarWithURI calendarWithURI = new CalendarWithURI(toCalendar(appointment), "/ucaldav/user/owner/calendar/declined.ics", "\"1\"");
+		
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		Assert.assertTrue(calendarDataDao.isPurgeCandidate(calendarWithURI, owner.getCalendarAccount()));
+		calendarDataDao.setClock(new Clock() {
+			@Override
+			public Date now() {
+				return block.getEndTime();
+			}
+		});
+		Assert.assertFalse(calendarDataDao.isPurgeCandidate(calendarWithURI, owner.getCalendarAccount()));
+	}
+	
+	/**
+	 * reflectAvailableSchedule leaves a stored reflection that matches the schedule in place,
+	 * deletes the stored reflection the schedule no longer calls for, and stores only the missing reflection.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReflectAvailableScheduleDiff() throws Exception {
+		MockScheduleOwner owner = mockOwner();
+		CaldavEventUtilsImpl eventUtils = new CaldavEventUtilsImpl(new NullAffiliationSourceImpl());
+		Set<AvailableBlock> blocks = new HashSet<AvailableBlock>();
+		blocks.add(AvailableBlockBuilder.createBlock("20301104-0900", "20301104-1000"));
+		blocks.add(AvailableBlockBuilder.createBlock("20301105-0900", "20301105-1000"));
+		AvailableSchedule unchanged = new AvailableSchedule(new HashSet<AvailableBlock>(blocks));
+		Set<AvailableBlock> staleBlocks = new HashSet<AvailableBlock>();
+		staleBlocks.add(AvailableBlockBuilder.createBlock("20301106-1500", "20301106-1600"));
+		AvailableSchedule stale = new AvailableSchedule(staleBlocks);
+		blocks.add(AvailableBlockBuilder.createBlock("20301106-1300", "20301106-1400"));
+		AvailableSchedule schedule = new AvailableSchedule(blocks);
+		
+		StringBuilder report = new StringBuilder();
+		report.append("<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">");
+		appendReportResponse(report, "unchanged", eventUtils.convertScheduleForReflection(unchanged).get(0));
+		appendReportResponse(report, "stale", eventUtils.convertScheduleForReflection(stale).get(0));
+		report.append("</D:multistatus>");
+		
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		calendarDataDao.setAppointmentIndexEnabled(false);
+		calendarDataDao.setReflectionEnabled(true);
+		HttpResponse multiStatus = mockResponse(207, report.toString());
+		HttpResponse noContent1 = mockResponse(204, "");
+		HttpResponse noContent2 = mockResponse(204, "");
+		HttpClient httpClient = mock(HttpClient.class);
+		ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+		when(httpClient.execute((HttpHost) eq(null), request.capture(), isA(HttpContext.class))).thenReturn(multiStatus, noContent1, noContent2);
+		calendarDataDao.setHttpClient(httpClient);
+		
+		calendarDataDao.reflectAvailableSchedule(owner, schedule);
+		
+		List<HttpRequest> requests = request.getAllValues();
+		Assert.assertEquals(3, requests.size());
+		HttpDelete delete = null;
+		HttpPut put = null;
+		for(HttpRequest r: requests.subList(1, 3)) {
+			if(r instanceof HttpDelete) {
+				delete = (HttpDelete) r;
+			} else if (r instanceof HttpPut) {
+				put = (HttpPut) r;
+			}
+		}
+		Assert.assertNotNull(delete);
+		Assert.assertEquals("http://localhost:8080/ucaldav/user/owner/calendar/stale.ics", delete.getURI().toString());
+		Assert.assertNotNull(put);
+		String body = IOUtils.toString(put.getEntity().getContent());
+		Assert.assertTrue(body.contains("Available 1:00 PM - 2:00 PM"));
+	}
+	
+	/**
+	 * 
+	 * @param report
+	 * @param name
+	 * @param calendar
+	 */
+	private void appendReportResponse(StringBuilder report, String name, Calendar calendar) {
+		report.append("<D:response><D:href>/ucaldav/user/owner/calendar/").append(name).append(".ics</D:href><D:propstat><D:prop><D:getetag>\"1\"</D:getetag>");
+		report.append("<C:calendar-data><![CDATA[").append(calendar.toString()).append("]]></C:calendar-data>");
+		report.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>");
+	}
+	/**
+	 * 
+	 * @param owner
+	 * @param block
+	 * @param appointment
+	 * @return a {@link CaldavCalendarDataDaoImpl} that locates the appointment via the index, with no backoff
+	 */
+	private CaldavCalendarDataDaoImpl newConflictingCalendarDataDao(IScheduleOwner owner, AvailableBlock block, VEvent appointment) {
+		CaldavCalendarDataDaoImpl calendarDataDao = newIndexedCalendarDataDao();
+		calendarDataDao.setConflictRetryBackoffMillis(0);
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		dialect.setCaldavHost(URI.create("http://localhost:8080"));
+		dialect.setEventUtils(new CaldavEventUtilsImpl(new NullAffiliationSourceImpl()));
+		calendarDataDao.setCaldavDialect(dialect);
+		String uid = appointment.getUid().getValue();
+		AppointmentIndexDao appointmentIndexDao = mock(AppointmentIndexDao.class);
+		when(appointmentIndexDao.lookup(owner, block.getStartTime(), block.getEndTime())).thenReturn(new IndexedAppointment(uid, "/ucaldav/user/owner/calendar/" + uid + ".ics"));
+		calendarDataDao.setAppointmentIndexDao(appointmentIndexDao);
+		return calendarDataDao;
+	}
+	/**
+	 * 
+	 * @return a {@link CaldavCalendarDataDaoImpl} for localhost:8080 with the appointment index enabled
+	 */
+	private CaldavCalendarDataDaoImpl newIndexedCalendarDataDao() {
+		CaldavCalendarDataDaoImpl calendarDataDao = new CaldavCalendarDataDaoImpl();
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		dialect.setCaldavHost(URI.create("http://localhost:8080"));
+		calendarDataDao.setCaldavDialect(dialect);
+		DefaultCredentialsProviderFactoryImpl credentialsProviderFactory = new DefaultCredentialsProviderFactoryImpl();
+		credentialsProviderFactory.setCaldavAdminUsername("username");
+		credentialsProviderFactory.setCaldavAdminPassword("password");
+		calendarDataDao.setCredentialsProviderFactory(credentialsProviderFactory);
+		calendarDataDao.setAppointmentIndexEnabled(true);
+		return calendarDataDao;
+	}
+	/**
+	 * 
+	 * @return a {@link MockScheduleOwner} with username and uid "owner"
+	 */
+	private MockScheduleOwner mockOwner() {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setUsername("owner");
+		ownerAccount.setDisplayName("Owner");
+		ownerAccount.setEmailAddress("owner@server.edu");
+		ownerAccount.setAttributeValue("uid", "owner");
+		return new MockScheduleOwner(ownerAccount, 1);
+	}
+	/**
+	 * 
+	 * @param username
+	 * @return a {@link MockCalendarAccount} with the username and a calendarUniqueId, as keyed by the {@link CalendarMirror}
+	 */
+	private ICalendarAccount mockMirroredAccount(String username) {
+		MockCalendarAccount account = new MockCalendarAccount();
+		account.setUsername(username);
+		account.setCalendarUniqueId(username + "-id");
+		account.setAttributeValue("uid", username);
+		return account;
+	}
+	/**
+	 * 
+	 * @return a {@link MockScheduleVisitor} with username "visitor"
+	 */
+	private MockScheduleVisitor mockVisitor() {
+		return mockVisitor("visitor");
+	}
+	/**
+	 * 
+	 * @param username
+	 * @return a {@link MockScheduleVisitor} with the username
+	 */
+	private MockScheduleVisitor mockVisitor(String username) {
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setUsername(username);
+		visitorAccount.setDisplayName(username);
+		visitorAccount.setEmailAddress(username + "@server.edu");
+		visitorAccount.setAttributeValue("uid", username);
+		return new MockScheduleVisitor(visitorAccount);
+	}
+	/**
+	 * 
+	 * @return a 30 minute block starting tomorrow
+	 */
+	private AvailableBlock futureBlock() {
+		return futureBlock(1);
+	}
+	/**
+	 * 
+	 * @param visitorLimit
+	 * @return a 30 minute block starting tomorrow with the visitor limit
+	 */
+	private AvailableBlock futureBlock(int visitorLimit) {
+		java.util.Date start = DateUtils.truncate(DateUtils.addDays(new java.util.Date(), 1), java.util.Calendar.HOUR);
+		return AvailableBlockBuilder.createBlock(start, DateUtils.addMinutes(start, 30), visitorLimit);
+	}
+	/**
+	 * 
+	 * @param event
+	 * @return a {@link Calendar} containing only the event
+	 */
+	private Calendar toCalendar(VEvent event) {
+		Calendar calendar = new Calendar();
+		calendar.getProperties().add(new ProdId("-//jasig.org//Jasig Scheduling Assistant 1.0//EN"));
+		calendar.getProperties().add(Version.VERSION_2_0);
+		calendar.getProperties().add(CalScale.GREGORIAN);
+		calendar.getComponents().add(event);
+		return calendar;
+	}
+	/**
+	 * 
+	 * @param statusCode
+	 * @param body
+	 * @return a mock {@link HttpResponse}
+	 * @throws IOException
+	 */
+	private HttpResponse mockResponse(int statusCode, String body) throws IOException {
+		HttpResponse response = mock(HttpResponse.class);
+		HttpEntity entity = mock(HttpEntity.class);
+		when(entity.getContent()).thenReturn(new ByteArrayInputStream(body.getBytes("UTF-8")));
+		StatusLine statusLine = mock(StatusLine.class);
+		when(statusLine.getStatusCode()).thenReturn(statusCode);
+		when(response.getStatusLine()).thenReturn(statusLine);
+		when(response.getEntity()).thenReturn(entity);
+		return response;
+	}
 }
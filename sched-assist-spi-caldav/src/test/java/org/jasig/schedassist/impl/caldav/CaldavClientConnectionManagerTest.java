@@ -0,0 +1,146 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerPNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CaldavClientConnectionManager} and {@link CaldavHttpClientFactory}.
+ * 
+ * @version $Id: CaldavClientConnectionManagerTest.java $
+ */
+public class CaldavClientConnectionManagerTest {
+
+	private final HttpHost host = new HttpHost("localhost", 8080, "http");
+	private final HttpRoute route = new HttpRoute(host);
+	private CaldavClientConnectionManager connectionManager;
+	private ExecutorService executor;
+	
+	@Before
+	public void setUp() {
+		CaldavHttpClientFactory factory = new CaldavHttpClientFactory(SchemeRegistryProvider.createSchemeRegistry("http", 8080, false));
+		factory.setMaxTotalConnections(10);
+		factory.setDefaultMaxConnectionsPerRoute(5);
+		factory.setCaldavHost(host);
+		factory.setMaxConnectionsForCaldavHost(1);
+		connectionManager = factory.createConnectionManager();
+		executor = Executors.newSingleThreadExecutor();
+	}
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		connectionManager.shutdown();
+	}
+	
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConfiguration() throws Exception {
+		CaldavHttpClientFactory factory = new CaldavHttpClientFactory(SchemeRegistryProvider.createSchemeRegistry("http", 8080, false));
+		factory.setLeaseTimeoutMillis(1234L);
+		factory.setSoTimeoutMillis(2000);
+		factory.setStaleCheckingEnabled(false);
+		DefaultHttpClient httpClient = factory.createHttpClient(connectionManager);
+		Assert.assertSame(connectionManager, httpClient.getConnectionManager());
+		Assert.assertEquals(1234L, httpClient.getParams().getLongParameter(ConnManagerPNames.TIMEOUT, 0));
+		Assert.assertEquals(2000, HttpConnectionParams.getSoTimeout(httpClient.getParams()));
+		Assert.assertFalse(HttpConnectionParams.isStaleCheckingEnabled(httpClient.getParams()));
+		
+		Assert.assertEquals(10, connectionManager.getMaxTotal());
+		Assert.assertEquals(5, connectionManager.getDefaultMaxPerRoute());
+		Assert.assertEquals(1, connectionManager.getMaxForRoute(route));
+		Assert.assertEquals(5, connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("otherhost", 8080, "http"))));
+	}
+	
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStatistics() throws Exception {
+		Assert.assertEquals(0, connectionManager.getLeasedConnections());
+		Assert.assertEquals(0, connectionManager.getAvailableConnections());
+		
+		ManagedClientConnection connection = connectionManager.requestConnection(route, null).getConnection(1, TimeUnit.SECONDS);
+		Assert.assertEquals(1, connectionManager.getLeasedConnections());
+		Assert.assertEquals(1, connectionManager.getLeaseCount());
+		
+		// route limit is 1; the second request waits
+		Future<ManagedClientConnection> second = executor.submit(new Callable<ManagedClientConnection>() {
+			@Override
+			public ManagedClientConnection call() throws Exception {
+				return connectionManager.requestConnection(route, null).getConnection(5, TimeUnit.SECONDS);
+			}
+		});
+		long deadline = System.currentTimeMillis() + 5000;
+		while(connectionManager.getPendingRequests() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, connectionManager.getPendingRequests());
+		
+		connection.markReusable();
+		connectionManager.releaseConnection(connection, -1, TimeUnit.MILLISECONDS);
+		ManagedClientConnection secondConnection = second.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(0, connectionManager.getPendingRequests());
+		Assert.assertEquals(1, connectionManager.getLeasedConnections());
+		Assert.assertEquals(2, connectionManager.getLeaseCount());
+		Assert.assertTrue(connectionManager.getMaxLeaseWaitMillis() > 0);
+		
+		try {
+			connectionManager.requestConnection(route, null).getConnection(50, TimeUnit.MILLISECONDS);
+			Assert.fail("expected ConnectionPoolTimeoutException not thrown");
+		} catch (ConnectionPoolTimeoutException e) {
+			// success
+		}
+		Assert.assertEquals(1, connectionManager.getLeaseTimeoutCount());
+		Assert.assertTrue(connectionManager.getMaxLeaseWaitMillis() >= 50);
+		
+		secondConnection.markReusable();
+		connectionManager.releaseConnection(secondConnection, -1, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(0, connectionManager.getLeasedConnections());
+		Assert.assertEquals(1, connectionManager.getAvailableConnections());
+		
+		connectionManager.evictIdleConnections();
+		Assert.assertEquals(1, connectionManager.getEvictionRuns());
+		
+		connectionManager.resetStatistics();
+		Assert.assertEquals(0, connectionManager.getLeaseCount());
+		Assert.assertEquals(0, connectionManager.getLeaseTimeoutCount());
+		Assert.assertEquals(0, connectionManager.getMaxLeaseWaitMillis());
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.fortuna.ical4j.model.Calendar;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CalendarFetchCoalescer}.
+ *
+ * @version $Id: CalendarFetchCoalescerTest.java $
+ */
+public class CalendarFetchCoalescerTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Concurrent requests for nearly the same window share one fetch and one result.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentRequestsCoalesced() throws Exception {
+		final CalendarFetchCoalescer coalescer = new CalendarFetchCoalescer();
+		coalescer.setWindowGranularityMinutes(60);
+		final BlockingLoader loader = new BlockingLoader();
+		final ICalendarAccount account = newAccount("owner1");
+		final Date start = DateUtils.truncate(new Date(), java.util.Calendar.HOUR);
+		final Date requestStart = DateUtils.addMinutes(start, 1);
+		final Date requestEnd = DateUtils.addWeeks(requestStart, 3);
+
+		Future<Calendar> leader = executor.submit(new GetCalendar(coalescer, loader, account, requestStart, requestEnd));
+		Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+		List<Future<Calendar>> followers = new ArrayList<Future<Calendar>>();
+		for(int i = 0; i < 5; i++) {
+			followers.add(executor.submit(new GetCalendar(coalescer, loader, account,
+					DateUtils.addSeconds(requestStart, i + 1), DateUtils.addSeconds(requestEnd, i + 1))));
+		}
+		// wait for the followers to join
+		long deadline = System.currentTimeMillis() + 5000;
+		while(coalescer.getCoalescedCount() < 5 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(5, coalescer.getCoalescedCount());
+		Assert.assertEquals(1, coalescer.getInFlightCount());
+
+		loader.release.countDown();
+		Calendar result = leader.get(5, TimeUnit.SECONDS);
+		for(Future<Calendar> follower : followers) {
+			Assert.assertSame(result, follower.get(5, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(1, loader.invocations.get());
+		Assert.assertEquals(6, coalescer.getRequestCount());
+		Assert.assertEquals(1, coalescer.getFetchCount());
+		Assert.assertEquals(0, coalescer.getInFlightCount());
+		// the loader was invoked with the widened window
+		Assert.assertEquals(start, loader.lastStart);
+		Assert.assertEquals(DateUtils.addHours(DateUtils.addWeeks(start, 3), 1), loader.lastEnd);
+	}
+
+	/**
+	 * Requests for other accounts, windows that are not covered, or arriving after an invalidation start their own fetch.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testNotCoalesced() throws Exception {
+		final CalendarFetchCoalescer coalescer = new CalendarFetchCoalescer();
+		coalescer.setWindowGranularityMinutes(0);
+		final BlockingLoader loader = new BlockingLoader();
+		final ICalendarAccount account = newAccount("owner1");
+		final Date start = new Date();
+		final Date end = DateUtils.addWeeks(start, 3);
+
+		Future<Calendar> first = executor.submit(new GetCalendar(coalescer, loader, account, start, end));
+		Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+		loader.release.countDown();
+		// each of these runs to completion without blocking on the first
+		Assert.assertNotNull(coalescer.getCalendar(newAccount("owner2"), start, end, loader));
+		Assert.assertNotNull(coalescer.getCalendar(account, start, DateUtils.addSeconds(end, 1), loader));
+		first.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(3, loader.invocations.get());
+		Assert.assertEquals(0, coalescer.getCoalescedCount());
+
+		final BlockingLoader second = new BlockingLoader();
+		Future<Calendar> beforeWrite = executor.submit(new GetCalendar(coalescer, second, account, start, end));
+		Assert.assertTrue(second.started.await(5, TimeUnit.SECONDS));
+		coalescer.invalidate(account);
+		second.release.countDown();
+		Assert.assertNotNull(coalescer.getCalendar(account, start, end, second));
+		beforeWrite.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(2, second.invocations.get());
+		Assert.assertEquals(0, coalescer.getCoalescedCount());
+	}
+
+	/**
+	 * Callers that joined a failed fetch receive a {@link CaldavDataAccessException}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailurePropagated() throws Exception {
+		final CalendarFetchCoalescer coalescer = new CalendarFetchCoalescer();
+		final BlockingLoader loader = new BlockingLoader();
+		loader.failure = new CaldavDataAccessException("unexpected status code: 500");
+		final ICalendarAccount account = newAccount("owner1");
+		final Date start = new Date();
+		final Date end = DateUtils.addWeeks(start, 3);
+
+		Future<Calendar> leader = executor.submit(new GetCalendar(coalescer, loader, account, start, end));
+		Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+		Future<Calendar> follower = executor.submit(new GetCalendar(coalescer, loader, account, start, end));
+		long deadline = System.currentTimeMillis() + 5000;
+		while(coalescer.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		loader.release.countDown();
+
+		try {
+			leader.get(5, TimeUnit.SECONDS);
+			Assert.fail("expected CaldavDataAccessException not thrown");
+		} catch (java.util.concurrent.ExecutionException e) {
+			Assert.assertSame(loader.failure, e.getCause());
+		}
+		try {
+			follower.get(5, TimeUnit.SECONDS);
+			Assert.fail("expected CaldavDataAccessException not thrown");
+		} catch (java.util.concurrent.ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CaldavDataAccessException);
+			Assert.assertSame(loader.failure, e.getCause().getCause());
+		}
+		Assert.assertEquals(1, coalescer.getFailedFetchCount());
+		Assert.assertEquals(1, loader.invocations.get());
+		Assert.assertEquals(0, coalescer.getInFlightCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWindowRounding() {
+		CalendarFetchCoalescer coalescer = new CalendarFetchCoalescer();
+		coalescer.setWindowGranularityMinutes(5);
+		Assert.assertEquals(0L, coalescer.floor(299999L));
+		Assert.assertEquals(300000L, coalescer.ceiling(1L));
+		Assert.assertEquals(300000L, coalescer.floor(300000L));
+		Assert.assertEquals(300000L, coalescer.ceiling(300000L));
+		coalescer.setWindowGranularityMinutes(0);
+		Assert.assertEquals(1L, coalescer.floor(1L));
+		Assert.assertEquals(1L, coalescer.ceiling(1L));
+	}
+
+	private static ICalendarAccount newAccount(String username) {
+		MockCalendarAccount account = new MockCalendarAccount();
+		account.setUsername(username);
+		account.setCalendarUniqueId(username + "-id");
+		return account;
+	}
+
+	/**
+	 * {@link CalendarFetchCoalescer.CalendarLoader} that blocks until released.
+	 */
+	private static class BlockingLoader implements CalendarFetchCoalescer.CalendarLoader {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger invocations = new AtomicInteger();
+		private volatile RuntimeException failure;
+		private volatile Date lastStart;
+		private volatile Date lastEnd;
+
+		@Override
+		public Calendar loadCalendar(ICalendarAccount calendarAccount, Date startDate, Date endDate) {
+			invocations.incrementAndGet();
+			lastStart = startDate;
+			lastEnd = endDate;
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(failure != null) {
+				throw failure;
+			}
+			return new Calendar();
+		}
+	}
+
+	/**
+	 * {@link Callable} that invokes {@link CalendarFetchCoalescer#getCalendar(ICalendarAccount, Date, Date, org.jasig.schedassist.impl.caldav.CalendarFetchCoalescer.CalendarLoader)}.
+	 */
+	private static class GetCalendar implements Callable<Calendar> {
+		private final CalendarFetchCoalescer coalescer;
+		private final CalendarFetchCoalescer.CalendarLoader loader;
+		private final ICalendarAccount account;
+		private final Date start;
+		private final Date end;
+
+		GetCalendar(CalendarFetchCoalescer coalescer, CalendarFetchCoalescer.CalendarLoader loader,
+				ICalendarAccount account, Date start, Date end) {
+			this.coalescer = coalescer;
+			this.loader = loader;
+			this.account = account;
+			this.start = start;
+			this.end = end;
+		}
+		@Override
+		public Calendar call() {
+			return coalescer.getCalendar(account, start, end, loader);
+		}
+	}
+}
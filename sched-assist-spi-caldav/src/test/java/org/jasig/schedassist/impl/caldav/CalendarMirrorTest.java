@@ -0,0 +1,159 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.RRule;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CalendarMirror}.
+ *
+ * @version $Id: CalendarMirrorTest.java $
+ */
+public class CalendarMirrorTest {
+
+	private static final Date WINDOW_START = new Date(1304312400000L);
+	private static final Date WINDOW_END = DateUtils.addWeeks(WINDOW_START, 1);
+
+	/**
+	 * Only resources with events overlapping the window are returned.
+	 */
+	@Test
+	public void testGetCalendarsForWindow() {
+		CalendarMirror.AccountMirror mirror = new CalendarMirror().getAccountMirror(newAccount("owner1"));
+		mirror.put(newCalendar("/c/before.ics", DateUtils.addHours(WINDOW_START, -2), DateUtils.addHours(WINDOW_START, -1)));
+		mirror.put(newCalendar("/c/spanning-start.ics", DateUtils.addHours(WINDOW_START, -1), DateUtils.addHours(WINDOW_START, 1)));
+		mirror.put(newCalendar("/c/within.ics", DateUtils.addDays(WINDOW_START, 1), DateUtils.addDays(WINDOW_START, 2)));
+		mirror.put(newCalendar("/c/after.ics", WINDOW_END, DateUtils.addHours(WINDOW_END, 1)));
+		CalendarWithURI recurring = newCalendar("/c/recurring.ics", DateUtils.addWeeks(WINDOW_START, -10), DateUtils.addHours(DateUtils.addWeeks(WINDOW_START, -10), 1));
+		((VEvent) recurring.getCalendar().getComponent(VEvent.VEVENT)).getProperties().add(new RRule(new Recur(Recur.WEEKLY, 0)));
+		mirror.put(recurring);
+
+		List<CalendarWithURI> results = mirror.getCalendars(WINDOW_START, WINDOW_END);
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals("/c/spanning-start.ics", results.get(0).getUri());
+		Assert.assertEquals("/c/within.ics", results.get(1).getUri());
+		Assert.assertEquals("/c/recurring.ics", results.get(2).getUri());
+	}
+
+	/**
+	 * Resources are keyed by href, and retainAll drops those no longer listed.
+	 */
+	@Test
+	public void testPutRemoveRetain() {
+		CalendarMirror.AccountMirror mirror = new CalendarMirror().getAccountMirror(newAccount("owner1"));
+		mirror.put(newCalendar("/c/a.ics", WINDOW_START, WINDOW_END));
+		mirror.put(newCalendar("/c/b.ics", WINDOW_START, WINDOW_END));
+		mirror.put(new CalendarWithURI(new Calendar(), "/c/a.ics", "\"etag-2\""));
+		Assert.assertEquals(2, mirror.size());
+		Assert.assertEquals("\"etag-2\"", mirror.getEtag("/c/a.ics"));
+		Assert.assertNull(mirror.getEtag("/c/c.ics"));
+
+		Assert.assertEquals(1, mirror.retainAll(Arrays.asList("/c/a.ics", "/c/c.ics")));
+		Assert.assertEquals(1, mirror.getCalendars(Arrays.asList("/c/b.ics", "/c/a.ics")).size());
+		Assert.assertTrue(mirror.remove("/c/a.ics"));
+		Assert.assertFalse(mirror.remove("/c/a.ics"));
+		Assert.assertEquals(0, mirror.size());
+	}
+
+	/**
+	 * A refresh completes the generation it started with; writes during the refresh leave the mirror stale.
+	 */
+	@Test
+	public void testNeedsRefresh() {
+		CalendarMirror calendarMirror = new CalendarMirror();
+		ICalendarAccount account = newAccount("owner1");
+		CalendarMirror.AccountMirror mirror = calendarMirror.getAccountMirror(account);
+		long now = System.currentTimeMillis();
+		Assert.assertTrue(mirror.needsRefresh(now, 60000L));
+
+		mirror.markRefreshed(now, mirror.getGeneration());
+		Assert.assertFalse(mirror.needsRefresh(now + 1000L, 60000L));
+		Assert.assertTrue(mirror.needsRefresh(now + 60000L, 60000L));
+		Assert.assertTrue(mirror.needsRefresh(now, 0L));
+
+		long generation = mirror.getGeneration();
+		calendarMirror.markStale(account);
+		Assert.assertTrue(mirror.needsRefresh(now + 1000L, 60000L));
+		mirror.markRefreshed(now, generation);
+		Assert.assertTrue(mirror.needsRefresh(now + 1000L, 60000L));
+		mirror.markRefreshed(now, mirror.getGeneration());
+		Assert.assertFalse(mirror.needsRefresh(now + 1000L, 60000L));
+	}
+
+	/**
+	 * The least recently used account is evicted.
+	 */
+	@Test
+	public void testMaxAccounts() {
+		CalendarMirror calendarMirror = new CalendarMirror();
+		calendarMirror.setMaxAccounts(2);
+		CalendarMirror.AccountMirror first = calendarMirror.getAccountMirror(newAccount("owner1"));
+		calendarMirror.getAccountMirror(newAccount("owner2"));
+		Assert.assertSame(first, calendarMirror.getAccountMirror(newAccount("owner1")));
+		calendarMirror.getAccountMirror(newAccount("owner3"));
+		Assert.assertEquals(2, calendarMirror.getAccountCount());
+		Assert.assertSame(first, calendarMirror.getAccountMirror(newAccount("owner1")));
+		Assert.assertEquals(5, calendarMirror.getRequestCount());
+
+		calendarMirror.setSyncCollectionSupported(false);
+		Assert.assertFalse(calendarMirror.isSyncCollectionSupported());
+		calendarMirror.clear();
+		Assert.assertEquals(0, calendarMirror.getAccountCount());
+		Assert.assertTrue(calendarMirror.isSyncCollectionSupported());
+	}
+
+	/**
+	 *
+	 * @param href
+	 * @param start
+	 * @param end
+	 * @return a {@link CalendarWithURI} with a single event
+	 */
+	private static CalendarWithURI newCalendar(String href, Date start, Date end) {
+		Calendar calendar = new Calendar();
+		calendar.getComponents().add(new VEvent(new DateTime(start), new DateTime(end), href));
+		return new CalendarWithURI(calendar, href, "\"etag-1\"");
+	}
+	/**
+	 *
+	 * @param username
+	 * @return
+	 */
+	private static ICalendarAccount newAccount(String username) {
+		MockCalendarAccount account = new MockCalendarAccount();
+		account.setUsername(username);
+		account.setCalendarUniqueId(username + "-id");
+		return account;
+	}
+}
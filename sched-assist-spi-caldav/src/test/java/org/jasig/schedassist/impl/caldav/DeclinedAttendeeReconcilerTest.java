@@ -0,0 +1,185 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DeclinedAttendeeReconciler}.
+ *
+ * @version $Id: DeclinedAttendeeReconcilerTest.java $
+ */
+public class DeclinedAttendeeReconcilerTest {
+
+	private DeclinedAttendeeReconciler reconciler;
+	private CountDownLatch release;
+
+	@Before
+	public void setUp() {
+		reconciler = new DeclinedAttendeeReconciler(1, 2);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		reconciler.destroy();
+	}
+
+	/**
+	 * An appointment queued while already waiting is purged once, with the latest etag.
+	 * A request beyond the capacity of the queue is dropped.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDeduplicateAndDrop() throws Exception {
+		ICalendarAccount owner = new MockCalendarAccount();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch completed = new CountDownLatch(3);
+		final List<String> purged = Collections.synchronizedList(new ArrayList<String>());
+		DeclinedAttendeeReconciler.Purger purger = new DeclinedAttendeeReconciler.Purger() {
+			@Override
+			public void purge(ICalendarAccount account, String href, String etag) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				purged.add(href + " " + etag);
+				completed.countDown();
+			}
+		};
+		// occupy the only thread
+		Assert.assertTrue(reconciler.enqueue(owner, "/busy.ics", "\"1\"", purger));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"1\"", purger));
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"2\"", purger));
+		Assert.assertTrue(reconciler.enqueue(owner, "/b.ics", null, purger));
+		Assert.assertFalse(reconciler.enqueue(owner, "/c.ics", null, purger));
+		// /busy.ics stays pending while it is being purged
+		Assert.assertEquals(3, reconciler.getQueueDepth());
+		Assert.assertEquals(1, reconciler.getDuplicateCount());
+		Assert.assertEquals(1, reconciler.getDroppedCount());
+		
+		release.countDown();
+		Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(reconciler.getPurgeCount() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(3, reconciler.getPurgeCount());
+		Assert.assertEquals(3, reconciler.getEnqueuedCount());
+		Assert.assertEquals(0, reconciler.getQueueDepth());
+		Assert.assertTrue(purged.contains("/a.ics \"2\""));
+		Assert.assertTrue(purged.contains("/b.ics null"));
+		Assert.assertFalse(purged.contains("/c.ics null"));
+	}
+	
+	/**
+	 * While an appointment is being purged on one thread, a read on another thread that detects the same
+	 * appointment (same etag) does not cause a second purge; a newer etag causes exactly one more purge.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testEnqueueWhilePurging() throws Exception {
+		reconciler.destroy();
+		reconciler = new DeclinedAttendeeReconciler(2, 2);
+		final ICalendarAccount owner = new MockCalendarAccount();
+		final CountDownLatch started = new CountDownLatch(1);
+		final List<String> purged = Collections.synchronizedList(new ArrayList<String>());
+		final DeclinedAttendeeReconciler.Purger purger = new DeclinedAttendeeReconciler.Purger() {
+			@Override
+			public void purge(ICalendarAccount account, String href, String etag) {
+				purged.add(href + " " + etag);
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"1\"", purger));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		// a concurrent read of the same version, while the purge is in flight
+		final boolean [] result = new boolean[1];
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				result[0] = reconciler.enqueue(owner, "/a.ics", "\"1\"", purger);
+			}
+		});
+		reader.start();
+		reader.join(5000L);
+		Assert.assertTrue(result[0]);
+		Assert.assertEquals(1, reconciler.getQueueDepth());
+		Assert.assertEquals(1, reconciler.getDuplicateCount());
+		Assert.assertEquals(1, reconciler.getEnqueuedCount());
+		
+		release.countDown();
+		awaitQueueDepth(0);
+		Assert.assertEquals(1, reconciler.getPurgeCount());
+		Assert.assertEquals(0, reconciler.getRerunCount());
+		Assert.assertEquals(1, purged.size());
+		
+		// a newer version arriving while the purge is in flight is purged once more
+		release = new CountDownLatch(1);
+		purged.clear();
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"2\"", purger));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(purged.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"3\"", purger));
+		Assert.assertTrue(reconciler.enqueue(owner, "/a.ics", "\"3\"", purger));
+		release.countDown();
+		awaitQueueDepth(0);
+		Assert.assertEquals(3, reconciler.getPurgeCount());
+		Assert.assertEquals(1, reconciler.getRerunCount());
+		Assert.assertEquals(2, reconciler.getEnqueuedCount());
+		Assert.assertEquals(2, purged.size());
+		Assert.assertEquals("/a.ics \"2\"", purged.get(0));
+		Assert.assertEquals("/a.ics \"3\"", purged.get(1));
+	}
+	
+	private void awaitQueueDepth(int depth) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(reconciler.getQueueDepth() != depth && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(depth, reconciler.getQueueDepth());
+	}
+}
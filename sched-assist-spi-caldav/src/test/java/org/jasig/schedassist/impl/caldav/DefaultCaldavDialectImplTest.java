@@ -22,20 +22,26 @@
  */
 package org.jasig.schedassist.impl.caldav;
 
+import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.TimeZone;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.util.EntityUtils;
 import org.jasig.schedassist.model.CommonDateOperations;
 import org.jasig.schedassist.model.InputFormatException;
 import org.jasig.schedassist.model.mock.MockCalendarAccount;
 import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
 
 /**
  * Tests for {@link DefaultCaldavDialectImpl}.
@@ -77,4 +83,81 @@ public class DefaultCaldavDialectImplTest {
 		String requestXml = dialect.generateGetCalendarRequestXML(startDate, endDate);
 		log.info(requestXml);
 	}
+	
+	@Test
+	public void testGenerateGetVisibleScheduleCalendarRequestDefault() throws InputFormatException {
+		Date startDate = CommonDateOperations.parseDatePhrase("20110502");
+		Date endDate = CommonDateOperations.parseDatePhrase("20110509");
+		
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		Assert.assertEquals(dialect.generateGetCalendarRequestXML(startDate, endDate), 
+				dialect.generateGetVisibleScheduleCalendarRequestXML(startDate, endDate));
+	}
+	
+	@Test
+	public void testGenerateGetVisibleScheduleCalendarRequestNarrowed() throws Exception {
+		Date startDate = CommonDateOperations.parseDatePhrase("20110502");
+		Date endDate = CommonDateOperations.parseDatePhrase("20110509");
+		
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		dialect.setCalendarDataSelectionEnabled(true);
+		String requestXml = dialect.generateGetVisibleScheduleCalendarRequestXML(startDate, endDate);
+		log.info(requestXml);
+		Assert.assertFalse(requestXml.contains("<C:calendar-data/>"));
+		Assert.assertTrue(requestXml.contains("<C:prop name=\"DTSTART\"/>"));
+		Assert.assertTrue(requestXml.contains("<C:prop name=\"X-UW-AVAILABLE-APPOINTMENT\"/>"));
+		Assert.assertFalse(requestXml.contains("<C:prop name=\"DESCRIPTION\"/>"));
+		Assert.assertFalse(requestXml.contains("prop-filter"));
+		
+		dialect.setExcludeTransparentEvents(true);
+		dialect.setExcludeCancelledEvents(true);
+		requestXml = dialect.generateGetVisibleScheduleCalendarRequestXML(startDate, endDate);
+		log.info(requestXml);
+		Assert.assertTrue(requestXml.contains("<C:prop-filter name=\"TRANSP\" test=\"anyof\">"));
+		Assert.assertTrue(requestXml.contains("<C:prop-filter name=\"STATUS\" test=\"anyof\">"));
+		Assert.assertTrue(requestXml.contains("negate-condition=\"yes\">CANCELLED</C:text-match>"));
+		// well formed
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(requestXml.getBytes("UTF-8")));
+		Assert.assertEquals(2, document.getElementsByTagNameNS("urn:ietf:params:xml:ns:caldav", "prop-filter").getLength());
+	}
+	
+	@Test
+	public void testGenerateSyncCollectionAndMultigetRequests() throws Exception {
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		String initial = EntityUtils.toString(dialect.generateSyncCollectionRequestEntity(null));
+		Assert.assertTrue(initial.contains("<D:sync-token/>"));
+		Assert.assertTrue(initial.contains("<D:sync-level>1</D:sync-level>"));
+		String incremental = EntityUtils.toString(dialect.generateSyncCollectionRequestEntity("http://example.com/ns/sync/1234&5"));
+		Assert.assertTrue(incremental.contains("<D:sync-token>http://example.com/ns/sync/1234&amp;5</D:sync-token>"));
+		
+		String multiget = EntityUtils.toString(dialect.generateMultigetRequestEntity(Arrays.asList("/calendar/a.ics", "/calendar/b.ics")));
+		Assert.assertTrue(multiget.contains("<D:href>/calendar/a.ics</D:href>"));
+		Assert.assertTrue(multiget.contains("<D:href>/calendar/b.ics</D:href>"));
+		Assert.assertTrue(multiget.contains("<C:calendar-data/>"));
+		
+		String etags = EntityUtils.toString(dialect.generateGetEtagsRequestEntity(CommonDateOperations.parseDatePhrase("20110502"), CommonDateOperations.parseDatePhrase("20110509")));
+		Assert.assertTrue(etags.contains("<D:getetag/>"));
+		Assert.assertFalse(etags.contains("calendar-data"));
+		Assert.assertTrue(etags.contains("<C:time-range"));
+		
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		for(String requestXml : Arrays.asList(initial, incremental, multiget, etags)) {
+			factory.newDocumentBuilder().parse(new ByteArrayInputStream(requestXml.getBytes("UTF-8")));
+		}
+	}
+	
+	@Test
+	public void testGenerateFreeBusyQueryRequest() throws Exception {
+		DefaultCaldavDialectImpl dialect = new DefaultCaldavDialectImpl();
+		Assert.assertFalse(dialect.isFreeBusyQuerySupported());
+		String requestXml = EntityUtils.toString(dialect.generateFreeBusyQueryRequestEntity(CommonDateOperations.parseDatePhrase("20110502"), CommonDateOperations.parseDatePhrase("20110509")));
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(requestXml.getBytes("UTF-8")));
+		Assert.assertEquals("free-busy-query", document.getDocumentElement().getLocalName());
+		Assert.assertEquals(1, document.getElementsByTagNameNS("urn:ietf:params:xml:ns:caldav", "time-range").getLength());
+	}
 }
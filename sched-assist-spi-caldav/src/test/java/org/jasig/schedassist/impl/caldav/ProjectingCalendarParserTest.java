@@ -0,0 +1,138 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.caldav;
+
+import java.io.StringReader;
+import java.util.Collections;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.parameter.PartStat;
+
+import org.jasig.schedassist.model.AppointmentRole;
+import org.jasig.schedassist.model.SchedulingAssistantAppointment;
+import org.jasig.schedassist.model.VisitorLimit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ProjectingCalendarParser}.
+ *
+ * @version $Id: ProjectingCalendarParserTest.java $
+ */
+public class ProjectingCalendarParserTest {
+
+	private static final String EXAMPLE = "BEGIN:VCALENDAR\r\n"
+		+ "VERSION:2.0\r\n"
+		+ "PRODID:-//jasig.org//Scheduling Assistant Examples//EN\r\n"
+		+ "BEGIN:VTIMEZONE\r\n"
+		+ "TZID:America/Chicago\r\n"
+		+ "BEGIN:DAYLIGHT\r\n"
+		+ "TZOFFSETFROM:-0600\r\n"
+		+ "TZOFFSETTO:-0500\r\n"
+		+ "TZNAME:CDT\r\n"
+		+ "DTSTART:19700308T020000\r\n"
+		+ "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU\r\n"
+		+ "END:DAYLIGHT\r\n"
+		+ "BEGIN:STANDARD\r\n"
+		+ "TZOFFSETFROM:-0500\r\n"
+		+ "TZOFFSETTO:-0600\r\n"
+		+ "TZNAME:CST\r\n"
+		+ "DTSTART:19701101T020000\r\n"
+		+ "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU\r\n"
+		+ "END:STANDARD\r\n"
+		+ "END:VTIMEZONE\r\n"
+		+ "BEGIN:VEVENT\r\n"
+		+ "UID:projection-test-1\r\n"
+		+ "SUMMARY:Group Appointment\r\n"
+		+ "DESCRIPTION:a long description that the visible schedule never reads\r\n"
+		+ "LOCATION:123 University Building\r\n"
+		+ "STATUS:CONFIRMED\r\n"
+		+ "ORGANIZER;CN=OWNER NAME;X-UW-AVAILABLE-APPOINTMENT-ROLE=OWNER:mailto:someone@wherever.org\r\n"
+		+ "DTSTART;TZID=America/Chicago:20110503T080000\r\n"
+		+ "DTEND;TZID=America/Chicago:20110503T090000\r\n"
+		+ "CLASS:PRIVATE\r\n"
+		+ "ATTENDEE;X-UW-AVAILABLE-APPOINTMENT-ROLE=VISITOR;CN=VISITOR NAME;PARTSTAT=DECLINED:mailto:somevisitor@wherever.org\r\n"
+		+ "X-UW-AVAILABLE-APPOINTMENT:TRUE\r\n"
+		+ "X-UW-AVAILABLE-VISITOR-LIMIT:5\r\n"
+		+ "X-SOME-OTHER-PROPERTY:value\r\n"
+		+ "BEGIN:VALARM\r\n"
+		+ "ACTION:DISPLAY\r\n"
+		+ "DESCRIPTION:Reminder\r\n"
+		+ "TRIGGER:-PT15M\r\n"
+		+ "END:VALARM\r\n"
+		+ "END:VEVENT\r\n"
+		+ "END:VCALENDAR\r\n";
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testProjection() throws Exception {
+		Calendar full = new CalendarBuilder().build(new StringReader(EXAMPLE));
+		Calendar projected = new CalendarBuilder(new ProjectingCalendarParser()).build(new StringReader(EXAMPLE));
+
+		Assert.assertEquals(full.getProperties(), projected.getProperties());
+		VTimeZone fullTimeZone = (VTimeZone) full.getComponent(Component.VTIMEZONE);
+		VTimeZone projectedTimeZone = (VTimeZone) projected.getComponent(Component.VTIMEZONE);
+		Assert.assertEquals(fullTimeZone, projectedTimeZone);
+		Assert.assertEquals(2, projectedTimeZone.getObservances().size());
+
+		VEvent fullEvent = (VEvent) full.getComponent(Component.VEVENT);
+		VEvent event = (VEvent) projected.getComponent(Component.VEVENT);
+		Assert.assertEquals(1, fullEvent.getAlarms().size());
+		Assert.assertEquals(0, event.getAlarms().size());
+		Assert.assertNull(event.getSummary());
+		Assert.assertNull(event.getDescription());
+		Assert.assertNull(event.getLocation());
+		Assert.assertNull(event.getClassification());
+		Assert.assertNull(event.getProperty("X-SOME-OTHER-PROPERTY"));
+
+		Assert.assertEquals(fullEvent.getUid(), event.getUid());
+		Assert.assertEquals(fullEvent.getStatus(), event.getStatus());
+		Assert.assertEquals(fullEvent.getStartDate().getDate(), event.getStartDate().getDate());
+		Assert.assertEquals(fullEvent.getEndDate().getDate(), event.getEndDate().getDate());
+		Assert.assertEquals(fullEvent.getOrganizer(), event.getOrganizer());
+		Property attendee = event.getProperty(Property.ATTENDEE);
+		Assert.assertEquals(PartStat.DECLINED, attendee.getParameter(PartStat.PARTSTAT));
+		Assert.assertEquals(AppointmentRole.VISITOR, attendee.getParameter(AppointmentRole.APPOINTMENT_ROLE));
+		Assert.assertEquals(SchedulingAssistantAppointment.TRUE, event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT));
+		Assert.assertEquals("5", event.getProperty(VisitorLimit.VISITOR_LIMIT).getValue());
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRetainedPropertyNames() throws Exception {
+		ProjectingCalendarParser parser = new ProjectingCalendarParser();
+		parser.setRetainedPropertyNames(Collections.singleton("summary"));
+		Calendar projected = new CalendarBuilder(parser).build(new StringReader(EXAMPLE));
+		VEvent event = (VEvent) projected.getComponent(Component.VEVENT);
+		Assert.assertEquals(1, event.getProperties().size());
+		Assert.assertEquals("Group Appointment", event.getSummary().getValue());
+	}
+}
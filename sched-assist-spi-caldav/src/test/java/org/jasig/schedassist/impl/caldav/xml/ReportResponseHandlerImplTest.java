@@ -22,6 +22,7 @@
  */
 package org.jasig.schedassist.impl.caldav.xml;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -33,7 +34,9 @@ import net.fortuna.ical4j.model.property.Organizer;
 import net.fortuna.ical4j.model.property.ProdId;
 
 import org.apache.commons.io.IOUtils;
+import org.jasig.schedassist.impl.caldav.CalendarCollectionDelta;
 import org.jasig.schedassist.impl.caldav.CalendarWithURI;
+import org.jasig.schedassist.impl.caldav.ProjectingCalendarParser;
 import org.jasig.schedassist.model.SchedulingAssistantAppointment;
 import org.junit.Assert;
 import org.junit.Test;
@@ -121,6 +124,35 @@ public class ReportResponseHandlerImplTest {
 		Assert.assertEquals(SchedulingAssistantAppointment.TRUE, event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT));
 	}
 	
+	@Test
+	public void testBedworkSchedulingAssistantProjected() throws IOException {
+		Resource controlExample = new ClassPathResource("caldav-examples/report-response-bedework-scheduling-assistant.xml");
+		
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		handler.setProjection(new ProjectingCalendarParser());
+		List<CalendarWithURI> calendars = handler.extractCalendars(controlExample.getInputStream());
+		Assert.assertEquals(1, calendars.size());
+		
+		CalendarWithURI withUri = calendars.get(0);
+		Assert.assertTrue(withUri.isProjected());
+		Assert.assertEquals("/ucaldav/user/schwag/calendar/68b9d022-7a39-41ec-97c7-0e0e7fca74a6.ics", withUri.getUri());
+		Assert.assertEquals("\"20110505T173152Z-0\"", withUri.getEtag());
+		Calendar cal = withUri.getCalendar();
+		Assert.assertEquals("//Bedework.org//BedeWork V3.7//EN", cal.getProductId().getValue());
+		
+		ComponentList components = cal.getComponents(VEvent.VEVENT);
+		Assert.assertEquals(1, components.size());
+		VEvent event = (VEvent) components.get(0);
+		Assert.assertNull(event.getSummary());
+		Assert.assertNull(event.getDescription());
+		Organizer organizer = event.getOrganizer();
+		Assert.assertNotNull(organizer);
+		Assert.assertEquals("mailto:schwag@mysite.org", organizer.getValue());
+		Assert.assertNotNull(event.getStartDate());
+		Assert.assertNotNull(event.getEndDate());
+		Assert.assertEquals(SchedulingAssistantAppointment.TRUE, event.getProperty(SchedulingAssistantAppointment.AVAILABLE_APPOINTMENT));
+	}
+	
 	@Test
 	public void testMultipleCalendarResponse() throws IOException {
 		Resource controlExample = new ClassPathResource("caldav-examples/report-response-multiple-calendars.xml");
@@ -150,6 +182,34 @@ public class ReportResponseHandlerImplTest {
 		Assert.assertEquals(2, components2.size());
 	}
 	
+	@Test
+	public void testSyncCollectionResponse() throws IOException {
+		Resource syncExample = new ClassPathResource("caldav-examples/sync-collection-response.xml");
+		
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		CalendarCollectionDelta delta = handler.extractCollectionDelta(syncExample.getInputStream());
+		Assert.assertEquals(0, delta.getCalendars().size());
+		Assert.assertEquals(2, delta.getEtags().size());
+		Assert.assertEquals("\"00001-abcd1\"", delta.getEtags().get("/home/cyrusdaboo/calendar/test.ics"));
+		Assert.assertEquals("\"00002-abcd1\"", delta.getEtags().get("/home/cyrusdaboo/calendar/vcard.ics"));
+		Assert.assertEquals(1, delta.getRemoved().size());
+		Assert.assertEquals("/home/cyrusdaboo/calendar/removed.ics", delta.getRemoved().get(0));
+		Assert.assertEquals("http://example.com/ns/sync/1234", delta.getSyncToken());
+	}
+	
+	@Test
+	public void testCollectionDeltaWithCalendars() throws IOException {
+		Resource controlExample = new ClassPathResource("caldav-examples/report-response-multiple-calendars.xml");
+		
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		CalendarCollectionDelta delta = handler.extractCollectionDelta(controlExample.getInputStream());
+		Assert.assertEquals(2, delta.getCalendars().size());
+		Assert.assertEquals("\"fffff-abcd2\"", delta.getEtags().get("http://cal.example.com/bernard/work/abcd2.ics"));
+		Assert.assertEquals("\"fffff-abcd3\"", delta.getEtags().get("http://cal.example.com/bernard/work/abcd3.ics"));
+		Assert.assertEquals(0, delta.getRemoved().size());
+		Assert.assertNull(delta.getSyncToken());
+	}
+	
 	@Test
 	public void testExtractCalendarScheduleStatus() throws IOException {
 		Resource scheduleStatusExample = new ClassPathResource("vevent-examples/example-individual-appointment-schedule-status.ics");
@@ -173,4 +233,105 @@ public class ReportResponseHandlerImplTest {
 			Assert.assertNotNull(withUri.getUri());
 		}
 	}
+	
+	/**
+	 * The streaming and String based paths produce the same results.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testStreamingMatchesElementText() throws IOException {
+		String [] examples = new String [] { "caldav-examples/report-response-single-calendar.xml",
+				"caldav-examples/report-response-bedework-single-calendar.xml",
+				"caldav-examples/report-response-bedework-scheduling-assistant.xml",
+				"caldav-examples/report-response-multiple-calendars.xml",
+				"caldav-examples/report-response-problem1.xml" };
+		ReportResponseHandlerImpl streaming = new ReportResponseHandlerImpl();
+		ReportResponseHandlerImpl elementText = new ReportResponseHandlerImpl();
+		elementText.setStreamingCalendarData(false);
+		for(String example : examples) {
+			List<CalendarWithURI> expected = elementText.extractCalendars(new ClassPathResource(example).getInputStream());
+			List<CalendarWithURI> actual = streaming.extractCalendars(new ClassPathResource(example).getInputStream());
+			Assert.assertEquals(example, expected.size(), actual.size());
+			for(int i = 0; i < expected.size(); i++) {
+				Assert.assertEquals(example, expected.get(i).getUri(), actual.get(i).getUri());
+				Assert.assertEquals(example, expected.get(i).getEtag(), actual.get(i).getEtag());
+				Assert.assertEquals(example, expected.get(i).getCalendar().toString(), actual.get(i).getCalendar().toString());
+			}
+		}
+	}
+	
+	/**
+	 * An unparseable calendar-data element is skipped, and parsing continues with the next response.
+	 */
+	@Test
+	public void testUnparseableCalendarSkipped() {
+		String xml = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>" +
+				"<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">" +
+				"<D:response><D:href>/bad.ics</D:href><D:propstat><D:prop><D:getetag>\"1\"</D:getetag>" +
+				"<C:calendar-data>BEGIN:VCALENDAR\nthis is not &amp; iCalendar\nmore text<![CDATA[ <and> ]]>\n</C:calendar-data>" +
+				"</D:prop></D:propstat></D:response>" +
+				"<D:response><D:href>/good.ics</D:href><D:propstat><D:prop><D:getetag>\"2\"</D:getetag>" +
+				"<C:calendar-data>BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Example//EN\r\nBEGIN:VEVENT\r\n" +
+				"UID:good-1\r\nDTSTAMP:20110101T000000Z\r\nDTSTART:20110103T150000Z\r\nDTEND:20110103T160000Z\r\n" +
+				"SUMMARY:Good &amp; valid\r\nEND:VEVENT\r\nEND:VCALENDAR\r\n</C:calendar-data>" +
+				"</D:prop></D:propstat></D:response>" +
+				"</D:multistatus>";
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		List<CalendarWithURI> calendars = handler.extractCalendars(new ByteArrayInputStream(xml.getBytes()));
+		Assert.assertEquals(1, calendars.size());
+		Assert.assertEquals("/good.ics", calendars.get(0).getUri());
+		Assert.assertEquals("\"2\"", calendars.get(0).getEtag());
+		VEvent event = (VEvent) calendars.get(0).getCalendar().getComponent(VEvent.VEVENT);
+		Assert.assertEquals("Good & valid", event.getSummary().getValue());
+	}
+	
+	/**
+	 * An element nested within calendar-data is malformed.
+	 */
+	@Test
+	public void testNestedElementInCalendarData() {
+		String xml = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>" +
+				"<D:multistatus xmlns:D=\"DAV:\" xmlns:C=\"urn:ietf:params:xml:ns:caldav\">" +
+				"<D:response><D:href>/nested.ics</D:href><D:propstat><D:prop>" +
+				"<C:calendar-data>BEGIN:VCALENDAR<D:href>/oops</D:href>END:VCALENDAR</C:calendar-data>" +
+				"</D:prop></D:propstat></D:response>" +
+				"</D:multistatus>";
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		try {
+			handler.extractCalendars(new ByteArrayInputStream(xml.getBytes()));
+			Assert.fail("expected XmlParsingException not thrown");
+		} catch (XmlParsingException e) {
+			// success
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testBoundedCapture() {
+		ReportResponseHandlerImpl.BoundedCapture capture = new ReportResponseHandlerImpl.BoundedCapture(10);
+		capture.write("0123456".getBytes(), 0, 7);
+		capture.write("789abcdef".getBytes(), 0, 9);
+		capture.write('g');
+		Assert.assertEquals(10, capture.size());
+		Assert.assertEquals(7, capture.getDiscarded());
+		Assert.assertEquals("0123456789... [7 more bytes not captured]", capture.toString());
+	}
+	
+	/**
+	 * 
+	 */
+	@Test
+	public void testCaptureSampling() {
+		ReportResponseHandlerImpl handler = new ReportResponseHandlerImpl();
+		handler.setCaptureSampleInterval(3);
+		Assert.assertTrue(handler.shouldCapture());
+		Assert.assertFalse(handler.shouldCapture());
+		Assert.assertFalse(handler.shouldCapture());
+		Assert.assertTrue(handler.shouldCapture());
+		handler.setCaptureSampleInterval(0);
+		Assert.assertFalse(handler.shouldCapture());
+	}
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.model.IScheduleOwner;
+
+/**
+ * Serializes work on a single appointment slot: an {@link IScheduleOwner}'s block starting at a given time.
+ * 
+ * Used by {@link SchedulingAssistantServiceImpl} so that concurrent visitors booking the same slot
+ * take turns, rather than racing each other through the calendar system.
+ * 
+ * @version $Id: AppointmentSlotLocks.java $
+ */
+public interface AppointmentSlotLocks {
+
+	/**
+	 * Invoke the callback while holding the lock for the owner's slot starting at blockStart.
+	 * 
+	 * @param owner
+	 * @param blockStart
+	 * @param callback
+	 * @return the result of the callback
+	 * @throws SchedulingException thrown by the callback, or if the lock cannot be acquired
+	 */
+	<T> T doWithLock(IScheduleOwner owner, Date blockStart, SlotCallback<T> callback) throws SchedulingException;
+	
+	/**
+	 * Work performed while holding the lock for a slot.
+	 */
+	interface SlotCallback<T> {
+		/**
+		 * 
+		 * @return the result
+		 * @throws SchedulingException
+		 */
+		T doWithLock() throws SchedulingException;
+	}
+}
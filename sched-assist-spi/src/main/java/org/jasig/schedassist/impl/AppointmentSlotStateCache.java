@@ -0,0 +1,186 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.IScheduleOwner;
+
+/**
+ * Remembers, for a short time, the appointment slots found unavailable (already full, or in conflict
+ * with the owner's calendar), so that {@link SchedulingAssistantServiceImpl} can refuse further requests for 
+ * the slot without contacting the calendar system.
+ * 
+ * Entries expire after {@link #getTimeToLiveMillis()}; changes made to the owner's calendar by other means 
+ * (e.g. the owner's calendar client, or another node) are noticed no later than that.
+ * 
+ * @version $Id: AppointmentSlotStateCache.java $
+ */
+public class AppointmentSlotStateCache {
+
+	/**
+	 * Why a slot is unavailable.
+	 */
+	public static enum SlotState {
+		/**
+		 * the appointment in the slot has reached the visitor limit
+		 */
+		FULL,
+		/**
+		 * the slot conflicts with an event in the owner's calendar
+		 */
+		CONFLICT;
+	}
+	
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private long timeToLiveMillis = 30000L;
+	private int maxEntries = 10000;
+	
+	/**
+	 * @return the timeToLiveMillis
+	 */
+	public long getTimeToLiveMillis() {
+		return timeToLiveMillis;
+	}
+	/**
+	 * How long a slot is remembered as unavailable. Default is 30000.
+	 * 
+	 * @param timeToLiveMillis the timeToLiveMillis to set
+	 */
+	public void setTimeToLiveMillis(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+	/**
+	 * @return the maxEntries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	/**
+	 * The number of slots remembered; when exceeded, expired entries are removed,
+	 * and if that is not enough all entries are discarded. Default is 10000.
+	 * 
+	 * @param maxEntries the maxEntries to set
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+	
+	/**
+	 * 
+	 * @param owner
+	 * @param block
+	 * @return the remembered state of the slot, or null if not known to be unavailable
+	 */
+	public SlotState get(IScheduleOwner owner, AvailableBlock block) {
+		String key = key(owner, block);
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			return null;
+		}
+		if(entry.isExpired(System.currentTimeMillis())) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.state;
+	}
+	/**
+	 * Remember the slot as unavailable.
+	 * 
+	 * @param owner
+	 * @param block
+	 * @param state
+	 */
+	public void put(IScheduleOwner owner, AvailableBlock block, SlotState state) {
+		if(timeToLiveMillis <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if(entries.size() >= maxEntries) {
+			removeExpired(now);
+			if(entries.size() >= maxEntries) {
+				entries.clear();
+			}
+		}
+		entries.put(key(owner, block), new Entry(state, now + timeToLiveMillis));
+	}
+	/**
+	 * Forget the slot, e.g. after a visitor cancels.
+	 * 
+	 * @param owner
+	 * @param block
+	 */
+	public void remove(IScheduleOwner owner, AvailableBlock block) {
+		entries.remove(key(owner, block));
+	}
+	/**
+	 * 
+	 * @return the number of slots remembered (including any expired)
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * 
+	 * @param now
+	 */
+	protected void removeExpired(long now) {
+		for(Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+			if(i.next().isExpired(now)) {
+				i.remove();
+			}
+		}
+	}
+	/**
+	 * 
+	 * @param owner
+	 * @param block
+	 * @return the key for the slot
+	 */
+	protected String key(IScheduleOwner owner, AvailableBlock block) {
+		StringBuilder key = new StringBuilder();
+		key.append(owner.getId());
+		key.append(':');
+		key.append(block.getStartTime().getTime());
+		key.append(':');
+		key.append(block.getEndTime().getTime());
+		return key.toString();
+	}
+	
+	/**
+	 * A remembered {@link SlotState} and when it expires.
+	 */
+	private static class Entry {
+		private final SlotState state;
+		private final long expires;
+		
+		Entry(SlotState state, long expires) {
+			this.state = state;
+			this.expires = expires;
+		}
+		boolean isExpired(long now) {
+			return now >= expires;
+		}
+	}
+}
@@ -20,10 +20,21 @@
 package org.jasig.schedassist.impl;
 
 import java.util.Date;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jasig.schedassist.model.IScheduleOwner;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -31,17 +42,208 @@ import org.springframework.stereotype.Service;
 /**
  * Asynchronous implementation of {@link AvailableScheduleReflectionService}.
  * 
- * Reflect operations are asynchronous and depend on periodic executions of
- * {@link #run()} or {@link #processReflectQueue()}.
+ * Reflect operations are queued, and performed by a pool of {@link #getThreads()} worker threads.
+ * The queue holds each owner at most once: a request for an owner already waiting replaces the queued owner
+ * and postpones it by {@link #getSettleMillis()}, so a burst of changes to one schedule results in a single reflection
+ * (the delay also lets the transaction that changed the schedule commit). An owner is reflected by at most one worker
+ * at a time; a request arriving during the reflection waits for it to complete.
+ * 
+ * A reflection that fails with a {@link RuntimeException} (e.g. the calendar server is unavailable) is retried,
+ * up to {@link #getMaxAttempts()} attempts, after {@link #getRetryBackoffMillis()} doubled for each failed attempt.
+ * 
+ * {@link #run()} (or {@link #processReflectQueue()}) dispatches waiting owners to the workers; it is invoked
+ * periodically as well as after each request and each completed reflection.
  * 
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: AsyncAvailableScheduleReflectionServiceImpl.java $
  */
 @Service("availableScheduleReflectionService")
 public class AsyncAvailableScheduleReflectionServiceImpl extends
-		DefaultAvailableScheduleReflectionServiceImpl implements Runnable {
+		DefaultAvailableScheduleReflectionServiceImpl implements Runnable, AvailableScheduleReflectionQueue, InitializingBean, DisposableBean {
 
-	private final Queue<IScheduleOwner> reflectQueue = new LinkedBlockingDeque<IScheduleOwner>();
+	private final Map<Long, QueuedOwner> reflectQueue = new LinkedHashMap<Long, QueuedOwner>();
+	private final Set<Long> activeOwners = new HashSet<Long>();
+	private ScheduledExecutorService executor;
+	private int threads = 2;
+	private long settleMillis = 5000L;
+	private int maxAttempts = 5;
+	private long retryBackoffMillis = 60000L;
+	private final AtomicLong processedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong totalLatencyMillis = new AtomicLong();
+	private final AtomicLong maxLatencyMillis = new AtomicLong();
+	private final Runnable dispatcher = new Runnable() {
+		@Override
+		public void run() {
+			processReflectQueue();
+		}
+	};
+	
+	/**
+	 * @return the threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	/**
+	 * The number of owners that may be reflected at once. Default is 2.
+	 * Each reflection holds a database connection for its duration.
+	 * 
+	 * @param threads the threads to set
+	 */
+	@Value("${reflection.threads:2}")
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	/**
+	 * @return the settleMillis
+	 */
+	public long getSettleMillis() {
+		return settleMillis;
+	}
+	/**
+	 * The time an owner waits after the latest request before being reflected. Default is 5000.
+	 * 
+	 * @param settleMillis the settleMillis to set
+	 */
+	@Value("${reflection.settleMillis:5000}")
+	public void setSettleMillis(long settleMillis) {
+		this.settleMillis = settleMillis;
+	}
+	/**
+	 * @return the maxAttempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	/**
+	 * The number of times a failing reflection is attempted. Default is 5.
+	 * 
+	 * @param maxAttempts the maxAttempts to set
+	 */
+	@Value("${reflection.maxAttempts:5}")
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+	/**
+	 * @return the retryBackoffMillis
+	 */
+	public long getRetryBackoffMillis() {
+		return retryBackoffMillis;
+	}
+	/**
+	 * The wait before the first retry of a failed reflection, doubled for each further retry. Default is 60000.
+	 * 
+	 * @param retryBackoffMillis the retryBackoffMillis to set
+	 */
+	@Value("${reflection.retryBackoffMillis:60000}")
+	public void setRetryBackoffMillis(long retryBackoffMillis) {
+		this.retryBackoffMillis = retryBackoffMillis;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getQueueDepth()
+	 */
+	@Override
+	public int getQueueDepth() {
+		synchronized (reflectQueue) {
+			return reflectQueue.size();
+		}
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getActiveCount()
+	 */
+	@Override
+	public int getActiveCount() {
+		synchronized (reflectQueue) {
+			return activeOwners.size();
+		}
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getProcessedCount()
+	 */
+	@Override
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getCoalescedCount()
+	 */
+	@Override
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getRetryCount()
+	 */
+	@Override
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getFailedCount()
+	 */
+	@Override
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getAverageLatencyMillis()
+	 */
+	@Override
+	public long getAverageLatencyMillis() {
+		long processed = processedCount.get();
+		return processed == 0 ? 0 : totalLatencyMillis.get() / processed;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#getMaxLatencyMillis()
+	 */
+	@Override
+	public long getMaxLatencyMillis() {
+		return maxLatencyMillis.get();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AvailableScheduleReflectionQueue#resetStatistics()
+	 */
+	@Override
+	public void resetStatistics() {
+		processedCount.set(0);
+		coalescedCount.set(0);
+		retryCount.set(0);
+		failedCount.set(0);
+		totalLatencyMillis.set(0);
+		maxLatencyMillis.set(0);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.executor = Executors.newScheduledThreadPool(threads);
+	}
+	/**
+	 * Invokes {@link ScheduledExecutorService#shutdownNow()}; waiting owners are discarded.
+	 * 
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
 	
 	/*
 	 * (non-Javadoc)
@@ -49,12 +251,23 @@ public class AsyncAvailableScheduleReflectionServiceImpl extends
 	 */
 	@Override
 	public void reflectAvailableSchedule(IScheduleOwner owner) {
-		if(null != owner && !this.reflectQueue.contains(owner) && owner.isReflectSchedule()) {
-			// push owner into reflect queue
-			boolean added = this.reflectQueue.add(owner);
-			if(added) {
-				LOG.info("added owner to reflection queue: " + owner);
+		if(null != owner && owner.isReflectSchedule()) {
+			final long now = System.currentTimeMillis();
+			synchronized (reflectQueue) {
+				QueuedOwner queued = reflectQueue.get(owner.getId());
+				if(queued != null) {
+					queued.owner = owner;
+					queued.notBefore = Math.max(queued.notBefore, now + settleMillis);
+					coalescedCount.incrementAndGet();
+					if(LOG.isDebugEnabled()) {
+						LOG.debug("owner already in reflection queue: " + owner);
+					}
+				} else {
+					reflectQueue.put(owner.getId(), new QueuedOwner(owner, now, now + settleMillis));
+					LOG.info("added owner to reflection queue: " + owner);
+				}
 			}
+			scheduleDispatch(settleMillis);
 		}
 	}
 	
@@ -66,31 +279,120 @@ public class AsyncAvailableScheduleReflectionServiceImpl extends
 	@Override
 	public void purgeReflections(IScheduleOwner owner, Date start, Date end) {
 		// remove the owner from the reflection queue if they are present
-		this.reflectQueue.remove(owner);
+		synchronized (reflectQueue) {
+			this.reflectQueue.remove(owner.getId());
+		}
 		super.purgeReflections(owner, start, end);
 	}
 
 	/**
-	 * Walks through the internal queue, calling {@link #processScheduleOwner(IScheduleOwner)}
-	 * on each entry.
+	 * Hand the waiting owners that are due (and not already being reflected) to the workers,
+	 * while fewer than {@link #getThreads()} reflections are running.
 	 */
 	protected void processReflectQueue() {
-		// iterate through queue
-		while(!this.reflectQueue.isEmpty()) {
-			// pop owner from queue
-			final IScheduleOwner owner = this.reflectQueue.poll();
-			if(owner == null) {
-				break;
+		final long now = System.currentTimeMillis();
+		synchronized (reflectQueue) {
+			Iterator<QueuedOwner> i = reflectQueue.values().iterator();
+			while(i.hasNext() && activeOwners.size() < threads) {
+				final QueuedOwner queued = i.next();
+				if(queued.notBefore > now || activeOwners.contains(queued.owner.getId())) {
+					continue;
+				}
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							reflect(queued);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					LOG.warn("reflection executor shut down, " + reflectQueue.size() + " owners left in queue");
+					return;
+				}
+				i.remove();
+				activeOwners.add(queued.owner.getId());
 			}
+		}
+	}
+	
+	/**
+	 * Reflect the owner's schedule; on failure, queue the owner to be retried.
+	 * 
+	 * @param queued
+	 */
+	protected void reflect(QueuedOwner queued) {
+		final IScheduleOwner owner = queued.owner;
+		try {
 			boolean success = processScheduleOwner(owner);
 			if(!success) {
 				LOG.warn("failed to process owner " + owner);
 			}
+			long latency = System.currentTimeMillis() - queued.firstQueued;
+			processedCount.incrementAndGet();
+			totalLatencyMillis.addAndGet(latency);
+			long max = maxLatencyMillis.get();
+			while(latency > max && !maxLatencyMillis.compareAndSet(max, latency)) {
+				max = maxLatencyMillis.get();
+			}
+		} catch (RuntimeException e) {
+			queued.attempts++;
+			if(queued.attempts < maxAttempts) {
+				long backoff = retryBackoffMillis << Math.min(queued.attempts - 1, 16);
+				LOG.warn("reflection attempt " + queued.attempts + " failed for owner " + owner + ", retrying in " + backoff + " ms", e);
+				retryCount.incrementAndGet();
+				requeue(queued, System.currentTimeMillis() + backoff);
+				scheduleDispatch(backoff);
+			} else {
+				failedCount.incrementAndGet();
+				LOG.error("reflection failed for owner " + owner + " after " + queued.attempts + " attempts", e);
+			}
+		} finally {
+			synchronized (reflectQueue) {
+				activeOwners.remove(owner.getId());
+			}
+			processReflectQueue();
+		}
+	}
+	
+	/**
+	 * Return the owner to the queue, to be reflected no sooner than notBefore.
+	 * If the owner was queued again during the failed attempt, the newer request is kept.
+	 * 
+	 * @param queued
+	 * @param notBefore
+	 */
+	protected void requeue(QueuedOwner queued, long notBefore) {
+		synchronized (reflectQueue) {
+			QueuedOwner newer = reflectQueue.get(queued.owner.getId());
+			if(newer != null) {
+				newer.firstQueued = Math.min(newer.firstQueued, queued.firstQueued);
+				newer.attempts = queued.attempts;
+				newer.notBefore = Math.max(newer.notBefore, notBefore);
+			} else {
+				queued.notBefore = notBefore;
+				reflectQueue.put(queued.owner.getId(), queued);
+			}
 		}
 	}
 	
 	/**
-	 * Processes the reflection queue.
+	 * Invoke {@link #processReflectQueue()} on the executor after the delay.
+	 * 
+	 * @param delayMillis
+	 */
+	protected void scheduleDispatch(long delayMillis) {
+		if(executor == null) {
+			return;
+		}
+		try {
+			executor.schedule(dispatcher, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			LOG.debug("reflection executor shut down, dispatch not scheduled");
+		}
+	}
+	
+	/**
+	 * Dispatches the reflection queue; a safety net for dispatches scheduled after requests and retries.
 	 * 
 	 * @see #processReflectQueue()
 	 * @see java.lang.Runnable#run()
@@ -100,4 +402,25 @@ public class AsyncAvailableScheduleReflectionServiceImpl extends
 	public void run() {
 		processReflectQueue();
 	}
+	
+	/**
+	 * An owner in the reflection queue.
+	 */
+	protected static class QueuedOwner {
+		private IScheduleOwner owner;
+		private long firstQueued;
+		private long notBefore;
+		private int attempts = 0;
+		/**
+		 * 
+		 * @param owner
+		 * @param firstQueued
+		 * @param notBefore
+		 */
+		QueuedOwner(IScheduleOwner owner, long firstQueued, long notBefore) {
+			this.owner = owner;
+			this.firstQueued = firstQueued;
+			this.notBefore = notBefore;
+		}
+	}
 }
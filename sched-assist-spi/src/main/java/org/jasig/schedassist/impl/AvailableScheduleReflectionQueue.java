@@ -0,0 +1,65 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+/**
+ * Statistics for an {@link AvailableScheduleReflectionService} that reflects schedules from a queue.
+ * 
+ * @version $Id: AvailableScheduleReflectionQueue.java $
+ */
+public interface AvailableScheduleReflectionQueue {
+
+	/**
+	 * @return the number of owners waiting to be reflected
+	 */
+	int getQueueDepth();
+	/**
+	 * @return the number of owners being reflected
+	 */
+	int getActiveCount();
+	/**
+	 * @return the number of owners whose schedule has been reflected
+	 */
+	long getProcessedCount();
+	/**
+	 * @return the number of requests for owners already waiting
+	 */
+	long getCoalescedCount();
+	/**
+	 * @return the number of failed reflections queued to be retried
+	 */
+	long getRetryCount();
+	/**
+	 * @return the number of owners that could not be reflected after all retries
+	 */
+	long getFailedCount();
+	/**
+	 * @return the average time, in milliseconds, from the first request for an owner to the completion of its reflection
+	 */
+	long getAverageLatencyMillis();
+	/**
+	 * @return the longest time, in milliseconds, from the first request for an owner to the completion of its reflection
+	 */
+	long getMaxLatencyMillis();
+	/**
+	 * Reset all counters to 0.
+	 */
+	void resetStatistics();
+}
@@ -0,0 +1,280 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.SchedulingAssistantService;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.IScheduleVisitor;
+import org.jasig.schedassist.model.VisibleSchedule;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Runs requests that wait on the calendar system (e.g. building a visitor's view of an owner's schedule)
+ * on a dedicated, bounded pool of threads, so that a slow calendar server cannot tie up every
+ * thread of the servlet container.
+ *
+ * At most {@link #getThreads()} requests run at once and at most {@link #getQueueCapacity()} wait to run;
+ * further requests are refused immediately. A caller waits at most {@link #getTimeoutMillis()} for its request;
+ * in both cases a {@link CalendarRequestRejectedException} is thrown, which should be reported as "service unavailable".
+ * A request that times out is cancelled, and its thread interrupted.
+ * 
+ * Interrupting the thread does not stop a blocking socket read (e.g. a CalDAV request in HttpClient), so
+ * a request the caller has stopped waiting for may keep its thread until the read returns or fails;
+ * for the CalDAV calendar data dao, each read is bounded by the socket timeout (caldav.http.soTimeout).
+ * The calling thread waits no longer than {@link #getTimeoutMillis()}, but the threads of this executor
+ * are only released as fast as the calendar server answers or the socket timeout elapses.
+ * {@link #getAbandonedRunningCount()} reports the requests in that state.
+ *
+ * This class implements {@link DisposableBean}; {@link #destroy()} invokes {@link ThreadPoolExecutor#shutdownNow()}.
+ *
+ * @version $Id: BoundedCalendarRequestExecutor.java $
+ */
+public class BoundedCalendarRequestExecutor implements DisposableBean {
+
+	protected final Log log = LogFactory.getLog(this.getClass());
+	private final ThreadPoolExecutor executor;
+	private final int queueCapacity;
+	private volatile long timeoutMillis = 30000L;
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicInteger abandonedRunningCount = new AtomicInteger();
+
+	/**
+	 *
+	 * @param threads the number of requests that may run at once
+	 * @param queueCapacity the number of requests that may wait to run
+	 */
+	public BoundedCalendarRequestExecutor(int threads, int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	/**
+	 * @return the timeoutMillis
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+	/**
+	 * The longest a caller waits for its request to complete. Default is 30000.
+	 *
+	 * @param timeoutMillis the timeoutMillis to set
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+	/**
+	 * @return the number of requests that may run at once
+	 */
+	public int getThreads() {
+		return executor.getMaximumPoolSize();
+	}
+	/**
+	 * @return the number of requests that may wait to run
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	/**
+	 * @return the number of requests running
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+	/**
+	 * @return the number of requests waiting to run
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+	/**
+	 * @return the number of calls to {@link #execute(Callable)}
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+	/**
+	 * @return the number of requests refused because the executor was saturated
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	/**
+	 * @return the number of requests that did not complete within the timeout
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	/**
+	 * @return the number of requests the caller has stopped waiting for (timeout or interrupt) that still occupy a thread
+	 */
+	public int getAbandonedRunningCount() {
+		return abandonedRunningCount.get();
+	}
+	/**
+	 * Reset all counters to 0.
+	 */
+	public void resetStatistics() {
+		requestCount.set(0);
+		rejectedCount.set(0);
+		timeoutCount.set(0);
+	}
+
+	/**
+	 * Run the task on the executor and wait for its result.
+	 *
+	 * @param task
+	 * @return the result of the task
+	 * @throws CalendarRequestRejectedException if the executor is saturated, the timeout elapses, or the calling thread is interrupted
+	 * @throws RuntimeException (or {@link Error}) thrown by the task
+	 * @throws IllegalStateException if the task throws a checked exception
+	 */
+	public <T> T execute(Callable<T> task) {
+		requestCount.incrementAndGet();
+		TrackedTask<T> tracked = new TrackedTask<T>(task);
+		Future<T> future;
+		try {
+			future = executor.submit(tracked);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			log.warn("rejecting calendar request, " + getActiveCount() + " active and " + getQueueDepth() + " waiting");
+			throw new CalendarRequestRejectedException("calendar request rejected, executor saturated", e);
+		}
+		try {
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			timeoutCount.incrementAndGet();
+			abandon(future, tracked);
+			log.warn("calendar request did not complete within " + timeoutMillis + " milliseconds");
+			throw new CalendarRequestRejectedException("calendar request timed out", e);
+		} catch (InterruptedException e) {
+			abandon(future, tracked);
+			Thread.currentThread().interrupt();
+			throw new CalendarRequestRejectedException("interrupted waiting for calendar request", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+	/**
+	 * Build the visitor's view of the owner's schedule on this executor.
+	 * 
+	 * @param schedulingAssistantService
+	 * @param visitor
+	 * @param owner
+	 * @param start the start of the window, or null for the owner's whole window
+	 * @param end the end of the window, or null for the owner's whole window
+	 * @return the visible schedule
+	 * @throws CalendarRequestRejectedException if the executor is saturated or the request times out
+	 */
+	public VisibleSchedule getVisibleSchedule(final SchedulingAssistantService schedulingAssistantService,
+			final IScheduleVisitor visitor, final IScheduleOwner owner, final Date start, final Date end) {
+		return execute(new Callable<VisibleSchedule>() {
+			@Override
+			public VisibleSchedule call() {
+				if(start == null) {
+					return schedulingAssistantService.getVisibleSchedule(visitor, owner);
+				}
+				return schedulingAssistantService.getVisibleSchedule(visitor, owner, start, end);
+			}
+		});
+	}
+	/**
+	 * Cancel the future; if the task had already started, count it in {@link #getAbandonedRunningCount()}
+	 * until it returns.
+	 * 
+	 * @param future
+	 * @param tracked
+	 */
+	private void abandon(Future<?> future, TrackedTask<?> tracked) {
+		future.cancel(true);
+		if(tracked.state.compareAndSet(TrackedTask.RUNNING, TrackedTask.ABANDONED)) {
+			abandonedRunningCount.incrementAndGet();
+		} else {
+			// not started yet: the task will not run
+			tracked.state.compareAndSet(TrackedTask.NEW, TrackedTask.ABANDONED);
+		}
+	}
+	/**
+	 * Invokes {@link ThreadPoolExecutor#shutdownNow()}.
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * {@link Callable} that records whether it is running and whether its caller has stopped waiting for it.
+	 */
+	private class TrackedTask<T> implements Callable<T> {
+		static final int NEW = 0;
+		static final int RUNNING = 1;
+		static final int ABANDONED = 2;
+		static final int DONE = 3;
+
+		private final Callable<T> task;
+		private final AtomicInteger state = new AtomicInteger(NEW);
+
+		TrackedTask(Callable<T> task) {
+			this.task = task;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public T call() throws Exception {
+			if(!state.compareAndSet(NEW, RUNNING)) {
+				throw new CancellationException("calendar request abandoned before it started");
+			}
+			try {
+				return task.call();
+			} finally {
+				if(state.getAndSet(DONE) == ABANDONED) {
+					abandonedRunningCount.decrementAndGet();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+/**
+ * {@link RuntimeException} raised by {@link BoundedCalendarRequestExecutor} when a request
+ * is refused because the executor is saturated, or is not completed within the timeout.
+ *
+ * @version $Id: CalendarRequestRejectedException.java $
+ */
+public class CalendarRequestRejectedException extends RuntimeException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2217302937453563617L;
+
+	/**
+	 * @param message
+	 */
+	public CalendarRequestRejectedException(String message) {
+		super(message);
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public CalendarRequestRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.apache.commons.lang.Validate;
+import org.jasig.schedassist.model.DefaultEventUtilsImpl;
+import org.jasig.schedassist.model.RecurrenceExpansion;
+import org.jasig.schedassist.model.RecurrenceExpansionCache;
+
+/**
+ * {@link RecurrenceExpansionCache} backed by an {@link Ehcache}, for {@link DefaultEventUtilsImpl}.
+ * 
+ * ehcache 2.1 has no byte-based sizing; bound the backing cache with maxElementsInMemory and 
+ * a memoryStoreEvictionPolicy (the size of any one element is bounded by 
+ * {@link DefaultEventUtilsImpl#setMaxCachedRecurrencePeriods(int)}).
+ *
+ * @version $Id: EhcacheRecurrenceExpansionCache.java $
+ */
+public class EhcacheRecurrenceExpansionCache implements RecurrenceExpansionCache {
+
+	private final Ehcache cache;
+	
+	/**
+	 * 
+	 * @param cache
+	 */
+	public EhcacheRecurrenceExpansionCache(Ehcache cache) {
+		Validate.notNull(cache, "cache cannot be null");
+		this.cache = cache;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.RecurrenceExpansionCache#get(java.lang.String)
+	 */
+	@Override
+	public RecurrenceExpansion get(String key) {
+		Element element = this.cache.get(key);
+		return element == null ? null : (RecurrenceExpansion) element.getObjectValue();
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.model.RecurrenceExpansionCache#put(java.lang.String, org.jasig.schedassist.model.RecurrenceExpansion)
+	 */
+	@Override
+	public void put(String key, RecurrenceExpansion expansion) {
+		this.cache.put(new Element(key, expansion));
+	}
+}
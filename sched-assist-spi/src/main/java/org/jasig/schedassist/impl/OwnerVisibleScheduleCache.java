@@ -0,0 +1,239 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.impl.events.AbstractAppointmentEvent;
+import org.jasig.schedassist.impl.events.AutomaticAppointmentCancellationEvent;
+import org.jasig.schedassist.impl.events.AutomaticAttendeeRemovalEvent;
+import org.jasig.schedassist.impl.events.AvailableScheduleChangedEvent;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.OwnerVisibleSchedule;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Per-owner cache of {@link OwnerVisibleSchedule}s for {@link SchedulingAssistantServiceImpl}.
+ *
+ * Entries are keyed by the owner's calendar unique id and are evicted when an event
+ * that changes the owner's schedule or appointments is published:
+ * {@link AvailableScheduleChangedEvent}, any {@link AbstractAppointmentEvent},
+ * {@link AutomaticAppointmentCancellationEvent} and {@link AutomaticAttendeeRemovalEvent}.
+ * Changes made to the owner's calendar outside of this application are only picked up when the entry expires,
+ * so the backing {@link Ehcache} should have a short timeToLive.
+ *
+ * A schedule calculated from data read before an eviction is never stored: every eviction
+ * advances the owner's generation, which {@link #put(IScheduleOwner, OwnerVisibleSchedule, long)} checks
+ * and stores under the same per-owner lock.
+ * 
+ * Events published within a transaction evict after the transaction commits, so that a schedule
+ * read between the event and the commit (from the data before the change) is not left in the cache.
+ *
+ * @version $Id: OwnerVisibleScheduleCache.java $
+ */
+public class OwnerVisibleScheduleCache implements ApplicationListener<ApplicationEvent> {
+
+	private final Ehcache cache;
+	private final ConcurrentMap<String, Generation> generations = new ConcurrentHashMap<String, Generation>();
+	private long windowExtensionMinutes = 10;
+	private Log LOG = LogFactory.getLog(this.getClass());
+
+	/**
+	 *
+	 * @param cache
+	 */
+	public OwnerVisibleScheduleCache(Ehcache cache) {
+		Validate.notNull(cache, "cache cannot be null");
+		this.cache = cache;
+	}
+	/**
+	 * The owner's visible window moves forward with the current time. Cached schedules are calculated for
+	 * a window this many minutes longer than requested, so that an entry continues to cover the
+	 * owner's window for this long. Should be no shorter than the timeToLive of the cache. Default is 10.
+	 *
+	 * @param windowExtensionMinutes the windowExtensionMinutes to set
+	 */
+	public void setWindowExtensionMinutes(long windowExtensionMinutes) {
+		this.windowExtensionMinutes = windowExtensionMinutes;
+	}
+	/**
+	 * @return the windowExtensionMinutes
+	 */
+	public long getWindowExtensionMinutes() {
+		return windowExtensionMinutes;
+	}
+	/**
+	 *
+	 * @param ownerAccount
+	 * @return the owner's current generation, to be passed to {@link #put(IScheduleOwner, OwnerVisibleSchedule, long)}
+	 */
+	public long getGeneration(ICalendarAccount ownerAccount) {
+		Generation generation = getGenerationInternal(ownerAccount.getCalendarUniqueId());
+		synchronized (generation) {
+			return generation.value;
+		}
+	}
+	/**
+	 *
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @return the cached {@link OwnerVisibleSchedule} for the owner if it covers the window and the owner's preferred meeting durations are unchanged, otherwise null
+	 */
+	public OwnerVisibleSchedule get(IScheduleOwner owner, Date startTime, Date endTime) {
+		Element element = this.cache.get(owner.getCalendarAccount().getCalendarUniqueId());
+		if(element == null) {
+			return null;
+		}
+		CachedSchedule cached = (CachedSchedule) element.getObjectValue();
+		if(!cached.meetingDurationsKey.equals(owner.getPreferredMeetingDurations().getKey())
+				|| !cached.schedule.covers(startTime, endTime)) {
+			return null;
+		}
+		return cached.schedule;
+	}
+	/**
+	 * Store the schedule, unless the owner's schedule has been evicted since the generation argument was obtained.
+	 *
+	 * @param owner
+	 * @param schedule
+	 * @param generation the value of {@link #getGeneration(ICalendarAccount)} before the schedule's data was read
+	 * @return true if the schedule was stored
+	 */
+	public boolean put(IScheduleOwner owner, OwnerVisibleSchedule schedule, long generation) {
+		final String key = owner.getCalendarAccount().getCalendarUniqueId();
+		Generation current = getGenerationInternal(key);
+		synchronized (current) {
+			if(current.value != generation) {
+				if(LOG.isDebugEnabled()) {
+					LOG.debug("not caching schedule for " + owner + ", evictions occurred while it was calculated");
+				}
+				return false;
+			}
+			this.cache.put(new Element(key, new CachedSchedule(owner.getPreferredMeetingDurations().getKey(), schedule)));
+			return true;
+		}
+	}
+	/**
+	 * Remove the owner's schedule and advance the owner's generation.
+	 * 
+	 * @param ownerAccount
+	 */
+	public void evict(ICalendarAccount ownerAccount) {
+		if(ownerAccount == null) {
+			return;
+		}
+		final String key = ownerAccount.getCalendarUniqueId();
+		Generation current = getGenerationInternal(key);
+		synchronized (current) {
+			current.value++;
+			this.cache.remove(key);
+		}
+	}
+	/**
+	 * {@link #evict(ICalendarAccount)} after the current transaction commits, or immediately if
+	 * no transaction synchronization is active.
+	 * 
+	 * @param ownerAccount
+	 */
+	protected void evictAfterCommit(final ICalendarAccount ownerAccount) {
+		if(ownerAccount == null) {
+			return;
+		}
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					evict(ownerAccount);
+				}
+			});
+		} else {
+			evict(ownerAccount);
+		}
+	}
+	/**
+	 * 
+	 * @param key
+	 * @return the {@link Generation} for the key, created if necessary
+	 */
+	private Generation getGenerationInternal(String key) {
+		Generation generation = this.generations.get(key);
+		if(generation == null) {
+			Generation created = new Generation();
+			generation = this.generations.putIfAbsent(key, created);
+			if(generation == null) {
+				generation = created;
+			}
+		}
+		return generation;
+	}
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if(event instanceof AbstractAppointmentEvent) {
+			evictAfterCommit(((AbstractAppointmentEvent) event).getOwner().getCalendarAccount());
+		} else if (event instanceof AvailableScheduleChangedEvent) {
+			evictAfterCommit(((AvailableScheduleChangedEvent) event).getOwner().getCalendarAccount());
+		} else if (event instanceof AutomaticAppointmentCancellationEvent) {
+			evictAfterCommit(((AutomaticAppointmentCancellationEvent) event).getOwner());
+		} else if (event instanceof AutomaticAttendeeRemovalEvent) {
+			evictAfterCommit(((AutomaticAttendeeRemovalEvent) event).getOwner());
+		}
+	}
+
+	/**
+	 * Per-owner eviction counter; guarded by its own monitor.
+	 */
+	private static class Generation {
+		private long value;
+	}
+	/**
+	 * Cache value.
+	 */
+	private static class CachedSchedule implements Serializable {
+		private static final long serialVersionUID = 53706L;
+		private final String meetingDurationsKey;
+		private final OwnerVisibleSchedule schedule;
+		/**
+		 * @param meetingDurationsKey
+		 * @param schedule
+		 */
+		CachedSchedule(String meetingDurationsKey, OwnerVisibleSchedule schedule) {
+			this.meetingDurationsKey = meetingDurationsKey;
+			this.schedule = schedule;
+		}
+	}
+}
@@ -23,31 +23,40 @@ import java.util.Date;
 import java.util.List;
 
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 import net.fortuna.ical4j.model.component.VEvent;
 
 import org.apache.commons.lang.Validate;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.ConditionalCalendarDataDao;
+import org.jasig.schedassist.ConflictExistsException;
+import org.jasig.schedassist.FreeBusyDataDao;
 import org.jasig.schedassist.ICalendarDataDao;
 import org.jasig.schedassist.NoAppointmentExistsException;
 import org.jasig.schedassist.SchedulingAssistantService;
 import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.impl.AppointmentSlotStateCache.SlotState;
 import org.jasig.schedassist.impl.events.AppointmentCancelledEvent;
 import org.jasig.schedassist.impl.events.AppointmentCreatedEvent;
 import org.jasig.schedassist.impl.events.AppointmentJoinedEvent;
 import org.jasig.schedassist.impl.events.AppointmentLeftEvent;
 import org.jasig.schedassist.impl.owner.AvailableScheduleDao;
 import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
 import org.jasig.schedassist.model.AvailableSchedule;
 import org.jasig.schedassist.model.AvailableVersion;
 import org.jasig.schedassist.model.IEventUtils;
 import org.jasig.schedassist.model.IScheduleOwner;
 import org.jasig.schedassist.model.IScheduleVisitor;
 import org.jasig.schedassist.model.IVisibleScheduleBuilder;
+import org.jasig.schedassist.model.OwnerVisibleSchedule;
 import org.jasig.schedassist.model.VisibleSchedule;
 import org.jasig.schedassist.model.VisibleWindow;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.stereotype.Service;
@@ -55,8 +64,10 @@ import org.springframework.stereotype.Service;
 /**
  * Default implementation of {@link SchedulingAssistantService}.
  * 
- * Note that the scheduleAppointment method is synchronized, as there is
- * no guarantees that the {@link CalendarDao} will reject event creation in case of conflict.
+ * Note that scheduleAppointment and cancelAppointment hold the {@link AppointmentSlotLocks} lock for the slot,
+ * as there is no guarantee that the {@link CalendarDao} will reject event creation in case of conflict.
+ * Slots found unavailable are remembered by the {@link AppointmentSlotStateCache}, so visitors
+ * waiting on the lock for a slot that has just been filled are refused without contacting the calendar system.
  * 
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: AvailableServiceImpl.java 2891 2010-11-11 16:19:39Z npblair $
@@ -69,7 +80,15 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 	private ApplicationEventPublisher applicationEventPublisher;
 	private IVisibleScheduleBuilder visibleScheduleBuilder;
 	private IEventUtils eventUtils;
+	private OwnerVisibleScheduleCache ownerVisibleScheduleCache;
+	private FreeBusyDataDao freeBusyDataDao;
+	private ConditionalCalendarDataDao conditionalCalendarDataDao;
+	private boolean optimisticBooking = false;
+	private AppointmentSlotLocks appointmentSlotLocks = new StripedAppointmentSlotLocks();
+	private AppointmentSlotStateCache appointmentSlotStateCache = new AppointmentSlotStateCache();
 	private Log LOG = LogFactory.getLog(this.getClass());
+	
+	static final String VISITOR_LIMIT_MET_MESSAGE = "visitor limit for this appointment has been met";
 
 	/*
 	 * (non-Javadoc)
@@ -110,6 +129,67 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 	public void setEventUtils(IEventUtils eventUtils) {
 		this.eventUtils = eventUtils;
 	}
+	/**
+	 * Optional; if set, {@link #getVisibleSchedule(IScheduleVisitor, IScheduleOwner, Date, Date)} reuses
+	 * the owner's schedule between visitors.
+	 * 
+	 * @param ownerVisibleScheduleCache the ownerVisibleScheduleCache to set
+	 */
+	@Autowired(required=false)
+	public void setOwnerVisibleScheduleCache(OwnerVisibleScheduleCache ownerVisibleScheduleCache) {
+		this.ownerVisibleScheduleCache = ownerVisibleScheduleCache;
+	}
+	/**
+	 * Optional; if set, {@link #calculateVisitorConflicts(IScheduleVisitor, IScheduleOwner, Date, Date)} uses the
+	 * visitor's busy periods when available, rather than the visitor's calendar data.
+	 * 
+	 * @param freeBusyDataDao the freeBusyDataDao to set
+	 */
+	@Autowired(required=false)
+	public void setFreeBusyDataDao(FreeBusyDataDao freeBusyDataDao) {
+		this.freeBusyDataDao = freeBusyDataDao;
+	}
+	/**
+	 * Optional; required for {@link #setOptimisticBooking(boolean)}.
+	 * 
+	 * @param conditionalCalendarDataDao the conditionalCalendarDataDao to set
+	 */
+	@Autowired(required=false)
+	public void setConditionalCalendarDataDao(ConditionalCalendarDataDao conditionalCalendarDataDao) {
+		this.conditionalCalendarDataDao = conditionalCalendarDataDao;
+	}
+	/**
+	 * If true (and a {@link ConditionalCalendarDataDao} is set), appointments for blocks with a visitor limit of 1 
+	 * are created with {@link ConditionalCalendarDataDao#createAppointmentIfAbsent(IScheduleVisitor, IScheduleOwner, AvailableBlock, String)}
+	 * without first calling {@link ICalendarDataDao#checkForConflicts(IScheduleOwner, AvailableBlock)}.
+	 * A second appointment for the block is still refused; conflicts with other events added to the owner's calendar since
+	 * the visitor's schedule was built are only detected if the {@link ConditionalCalendarDataDao} verifies them.
+	 * Default is false.
+	 * 
+	 * @param optimisticBooking the optimisticBooking to set
+	 */
+	@Value("${booking.optimistic:false}")
+	public void setOptimisticBooking(boolean optimisticBooking) {
+		this.optimisticBooking = optimisticBooking;
+	}
+	/**
+	 * Optional; a {@link StripedAppointmentSlotLocks} with default settings is used if not set.
+	 * 
+	 * @param appointmentSlotLocks the appointmentSlotLocks to set
+	 */
+	@Autowired(required=false)
+	public void setAppointmentSlotLocks(AppointmentSlotLocks appointmentSlotLocks) {
+		this.appointmentSlotLocks = appointmentSlotLocks;
+	}
+	/**
+	 * Optional; an {@link AppointmentSlotStateCache} with default settings is used if not set.
+	 * 
+	 * @param appointmentSlotStateCache the appointmentSlotStateCache to set
+	 */
+	@Autowired(required=false)
+	public void setAppointmentSlotStateCache(AppointmentSlotStateCache appointmentSlotStateCache) {
+		this.appointmentSlotStateCache = appointmentSlotStateCache;
+	}
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.schedassist.SchedulingAssistantService#getExistingAppointment(org.jasig.schedassist.model.AvailableBlock, org.jasig.schedassist.model.IScheduleOwner)
@@ -171,6 +251,21 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 			localEnd = windowBoundaries[1];
 		}
 
+		if(null != ownerVisibleScheduleCache) {
+			OwnerVisibleSchedule ownerSchedule = ownerVisibleScheduleCache.get(owner, localStart, localEnd);
+			if(null == ownerSchedule) {
+				final long generation = ownerVisibleScheduleCache.getGeneration(owner.getCalendarAccount());
+				// calculate the owner's entire window, extended to remain useful as the window moves forward
+				Date cacheStart = windowBoundaries[0];
+				Date cacheEnd = DateUtils.addMinutes(windowBoundaries[1], (int) ownerVisibleScheduleCache.getWindowExtensionMinutes());
+				Calendar calendar = calendarDao.getCalendar(owner.getCalendarAccount(), cacheStart, cacheEnd);
+				AvailableSchedule schedule = availableScheduleDao.retrieve(owner);
+				ownerSchedule = this.visibleScheduleBuilder.calculateOwnerVisibleSchedule(cacheStart, cacheEnd, calendar, schedule, owner);
+				ownerVisibleScheduleCache.put(owner, ownerSchedule, generation);
+			}
+			return this.visibleScheduleBuilder.calculateVisibleSchedule(ownerSchedule, visitor, localStart, localEnd);
+		}
+		
 		Calendar calendar = calendarDao.getCalendar(owner.getCalendarAccount(), localStart, localEnd);
 		AvailableSchedule schedule = availableScheduleDao.retrieve(owner);
 
@@ -204,6 +299,26 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 		
 		AvailableSchedule availableSchedule = this.availableScheduleDao.retrieve(owner, localStart, localEnd);
 		
+		if(null != freeBusyDataDao) {
+			PeriodList busyPeriods = freeBusyDataDao.getBusyPeriods(visitor.getCalendarAccount(), localStart, localEnd);
+			if(null != busyPeriods) {
+				// mark the owner's blocks that overlap the VISITOR's busy periods
+				VisibleSchedule result = this.visibleScheduleBuilder.calculateVisitorConflicts(
+						availableSchedule.getScheduleStartTime(),
+						availableSchedule.getScheduleEndTime(),
+						new Calendar(), 
+						availableSchedule, 
+						owner.getPreferredMeetingDurations(), visitor);
+				for(Object o : busyPeriods) {
+					Period period = (Period) o;
+					if(period.getEnd().after(period.getStart())) {
+						result.setBusyBlock(AvailableBlockBuilder.createBlock(period.getStart(), period.getEnd()));
+					}
+				}
+				return result.getBusyList();
+			}
+		}
+		
 		// get the VISITOR's Calendar data
 		Calendar calendar = calendarDao.getCalendar(visitor.getCalendarAccount(), localStart, localEnd);
 		
@@ -240,12 +355,35 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 	 * @see org.jasig.schedassist.SchedulingAssistantService#cancelAppointment(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, net.fortuna.ical4j.model.component.VEvent, org.jasig.schedassist.model.AvailableBlock, java.lang.String)
 	 */
 	@Override
-	public void cancelAppointment(IScheduleVisitor visitor, IScheduleOwner owner, VEvent event, AvailableBlock block, final String cancelReason) throws SchedulingException {
+	public void cancelAppointment(final IScheduleVisitor visitor, final IScheduleOwner owner, final VEvent event, final AvailableBlock block, final String cancelReason) throws SchedulingException {
 		if(owner.isSamePerson(visitor)) {
 			LOG.warn("ignoring request to cancelAppointment for owner/visitor same person: " + owner);
 			return;
 		}
 		
+		appointmentSlotLocks.doWithLock(owner, block.getStartTime(), new AppointmentSlotLocks.SlotCallback<Object>() {
+			@Override
+			public Object doWithLock() throws SchedulingException {
+				try {
+					cancelAppointmentInternal(visitor, owner, block, cancelReason);
+				} finally {
+					appointmentSlotStateCache.remove(owner, block);
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Cancel the appointment (or leave it, if other visitors attend); invoked while holding the lock for the slot.
+	 * 
+	 * @param visitor
+	 * @param owner
+	 * @param block
+	 * @param cancelReason
+	 * @throws SchedulingException
+	 */
+	protected void cancelAppointmentInternal(IScheduleVisitor visitor, IScheduleOwner owner, AvailableBlock block, String cancelReason) throws SchedulingException {
 		VEvent availableAppointment = calendarDao.getExistingAppointment(owner, block);
 		if(null == availableAppointment || this.eventUtils.isAttendingMatch(availableAppointment, visitor, owner)) {
 			// if this is a 1.0 appointment (no available version set) or visitor limit is 1
@@ -280,24 +418,61 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 	 * @see org.jasig.schedassist.SchedulingAssistantService#scheduleAppointment(org.jasig.schedassist.model.IScheduleVisitor, org.jasig.schedassist.model.IScheduleOwner, org.jasig.schedassist.model.AvailableBlock, java.lang.String)
 	 */
 	@Override
-	public VEvent scheduleAppointment(IScheduleVisitor visitor, IScheduleOwner owner, 
-			AvailableBlock block, String eventDescription) throws SchedulingException {
+	public VEvent scheduleAppointment(final IScheduleVisitor visitor, final IScheduleOwner owner, 
+			final AvailableBlock block, final String eventDescription) throws SchedulingException {
 		if(owner.isSamePerson(visitor)) {
 			LOG.warn("ignoring request to scheduleAppointment for owner/visitor same person: " + owner);
 			return null;
 		}
 		
 		// assert the requested block is within the owner's current schedule
-		AvailableBlock ownerPersistedBlock = availableScheduleDao.retrieveTargetBlock(owner, block.getStartTime());
+		final AvailableBlock ownerPersistedBlock = availableScheduleDao.retrieveTargetBlock(owner, block.getStartTime());
 		if(null == ownerPersistedBlock) {
 			throw new SchedulingException("requested time is not available in schedule: " + block);
 		}
-
+		failIfSlotUnavailable(owner, block, ownerPersistedBlock);
+		
+		return appointmentSlotLocks.doWithLock(owner, block.getStartTime(), new AppointmentSlotLocks.SlotCallback<VEvent>() {
+			@Override
+			public VEvent doWithLock() throws SchedulingException {
+				// the slot may have been taken while waiting for the lock
+				failIfSlotUnavailable(owner, block, ownerPersistedBlock);
+				return scheduleAppointmentInternal(visitor, owner, block, ownerPersistedBlock, eventDescription);
+			}
+		});
+	}
+	
+	/**
+	 * Create or join the appointment; invoked while holding the lock for the slot.
+	 * Records the slot in the {@link AppointmentSlotStateCache} when it is found (or becomes) unavailable.
+	 * 
+	 * @param visitor
+	 * @param owner
+	 * @param block
+	 * @param ownerPersistedBlock
+	 * @param eventDescription
+	 * @return the created or joined appointment
+	 * @throws SchedulingException
+	 */
+	protected VEvent scheduleAppointmentInternal(IScheduleVisitor visitor, IScheduleOwner owner, 
+			AvailableBlock block, AvailableBlock ownerPersistedBlock, String eventDescription) throws SchedulingException {
 		if(ownerPersistedBlock.getVisitorLimit() == 1) {
-			// check to see if there is a conflict
-			calendarDao.checkForConflicts(owner, block);
-			// no conflicts, create the appointment
-			VEvent event = calendarDao.createAppointment(visitor, owner, block, eventDescription);
+			VEvent event;
+			if(optimisticBooking && null != conditionalCalendarDataDao) {
+				// the calendar system refuses a second appointment for the block
+				try {
+					event = conditionalCalendarDataDao.createAppointmentIfAbsent(visitor, owner, block, eventDescription);
+				} catch (ConflictExistsException e) {
+					appointmentSlotStateCache.put(owner, block, SlotState.CONFLICT);
+					throw e;
+				}
+			} else {
+				// check to see if there is a conflict
+				checkForConflicts(owner, block);
+				// no conflicts, create the appointment
+				event = calendarDao.createAppointment(visitor, owner, block, eventDescription);
+			}
+			appointmentSlotStateCache.put(owner, block, SlotState.FULL);
 			if(null !=  applicationEventPublisher) {
 				applicationEventPublisher.publishEvent(new AppointmentCreatedEvent(event, owner, visitor, block, eventDescription));
 			}
@@ -308,7 +483,7 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 			VEvent existingAppointment = calendarDao.getExistingAppointment(owner, block);
 			if(null == existingAppointment) {
 				// check to see if there is a conflict
-				calendarDao.checkForConflicts(owner, block);
+				checkForConflicts(owner, block);
 				// lets create it
 				VEvent event = calendarDao.createAppointment(visitor, owner, block, eventDescription);
 				if(null !=  applicationEventPublisher) {
@@ -321,17 +496,59 @@ public final class SchedulingAssistantServiceImpl implements SchedulingAssistant
 				if(visitorCount < ownerPersistedBlock.getVisitorLimit()) {
 					// join!
 					VEvent event = calendarDao.joinAppointment(visitor, owner, existingAppointment);
+					if(visitorCount + 1 >= ownerPersistedBlock.getVisitorLimit()) {
+						appointmentSlotStateCache.put(owner, block, SlotState.FULL);
+					}
 					if(null !=  applicationEventPublisher) {
 						applicationEventPublisher.publishEvent(new AppointmentJoinedEvent(event, owner, visitor, block));
 					}
 					return event;
 				} else {
 					// visitor limit exceeded
-					throw new SchedulingException("visitor limit for this appointment has been met");
+					appointmentSlotStateCache.put(owner, block, SlotState.FULL);
+					throw new SchedulingException(VISITOR_LIMIT_MET_MESSAGE);
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Invoke {@link ICalendarDataDao#checkForConflicts(IScheduleOwner, AvailableBlock)}, recording
+	 * the slot as {@link SlotState#CONFLICT} if a conflict exists.
+	 * 
+	 * @param owner
+	 * @param block
+	 * @throws ConflictExistsException
+	 */
+	protected void checkForConflicts(IScheduleOwner owner, AvailableBlock block) throws ConflictExistsException {
+		try {
+			calendarDao.checkForConflicts(owner, block);
+		} catch (ConflictExistsException e) {
+			appointmentSlotStateCache.put(owner, block, SlotState.CONFLICT);
+			throw e;
+		}
+	}
 	
+	/**
+	 * Throw the exception the calendar system would, if the slot is remembered as unavailable
+	 * by the {@link AppointmentSlotStateCache}.
+	 * 
+	 * @param owner
+	 * @param block
+	 * @param ownerPersistedBlock
+	 * @throws SchedulingException
+	 */
+	protected void failIfSlotUnavailable(IScheduleOwner owner, AvailableBlock block, AvailableBlock ownerPersistedBlock) throws SchedulingException {
+		SlotState state = appointmentSlotStateCache.get(owner, block);
+		if(null == state) {
+			return;
+		}
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("failing fast for " + owner + ", " + block + ", slot state " + state);
+		}
+		if(state == SlotState.CONFLICT || ownerPersistedBlock.getVisitorLimit() == 1) {
+			throw new ConflictExistsException("an appointment already exists for " + block);
+		}
+		throw new SchedulingException(VISITOR_LIMIT_MET_MESSAGE);
+	}
 }
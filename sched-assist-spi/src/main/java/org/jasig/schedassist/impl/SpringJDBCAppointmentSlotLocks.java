@@ -0,0 +1,178 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link AppointmentSlotLocks} shared by all nodes, backed by rows in the booking_locks table.
+ * 
+ * Follows the same approach as the reflect_locks table in {@link DefaultAvailableScheduleReflectionServiceImpl}:
+ * a row is stored for the slot if not present, and the callback is invoked within a transaction
+ * after selecting that row "for update". The lock is only effective if the database supports
+ * "select ... for update" and {@link #setSupportsForUpdate(boolean)} is set to true.
+ * 
+ * Intended to be set as the clusterLocks of a {@link StripedAppointmentSlotLocks}, so that at most one
+ * thread per node waits on the database.
+ * 
+ * @version $Id: SpringJDBCAppointmentSlotLocks.java $
+ */
+public class SpringJDBCAppointmentSlotLocks implements AppointmentSlotLocks {
+
+	protected static final Log LOG = LogFactory.getLog(SpringJDBCAppointmentSlotLocks.class);
+	private SimpleJdbcTemplate simpleJdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private boolean supportsForUpdate = false;
+	
+	/**
+	 * @param dataSource the dataSource to set
+	 */
+	@Autowired
+	public void setDataSource(DataSource dataSource) {
+		this.simpleJdbcTemplate = new SimpleJdbcTemplate(dataSource);
+	}
+	/**
+	 * @param platformTransactionManager the platformTransactionManager to set
+	 */
+	@Autowired
+	public void setPlatformTransactionManager(
+			PlatformTransactionManager platformTransactionManager) {
+		this.transactionTemplate = new TransactionTemplate(platformTransactionManager);
+		this.transactionTemplate.setIsolationLevel(Isolation.READ_COMMITTED.value());
+	}
+	/**
+	 * @param supportsForUpdate the supportsForUpdate to set
+	 */
+	public void setSupportsForUpdate(boolean supportsForUpdate) {
+		this.supportsForUpdate = supportsForUpdate;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AppointmentSlotLocks#doWithLock(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, org.jasig.schedassist.impl.AppointmentSlotLocks.SlotCallback)
+	 */
+	@Override
+	public <T> T doWithLock(final IScheduleOwner owner, final Date blockStart,
+			final SlotCallback<T> callback) throws SchedulingException {
+		addSlotToLockTableIfNotPresent(owner, blockStart);
+		try {
+			return this.transactionTemplate.execute(new TransactionCallback<T>() {
+				@Override
+				public T doInTransaction(TransactionStatus status) {
+					lock(owner, blockStart);
+					try {
+						return callback.doWithLock();
+					} catch (SchedulingException e) {
+						throw new SchedulingExceptionHolder(e);
+					}
+				}
+			});
+		} catch (SchedulingExceptionHolder e) {
+			throw e.getSchedulingException();
+		}
+	}
+	
+	/**
+	 * Remove the rows for slots that have started.
+	 */
+	@Scheduled(fixedDelay=3600000)
+	public void removeExpiredLocks() {
+		int rows = this.simpleJdbcTemplate.update("delete from booking_locks where block_start < ?", new Date());
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("removed " + rows + " expired rows from booking_locks");
+		}
+	}
+	
+	/**
+	 * Store a row in the booking_locks table for the slot, if there isn't a row already.
+	 * 
+	 * @param owner
+	 * @param blockStart
+	 */
+	void addSlotToLockTableIfNotPresent(IScheduleOwner owner, Date blockStart) {
+		List<Long> locks = this.simpleJdbcTemplate.query("select owner_id from booking_locks where owner_id = ? and block_start = ?",
+				new SingleColumnRowMapper<Long>(Long.class),
+				owner.getId(), blockStart);
+		Long lock = DataAccessUtils.singleResult(locks);
+		if(lock == null) {
+			try {
+				this.simpleJdbcTemplate.update("insert into booking_locks (owner_id,block_start) values (?,?)", owner.getId(), blockStart);
+			} catch (DataIntegrityViolationException e) {
+				// inserted concurrently by another node
+				LOG.debug("booking_locks row already present for owner id " + owner.getId() + ", " + blockStart);
+			}
+		}
+	}
+	/**
+	 * Select the row for the slot, "for update" if supported; blocks until 
+	 * no other transaction holds the row.
+	 * 
+	 * Only functional within a transaction.
+	 * 
+	 * @param owner
+	 * @param blockStart
+	 */
+	void lock(IScheduleOwner owner, Date blockStart) {
+		StringBuilder sql = new StringBuilder();
+		sql.append("select owner_id from booking_locks where owner_id = ? and block_start = ?");
+		if(supportsForUpdate) {
+			sql.append(" for update");
+		}
+		this.simpleJdbcTemplate.query(sql.toString(), 
+				new SingleColumnRowMapper<Long>(Long.class),
+				owner.getId(), blockStart);
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("lock acquired for owner " + owner + ", " + blockStart);
+		}
+	}
+	
+	/**
+	 * Carries a {@link SchedulingException} out of the {@link TransactionCallback} (rolling back the transaction).
+	 */
+	private static class SchedulingExceptionHolder extends RuntimeException {
+		private static final long serialVersionUID = 8183574126209461525L;
+		
+		SchedulingExceptionHolder(SchedulingException cause) {
+			super(cause);
+		}
+		SchedulingException getSchedulingException() {
+			return (SchedulingException) getCause();
+		}
+	}
+}
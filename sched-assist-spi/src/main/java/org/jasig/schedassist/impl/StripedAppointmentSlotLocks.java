@@ -0,0 +1,146 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.Validate;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.model.IScheduleOwner;
+
+/**
+ * {@link AppointmentSlotLocks} within a single JVM, backed by a fixed number of {@link ReentrantLock}s ("stripes");
+ * each slot maps to one stripe by owner id and block start, so unrelated slots rarely contend.
+ * 
+ * A caller waits at most {@link #getLockTimeoutMillis()} for the stripe, after which a {@link SchedulingException} is thrown.
+ * 
+ * If {@link #getClusterLocks()} is set (e.g. {@link SpringJDBCAppointmentSlotLocks}), it is acquired while holding
+ * the stripe, serializing the slot across all nodes; only one thread per node then waits on the shared lock.
+ * 
+ * @version $Id: StripedAppointmentSlotLocks.java $
+ */
+public class StripedAppointmentSlotLocks implements AppointmentSlotLocks {
+
+	public static final int DEFAULT_STRIPES = 64;
+	protected final Log log = LogFactory.getLog(this.getClass());
+	private final ReentrantLock [] stripes;
+	private long lockTimeoutMillis = 30000L;
+	private AppointmentSlotLocks clusterLocks;
+	
+	/**
+	 * Construct with {@link #DEFAULT_STRIPES}.
+	 */
+	public StripedAppointmentSlotLocks() {
+		this(DEFAULT_STRIPES);
+	}
+	/**
+	 * 
+	 * @param stripes the number of locks
+	 */
+	public StripedAppointmentSlotLocks(int stripes) {
+		Validate.isTrue(stripes > 0, "stripes must be greater than 0");
+		this.stripes = new ReentrantLock[stripes];
+		for(int i = 0; i < stripes; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+	}
+	/**
+	 * @return the number of stripes
+	 */
+	public int getStripes() {
+		return stripes.length;
+	}
+	/**
+	 * @return the lockTimeoutMillis
+	 */
+	public long getLockTimeoutMillis() {
+		return lockTimeoutMillis;
+	}
+	/**
+	 * The longest a caller waits for the lock on a slot. Default is 30000.
+	 * 
+	 * @param lockTimeoutMillis the lockTimeoutMillis to set
+	 */
+	public void setLockTimeoutMillis(long lockTimeoutMillis) {
+		this.lockTimeoutMillis = lockTimeoutMillis;
+	}
+	/**
+	 * @return the clusterLocks
+	 */
+	public AppointmentSlotLocks getClusterLocks() {
+		return clusterLocks;
+	}
+	/**
+	 * Optional; {@link AppointmentSlotLocks} shared by all nodes.
+	 * 
+	 * @param clusterLocks the clusterLocks to set
+	 */
+	public void setClusterLocks(AppointmentSlotLocks clusterLocks) {
+		this.clusterLocks = clusterLocks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.AppointmentSlotLocks#doWithLock(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, org.jasig.schedassist.impl.AppointmentSlotLocks.SlotCallback)
+	 */
+	@Override
+	public <T> T doWithLock(IScheduleOwner owner, Date blockStart,
+			SlotCallback<T> callback) throws SchedulingException {
+		ReentrantLock lock = stripeFor(owner, blockStart);
+		try {
+			if(!lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				log.warn("failed to acquire lock within " + lockTimeoutMillis + " milliseconds for " + owner + ", " + blockStart);
+				throw new SchedulingException("too many requests for this time, please try again");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SchedulingException("interrupted waiting for lock", e);
+		}
+		try {
+			if(null != clusterLocks) {
+				return clusterLocks.doWithLock(owner, blockStart, callback);
+			}
+			return callback.doWithLock();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param owner
+	 * @param blockStart
+	 * @return the stripe for the slot
+	 */
+	protected ReentrantLock stripeFor(IScheduleOwner owner, Date blockStart) {
+		long ownerId = owner.getId();
+		long time = blockStart.getTime();
+		int hash = (int) (ownerId ^ (ownerId >>> 32));
+		hash = 31 * hash + (int) (time ^ (time >>> 32));
+		// spread the bits, as block start times are multiples of a minute
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+	}
+}
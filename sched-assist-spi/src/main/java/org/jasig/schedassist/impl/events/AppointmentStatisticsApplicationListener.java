@@ -19,7 +19,17 @@
 
 package org.jasig.schedassist.impl.events;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -28,30 +38,69 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.schedassist.impl.EventType;
 import org.jasig.schedassist.model.ICalendarAccount;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
 import org.springframework.jdbc.support.incrementer.DataFieldMaxValueIncrementer;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
 /**
  * {@link ApplicationListener} that inserts a row in the 
  * statistics table for each {@link AbstractAppointmentEvent}.
+ * 
+ * Rows are not inserted by the thread publishing the event; they are added to a queue of at most {@link #getQueueCapacity()} rows
+ * (further rows are dropped, and counted), and inserted with JDBC batch updates by a dedicated thread, whenever
+ * {@link #getBatchSize()} rows are waiting or every {@link #getFlushIntervalMillis()}. Rows still queued when the
+ * application shuts down are inserted by {@link #destroy()}.
+ * 
+ * Event ids are allocated {@link #getIdBlockSize()} at a time: each value from the statistics sequence
+ * reserves the ids from value * idBlockSize up to (value + 1) * idBlockSize - 1. A block size of 1 allocates ids exactly as the
+ * sequence returns them. The block size can be raised at any time, but must not be lowered once ids have been allocated
+ * with it: the following values of the sequence would then fall in blocks already used.
  *  
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: AppointmentStatisticsApplicationListener.java 2832 2010-11-02 17:07:37Z npblair $
  */
 @Component
 public class AppointmentStatisticsApplicationListener implements
-		ApplicationListener<AbstractAppointmentEvent> {
+		ApplicationListener<AbstractAppointmentEvent>, InitializingBean, DisposableBean {
 
+	private static final String INSERT_SQL = "insert into event_statistics (event_id,owner_id,visitor_id,event_type,event_timestamp,event_start) values (?,?,?,?,?,?)";
 	private Log LOG = LogFactory.getLog(this.getClass());
 	private SimpleJdbcTemplate simpleJdbcTemplate;
 	private DataFieldMaxValueIncrementer statisticsEventIdSequence;
 	private String identifyingAttributeName = "uid";
+	private int batchSize = 50;
+	private long flushIntervalMillis = 5000L;
+	private int queueCapacity = 10000;
+	private int idBlockSize = 20;
+	private BlockingQueue<StatisticsRow> queue;
+	private ScheduledExecutorService flusher;
+	private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+	private final Object idLock = new Object();
+	private long nextEventId = 0;
+	private long eventIdLimit = 0;
+	private final AtomicLong queuedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushRequested.set(false);
+			try {
+				flush();
+			} catch (RuntimeException e) {
+				LOG.error("unexpected exception flushing statistics events", e);
+			}
+		}
+	};
 	
 	/**
 	 * 
@@ -84,30 +133,208 @@ public class AppointmentStatisticsApplicationListener implements
 	public String getIdentifyingAttributeName() {
 		return identifyingAttributeName;
 	}
+	/**
+	 * @return the batchSize
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * The number of rows inserted per batch, and the number of waiting rows that triggers an insert. Default is 50.
+	 * 
+	 * @param batchSize the batchSize to set
+	 */
+	@Value("${statistics.batchSize:50}")
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	/**
+	 * @return the flushIntervalMillis
+	 */
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+	/**
+	 * The longest a row waits to be inserted. Default is 5000.
+	 * 
+	 * @param flushIntervalMillis the flushIntervalMillis to set
+	 */
+	@Value("${statistics.flushIntervalMillis:5000}")
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+	/**
+	 * @return the queueCapacity
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	/**
+	 * The number of rows that may wait to be inserted. Default is 10000.
+	 * 
+	 * @param queueCapacity the queueCapacity to set
+	 */
+	@Value("${statistics.queueCapacity:10000}")
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+	/**
+	 * @return the idBlockSize
+	 */
+	public int getIdBlockSize() {
+		return idBlockSize;
+	}
+	/**
+	 * The number of event ids allocated per value of the statistics sequence. Default is 20.
+	 * See the class documentation before lowering this value.
+	 * 
+	 * @param idBlockSize the idBlockSize to set
+	 */
+	@Value("${statistics.idBlockSize:20}")
+	public void setIdBlockSize(int idBlockSize) {
+		this.idBlockSize = idBlockSize;
+	}
+	/**
+	 * @return the number of rows waiting to be inserted
+	 */
+	public int getQueueDepth() {
+		return queue == null ? 0 : queue.size();
+	}
+	/**
+	 * @return the number of rows queued
+	 */
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+	/**
+	 * @return the number of rows dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	/**
+	 * @return the number of rows inserted
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+	/**
+	 * @return the number of rows lost to failed batch inserts
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+	/**
+	 * @return the number of batch inserts
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+	/**
+	 * Reset all counters to 0.
+	 */
+	public void resetStatistics() {
+		queuedCount.set(0);
+		droppedCount.set(0);
+		writtenCount.set(0);
+		failedCount.set(0);
+		batchCount.set(0);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.queue = new ArrayBlockingQueue<StatisticsRow>(queueCapacity);
+		this.flusher = Executors.newSingleThreadScheduledExecutor();
+		this.flusher.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Stops the flushing thread, then inserts the rows still queued.
+	 * 
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.flusher != null) {
+			this.flusher.shutdown();
+			if(!this.flusher.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+				LOG.warn("statistics flush did not complete within " + flushIntervalMillis + " ms");
+			}
+		}
+		if(this.queue != null) {
+			flush();
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
 	 */
-	@Async
 	@Override
 	public void onApplicationEvent(final AbstractAppointmentEvent event) {
 		final EventType type = EventType.fromEvent(event);
-		final long eventId = statisticsEventIdSequence.nextLongValue();
-		if(LOG.isDebugEnabled()) {
-			LOG.debug("attempting to store event " + event + " with new event ID " + eventId);
-		}
 		final String accountIdentifier = getIdentifyingAttribute(event.getVisitor().getCalendarAccount());
-		int rows = this.simpleJdbcTemplate.update("insert into event_statistics (event_id,owner_id,visitor_id,event_type,event_timestamp,event_start) values (?,?,?,?,?,?)", 
-				eventId,
-				event.getOwner().getId(),
-				accountIdentifier,
-				type.toString(),
-				new Date(event.getTimestamp()),
-				event.getBlock().getStartTime());
+		StatisticsRow row = new StatisticsRow(event.getOwner().getId(), accountIdentifier, type, new Date(event.getTimestamp()), event.getBlock().getStartTime());
+		if(!queue.offer(row)) {
+			droppedCount.incrementAndGet();
+			LOG.warn("statistics queue full (" + queueCapacity + " rows), dropping event " + event);
+			return;
+		}
+		queuedCount.incrementAndGet();
 		if(LOG.isDebugEnabled()) {
-			LOG.debug("insert complete, " + rows + " rows affected ");
+			LOG.debug("queued event " + event + " for statistics");
+		}
+		if(queue.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+			try {
+				flusher.execute(flushTask);
+			} catch (RejectedExecutionException e) {
+				flushRequested.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Insert the queued rows, {@link #getBatchSize()} per JDBC batch.
+	 * The rows of a failed batch are logged and discarded.
+	 */
+	public synchronized void flush() {
+		List<StatisticsRow> rows = new ArrayList<StatisticsRow>(batchSize);
+		while(queue.drainTo(rows, batchSize) > 0) {
+			List<Object[]> batchArgs = new ArrayList<Object[]>(rows.size());
+			try {
+				for(StatisticsRow row: rows) {
+					batchArgs.add(new Object[] { nextEventId(), row.ownerId, row.visitorId, row.type.toString(), row.timestamp, row.start });
+				}
+				this.simpleJdbcTemplate.batchUpdate(INSERT_SQL, batchArgs);
+				writtenCount.addAndGet(rows.size());
+				batchCount.incrementAndGet();
+				if(LOG.isDebugEnabled()) {
+					LOG.debug("inserted " + rows.size() + " statistics events");
+				}
+			} catch (DataAccessException e) {
+				failedCount.addAndGet(rows.size());
+				LOG.error("failed to insert " + rows.size() + " statistics events: " + rows, e);
+			}
+			rows.clear();
 		}
 	}
 
+	/**
+	 * 
+	 * @return the next event id, taking a new block from the statistics sequence when the current block is used
+	 */
+	protected long nextEventId() {
+		synchronized (idLock) {
+			if(nextEventId >= eventIdLimit) {
+				long block = statisticsEventIdSequence.nextLongValue();
+				nextEventId = block * idBlockSize;
+				eventIdLimit = nextEventId + idBlockSize;
+			}
+			return nextEventId++;
+		}
+	}
 	/**
 	 * 
 	 * @param account
@@ -122,4 +349,38 @@ public class AppointmentStatisticsApplicationListener implements
 		}
 		return accountIdentifier;
 	}
+	
+	/**
+	 * A row of the event_statistics table, less the event id.
+	 */
+	static class StatisticsRow {
+		private final long ownerId;
+		private final String visitorId;
+		private final EventType type;
+		private final Date timestamp;
+		private final Date start;
+		/**
+		 * 
+		 * @param ownerId
+		 * @param visitorId
+		 * @param type
+		 * @param timestamp
+		 * @param start
+		 */
+		StatisticsRow(long ownerId, String visitorId, EventType type, Date timestamp, Date start) {
+			this.ownerId = ownerId;
+			this.visitorId = visitorId;
+			this.type = type;
+			this.timestamp = timestamp;
+			this.start = start;
+		}
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "StatisticsRow [ownerId=" + ownerId + ", visitorId=" + visitorId + ", type=" + type + ", start=" + start + "]";
+		}
+	}
 }
@@ -0,0 +1,75 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.owner;
+
+import java.util.Date;
+
+import org.jasig.schedassist.model.IScheduleOwner;
+
+/**
+ * Index of the Scheduling Assistant appointments in {@link IScheduleOwner}s' calendars,
+ * keyed by owner and the start and end of the appointment.
+ * 
+ * The index lets a calendar data dao fetch an appointment directly by its href rather than
+ * searching the owner's calendar. It is a cache of the calendar system, not the authority:
+ * entries may be stale (e.g. the event was deleted by the owner's calendar client), and callers
+ * must verify what they find and fall back to searching the calendar.
+ * 
+ * @version $Id: AppointmentIndexDao.java $
+ */
+public interface AppointmentIndexDao {
+
+	/**
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @return the indexed location of the owner's appointment with the specified start and end, or null if not indexed
+	 */
+	IndexedAppointment lookup(IScheduleOwner owner, Date startTime, Date endTime);
+	
+	/**
+	 * Store the location of the owner's appointment with the specified start and end, replacing
+	 * any existing entry.
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 * @param appointment
+	 */
+	void store(IScheduleOwner owner, Date startTime, Date endTime, IndexedAppointment appointment);
+	
+	/**
+	 * Remove the entry (if any) for the owner's appointment with the specified start and end.
+	 * 
+	 * @param owner
+	 * @param startTime
+	 * @param endTime
+	 */
+	void remove(IScheduleOwner owner, Date startTime, Date endTime);
+	
+	/**
+	 * Remove all entries for appointments that ended before the specified time.
+	 * 
+	 * @param time
+	 * @return the number of entries removed
+	 */
+	int removeEndingBefore(Date time);
+}
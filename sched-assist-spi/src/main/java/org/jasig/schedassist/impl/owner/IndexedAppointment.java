@@ -0,0 +1,66 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.owner;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Location of a Scheduling Assistant appointment in the calendar system, as stored by
+ * the {@link AppointmentIndexDao}: the UID of the event and the href of the resource that contains it.
+ *  
+ * @version $Id: IndexedAppointment.java $
+ */
+public class IndexedAppointment {
+
+	private final String eventUid;
+	private final String eventHref;
+	
+	/**
+	 * @param eventUid
+	 * @param eventHref
+	 */
+	public IndexedAppointment(String eventUid, String eventHref) {
+		this.eventUid = eventUid;
+		this.eventHref = eventHref;
+	}
+	/**
+	 * @return the UID of the event
+	 */
+	public String getEventUid() {
+		return eventUid;
+	}
+	/**
+	 * @return the href of the resource containing the event
+	 */
+	public String getEventHref() {
+		return eventHref;
+	}
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		ToStringBuilder builder = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE);
+		builder.append("eventUid", eventUid);
+		builder.append("eventHref", eventHref);
+		return builder.toString();
+	}
+}
@@ -22,6 +22,8 @@ package org.jasig.schedassist.impl.owner;
 import java.util.Calendar;
 import java.util.Date;
 
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.time.DateUtils;
 import org.jasig.schedassist.model.AvailableBlock;
 
@@ -124,6 +126,41 @@ class PersistenceAvailableBlock {
 		this.meetingLocation = meetingLocation;
 	}
 
+	/**
+	 * All fields are considered, unlike {@link AvailableBlock#equals(Object)}; 2 rows
+	 * are equal only if they would be persisted identically.
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object object) {
+		if (!(object instanceof PersistenceAvailableBlock)) {
+			return false;
+		}
+		PersistenceAvailableBlock rhs = (PersistenceAvailableBlock) object;
+		return new EqualsBuilder()
+			.append(this.ownerId, rhs.ownerId)
+			.append(this.startTime, rhs.startTime)
+			.append(this.endTime, rhs.endTime)
+			.append(this.visitorLimit, rhs.visitorLimit)
+			.append(this.meetingLocation, rhs.meetingLocation)
+			.isEquals();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(-1408372339, 1790611961)
+			.append(this.ownerId)
+			.append(this.startTime)
+			.append(this.endTime)
+			.append(this.visitorLimit)
+			.append(this.meetingLocation)
+			.toHashCode();
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
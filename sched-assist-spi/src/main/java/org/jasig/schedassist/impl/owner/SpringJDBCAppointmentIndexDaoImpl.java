@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.owner;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * {@link AppointmentIndexDao} backed by Spring JDBC, stored in the appointment_index table.
+ *  
+ * @version $Id: SpringJDBCAppointmentIndexDaoImpl.java $
+ */
+@Repository("appointmentIndexDao")
+public class SpringJDBCAppointmentIndexDaoImpl implements AppointmentIndexDao {
+
+	private Log LOG = LogFactory.getLog(this.getClass());
+	private SimpleJdbcTemplate simpleJdbcTemplate;
+	
+	/**
+	 * @param dataSource the dataSource to set
+	 */
+	@Autowired
+	public void setDataSource(DataSource dataSource) {
+		this.simpleJdbcTemplate = new SimpleJdbcTemplate(dataSource);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.owner.AppointmentIndexDao#lookup(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, java.util.Date)
+	 */
+	@Override
+	public IndexedAppointment lookup(IScheduleOwner owner, Date startTime,
+			Date endTime) {
+		List<IndexedAppointment> results = this.simpleJdbcTemplate.query(
+				"select event_uid, event_href from appointment_index where owner_id = ? and event_start = ? and event_end = ?", 
+				new IndexedAppointmentRowMapper(),
+				owner.getId(), startTime, endTime);
+		return DataAccessUtils.singleResult(results);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.owner.AppointmentIndexDao#store(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, java.util.Date, org.jasig.schedassist.impl.owner.IndexedAppointment)
+	 */
+	@Transactional
+	@Override
+	public void store(IScheduleOwner owner, Date startTime, Date endTime,
+			IndexedAppointment appointment) {
+		this.simpleJdbcTemplate.update("delete from appointment_index where owner_id = ? and event_start = ? and event_end = ?", 
+				owner.getId(), startTime, endTime);
+		this.simpleJdbcTemplate.update("insert into appointment_index (owner_id,event_start,event_end,event_uid,event_href) values (?,?,?,?,?)", 
+				owner.getId(), startTime, endTime, appointment.getEventUid(), appointment.getEventHref());
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("indexed " + appointment + " for owner " + owner.getId() + ", " + startTime + " - " + endTime);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.owner.AppointmentIndexDao#remove(org.jasig.schedassist.model.IScheduleOwner, java.util.Date, java.util.Date)
+	 */
+	@Transactional
+	@Override
+	public void remove(IScheduleOwner owner, Date startTime, Date endTime) {
+		this.simpleJdbcTemplate.update("delete from appointment_index where owner_id = ? and event_start = ? and event_end = ?", 
+				owner.getId(), startTime, endTime);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.jasig.schedassist.impl.owner.AppointmentIndexDao#removeEndingBefore(java.util.Date)
+	 */
+	@Transactional
+	@Override
+	public int removeEndingBefore(Date time) {
+		int rows = this.simpleJdbcTemplate.update("delete from appointment_index where event_end < ?", time);
+		LOG.debug("removed " + rows + " appointment index entries ending before " + time);
+		return rows;
+	}
+	
+	/**
+	 * {@link RowMapper} for {@link IndexedAppointment}.
+	 */
+	private static class IndexedAppointmentRowMapper implements RowMapper<IndexedAppointment> {
+		/*
+		 * (non-Javadoc)
+		 * @see org.springframework.jdbc.core.RowMapper#mapRow(java.sql.ResultSet, int)
+		 */
+		@Override
+		public IndexedAppointment mapRow(ResultSet rs, int rowNum)
+				throws SQLException {
+			return new IndexedAppointment(rs.getString("event_uid"), rs.getString("event_href"));
+		}
+	}
+}
@@ -20,11 +20,11 @@
 package org.jasig.schedassist.impl.owner;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -38,6 +38,7 @@ import org.jasig.schedassist.impl.events.AvailableScheduleChangedEvent;
 import org.jasig.schedassist.model.AvailableBlock;
 import org.jasig.schedassist.model.AvailableBlockBuilder;
 import org.jasig.schedassist.model.AvailableSchedule;
+import org.jasig.schedassist.model.AvailableScheduleIntervalSet;
 import org.jasig.schedassist.model.IScheduleOwner;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
@@ -86,9 +87,7 @@ implements AvailableScheduleDao {
 	@Transactional
 	@Override
 	public AvailableSchedule addToSchedule(final IScheduleOwner owner, final AvailableBlock block) {
-		// expand input block and call overloaded version
-		Set<AvailableBlock> blockExpanded = AvailableBlockBuilder.expand(block, 1);
-		return addToSchedule(owner, blockExpanded);
+		return addToSchedule(owner, Collections.singleton(block));
 	}
 
 	/*
@@ -99,21 +98,14 @@ implements AvailableScheduleDao {
 	@Override
 	public AvailableSchedule addToSchedule(final IScheduleOwner owner,
 			final Set<AvailableBlock> blocks) {
-		// retrieve existing schedule
-		AvailableSchedule stored = retrieve(owner);
+		// retrieve existing rows
+		List<PersistenceAvailableBlock> storedRows = internalRetrieveRows(owner);
+		AvailableScheduleIntervalSet intervals = new AvailableScheduleIntervalSet(toAvailableBlocks(storedRows));
 
-		// expand it to minimum possible size
-		SortedSet<AvailableBlock> storedExpanded = AvailableBlockBuilder.expand(stored.getAvailableBlocks(), 1);
-		// expand the argument to minimum possible size blocks
-		SortedSet<AvailableBlock> blocksExpanded = AvailableBlockBuilder.expand(blocks, 1);
-
-		// since AvailableBlock equals and hashCode ignore location, call remove first to get
-		// rid of any blocks that have matching times
-		storedExpanded.removeAll(blocksExpanded);
-		// add the new blocks to the expanded set
-		boolean modified = storedExpanded.addAll(blocksExpanded);
+		// union the argument into the stored intervals; overlapping portions take the argument's visitorLimit and meetingLocation
+		boolean modified = intervals.addAll(blocks);
 		if(modified) {
-			replaceSchedule(owner, storedExpanded);
+			replaceSchedule(owner, storedRows, intervals.toBlocks());
 		}
 
 		// retrieve the new complete schedule and return
@@ -143,9 +135,7 @@ implements AvailableScheduleDao {
 	@Override
 	public AvailableSchedule removeFromSchedule(final IScheduleOwner owner,
 			final AvailableBlock block) {
-		// expand input block and call overloaded version
-		Set<AvailableBlock> blockExpanded = AvailableBlockBuilder.expand(block, 1);
-		return removeFromSchedule(owner, blockExpanded);
+		return removeFromSchedule(owner, Collections.singleton(block));
 	}
 
 	/*
@@ -156,27 +146,14 @@ implements AvailableScheduleDao {
 	@Override
 	public AvailableSchedule removeFromSchedule(final IScheduleOwner owner,
 			final Set<AvailableBlock> blocksToRemove) {
-		// retrieve existing schedule
-		AvailableSchedule stored = retrieve(owner);
-
-		// expand it to minimum possible size
-		SortedSet<AvailableBlock> expanded = AvailableBlockBuilder.expand(stored.getAvailableBlocks(), 1);
-		// expand the argument to minimum possible size blocks
-		SortedSet<AvailableBlock> blocksToRemoveExpanded = AvailableBlockBuilder.expand(blocksToRemove, 1);
-
-		boolean modified = false;
-		for(AvailableBlock toRemove : blocksToRemoveExpanded) {
-			if(expanded.contains(toRemove)) {
-				// remove the specified block
-				boolean result =  expanded.remove(toRemove);
-				if(result && !modified) {
-					modified = true;
-				}
-			}
-		}
+		// retrieve existing rows
+		List<PersistenceAvailableBlock> storedRows = internalRetrieveRows(owner);
+		AvailableScheduleIntervalSet intervals = new AvailableScheduleIntervalSet(toAvailableBlocks(storedRows));
 
+		// subtract the argument from the stored intervals
+		boolean modified = intervals.removeAll(blocksToRemove);
 		if(modified) {
-			replaceSchedule(owner, expanded);
+			replaceSchedule(owner, storedRows, intervals.toBlocks());
 		}
 		// retrieve the new complete schedule and return
 		return retrieve(owner);
@@ -399,6 +376,31 @@ implements AvailableScheduleDao {
 				"insert into schedules (owner_id, start_time, end_time, visitor_limit, meeting_location) values (:ownerId, :startTime, :endTime, :visitorLimit, :meetingLocation)",
 				batch);
 	}
+	/**
+	 * Executes "delete from schedules where owner_id = ? and start_time = ? and end_time = ?" 
+	 * for each of the arguments using {@link SimpleJdbcTemplate#batchUpdate(String, SqlParameterSource[])}.
+	 * 
+	 * @param blocks
+	 */
+	protected void internalDeleteBlocks(final Set<PersistenceAvailableBlock> blocks) {
+		SqlParameterSource[] batch = SqlParameterSourceUtils.createBatch(blocks.toArray());
+		this.simpleJdbcTemplate.batchUpdate(
+				"delete from schedules where owner_id = :ownerId and start_time = :startTime and end_time = :endTime",
+				batch);
+	}
+
+	/**
+	 * Retrieve ALL stored rows for an owner, as-is.
+	 * 
+	 * @param owner
+	 * @return a possibly empty, never null {@link List} of {@link PersistenceAvailableBlock}s
+	 */
+	protected List<PersistenceAvailableBlock> internalRetrieveRows(final IScheduleOwner owner) {
+		return this.simpleJdbcTemplate.query("select * from schedules where owner_id = ?", 
+				new PersistenceAvailableBlockRowMapper(), 
+				owner.getId());
+	}
+
 	/**
 	 * Retrieve ALL {@link AvailableBlock}s for an owner in a {@link SortedSet}.
 	 * 
@@ -408,23 +410,13 @@ implements AvailableScheduleDao {
 	 * @return 
 	 */
 	protected SortedSet<AvailableBlock> internalRetrieveSchedule(final IScheduleOwner owner) {
-		List<PersistenceAvailableBlock> scheduleRows = this.simpleJdbcTemplate
-		.query("select * from schedules where owner_id = ?", 
-				new PersistenceAvailableBlockRowMapper(), 
-				owner.getId());
-
-		SortedSet<AvailableBlock> availableBlocks = new TreeSet<AvailableBlock>();
-		for(PersistenceAvailableBlock row : scheduleRows) {
-			availableBlocks.add(AvailableBlockBuilder.createBlock(row.getStartTime(), row.getEndTime(), row.getVisitorLimit(), row.getMeetingLocation()));
-		}
-
-		return availableBlocks;
+		return toAvailableBlocks(internalRetrieveRows(owner));
 	}
 
 	/**
 	 * Retrieve the {@link AvailableBlock}s between the specified dates for an owner in a {@link SortedSet}.
 	 * 
-	 * Starts by retrieving all rows for the owner, then calculating the subSet between the start and end dates.
+	 * Starts by retrieving all rows for the owner, then clipping the stored intervals to the start and end dates.
 	 * 
 	 * @param owner
 	 * @param startDate
@@ -432,44 +424,39 @@ implements AvailableScheduleDao {
 	 * @return
 	 */
 	protected SortedSet<AvailableBlock> internalRetrieveSchedule(final IScheduleOwner owner, final Date startDate, final Date endDate) {		
-		TreeSet<AvailableBlock> allStoredBlocks = new TreeSet<AvailableBlock>();
-		allStoredBlocks.addAll(internalRetrieveSchedule(owner));
-		TreeSet<AvailableBlock> expanded = new TreeSet<AvailableBlock>();
-		expanded.addAll(AvailableBlockBuilder.expand(allStoredBlocks, 1));
-
-		// we need the subset of blocks
-		AvailableBlock startBlock = AvailableBlockBuilder.createSmallestAllowedBlock(startDate);
-		AvailableBlock endBlock = AvailableBlockBuilder.createBlockEndsAt(endDate, 1);
-		NavigableSet<AvailableBlock> innerSet = expanded.subSet(startBlock, true,
-				endBlock, true);
-		// combine the inner set before returning
-		SortedSet<AvailableBlock> combinedInnerSet = AvailableBlockBuilder.combine(innerSet);
-		return combinedInnerSet;
+		AvailableScheduleIntervalSet intervals = new AvailableScheduleIntervalSet(internalRetrieveSchedule(owner));
+		return intervals.subset(startDate, endDate);
 	}
 
 	/**
-	 * Deletes all existing stored blocks and inserts all specified blocks.
+	 * Persist the combined blocks argument as the owner's schedule.
+	 * 
+	 * Only the difference between storedRows and the blocks argument is written: rows no longer
+	 * present are deleted and new rows are inserted. Rows that are unchanged are not touched.
 	 * 
 	 * @param owner
-	 * @param blocks
+	 * @param storedRows the rows currently persisted for the owner
+	 * @param blocks the new (already combined) schedule
 	 */
-	private void replaceSchedule(final IScheduleOwner owner, final SortedSet<AvailableBlock> blocks) {
+	private void replaceSchedule(final IScheduleOwner owner, final List<PersistenceAvailableBlock> storedRows, final SortedSet<AvailableBlock> blocks) {
 		LOG.debug("replacing schedule for owner " + owner + "; argument contains " + blocks.size() + " blocks");
-		// delete all old blocks
-		int rowsUpdated = this.simpleJdbcTemplate.update(
-				"delete from schedules where owner_id = ?",
-				owner.getId());
-		LOG.debug("deleted " + rowsUpdated + " for owner " + owner.getId());
-
-		// persist the recombined set
-		SortedSet<AvailableBlock> combined = AvailableBlockBuilder.combine(blocks);
-		LOG.debug("combined set for owner contains " + combined.size() + " blocks");
-		Set<PersistenceAvailableBlock> persistenceBlocks = new HashSet<PersistenceAvailableBlock>();
-		for(AvailableBlock newBlock: combined) {
-			PersistenceAvailableBlock p = new PersistenceAvailableBlock(newBlock, owner.getId());
-			persistenceBlocks.add(p);
+		Set<PersistenceAvailableBlock> toInsert = new HashSet<PersistenceAvailableBlock>();
+		for(AvailableBlock newBlock: blocks) {
+			toInsert.add(new PersistenceAvailableBlock(newBlock, owner.getId()));
+		}
+		Set<PersistenceAvailableBlock> toDelete = new HashSet<PersistenceAvailableBlock>(storedRows);
+		// rows present in both sets are already stored, leave them be
+		toDelete.removeAll(toInsert);
+		toInsert.removeAll(storedRows);
+
+		// deletes must go first; (owner_id, start_time, end_time) is unique
+		if(!toDelete.isEmpty()) {
+			internalDeleteBlocks(toDelete);
+		}
+		if(!toInsert.isEmpty()) {
+			internalStoreBlocks(toInsert);
 		}
-		internalStoreBlocks(persistenceBlocks);
+		LOG.debug("deleted " + toDelete.size() + " and inserted " + toInsert.size() + " rows for owner " + owner.getId());
 
 		LOG.warn("schedule replaced for owner " + owner);
 		if(null != applicationEventPublisher) {
@@ -477,4 +464,17 @@ implements AvailableScheduleDao {
 			applicationEventPublisher.publishEvent(e);
 		}
 	}
+
+	/**
+	 * 
+	 * @param rows
+	 * @return the rows converted to {@link AvailableBlock}s
+	 */
+	private static SortedSet<AvailableBlock> toAvailableBlocks(final List<PersistenceAvailableBlock> rows) {
+		SortedSet<AvailableBlock> availableBlocks = new TreeSet<AvailableBlock>();
+		for(PersistenceAvailableBlock row : rows) {
+			availableBlocks.add(AvailableBlockBuilder.createBlock(row.getStartTime(), row.getEndTime(), row.getVisitorLimit(), row.getMeetingLocation()));
+		}
+		return availableBlocks;
+	}
 }
@@ -0,0 +1,306 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.statistics;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the daily_event_counts table: the number of rows in event_statistics per day, event type and owner,
+ * so that {@link SpringJDBCStatisticsDaoImpl#getEventCounts(Date, Date)} need not aggregate the raw events.
+ * 
+ * {@link #rollup()} runs periodically; it recomputes each day from {@link #getLateArrivalDays()} before the day
+ * of the watermark (the time of the previous run, stored in rollup_watermarks) through the present, then advances the watermark.
+ * Each day is recomputed from scratch in a single transaction, so a rollup may be repeated (or run concurrently on another node, in which
+ * case one of the two fails and is logged) without counting an event twice.
+ * 
+ * Rows are counted by the day they are stamped with, not the day they are stored. A row stored after a rollup 
+ * but stamped before the day of its watermark (e.g. one held in the statistics writer's queue) is missing from
+ * the counts until the next rollup recomputes that day, and is never counted if it arrives more than 
+ * {@link #getLateArrivalDays()} late.
+ * 
+ * Without a watermark (the table was just created), the scheduled rollup computes every day since the earliest event
+ * only if that is no more than {@link #getMaxScheduledBackfillDays()} ago; older data must be backfilled with 
+ * {@link #backfill()}, which {@link #main(String[])} (the 'ant statistics-backfill' target) runs from the command line.
+ * Until then the statistics are read from the raw events.
+ * 
+ * @version $Id: DailyEventCountsRollup.java $
+ */
+@Service("dailyEventCountsRollup")
+public class DailyEventCountsRollup {
+
+	public static final String CONFIG = System.getProperty(
+			DailyEventCountsRollup.class.getName() + ".CONFIG", 
+			"database.xml");
+	static final String ROLLUP_NAME = "daily_event_counts";
+	private static final Log LOG = LogFactory.getLog(DailyEventCountsRollup.class);
+	private SimpleJdbcTemplate simpleJdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+	private int lateArrivalDays = 1;
+	private int maxScheduledBackfillDays = 7;
+	
+	/**
+	 * 
+	 * @param dataSource
+	 */
+	@Autowired
+	public void setDataSource(DataSource dataSource) {
+		this.simpleJdbcTemplate = new SimpleJdbcTemplate(dataSource);
+	}
+	/**
+	 * 
+	 * @param transactionManager
+	 */
+	@Autowired
+	public void setPlatformTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	/**
+	 * @return the lateArrivalDays
+	 */
+	public int getLateArrivalDays() {
+		return lateArrivalDays;
+	}
+	/**
+	 * The number of days before the watermark that each rollup recomputes, to count events stored after
+	 * the previous rollup but stamped before it. Default is 1.
+	 * 
+	 * @param lateArrivalDays the lateArrivalDays to set
+	 */
+	@Value("${statistics.rollupLateArrivalDays:1}")
+	public void setLateArrivalDays(int lateArrivalDays) {
+		this.lateArrivalDays = lateArrivalDays;
+	}
+	
+	/**
+	 * @return the maxScheduledBackfillDays
+	 */
+	public int getMaxScheduledBackfillDays() {
+		return maxScheduledBackfillDays;
+	}
+	/**
+	 * Without a watermark, the scheduled {@link #rollup()} only backfills if the earliest event is no more than
+	 * this many days old, so that it never runs an unbounded backfill on the shared task scheduler. Default is 7.
+	 * 
+	 * @param maxScheduledBackfillDays the maxScheduledBackfillDays to set
+	 */
+	@Value("${statistics.rollupMaxScheduledBackfillDays:7}")
+	public void setMaxScheduledBackfillDays(int maxScheduledBackfillDays) {
+		this.maxScheduledBackfillDays = maxScheduledBackfillDays;
+	}
+	
+	/**
+	 * 
+	 * @return the time of the last completed rollup, or null if none has completed
+	 */
+	public Date getWatermark() {
+		List<Date> results = this.simpleJdbcTemplate.query("select watermark from rollup_watermarks where rollup_name = ?", 
+				new RowMapper<Date>() {
+					@Override
+					public Date mapRow(ResultSet rs, int rowNum) throws SQLException {
+						return new Date(rs.getTimestamp("watermark").getTime());
+					}
+				},
+				ROLLUP_NAME);
+		return DataAccessUtils.singleResult(results);
+	}
+	
+	/**
+	 * Recompute the days since the watermark (less {@link #getLateArrivalDays()}) and advance the watermark.
+	 * 
+	 * If there is no watermark, every day since the earliest event is computed, unless the earliest event is 
+	 * more than {@link #getMaxScheduledBackfillDays()} old; then nothing is done until {@link #backfill()} has run.
+	 */
+	@Scheduled(fixedDelay=300000)
+	public void rollup() {
+		try {
+			final Date now = new Date();
+			Date watermark = getWatermark();
+			Date start;
+			if(watermark == null) {
+				start = getEarliestEventTimestamp();
+				if(start != null && start.before(DateUtils.addDays(now, -maxScheduledBackfillDays))) {
+					LOG.warn("no watermark for " + ROLLUP_NAME + " and events since " + start 
+							+ " (more than " + maxScheduledBackfillDays + " days ago), not rolling up; run 'ant statistics-backfill'");
+					return;
+				}
+				LOG.info("no watermark for " + ROLLUP_NAME + ", rolling up all events since " + start);
+			} else {
+				start = DateUtils.addDays(watermark, -lateArrivalDays);
+			}
+			if(start != null) {
+				rollup(start, now);
+			}
+			setWatermark(now);
+		} catch (DataAccessException e) {
+			LOG.warn("rollup of " + ROLLUP_NAME + " failed, will retry", e);
+		}
+	}
+	
+	/**
+	 * Recompute the counts for each day from the day of start through the day of end, regardless of the watermark.
+	 * 
+	 * @param start
+	 * @param end
+	 * @return the number of days recomputed
+	 */
+	public int rollup(Date start, Date end) {
+		int days = 0;
+		for(Date day = DateUtils.truncate(start, Calendar.DATE); !day.after(end); day = DateUtils.addDays(day, 1)) {
+			rollupDay(day);
+			days++;
+		}
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("recomputed " + days + " days of " + ROLLUP_NAME + " from " + start + " through " + end);
+		}
+		return days;
+	}
+	
+	/**
+	 * Replace the counts for the day with counts of the events stamped that day.
+	 * 
+	 * @param day the beginning of the day
+	 */
+	protected void rollupDay(final Date day) {
+		final Date nextDay = DateUtils.addDays(day, 1);
+		this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				simpleJdbcTemplate.update("delete from daily_event_counts where event_day = ?", day);
+				List<Object[]> counts = simpleJdbcTemplate.query(
+						"select owner_id,event_type,count(*) as num_events from event_statistics where event_timestamp >= ? and event_timestamp < ? group by owner_id,event_type", 
+						new RowMapper<Object[]>() {
+							@Override
+							public Object[] mapRow(ResultSet rs, int rowNum) throws SQLException {
+								return new Object[] { day, rs.getString("event_type"), rs.getLong("owner_id"), rs.getLong("num_events") };
+							}
+						},
+						day,
+						nextDay);
+				if(!counts.isEmpty()) {
+					simpleJdbcTemplate.batchUpdate("insert into daily_event_counts (event_day,event_type,owner_id,event_count) values (?,?,?,?)", counts);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 
+	 * @return the timestamp of the earliest event in event_statistics, or null if there are none
+	 */
+	protected Date getEarliestEventTimestamp() {
+		List<Date> results = this.simpleJdbcTemplate.query("select min(event_timestamp) as earliest from event_statistics", 
+				new RowMapper<Date>() {
+					@Override
+					public Date mapRow(ResultSet rs, int rowNum) throws SQLException {
+						java.sql.Timestamp earliest = rs.getTimestamp("earliest");
+						return earliest == null ? null : new Date(earliest.getTime());
+					}
+				});
+		return DataAccessUtils.singleResult(results);
+	}
+	
+	/**
+	 * 
+	 * @param watermark
+	 */
+	protected void setWatermark(Date watermark) {
+		int rows = this.simpleJdbcTemplate.update("update rollup_watermarks set watermark = ? where rollup_name = ?", watermark, ROLLUP_NAME);
+		if(rows == 0) {
+			try {
+				this.simpleJdbcTemplate.update("insert into rollup_watermarks (rollup_name,watermark) values (?,?)", ROLLUP_NAME, watermark);
+			} catch (DataIntegrityViolationException e) {
+				// another node inserted the watermark concurrently
+				this.simpleJdbcTemplate.update("update rollup_watermarks set watermark = ? where rollup_name = ?", watermark, ROLLUP_NAME);
+			}
+		}
+	}
+	
+	/**
+	 * Recompute every day since the earliest event, and set the watermark.
+	 * 
+	 * @return the number of days recomputed
+	 */
+	public int backfill() {
+		final Date now = new Date();
+		Date earliest = getEarliestEventTimestamp();
+		int days = earliest == null ? 0 : rollup(earliest, now);
+		setWatermark(now);
+		LOG.info("recomputed " + days + " days, watermark set to " + now);
+		return days;
+	}
+	
+	/**
+	 * Backfill the daily_event_counts table.
+	 * 
+	 * Depends on a Spring {@link ApplicationContext} (defining a "dataSource" bean) at the location on the classpath 
+	 * specified in the <i>org.jasig.schedassist.impl.statistics.DailyEventCountsRollup.CONFIG</i> {@link System} property 
+	 * (default is "database.xml").
+	 * 
+	 * Optionally accepts 2 arguments, the first and last days (yyyyMMdd) to recompute; the watermark is left unchanged.
+	 * With no arguments, every day since the earliest event is recomputed and the watermark is set.
+	 * 
+	 * @param args
+	 * @throws ParseException if the arguments are not dates
+	 */
+	public static void main(String[] args) throws ParseException {
+		LOG.info("loading applicationContext: " + CONFIG);
+		ApplicationContext context = new ClassPathXmlApplicationContext(CONFIG);
+		DataSource dataSource = (DataSource) context.getBean("dataSource");
+		
+		DailyEventCountsRollup rollup = new DailyEventCountsRollup();
+		rollup.setDataSource(dataSource);
+		rollup.setPlatformTransactionManager(new DataSourceTransactionManager(dataSource));
+		if(args.length == 2) {
+			SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+			int days = rollup.rollup(df.parse(args[0]), df.parse(args[1]));
+			LOG.info("recomputed " + days + " days");
+		} else {
+			rollup.backfill();
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -46,6 +47,11 @@ import org.springframework.stereotype.Service;
  *  {@link SimpleJdbcTemplate} backed {@link StatisticsDao}.
  *  Requires a {@link DataSource} and an {@link OwnerDao} be set.
  *  
+ *  If a {@link DailyEventCountsRollup} is set and has completed a rollup, {@link #getEventCounts(Date, Date)}
+ *  reads the daily_event_counts table for the whole days of the range before the rollup's watermark, and counts the raw events 
+ *  of the following days and of partial days at either end of the range, so the results match those without a rollup.
+ *  An event stored after the last rollup but stamped before the day of its watermark is not included until the next rollup.
+ *  
  * @author Nicholas Blair, nblair@doit.wisc.edu
  * @version $Id: SpringJDBCStatisticsDaoImpl.java 2321 2010-07-30 17:32:27Z npblair $
  */
@@ -55,6 +61,7 @@ public class SpringJDBCStatisticsDaoImpl implements StatisticsDao {
 	private static final Log LOG = LogFactory.getLog(SpringJDBCStatisticsDaoImpl.class);
 	private OwnerDao ownerDao;
 	private SimpleJdbcTemplate simpleJdbcTemplate;
+	private DailyEventCountsRollup dailyEventCountsRollup;
 	/**
 	 * 
 	 * @param dataSource
@@ -70,6 +77,15 @@ public class SpringJDBCStatisticsDaoImpl implements StatisticsDao {
 	public void setOwnerDao(OwnerDao ownerDao) {
 		this.ownerDao = ownerDao;
 	}
+	/**
+	 * Optional.
+	 * 
+	 * @param dailyEventCountsRollup the dailyEventCountsRollup to set
+	 */
+	@Autowired(required=false)
+	public void setDailyEventCountsRollup(DailyEventCountsRollup dailyEventCountsRollup) {
+		this.dailyEventCountsRollup = dailyEventCountsRollup;
+	}
 	
 	/*
 	 * (non-Javadoc)
@@ -77,6 +93,10 @@ public class SpringJDBCStatisticsDaoImpl implements StatisticsDao {
 	 */
 	@Override
 	public List<DailyEventSummary> getEventCounts(Date startTime, Date endTime) {
+		Date watermark = getRollupWatermark();
+		if(watermark != null) {
+			return getRolledUpEventCounts(startTime, endTime, watermark, null);
+		}
 		List<DailyEventSummary> dailyCounts = this.simpleJdbcTemplate.query(
 				"select month,day,year,count(*) as num_events from (select to_char(event_timestamp,'MM') as month, to_char(event_timestamp,'DD') as day, to_char(event_timestamp,'YYYY') as year from EVENT_STATISTICS where EVENT_TIMESTAMP >= ? and EVENT_TIMESTAMP <= ?) group by year,month,day order by year,month,day",
 			new DailyEventSummaryRowMapper(),
@@ -92,6 +112,10 @@ public class SpringJDBCStatisticsDaoImpl implements StatisticsDao {
 	@Override
 	public List<DailyEventSummary> getEventCounts(Date startTime, Date endTime,
 			EventType eventType) {
+		Date watermark = getRollupWatermark();
+		if(watermark != null) {
+			return getRolledUpEventCounts(startTime, endTime, watermark, eventType);
+		}
 		List<DailyEventSummary> dailyCounts = this.simpleJdbcTemplate.query(
 				"select month,day,year,count(*) as num_events from (select to_char(event_timestamp,'MM') as month, to_char(event_timestamp,'DD') as day, to_char(event_timestamp,'YYYY') as year from EVENT_STATISTICS where EVENT_TIMESTAMP >= ? and EVENT_TIMESTAMP <= ? and EVENT_TYPE = ?) group by year,month,day order by year,month,day",
 			new DailyEventSummaryRowMapper(),
@@ -222,6 +246,101 @@ public class SpringJDBCStatisticsDaoImpl implements StatisticsDao {
 		return results;
 	}
 	
+	/**
+	 * 
+	 * @return the watermark of the {@link DailyEventCountsRollup}, or null if there is none (or no rollup has completed)
+	 */
+	protected Date getRollupWatermark() {
+		return dailyEventCountsRollup == null ? null : dailyEventCountsRollup.getWatermark();
+	}
+	/**
+	 * Read the counts for the whole days within the range before the day of the watermark from daily_event_counts
+	 * (the counts for the day of the watermark may be incomplete), and count the raw events for the other days:
+	 * those after, and the partial first and last days of the range. Like the query on the raw events, 
+	 * both startTime and endTime are inclusive.
+	 * 
+	 * @param startTime
+	 * @param endTime
+	 * @param watermark
+	 * @param eventType optional
+	 * @return the counts for each day with events, in order
+	 */
+	protected List<DailyEventSummary> getRolledUpEventCounts(Date startTime, Date endTime, Date watermark, EventType eventType) {
+		final Date firstDay = DateUtils.truncate(startTime, Calendar.DATE);
+		final Date lastDay = DateUtils.truncate(endTime, Calendar.DATE);
+		final Date watermarkDay = DateUtils.truncate(watermark, Calendar.DATE);
+		// the whole days within the range, [rolledUpStart, rolledUpEnd), that have been rolled up
+		final Date rolledUpStart = firstDay.equals(startTime) ? firstDay : DateUtils.addDays(firstDay, 1);
+		final Date rolledUpEnd = lastDay.before(watermarkDay) ? lastDay : watermarkDay;
+		
+		List<DailyEventSummary> dailyCounts = new ArrayList<DailyEventSummary>();
+		for(Date day = firstDay; !day.after(lastDay); day = DateUtils.addDays(day, 1)) {
+			if(day.equals(rolledUpStart) && rolledUpStart.before(rolledUpEnd)) {
+				dailyCounts.addAll(getDailyEventCounts(rolledUpStart, rolledUpEnd, eventType));
+				day = DateUtils.addDays(rolledUpEnd, -1);
+				continue;
+			}
+			Date nextDay = DateUtils.addDays(day, 1);
+			Date rangeStart = day.before(startTime) ? startTime : day;
+			long count;
+			if(nextDay.after(endTime)) {
+				count = countEvents(rangeStart, endTime, true, eventType);
+			} else {
+				count = countEvents(rangeStart, nextDay, false, eventType);
+			}
+			if(count > 0) {
+				DailyEventSummary summary = new DailyEventSummary();
+				summary.setDate(day);
+				summary.setEventCount(count);
+				dailyCounts.add(summary);
+			}
+		}
+		return dailyCounts;
+	}
+	/**
+	 * 
+	 * @param startDay inclusive
+	 * @param endDay exclusive
+	 * @param eventType optional
+	 * @return the counts from daily_event_counts for each day with events, in order
+	 */
+	protected List<DailyEventSummary> getDailyEventCounts(Date startDay, Date endDay, EventType eventType) {
+		RowMapper<DailyEventSummary> rowMapper = new RowMapper<DailyEventSummary>() {
+			@Override
+			public DailyEventSummary mapRow(ResultSet rs, int rowNum) throws SQLException {
+				DailyEventSummary result = new DailyEventSummary();
+				result.setDate(new Date(rs.getTimestamp("event_day").getTime()));
+				result.setEventCount(rs.getLong("num_events"));
+				return result;
+			}
+		};
+		if(eventType == null) {
+			return this.simpleJdbcTemplate.query(
+					"select event_day,sum(event_count) as num_events from daily_event_counts where event_day >= ? and event_day < ? group by event_day order by event_day", 
+					rowMapper, startDay, endDay);
+		}
+		return this.simpleJdbcTemplate.query(
+				"select event_day,sum(event_count) as num_events from daily_event_counts where event_day >= ? and event_day < ? and event_type = ? group by event_day order by event_day", 
+				rowMapper, startDay, endDay, eventType.toString());
+	}
+	/**
+	 * 
+	 * @param rangeStart inclusive
+	 * @param rangeEnd
+	 * @param endInclusive if true, count events stamped at rangeEnd
+	 * @param eventType optional
+	 * @return the number of raw events in the range
+	 */
+	protected long countEvents(Date rangeStart, Date rangeEnd, boolean endInclusive, EventType eventType) {
+		final String endOperator = endInclusive ? "<=" : "<";
+		if(eventType == null) {
+			return this.simpleJdbcTemplate.queryForLong("select count(*) from event_statistics where event_timestamp >= ? and event_timestamp " + endOperator + " ?", 
+					rangeStart, rangeEnd);
+		}
+		return this.simpleJdbcTemplate.queryForLong("select count(*) from event_statistics where event_timestamp >= ? and event_timestamp " + endOperator + " ? and event_type = ?", 
+				rangeStart, rangeEnd, eventType.toString());
+	}
+	
 	/**
 	 * {@link RowMapper} for {@link DailyEventSummary} objects.
 	 *
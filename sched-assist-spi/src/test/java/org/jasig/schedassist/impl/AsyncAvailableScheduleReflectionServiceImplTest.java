@@ -0,0 +1,220 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.Preferences;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AsyncAvailableScheduleReflectionServiceImpl}; the reflection itself is stubbed.
+ * 
+ * @version $Id: AsyncAvailableScheduleReflectionServiceImplTest.java $
+ */
+public class AsyncAvailableScheduleReflectionServiceImplTest {
+
+	private StubReflectionService service;
+	
+	@After
+	public void tearDown() throws Exception {
+		if(service != null) {
+			service.destroy();
+		}
+	}
+	
+	/**
+	 * Repeated requests for a waiting owner result in one reflection; distinct owners are reflected in parallel.
+	 */
+	@Test
+	public void testCoalesceAndParallel() throws Exception {
+		final CountDownLatch running = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		service = new StubReflectionService() {
+			@Override
+			protected boolean reflectStub(IScheduleOwner owner) throws InterruptedException {
+				running.countDown();
+				release.await();
+				return true;
+			}
+		};
+		service.setSettleMillis(50);
+		service.afterPropertiesSet();
+		
+		IScheduleOwner owner1 = reflectingOwner(1);
+		IScheduleOwner owner2 = reflectingOwner(2);
+		service.reflectAvailableSchedule(owner1);
+		service.reflectAvailableSchedule(owner1);
+		service.reflectAvailableSchedule(owner1);
+		service.reflectAvailableSchedule(owner2);
+		Assert.assertEquals(2, service.getQueueDepth());
+		Assert.assertEquals(2, service.getCoalescedCount());
+		
+		Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, service.getActiveCount());
+		Assert.assertEquals(0, service.getQueueDepth());
+		release.countDown();
+		awaitProcessed(2);
+		Assert.assertEquals(2, service.reflected.size());
+		Assert.assertTrue(service.reflected.contains(1L));
+		Assert.assertTrue(service.reflected.contains(2L));
+	}
+	
+	/**
+	 * A request arriving while the owner is being reflected waits for that reflection to complete.
+	 */
+	@Test
+	public void testOwnerReflectedSerially() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+		service = new StubReflectionService() {
+			@Override
+			protected boolean reflectStub(IScheduleOwner owner) throws InterruptedException {
+				int c = concurrent.incrementAndGet();
+				maxConcurrent.set(Math.max(maxConcurrent.get(), c));
+				running.countDown();
+				release.await();
+				concurrent.decrementAndGet();
+				return true;
+			}
+		};
+		service.setSettleMillis(0);
+		service.afterPropertiesSet();
+		
+		IScheduleOwner owner = reflectingOwner(1);
+		service.reflectAvailableSchedule(owner);
+		Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+		service.reflectAvailableSchedule(owner);
+		service.processReflectQueue();
+		Assert.assertEquals(1, service.getActiveCount());
+		Assert.assertEquals(1, service.getQueueDepth());
+		release.countDown();
+		awaitProcessed(2);
+		Assert.assertEquals(1, maxConcurrent.get());
+	}
+	
+	/**
+	 * A failed reflection is retried after the backoff, until the attempts are exhausted.
+	 */
+	@Test
+	public void testRetry() throws Exception {
+		final AtomicInteger failures = new AtomicInteger(1);
+		service = new StubReflectionService() {
+			@Override
+			protected boolean reflectStub(IScheduleOwner owner) {
+				if(owner.getId() == 2 || failures.getAndDecrement() > 0) {
+					throw new IllegalStateException("calendar server unavailable");
+				}
+				return true;
+			}
+		};
+		service.setSettleMillis(0);
+		service.setRetryBackoffMillis(10);
+		service.setMaxAttempts(3);
+		service.afterPropertiesSet();
+		
+		service.reflectAvailableSchedule(reflectingOwner(1));
+		service.reflectAvailableSchedule(reflectingOwner(2));
+		awaitProcessed(1);
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(service.getFailedCount() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, service.getFailedCount());
+		// owner 1 once, owner 2 twice
+		Assert.assertEquals(3, service.getRetryCount());
+		Assert.assertEquals(0, service.getQueueDepth());
+	}
+	
+	/**
+	 * Owners that do not reflect their schedule are not queued.
+	 */
+	@Test
+	public void testNotReflecting() throws Exception {
+		service = new StubReflectionService();
+		service.afterPropertiesSet();
+		service.reflectAvailableSchedule(new MockScheduleOwner(new MockCalendarAccount(), 1));
+		Assert.assertEquals(0, service.getQueueDepth());
+	}
+	
+	/**
+	 * 
+	 * @param expected
+	 * @throws InterruptedException
+	 */
+	private void awaitProcessed(long expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(service.getProcessedCount() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, service.getProcessedCount());
+	}
+	/**
+	 * 
+	 * @param id
+	 * @return a {@link MockScheduleOwner} with {@link Preferences#REFLECT_SCHEDULE} set
+	 */
+	private static IScheduleOwner reflectingOwner(long id) {
+		MockScheduleOwner owner = new MockScheduleOwner(new MockCalendarAccount(), id);
+		owner.setPreference(Preferences.REFLECT_SCHEDULE, "true");
+		return owner;
+	}
+	
+	/**
+	 * Records the owners reflected instead of locking and writing the calendar.
+	 */
+	private static class StubReflectionService extends AsyncAvailableScheduleReflectionServiceImpl {
+		private final List<Long> reflected = Collections.synchronizedList(new ArrayList<Long>());
+		
+		@Override
+		protected boolean processScheduleOwner(IScheduleOwner owner) {
+			try {
+				boolean result = reflectStub(owner);
+				reflected.add(owner.getId());
+				return result;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		/**
+		 * 
+		 * @param owner
+		 * @return true
+		 * @throws InterruptedException
+		 */
+		protected boolean reflectStub(IScheduleOwner owner) throws InterruptedException {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BoundedCalendarRequestExecutor}.
+ *
+ * @version $Id: BoundedCalendarRequestExecutorTest.java $
+ */
+public class BoundedCalendarRequestExecutorTest {
+
+	private BoundedCalendarRequestExecutor executor;
+	private CountDownLatch release;
+
+	@Before
+	public void setUp() {
+		executor = new BoundedCalendarRequestExecutor(1, 1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		executor.destroy();
+	}
+
+	/**
+	 * The result of the task is returned, and its {@link RuntimeException} rethrown.
+	 */
+	@Test
+	public void testExecute() {
+		Assert.assertEquals("result", executor.execute(new Callable<String>() {
+			@Override
+			public String call() {
+				return "result";
+			}
+		}));
+		try {
+			executor.execute(new Callable<String>() {
+				@Override
+				public String call() {
+					throw new IllegalArgumentException("unexpected");
+				}
+			});
+			Assert.fail("expected IllegalArgumentException not thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("unexpected", e.getMessage());
+		}
+		Assert.assertEquals(2, executor.getRequestCount());
+		Assert.assertEquals(0, executor.getRejectedCount());
+	}
+
+	/**
+	 * A task that does not complete within the timeout is cancelled.
+	 */
+	@Test
+	public void testTimeout() throws Exception {
+		executor.setTimeoutMillis(50);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		try {
+			executor.execute(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						interrupted.countDown();
+						throw e;
+					}
+					return "late";
+				}
+			});
+			Assert.fail("expected CalendarRequestRejectedException not thrown");
+		} catch (CalendarRequestRejectedException e) {
+			// success
+		}
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, executor.getTimeoutCount());
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(executor.getAbandonedRunningCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, executor.getAbandonedRunningCount());
+	}
+
+	/**
+	 * A task that ignores the interrupt (like a blocking socket read) is counted as abandoned
+	 * and still running until it returns.
+	 */
+	@Test
+	public void testAbandonedRunning() throws Exception {
+		executor.setTimeoutMillis(50);
+		final CountDownLatch finished = new CountDownLatch(1);
+		try {
+			executor.execute(new Callable<String>() {
+				@Override
+				public String call() {
+					try {
+						while(true) {
+							try {
+								release.await();
+								return "late";
+							} catch (InterruptedException e) {
+								// ignored, as by a blocking socket read
+							}
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+			Assert.fail("expected CalendarRequestRejectedException not thrown");
+		} catch (CalendarRequestRejectedException e) {
+			// success
+		}
+		Assert.assertEquals(1, executor.getAbandonedRunningCount());
+		Assert.assertEquals(1, executor.getActiveCount());
+
+		release.countDown();
+		Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(executor.getAbandonedRunningCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, executor.getAbandonedRunningCount());
+	}
+
+	/**
+	 * With the only thread busy and the queue full, a further request is refused immediately.
+	 */
+	@Test
+	public void testSaturated() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final Callable<String> blocking = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				started.countDown();
+				release.await();
+				return "blocked";
+			}
+		};
+		// occupy the thread, then the queue
+		Thread running = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(blocking);
+			}
+		});
+		running.start();
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Thread waiting = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(blocking);
+			}
+		});
+		waiting.start();
+		long deadline = System.currentTimeMillis() + 5000L;
+		while(executor.getQueueDepth() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, executor.getQueueDepth());
+
+		try {
+			executor.execute(blocking);
+			Assert.fail("expected CalendarRequestRejectedException not thrown");
+		} catch (CalendarRequestRejectedException e) {
+			// success
+		}
+		Assert.assertEquals(1, executor.getRejectedCount());
+
+		release.countDown();
+		running.join(5000L);
+		waiting.join(5000L);
+		Assert.assertEquals(0, executor.getQueueDepth());
+	}
+}
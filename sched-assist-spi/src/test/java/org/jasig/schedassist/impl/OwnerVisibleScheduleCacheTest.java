@@ -0,0 +1,266 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.easymock.EasyMock;
+import org.jasig.schedassist.ICalendarDataDao;
+import org.jasig.schedassist.impl.events.AppointmentCreatedEvent;
+import org.jasig.schedassist.impl.events.AutomaticAppointmentCancellationEvent;
+import org.jasig.schedassist.impl.events.AvailableScheduleChangedEvent;
+import org.jasig.schedassist.impl.owner.AvailableScheduleDao;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.AvailableSchedule;
+import org.jasig.schedassist.model.AvailableStatus;
+import org.jasig.schedassist.model.DefaultEventUtilsImpl;
+import org.jasig.schedassist.model.OwnerVisibleSchedule;
+import org.jasig.schedassist.model.Preferences;
+import org.jasig.schedassist.model.VisibleSchedule;
+import org.jasig.schedassist.model.VisibleScheduleBuilder;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.jasig.schedassist.model.mock.MockScheduleVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests for {@link OwnerVisibleScheduleCache}.
+ *
+ * @version $Id: OwnerVisibleScheduleCacheTest.java $
+ */
+public class OwnerVisibleScheduleCacheTest {
+
+	private CacheManager cacheManager;
+	private OwnerVisibleScheduleCache ownerCache;
+
+	@Before
+	public void setUp() {
+		cacheManager = new CacheManager();
+		Cache cache = new Cache("ownerVisibleScheduleCacheTest", 100, false, false, 120, 120);
+		cacheManager.addCache(cache);
+		ownerCache = new OwnerVisibleScheduleCache(cache);
+	}
+
+	@After
+	public void tearDown() {
+		cacheManager.shutdown();
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetPutEvict() throws Exception {
+		MockScheduleOwner owner = newOwner("owner1");
+		Date start = new Date();
+		Date end = DateUtils.addWeeks(start, 1);
+		OwnerVisibleSchedule schedule = newOwnerSchedule(owner, start, end);
+
+		Assert.assertNull(ownerCache.get(owner, start, end));
+		Assert.assertTrue(ownerCache.put(owner, schedule, ownerCache.getGeneration(owner.getCalendarAccount())));
+		Assert.assertSame(schedule, ownerCache.get(owner, start, end));
+		Assert.assertSame(schedule, ownerCache.get(owner, DateUtils.addDays(start, 1), DateUtils.addDays(start, 2)));
+		// outside of the cached window
+		Assert.assertNull(ownerCache.get(owner, start, DateUtils.addMinutes(end, 1)));
+		// other owners unaffected
+		Assert.assertNull(ownerCache.get(newOwner("owner2"), start, end));
+
+		// change in meeting durations
+		owner.setPreference(Preferences.DURATIONS, "45");
+		Assert.assertNull(ownerCache.get(owner, start, end));
+		owner.setPreference(Preferences.DURATIONS, Preferences.DURATIONS.getDefaultValue());
+		Assert.assertSame(schedule, ownerCache.get(owner, start, end));
+
+		ownerCache.evict(owner.getCalendarAccount());
+		Assert.assertNull(ownerCache.get(owner, start, end));
+	}
+
+	/**
+	 * A schedule read before an eviction must not be stored.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testPutAfterEvictionIgnored() throws Exception {
+		MockScheduleOwner owner = newOwner("owner1");
+		Date start = new Date();
+		Date end = DateUtils.addWeeks(start, 1);
+
+		long generation = ownerCache.getGeneration(owner.getCalendarAccount());
+		ownerCache.evict(owner.getCalendarAccount());
+		Assert.assertFalse(ownerCache.put(owner, newOwnerSchedule(owner, start, end), generation));
+		Assert.assertNull(ownerCache.get(owner, start, end));
+		
+		// evictions for other owners do not prevent storing the owner's schedule
+		generation = ownerCache.getGeneration(owner.getCalendarAccount());
+		MockScheduleOwner other = newOwner("owner2");
+		ownerCache.evict(other.getCalendarAccount());
+		Assert.assertTrue(ownerCache.put(owner, newOwnerSchedule(owner, start, end), generation));
+		Assert.assertNotNull(ownerCache.get(owner, start, end));
+	}
+	
+	/**
+	 * An event published within a transaction evicts when the transaction commits, 
+	 * and a schedule read before the commit is not stored.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testEvictAfterCommit() throws Exception {
+		MockScheduleOwner owner = newOwner("owner1");
+		Date start = new Date();
+		Date end = DateUtils.addWeeks(start, 1);
+		OwnerVisibleSchedule schedule = newOwnerSchedule(owner, start, end);
+		ownerCache.put(owner, schedule, ownerCache.getGeneration(owner.getCalendarAccount()));
+		
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			ownerCache.onApplicationEvent(new AvailableScheduleChangedEvent(new AvailableSchedule(new java.util.TreeSet<AvailableBlock>()), owner));
+			Assert.assertSame(schedule, ownerCache.get(owner, start, end));
+			// read by another request before the commit
+			long generation = ownerCache.getGeneration(owner.getCalendarAccount());
+			
+			List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+			Assert.assertEquals(1, synchronizations.size());
+			for(TransactionSynchronization synchronization: synchronizations) {
+				synchronization.afterCommit();
+			}
+			Assert.assertNull(ownerCache.get(owner, start, end));
+			Assert.assertFalse(ownerCache.put(owner, schedule, generation));
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testApplicationEvents() throws Exception {
+		MockScheduleOwner owner = newOwner("owner1");
+		MockScheduleOwner other = newOwner("owner2");
+		MockScheduleVisitor visitor = new MockScheduleVisitor(newAccount("visitor"));
+		Date start = new Date();
+		Date end = DateUtils.addWeeks(start, 1);
+		OwnerVisibleSchedule schedule = newOwnerSchedule(owner, start, end);
+		AvailableBlock block = AvailableBlockBuilder.createBlock(start, DateUtils.addMinutes(start, 30));
+		VEvent event = new DefaultEventUtilsImpl().constructAvailableAppointment(block, owner, visitor, "description");
+
+		ownerCache.put(owner, schedule, ownerCache.getGeneration(owner.getCalendarAccount()));
+		ownerCache.onApplicationEvent(new ContextRefreshedEvent(EasyMock.createMock(org.springframework.context.ApplicationContext.class)));
+		Assert.assertNotNull(ownerCache.get(owner, start, end));
+		ownerCache.onApplicationEvent(new AppointmentCreatedEvent(event, other, visitor, block, "description"));
+		Assert.assertNotNull(ownerCache.get(owner, start, end));
+		ownerCache.onApplicationEvent(new AppointmentCreatedEvent(event, owner, visitor, block, "description"));
+		Assert.assertNull(ownerCache.get(owner, start, end));
+
+		ownerCache.put(owner, schedule, ownerCache.getGeneration(owner.getCalendarAccount()));
+		ownerCache.onApplicationEvent(new AvailableScheduleChangedEvent(new AvailableSchedule(new java.util.TreeSet<AvailableBlock>()), owner));
+		Assert.assertNull(ownerCache.get(owner, start, end));
+
+		ownerCache.put(owner, schedule, ownerCache.getGeneration(owner.getCalendarAccount()));
+		ownerCache.onApplicationEvent(new AutomaticAppointmentCancellationEvent(event, owner.getCalendarAccount(),
+				AutomaticAppointmentCancellationEvent.Reason.OWNER_DECLINED));
+		Assert.assertNull(ownerCache.get(owner, start, end));
+	}
+
+	/**
+	 * Second visitor's request is served without going to the {@link ICalendarDataDao}
+	 * or {@link AvailableScheduleDao}; an appointment event forces a reload.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSchedulingAssistantServiceUsesCache() throws Exception {
+		MockScheduleOwner owner = newOwner("owner1");
+		MockScheduleVisitor visitor1 = new MockScheduleVisitor(newAccount("visitor1"));
+		MockScheduleVisitor visitor2 = new MockScheduleVisitor(newAccount("visitor2"));
+
+		Date today = DateUtils.truncate(new Date(), java.util.Calendar.DATE);
+		AvailableSchedule schedule = new AvailableSchedule(AvailableBlockBuilder.createBlocks("9:00 AM", "5:00 PM", "MTWRFSN",
+				DateUtils.addDays(today, 2), DateUtils.addDays(today, 9)));
+		// visitor1 has an appointment at 9:00 AM 3 days from today, inside of the owner's default visible window (24 hours to 3 weeks)
+		AvailableBlock appointmentBlock = AvailableBlockBuilder.createBlock(DateUtils.addHours(DateUtils.addDays(today, 3), 9),
+				DateUtils.addMinutes(DateUtils.addDays(today, 3), 9 * 60 + 30));
+		ComponentList components = new ComponentList();
+		components.add(new DefaultEventUtilsImpl().constructAvailableAppointment(appointmentBlock, owner, visitor1, "description"));
+		Calendar calendar = new Calendar(components);
+
+		ICalendarDataDao calendarDao = EasyMock.createMock(ICalendarDataDao.class);
+		EasyMock.expect(calendarDao.getCalendar(EasyMock.eq(owner.getCalendarAccount()), EasyMock.isA(Date.class), EasyMock.isA(Date.class)))
+			.andReturn(calendar).times(2);
+		AvailableScheduleDao scheduleDao = EasyMock.createMock(AvailableScheduleDao.class);
+		EasyMock.expect(scheduleDao.retrieve(owner)).andReturn(schedule).times(2);
+		EasyMock.replay(calendarDao, scheduleDao);
+
+		SchedulingAssistantServiceImpl service = new SchedulingAssistantServiceImpl();
+		service.setCalendarDataDao(calendarDao);
+		service.setAvailableScheduleDao(scheduleDao);
+		service.setVisibleScheduleBuilder(new VisibleScheduleBuilder());
+		service.setEventUtils(new DefaultEventUtilsImpl());
+		service.setOwnerVisibleScheduleCache(ownerCache);
+
+		VisibleSchedule result1 = service.getVisibleSchedule(visitor1, owner);
+		VisibleSchedule result2 = service.getVisibleSchedule(visitor2, owner);
+		Assert.assertEquals(1, result1.getAttendingCount());
+		Assert.assertEquals(AvailableStatus.ATTENDING, result1.getBlockMap().get(appointmentBlock));
+		Assert.assertEquals(0, result2.getAttendingCount());
+		Assert.assertEquals(AvailableStatus.BUSY, result2.getBlockMap().get(appointmentBlock));
+		Assert.assertEquals(result1.getSize(), result2.getSize());
+
+		ownerCache.onApplicationEvent(new AppointmentCreatedEvent((VEvent) components.get(0), owner, visitor1, appointmentBlock, "description"));
+		service.getVisibleSchedule(visitor2, owner);
+		EasyMock.verify(calendarDao, scheduleDao);
+	}
+
+	private MockCalendarAccount newAccount(String username) {
+		MockCalendarAccount account = new MockCalendarAccount();
+		account.setUsername(username);
+		account.setCalendarUniqueId(username + "-id");
+		account.setEmailAddress(username + "@wisc.edu");
+		account.setDisplayName(username);
+		return account;
+	}
+	private MockScheduleOwner newOwner(String username) {
+		return new MockScheduleOwner(newAccount(username), 1);
+	}
+	private OwnerVisibleSchedule newOwnerSchedule(MockScheduleOwner owner, Date start, Date end) {
+		return new OwnerVisibleSchedule(start, end, new VisibleSchedule(owner.getPreferredMeetingDurations()),
+				new ArrayList<OwnerVisibleSchedule.AppointmentInstance>());
+	}
+}
@@ -20,13 +20,23 @@
 package org.jasig.schedassist.impl;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import junit.framework.Assert;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 import net.fortuna.ical4j.model.PropertyList;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.property.Attendee;
 
+import org.apache.commons.lang.time.DateUtils;
 import org.easymock.EasyMock;
+import org.jasig.schedassist.ConditionalCalendarDataDao;
+import org.jasig.schedassist.ConflictExistsException;
+import org.jasig.schedassist.FreeBusyDataDao;
 import org.jasig.schedassist.ICalendarDataDao;
 import org.jasig.schedassist.NullAffiliationSourceImpl;
 import org.jasig.schedassist.SchedulingException;
@@ -36,8 +46,10 @@ import org.jasig.schedassist.impl.visitor.DefaultScheduleVisitorImpl;
 import org.jasig.schedassist.model.AppointmentRole;
 import org.jasig.schedassist.model.AvailableBlock;
 import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.AvailableSchedule;
 import org.jasig.schedassist.model.CommonDateOperations;
 import org.jasig.schedassist.model.DefaultEventUtilsImpl;
+import org.jasig.schedassist.model.VisibleScheduleBuilder;
 import org.jasig.schedassist.model.mock.MockCalendarAccount;
 import org.junit.Test;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
@@ -518,4 +530,159 @@ public class SchedulingAssistantServiceImplTest {
 		
 		EasyMock.verify(mockCalendarDao);
 	}
+	
+	/**
+	 * When the {@link FreeBusyDataDao} returns busy periods, the visitor's calendar data is not retrieved.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCalculateVisitorConflictsFreeBusy() throws Exception {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setUsername("user1");
+		DefaultScheduleOwnerImpl owner = new DefaultScheduleOwnerImpl(ownerAccount, 1);
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setUsername("user2");
+		DefaultScheduleVisitorImpl visitor = new DefaultScheduleVisitorImpl(visitorAccount);
+		
+		// 2 30 minute blocks, 3 days from now; the visitor is busy for the first
+		Date blockStart = DateUtils.addHours(DateUtils.truncate(DateUtils.addDays(new Date(), 3), java.util.Calendar.DATE), 9);
+		AvailableBlock block = AvailableBlockBuilder.createBlock(blockStart, DateUtils.addHours(blockStart, 1));
+		AvailableSchedule schedule = new AvailableSchedule(Collections.singleton(block));
+		PeriodList busyPeriods = new PeriodList();
+		busyPeriods.add(new Period(new DateTime(blockStart), new DateTime(DateUtils.addMinutes(blockStart, 30))));
+		
+		ICalendarDataDao mockCalendarDao = EasyMock.createMock(ICalendarDataDao.class);
+		FreeBusyDataDao mockFreeBusyDao = EasyMock.createMock(FreeBusyDataDao.class);
+		EasyMock.expect(mockFreeBusyDao.getBusyPeriods(EasyMock.eq(visitorAccount), EasyMock.isA(Date.class), EasyMock.isA(Date.class))).andReturn(busyPeriods);
+		AvailableScheduleDao mockScheduleDao = EasyMock.createMock(AvailableScheduleDao.class);
+		EasyMock.expect(mockScheduleDao.retrieve(EasyMock.eq(owner), EasyMock.isA(Date.class), EasyMock.isA(Date.class))).andReturn(schedule);
+		EasyMock.replay(mockCalendarDao, mockFreeBusyDao, mockScheduleDao);
+		
+		SchedulingAssistantServiceImpl serviceImpl = new SchedulingAssistantServiceImpl();
+		serviceImpl.setCalendarDataDao(mockCalendarDao);
+		serviceImpl.setFreeBusyDataDao(mockFreeBusyDao);
+		serviceImpl.setAvailableScheduleDao(mockScheduleDao);
+		serviceImpl.setVisibleScheduleBuilder(new VisibleScheduleBuilder(new DefaultEventUtilsImpl(new NullAffiliationSourceImpl())));
+		
+		List<AvailableBlock> conflicts = serviceImpl.calculateVisitorConflicts(visitor, owner, new Date(), DateUtils.addDays(new Date(), 7));
+		Assert.assertEquals(1, conflicts.size());
+		Assert.assertEquals(blockStart, conflicts.get(0).getStartTime());
+		
+		EasyMock.verify(mockCalendarDao, mockFreeBusyDao, mockScheduleDao);
+	}
+	
+	/**
+	 * Once a one-on-one slot is booked, further requests for it fail with {@link ConflictExistsException}
+	 * without contacting the calendar system, until the appointment is cancelled.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testScheduleAppointmentSlotFullFailsFast() throws Exception {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setUsername("user1");
+		ownerAccount.setEmailAddress("owner@domain.com");
+		ownerAccount.setDisplayName("OWNER OWNER");
+		DefaultScheduleOwnerImpl owner = new DefaultScheduleOwnerImpl(ownerAccount, 1);
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setUsername("v1");
+		visitorAccount.setEmailAddress("v1@doit.wisc.edu");
+		visitorAccount.setDisplayName("VISITOR ONE");
+		DefaultScheduleVisitorImpl visitor = new DefaultScheduleVisitorImpl(visitorAccount);
+		MockCalendarAccount visitor2Account = new MockCalendarAccount();
+		visitor2Account.setUsername("v2");
+		visitor2Account.setEmailAddress("v2@doit.wisc.edu");
+		visitor2Account.setDisplayName("VISITOR TWO");
+		DefaultScheduleVisitorImpl visitor2 = new DefaultScheduleVisitorImpl(visitor2Account);
+		
+		AvailableBlock targetBlock = AvailableBlockBuilder.createBlock("20091111-1330", "20091111-1400", 1);
+		VEvent expectedEvent = new DefaultEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(targetBlock, owner, visitor, "description");
+		
+		// calendar dao is consulted only by the first visitor and the cancel
+		ICalendarDataDao mockCalendarDao = EasyMock.createMock(ICalendarDataDao.class);
+		mockCalendarDao.checkForConflicts(owner, targetBlock);
+		EasyMock.expectLastCall();
+		EasyMock.expect(mockCalendarDao.createAppointment(visitor, owner, targetBlock, "description")).andReturn(expectedEvent);
+		EasyMock.expect(mockCalendarDao.getExistingAppointment(owner, targetBlock)).andReturn(expectedEvent);
+		mockCalendarDao.cancelAppointment(visitor, owner, expectedEvent);
+		EasyMock.expectLastCall();
+		AvailableScheduleDao mockScheduleDao = EasyMock.createMock(AvailableScheduleDao.class);
+		EasyMock.expect(mockScheduleDao.retrieveTargetBlock(owner, CommonDateOperations.parseDateTimePhrase("20091111-1330"))).andReturn(targetBlock).times(2);
+		EasyMock.replay(mockCalendarDao, mockScheduleDao);
+		
+		SchedulingAssistantServiceImpl serviceImpl = new SchedulingAssistantServiceImpl();
+		serviceImpl.setAvailableScheduleDao(mockScheduleDao);
+		serviceImpl.setCalendarDataDao(mockCalendarDao);
+		serviceImpl.setEventUtils(new DefaultEventUtilsImpl(new NullAffiliationSourceImpl()));
+		AppointmentSlotStateCache slotStateCache = new AppointmentSlotStateCache();
+		serviceImpl.setAppointmentSlotStateCache(slotStateCache);
+		
+		Assert.assertEquals(expectedEvent, serviceImpl.scheduleAppointment(visitor, owner, targetBlock, "description"));
+		Assert.assertEquals(AppointmentSlotStateCache.SlotState.FULL, slotStateCache.get(owner, targetBlock));
+		try {
+			serviceImpl.scheduleAppointment(visitor2, owner, targetBlock, "description");
+			Assert.fail("expected ConflictExistsException not thrown");
+		} catch (ConflictExistsException e) {
+			// success
+		}
+		
+		serviceImpl.cancelAppointment(visitor, owner, expectedEvent, targetBlock, "cancel");
+		Assert.assertNull(slotStateCache.get(owner, targetBlock));
+		EasyMock.verify(mockCalendarDao, mockScheduleDao);
+	}
+	
+	/**
+	 * With optimistic booking, the {@link ConditionalCalendarDataDao} creates the appointment without a conflict check;
+	 * its {@link ConflictExistsException} is remembered for the slot.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testScheduleAppointmentOptimistic() throws Exception {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setUsername("user1");
+		ownerAccount.setEmailAddress("owner@domain.com");
+		ownerAccount.setDisplayName("OWNER OWNER");
+		DefaultScheduleOwnerImpl owner = new DefaultScheduleOwnerImpl(ownerAccount, 1);
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setUsername("v1");
+		visitorAccount.setEmailAddress("v1@doit.wisc.edu");
+		visitorAccount.setDisplayName("VISITOR ONE");
+		DefaultScheduleVisitorImpl visitor = new DefaultScheduleVisitorImpl(visitorAccount);
+		
+		AvailableBlock targetBlock = AvailableBlockBuilder.createBlock("20091111-1330", "20091111-1400", 1);
+		AvailableBlock takenBlock = AvailableBlockBuilder.createBlock("20091111-1400", "20091111-1430", 1);
+		VEvent expectedEvent = new DefaultEventUtilsImpl(new NullAffiliationSourceImpl()).constructAvailableAppointment(targetBlock, owner, visitor, "description");
+		
+		// no calls to checkForConflicts or createAppointment
+		ICalendarDataDao mockCalendarDao = EasyMock.createMock(ICalendarDataDao.class);
+		ConditionalCalendarDataDao mockConditionalDao = EasyMock.createMock(ConditionalCalendarDataDao.class);
+		EasyMock.expect(mockConditionalDao.createAppointmentIfAbsent(visitor, owner, targetBlock, "description")).andReturn(expectedEvent);
+		EasyMock.expect(mockConditionalDao.createAppointmentIfAbsent(visitor, owner, takenBlock, "description")).andThrow(new ConflictExistsException("an appointment already exists"));
+		AvailableScheduleDao mockScheduleDao = EasyMock.createMock(AvailableScheduleDao.class);
+		EasyMock.expect(mockScheduleDao.retrieveTargetBlock(owner, CommonDateOperations.parseDateTimePhrase("20091111-1330"))).andReturn(targetBlock);
+		EasyMock.expect(mockScheduleDao.retrieveTargetBlock(owner, CommonDateOperations.parseDateTimePhrase("20091111-1400"))).andReturn(takenBlock);
+		EasyMock.replay(mockCalendarDao, mockConditionalDao, mockScheduleDao);
+		
+		SchedulingAssistantServiceImpl serviceImpl = new SchedulingAssistantServiceImpl();
+		serviceImpl.setAvailableScheduleDao(mockScheduleDao);
+		serviceImpl.setCalendarDataDao(mockCalendarDao);
+		serviceImpl.setConditionalCalendarDataDao(mockConditionalDao);
+		serviceImpl.setOptimisticBooking(true);
+		serviceImpl.setEventUtils(new DefaultEventUtilsImpl(new NullAffiliationSourceImpl()));
+		AppointmentSlotStateCache slotStateCache = new AppointmentSlotStateCache();
+		serviceImpl.setAppointmentSlotStateCache(slotStateCache);
+		
+		Assert.assertEquals(expectedEvent, serviceImpl.scheduleAppointment(visitor, owner, targetBlock, "description"));
+		Assert.assertEquals(AppointmentSlotStateCache.SlotState.FULL, slotStateCache.get(owner, targetBlock));
+		try {
+			serviceImpl.scheduleAppointment(visitor, owner, takenBlock, "description");
+			Assert.fail("expected ConflictExistsException not thrown");
+		} catch (ConflictExistsException e) {
+			// success
+		}
+		Assert.assertEquals(AppointmentSlotStateCache.SlotState.CONFLICT, slotStateCache.get(owner, takenBlock));
+		EasyMock.verify(mockCalendarDao, mockConditionalDao, mockScheduleDao);
+	}
 }
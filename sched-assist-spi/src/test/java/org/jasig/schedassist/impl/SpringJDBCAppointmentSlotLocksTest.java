@@ -0,0 +1,122 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.ICalendarAccountDao;
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.impl.owner.NeedsTestDatabase;
+import org.jasig.schedassist.impl.owner.SpringJDBCOwnerDaoImpl;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+/**
+ * Tests for {@link SpringJDBCAppointmentSlotLocks}.
+ * 
+ * Depends on {@link NeedsTestDatabase}; the test database does not support "select ... for update",
+ * so these tests cover the lock table and the callback, not blocking.
+ *  
+ * @version $Id: SpringJDBCAppointmentSlotLocksTest.java $
+ */
+public class SpringJDBCAppointmentSlotLocksTest extends NeedsTestDatabase {
+
+	private DataSource dataSource;
+	private SpringJDBCOwnerDaoImpl ownerDao;
+	private ICalendarAccountDao calendarAccountDao;
+	private SpringJDBCAppointmentSlotLocks slotLocks;
+	private IScheduleOwner owner;
+	
+	/**
+	 * @param dataSource the dataSource to set
+	 */
+	@Autowired
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+	/**
+	 * @param ownerDao the ownerDao to set
+	 */
+	@Autowired
+	public void setOwnerDao(SpringJDBCOwnerDaoImpl ownerDao) {
+		this.ownerDao = ownerDao;
+	}
+	/**
+	 * @param calendarAccountDao the calendarAccountDao to set
+	 */
+	@Autowired
+	public void setCalendarAccountDao(ICalendarAccountDao calendarAccountDao) {
+		this.calendarAccountDao = calendarAccountDao;
+	}
+	
+	@Override
+	public void afterCreate() throws Exception {
+		owner = ownerDao.register(calendarAccountDao.getCalendarAccount("user1"));
+		slotLocks = new SpringJDBCAppointmentSlotLocks();
+		slotLocks.setDataSource(dataSource);
+		slotLocks.setPlatformTransactionManager(new DataSourceTransactionManager(dataSource));
+	}
+	@Override
+	public void afterDestroy() throws Exception {
+	}
+	
+	/**
+	 * A row is stored once per slot; the result of the callback is returned and its {@link SchedulingException} rethrown.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDoWithLock() throws Exception {
+		Date blockStart = DateUtils.truncate(DateUtils.addDays(new Date(), 1), java.util.Calendar.HOUR);
+		Assert.assertEquals("result", slotLocks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<String>() {
+			@Override
+			public String doWithLock() {
+				return "result";
+			}
+		}));
+		final SchedulingException expected = new SchedulingException("expected");
+		try {
+			slotLocks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<String>() {
+				@Override
+				public String doWithLock() throws SchedulingException {
+					throw expected;
+				}
+			});
+			Assert.fail("expected SchedulingException not thrown");
+		} catch (SchedulingException e) {
+			Assert.assertSame(expected, e);
+		}
+		SimpleJdbcTemplate simpleJdbcTemplate = new SimpleJdbcTemplate(dataSource);
+		Assert.assertEquals(1, simpleJdbcTemplate.queryForInt("select count(*) from booking_locks where owner_id = ?", owner.getId()));
+		
+		// rows for slots that have started are removed
+		slotLocks.addSlotToLockTableIfNotPresent(owner, DateUtils.addDays(blockStart, -2));
+		Assert.assertEquals(2, simpleJdbcTemplate.queryForInt("select count(*) from booking_locks where owner_id = ?", owner.getId()));
+		slotLocks.removeExpiredLocks();
+		Assert.assertEquals(1, simpleJdbcTemplate.queryForInt("select count(*) from booking_locks where owner_id = ?", owner.getId()));
+	}
+}
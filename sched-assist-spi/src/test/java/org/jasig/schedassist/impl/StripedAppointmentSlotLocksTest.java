@@ -0,0 +1,160 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StripedAppointmentSlotLocks}.
+ *
+ * @version $Id: StripedAppointmentSlotLocksTest.java $
+ */
+public class StripedAppointmentSlotLocksTest {
+
+	private final MockScheduleOwner owner = new MockScheduleOwner(new MockCalendarAccount(), 1);
+	private final Date blockStart = DateUtils.truncate(new Date(), java.util.Calendar.HOUR);
+	
+	/**
+	 * The result of the callback is returned, and its {@link SchedulingException} rethrown.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testDoWithLock() throws Exception {
+		StripedAppointmentSlotLocks locks = new StripedAppointmentSlotLocks(4);
+		Assert.assertEquals("result", locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<String>() {
+			@Override
+			public String doWithLock() {
+				return "result";
+			}
+		}));
+		final SchedulingException expected = new SchedulingException("expected");
+		try {
+			locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<String>() {
+				@Override
+				public String doWithLock() throws SchedulingException {
+					throw expected;
+				}
+			});
+			Assert.fail("expected SchedulingException not thrown");
+		} catch (SchedulingException e) {
+			Assert.assertSame(expected, e);
+		}
+	}
+	
+	/**
+	 * A second caller for the same slot waits for the first; once the timeout elapses it is refused.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSameSlotSerialized() throws Exception {
+		final StripedAppointmentSlotLocks locks = new StripedAppointmentSlotLocks(4);
+		locks.setLockTimeoutMillis(50);
+		final CountDownLatch held = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<Object>() {
+						@Override
+						public Object doWithLock() {
+							held.countDown();
+							try {
+								release.await();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return null;
+						}
+					});
+				} catch (SchedulingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		holder.start();
+		Assert.assertTrue(held.await(5, TimeUnit.SECONDS));
+		try {
+			locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<Object>() {
+				@Override
+				public Object doWithLock() {
+					Assert.fail("callback should not be invoked while the slot is locked");
+					return null;
+				}
+			});
+			Assert.fail("expected SchedulingException not thrown");
+		} catch (SchedulingException e) {
+			// success
+		}
+		release.countDown();
+		holder.join(5000L);
+		
+		// slot free again
+		locks.setLockTimeoutMillis(5000);
+		Assert.assertEquals(Boolean.TRUE, locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<Boolean>() {
+			@Override
+			public Boolean doWithLock() {
+				return Boolean.TRUE;
+			}
+		}));
+	}
+	
+	/**
+	 * The clusterLocks are acquired within the stripe.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testClusterLocks() throws Exception {
+		final StripedAppointmentSlotLocks locks = new StripedAppointmentSlotLocks(4);
+		final boolean [] clusterLockHeld = new boolean[] { false };
+		locks.setClusterLocks(new AppointmentSlotLocks() {
+			@Override
+			public <T> T doWithLock(IScheduleOwner o, Date start, SlotCallback<T> callback) throws SchedulingException {
+				Assert.assertTrue(locks.stripeFor(o, start).isHeldByCurrentThread());
+				clusterLockHeld[0] = true;
+				try {
+					return callback.doWithLock();
+				} finally {
+					clusterLockHeld[0] = false;
+				}
+			}
+		});
+		Assert.assertEquals(Boolean.TRUE, locks.doWithLock(owner, blockStart, new AppointmentSlotLocks.SlotCallback<Boolean>() {
+			@Override
+			public Boolean doWithLock() {
+				return clusterLockHeld[0];
+			}
+		}));
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.events;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.jasig.schedassist.impl.owner.NeedsTestDatabase;
+import org.jasig.schedassist.model.AvailableBlock;
+import org.jasig.schedassist.model.AvailableBlockBuilder;
+import org.jasig.schedassist.model.mock.MockCalendarAccount;
+import org.jasig.schedassist.model.mock.MockScheduleOwner;
+import org.jasig.schedassist.model.mock.MockScheduleVisitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.simple.ParameterizedSingleColumnRowMapper;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.jdbc.support.incrementer.DataFieldMaxValueIncrementer;
+
+/**
+ * Test harness for {@link AppointmentStatisticsApplicationListener}.
+ * 
+ * Depends on {@link NeedsTestDatabase}.
+ * 
+ * @version $Id: AppointmentStatisticsApplicationListenerTest.java $
+ */
+public class AppointmentStatisticsApplicationListenerTest extends NeedsTestDatabase {
+
+	private AppointmentStatisticsApplicationListener listener;
+	
+	@Override
+	public void afterCreate() throws Exception {
+		listener = new AppointmentStatisticsApplicationListener();
+		listener.setDataSource(dataSource());
+		listener.setStatisticsEventIdSequence((DataFieldMaxValueIncrementer) this.applicationContext.getBean("eventIdSequenceGenerator"));
+		listener.setBatchSize(2);
+		listener.setFlushIntervalMillis(60000L);
+		listener.setIdBlockSize(10);
+	}
+	@Override
+	public void afterDestroy() throws Exception {
+	}
+	
+	/**
+	 * A full batch is inserted in the background; the remainder is inserted on destroy.
+	 * Ids are taken from a single block of the sequence.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchAndFlushOnDestroy() throws Exception {
+		listener.afterPropertiesSet();
+		try {
+			listener.onApplicationEvent(createdEvent("visitor1"));
+			listener.onApplicationEvent(createdEvent("visitor2"));
+			long deadline = System.currentTimeMillis() + 5000L;
+			while(listener.getWrittenCount() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			// flush() is synchronized; it returns once the background flush has finished (the queue is already empty)
+			listener.flush();
+			Assert.assertEquals(2, listener.getWrittenCount());
+			Assert.assertEquals(1, listener.getBatchCount());
+			listener.onApplicationEvent(createdEvent("visitor3"));
+			Assert.assertEquals(1, listener.getQueueDepth());
+		} finally {
+			listener.destroy();
+		}
+		Assert.assertEquals(3, listener.getWrittenCount());
+		Assert.assertEquals(2, listener.getBatchCount());
+		
+		SimpleJdbcTemplate template = new SimpleJdbcTemplate(dataSource());
+		List<Long> ids = template.query("select event_id from event_statistics order by event_id", ParameterizedSingleColumnRowMapper.newInstance(Long.class));
+		Assert.assertEquals(3, ids.size());
+		long first = ids.get(0);
+		Assert.assertEquals(0, first % 10);
+		Assert.assertEquals(first + 1, ids.get(1).longValue());
+		Assert.assertEquals(first + 2, ids.get(2).longValue());
+		Assert.assertEquals(1, template.queryForInt("select count(*) from event_statistics where visitor_id = ? and event_type = ?", "visitor3", "CREATED"));
+	}
+	
+	/**
+	 * Events beyond the queue capacity are dropped.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testQueueFull() throws Exception {
+		listener.setBatchSize(10);
+		listener.setQueueCapacity(2);
+		listener.afterPropertiesSet();
+		try {
+			listener.onApplicationEvent(createdEvent("visitor1"));
+			listener.onApplicationEvent(createdEvent("visitor2"));
+			listener.onApplicationEvent(createdEvent("visitor3"));
+			Assert.assertEquals(2, listener.getQueuedCount());
+			Assert.assertEquals(1, listener.getDroppedCount());
+		} finally {
+			listener.destroy();
+		}
+		Assert.assertEquals(2, listener.getWrittenCount());
+	}
+	
+	/**
+	 * 
+	 * @return the test {@link DataSource}
+	 */
+	private DataSource dataSource() {
+		return (DataSource) this.applicationContext.getBean("dataSource");
+	}
+	/**
+	 * 
+	 * @param visitorUid
+	 * @return an {@link AppointmentCreatedEvent} for a block tomorrow
+	 */
+	private AppointmentCreatedEvent createdEvent(String visitorUid) throws Exception {
+		MockCalendarAccount ownerAccount = new MockCalendarAccount();
+		ownerAccount.setUsername("owner");
+		MockScheduleOwner owner = new MockScheduleOwner(ownerAccount, 1);
+		MockCalendarAccount visitorAccount = new MockCalendarAccount();
+		visitorAccount.setUsername(visitorUid);
+		visitorAccount.setAttributeValue("uid", visitorUid);
+		MockScheduleVisitor visitor = new MockScheduleVisitor(visitorAccount);
+		AvailableBlock block = AvailableBlockBuilder.createBlock("20301104-0900", "20301104-0930");
+		return new AppointmentCreatedEvent(new VEvent(), owner, visitor, block, "statistics test");
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.owner;
+
+import java.util.Date;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.model.ICalendarAccount;
+import org.jasig.schedassist.model.IScheduleOwner;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Test harness for {@link SpringJDBCAppointmentIndexDaoImpl}.
+ * 
+ * Depends on {@link NeedsTestDatabase}.
+ *  
+ * @version $Id: SpringJDBCAppointmentIndexDaoImplTest.java $
+ */
+public class SpringJDBCAppointmentIndexDaoImplTest extends NeedsTestDatabase {
+
+	private SpringJDBCAppointmentIndexDaoImpl appointmentIndexDao;
+	private SpringJDBCOwnerDaoImpl ownerDao;
+	private MockCalendarAccountDao calendarAccountDao;
+	private IScheduleOwner owner;
+	
+	/**
+	 * @param appointmentIndexDao the appointmentIndexDao to set
+	 */
+	@Autowired
+	public void setAppointmentIndexDao(
+			SpringJDBCAppointmentIndexDaoImpl appointmentIndexDao) {
+		this.appointmentIndexDao = appointmentIndexDao;
+	}
+	/**
+	 * @param ownerDao the ownerDao to set
+	 */
+	@Autowired
+	public void setOwnerDao(SpringJDBCOwnerDaoImpl ownerDao) {
+		this.ownerDao = ownerDao;
+	}
+	/**
+	 * @param calendarAccountDao the calendarAccountDao to set
+	 */
+	@Autowired
+	public void setCalendarAccountDao(MockCalendarAccountDao calendarAccountDao) {
+		this.calendarAccountDao = calendarAccountDao;
+	}
+
+	@Override
+	public void afterCreate() throws Exception {
+		ICalendarAccount user1 = this.calendarAccountDao.getCalendarAccount("user1");
+		owner = ownerDao.register(user1);
+	}
+	@Override
+	public void afterDestroy() throws Exception {
+	}
+
+	/**
+	 * Store, lookup, replace and remove a single entry.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStoreLookupRemove() throws Exception {
+		Date start = DateUtils.truncate(DateUtils.addDays(new Date(), 1), java.util.Calendar.HOUR);
+		Date end = DateUtils.addMinutes(start, 30);
+		Assert.assertNull(appointmentIndexDao.lookup(owner, start, end));
+		
+		appointmentIndexDao.store(owner, start, end, new IndexedAppointment("uid-1", "/ucaldav/user/user1/calendar/uid-1.ics"));
+		IndexedAppointment result = appointmentIndexDao.lookup(owner, start, end);
+		Assert.assertNotNull(result);
+		Assert.assertEquals("uid-1", result.getEventUid());
+		Assert.assertEquals("/ucaldav/user/user1/calendar/uid-1.ics", result.getEventHref());
+		// different end, no match
+		Assert.assertNull(appointmentIndexDao.lookup(owner, start, DateUtils.addMinutes(start, 60)));
+		
+		// store replaces
+		appointmentIndexDao.store(owner, start, end, new IndexedAppointment("uid-2", "/ucaldav/user/user1/calendar/uid-2.ics"));
+		result = appointmentIndexDao.lookup(owner, start, end);
+		Assert.assertEquals("uid-2", result.getEventUid());
+		
+		appointmentIndexDao.remove(owner, start, end);
+		Assert.assertNull(appointmentIndexDao.lookup(owner, start, end));
+	}
+	
+	/**
+	 * Only entries ending before the argument are removed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRemoveEndingBefore() throws Exception {
+		Date now = new Date();
+		Date pastStart = DateUtils.addHours(now, -2);
+		Date pastEnd = DateUtils.addHours(now, -1);
+		Date futureStart = DateUtils.addHours(now, 1);
+		Date futureEnd = DateUtils.addHours(now, 2);
+		appointmentIndexDao.store(owner, pastStart, pastEnd, new IndexedAppointment("past", "/past.ics"));
+		appointmentIndexDao.store(owner, futureStart, futureEnd, new IndexedAppointment("future", "/future.ics"));
+		
+		Assert.assertEquals(1, appointmentIndexDao.removeEndingBefore(now));
+		Assert.assertNull(appointmentIndexDao.lookup(owner, pastStart, pastEnd));
+		Assert.assertNotNull(appointmentIndexDao.lookup(owner, futureStart, futureEnd));
+	}
+}
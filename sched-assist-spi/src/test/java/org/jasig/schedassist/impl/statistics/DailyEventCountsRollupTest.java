@@ -0,0 +1,198 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.impl.statistics;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.jasig.schedassist.impl.EventType;
+import org.jasig.schedassist.impl.owner.NeedsTestDatabase;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+/**
+ * Test harness for {@link DailyEventCountsRollup} and the rolled up {@link SpringJDBCStatisticsDaoImpl#getEventCounts(Date, Date)}.
+ * 
+ * Depends on {@link NeedsTestDatabase}.
+ * 
+ * @version $Id: DailyEventCountsRollupTest.java $
+ */
+public class DailyEventCountsRollupTest extends NeedsTestDatabase {
+
+	private SimpleJdbcTemplate template;
+	private DailyEventCountsRollup rollup;
+	private SpringJDBCStatisticsDaoImpl statisticsDao;
+	private int nextEventId = 1;
+	
+	@Override
+	public void afterCreate() throws Exception {
+		DataSource dataSource = (DataSource) this.applicationContext.getBean("dataSource");
+		template = new SimpleJdbcTemplate(dataSource);
+		rollup = new DailyEventCountsRollup();
+		rollup.setDataSource(dataSource);
+		rollup.setPlatformTransactionManager(new DataSourceTransactionManager(dataSource));
+		statisticsDao = new SpringJDBCStatisticsDaoImpl();
+		statisticsDao.setDataSource(dataSource);
+		statisticsDao.setDailyEventCountsRollup(rollup);
+	}
+	@Override
+	public void afterDestroy() throws Exception {
+	}
+	
+	/**
+	 * The first rollup counts every existing event; later events are counted from the raw table
+	 * until the next rollup, which replaces (rather than adds to) the counts of recent days.
+	 */
+	@Test
+	public void testRollup() {
+		Date today = DateUtils.truncate(new Date(), Calendar.DATE);
+		Date threeDaysAgo = DateUtils.addDays(today, -3);
+		Date twoDaysAgo = DateUtils.addDays(today, -2);
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(threeDaysAgo, 9));
+		insertEvent(2, EventType.CREATED, DateUtils.addHours(threeDaysAgo, 10));
+		insertEvent(1, EventType.CANCELLED, DateUtils.addHours(threeDaysAgo, 11));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(twoDaysAgo, 9));
+		
+		Assert.assertNull(rollup.getWatermark());
+		rollup.rollup();
+		Assert.assertNotNull(rollup.getWatermark());
+		Assert.assertEquals(3, template.queryForInt("select count(*) from daily_event_counts where event_day = ?", threeDaysAgo));
+		Assert.assertEquals(4, template.queryForInt("select sum(event_count) from daily_event_counts"));
+		
+		insertEvent(2, EventType.CREATED, new Date(Math.max(today.getTime(), System.currentTimeMillis() - 60000L)));
+		List<DailyEventSummary> counts = statisticsDao.getEventCounts(threeDaysAgo, new Date());
+		Assert.assertEquals(3, counts.size());
+		Assert.assertEquals(threeDaysAgo, counts.get(0).getDate());
+		Assert.assertEquals(3, counts.get(0).getEventCount());
+		Assert.assertEquals(twoDaysAgo, counts.get(1).getDate());
+		Assert.assertEquals(1, counts.get(1).getEventCount());
+		Assert.assertEquals(today, counts.get(2).getDate());
+		Assert.assertEquals(1, counts.get(2).getEventCount());
+		
+		List<DailyEventSummary> created = statisticsDao.getEventCounts(threeDaysAgo, new Date(), EventType.CREATED);
+		Assert.assertEquals(2, created.get(0).getEventCount());
+		
+		// repeating the rollup recomputes today rather than counting it twice
+		rollup.rollup();
+		rollup.rollup();
+		Assert.assertEquals(5, template.queryForInt("select sum(event_count) from daily_event_counts"));
+	}
+	
+	/**
+	 * With bounds that are not at midnight, the rolled up counts match those of the raw events:
+	 * the partial first and last days are counted from the raw events, and both bounds are inclusive.
+	 */
+	@Test
+	public void testRolledUpCountsPartialDays() {
+		Date today = DateUtils.truncate(new Date(), Calendar.DATE);
+		Date fourDaysAgo = DateUtils.addDays(today, -4);
+		Date threeDaysAgo = DateUtils.addDays(today, -3);
+		Date twoDaysAgo = DateUtils.addDays(today, -2);
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(fourDaysAgo, 9));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(fourDaysAgo, 11));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(threeDaysAgo, 9));
+		insertEvent(1, EventType.CANCELLED, DateUtils.addHours(twoDaysAgo, 9));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(twoDaysAgo, 14));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(twoDaysAgo, 15));
+		rollup.rollup();
+		Assert.assertNotNull(rollup.getWatermark());
+		
+		SpringJDBCStatisticsDaoImpl rawStatisticsDao = new SpringJDBCStatisticsDaoImpl();
+		rawStatisticsDao.setDataSource((DataSource) this.applicationContext.getBean("dataSource"));
+		Date start = DateUtils.addHours(fourDaysAgo, 10);
+		Date end = DateUtils.addHours(twoDaysAgo, 14);
+		List<DailyEventSummary> counts = statisticsDao.getEventCounts(start, end);
+		assertSameCounts(rawStatisticsDao.getEventCounts(start, end), counts);
+		Assert.assertEquals(3, counts.size());
+		Assert.assertEquals(fourDaysAgo, counts.get(0).getDate());
+		Assert.assertEquals(1, counts.get(0).getEventCount());
+		Assert.assertEquals(1, counts.get(1).getEventCount());
+		Assert.assertEquals(twoDaysAgo, counts.get(2).getDate());
+		Assert.assertEquals(2, counts.get(2).getEventCount());
+		
+		assertSameCounts(rawStatisticsDao.getEventCounts(start, end, EventType.CREATED), statisticsDao.getEventCounts(start, end, EventType.CREATED));
+		assertSameCounts(rawStatisticsDao.getEventCounts(fourDaysAgo, twoDaysAgo), statisticsDao.getEventCounts(fourDaysAgo, twoDaysAgo));
+	}
+	
+	/**
+	 * Without a watermark, the scheduled rollup does not backfill events older than maxScheduledBackfillDays;
+	 * {@link DailyEventCountsRollup#backfill()} does.
+	 */
+	@Test
+	public void testScheduledRollupRefusesUnboundedBackfill() {
+		Date today = DateUtils.truncate(new Date(), Calendar.DATE);
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(DateUtils.addDays(today, -30), 9));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(DateUtils.addDays(today, -1), 9));
+		
+		rollup.rollup();
+		Assert.assertNull(rollup.getWatermark());
+		Assert.assertEquals(0, template.queryForInt("select count(*) from daily_event_counts"));
+		Assert.assertEquals(2, statisticsDao.getEventCounts(DateUtils.addDays(today, -31), new Date()).size());
+		
+		Assert.assertEquals(31, rollup.backfill());
+		Assert.assertNotNull(rollup.getWatermark());
+		Assert.assertEquals(2, template.queryForInt("select sum(event_count) from daily_event_counts"));
+		rollup.rollup();
+		Assert.assertEquals(2, template.queryForInt("select sum(event_count) from daily_event_counts"));
+	}
+	
+	/**
+	 * Recomputing a range of days (as the backfill tool does with arguments) leaves the watermark unset.
+	 */
+	@Test
+	public void testRollupRange() {
+		Date yesterday = DateUtils.addDays(DateUtils.truncate(new Date(), Calendar.DATE), -1);
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(yesterday, 9));
+		insertEvent(1, EventType.CREATED, DateUtils.addHours(yesterday, 10));
+		Assert.assertEquals(2, rollup.rollup(DateUtils.addDays(yesterday, -1), DateUtils.addHours(yesterday, 12)));
+		Assert.assertEquals(2, template.queryForInt("select event_count from daily_event_counts where event_day = ? and owner_id = ?", yesterday, 1));
+		Assert.assertNull(rollup.getWatermark());
+		Assert.assertNull(statisticsDao.getRollupWatermark());
+	}
+	
+	/**
+	 * 
+	 * @param expected
+	 * @param actual
+	 */
+	private void assertSameCounts(List<DailyEventSummary> expected, List<DailyEventSummary> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getDate(), actual.get(i).getDate());
+			Assert.assertEquals(expected.get(i).getEventCount(), actual.get(i).getEventCount());
+		}
+	}
+	/**
+	 * 
+	 * @param ownerId
+	 * @param type
+	 * @param timestamp
+	 */
+	private void insertEvent(long ownerId, EventType type, Date timestamp) {
+		template.update("insert into event_statistics (event_id,owner_id,visitor_id,event_type,event_timestamp,event_start) values (?,?,?,?,?,?)",
+				nextEventId++, ownerId, "visitor", type.toString(), timestamp, timestamp);
+	}
+}
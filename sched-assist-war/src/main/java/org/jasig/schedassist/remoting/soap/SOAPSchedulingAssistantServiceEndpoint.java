@@ -35,6 +35,7 @@ import org.jasig.schedassist.ICalendarAccountDao;
 import org.jasig.schedassist.RelationshipDao;
 import org.jasig.schedassist.SchedulingAssistantService;
 import org.jasig.schedassist.SchedulingException;
+import org.jasig.schedassist.impl.BoundedCalendarRequestExecutor;
 import org.jasig.schedassist.impl.owner.AvailableScheduleDao;
 import org.jasig.schedassist.impl.owner.NotRegisteredException;
 import org.jasig.schedassist.impl.owner.OwnerDao;
@@ -98,6 +99,7 @@ public class SOAPSchedulingAssistantServiceEndpoint implements SOAPSchedulingAss
 	private VisitorDao visitorDao;
 	private RelationshipDao relationshipDao;
 	private AvailableScheduleDao availableScheduleDao;
+	private BoundedCalendarRequestExecutor calendarRequestExecutor;
 
 	/**
 	 * @param schedulingAssistantService the schedulingAssistantService to set
@@ -141,6 +143,13 @@ public class SOAPSchedulingAssistantServiceEndpoint implements SOAPSchedulingAss
 	public void setAvailableScheduleDao(AvailableScheduleDao availableScheduleDao) {
 		this.availableScheduleDao = availableScheduleDao;
 	}
+	/**
+	 * @param calendarRequestExecutor the calendarRequestExecutor to set
+	 */
+	@Autowired
+	public void setCalendarRequestExecutor(BoundedCalendarRequestExecutor calendarRequestExecutor) {
+		this.calendarRequestExecutor = calendarRequestExecutor;
+	}
 	
 	/*
 	 * (non-Javadoc)
@@ -225,8 +234,7 @@ public class SOAPSchedulingAssistantServiceEndpoint implements SOAPSchedulingAss
 		VisibleSchedule schedule;
 		if(owner.hasMeetingLimit()) {
 			// we have to look at the whole visible schedule for attendings
-			schedule = schedulingAssistantService.getVisibleSchedule(
-					visitor, owner);
+			schedule = calendarRequestExecutor.getVisibleSchedule(schedulingAssistantService, visitor, owner, null, null);
 			if(owner.isExceedingMeetingLimit(schedule.getAttendingCount())) {	
 				List<AvailableBlockElement> blockElementList = new ArrayList<AvailableBlockElement>();
 				// return ONLY the attendings
@@ -252,7 +260,7 @@ public class SOAPSchedulingAssistantServiceEndpoint implements SOAPSchedulingAss
 			}
 		} else {
 			// only pull start->end of schedule
-			schedule = schedulingAssistantService.getVisibleSchedule(visitor, owner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
+			schedule = calendarRequestExecutor.getVisibleSchedule(schedulingAssistantService, visitor, owner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
 		}
 		
 		
@@ -21,6 +21,7 @@
 package org.jasig.schedassist.web.admin;
 
 import org.jasig.schedassist.ICalendarAccountDao;
+import org.jasig.schedassist.impl.AvailableScheduleReflectionQueue;
 import org.jasig.schedassist.impl.AvailableScheduleReflectionService;
 import org.jasig.schedassist.impl.owner.AvailableScheduleDao;
 import org.jasig.schedassist.impl.owner.OwnerDao;
@@ -49,6 +50,7 @@ public class AvailableScheduleReflectionServiceController {
 	private OwnerDao ownerDao;
 	private AvailableScheduleReflectionService reflectionService;
 	private AvailableScheduleDao availableScheduleDao;
+	private AvailableScheduleReflectionQueue reflectionQueue;
 
 	/**
 	 * @param calendarAccountDao the calendarAccountDao to set
@@ -79,6 +81,15 @@ public class AvailableScheduleReflectionServiceController {
 	public void setAvailableScheduleDao(AvailableScheduleDao availableScheduleDao) {
 		this.availableScheduleDao = availableScheduleDao;
 	}
+	/**
+	 * Optional; present when the {@link AvailableScheduleReflectionService} reflects from a queue.
+	 * 
+	 * @param reflectionQueue the reflectionQueue to set
+	 */
+	@Autowired(required=false)
+	public void setReflectionQueue(AvailableScheduleReflectionQueue reflectionQueue) {
+		this.reflectionQueue = reflectionQueue;
+	}
 	/**
 	 * @return the calendarAccountDao
 	 */
@@ -103,14 +114,34 @@ public class AvailableScheduleReflectionServiceController {
 	public AvailableScheduleDao getAvailableScheduleDao() {
 		return availableScheduleDao;
 	}
+	/**
+	 * @return the reflectionQueue
+	 */
+	public AvailableScheduleReflectionQueue getReflectionQueue() {
+		return reflectionQueue;
+	}
 	
 	@RequestMapping
 	protected String setupForm(final ModelMap model) {
 		ScheduleOwnerFormBackingObject command = new ScheduleOwnerFormBackingObject();
 		model.addAttribute("command", command);
+		model.addAttribute("reflectionQueue", reflectionQueue);
 		return "admin/reflect-form";
 	}
 	
+	/**
+	 * Reset the reflection queue statistics.
+	 * 
+	 * @return a redirect to the form
+	 */
+	@RequestMapping(method=RequestMethod.POST, params="action=reset")
+	protected String resetStatistics() {
+		if(reflectionQueue != null) {
+			reflectionQueue.resetStatistics();
+		}
+		return "redirect:reflection-service.html";
+	}
+	
 	@RequestMapping(method=RequestMethod.POST, params="action=reflect")
 	protected String reflectAvailableSchedule(@ModelAttribute("command") ScheduleOwnerFormBackingObject command) {
 		IScheduleOwner owner = null;
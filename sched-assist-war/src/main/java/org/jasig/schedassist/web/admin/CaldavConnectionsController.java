@@ -0,0 +1,85 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.schedassist.web.admin;
+
+import org.jasig.schedassist.impl.caldav.CaldavClientConnectionManager;
+import org.jasig.schedassist.impl.caldav.CalendarFetchCoalescer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * {@link Controller} displaying the statistics of the {@link CaldavClientConnectionManager}
+ * and {@link CalendarFetchCoalescer}.
+ * 
+ * @version $Id: CaldavConnectionsController.java $
+ */
+@Controller
+@RequestMapping("/admin/caldav-connections.html")
+public class CaldavConnectionsController {
+
+	private CaldavClientConnectionManager connectionManager;
+	private CalendarFetchCoalescer calendarFetchCoalescer;
+	
+	/**
+	 * @param connectionManager the connectionManager to set
+	 */
+	@Autowired(required=false)
+	public void setConnectionManager(CaldavClientConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+	}
+	/**
+	 * @param calendarFetchCoalescer the calendarFetchCoalescer to set
+	 */
+	@Autowired(required=false)
+	public void setCalendarFetchCoalescer(CalendarFetchCoalescer calendarFetchCoalescer) {
+		this.calendarFetchCoalescer = calendarFetchCoalescer;
+	}
+	
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	@RequestMapping(method=RequestMethod.GET)
+	public String getStatistics(ModelMap model) {
+		model.addAttribute("connectionManager", this.connectionManager);
+		model.addAttribute("calendarFetchCoalescer", this.calendarFetchCoalescer);
+		return "admin/caldav-connections";
+	}
+	
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	@RequestMapping(method=RequestMethod.POST, params="action=reset")
+	public String resetStatistics(ModelMap model) {
+		if(this.connectionManager != null) {
+			this.connectionManager.resetStatistics();
+		}
+		if(this.calendarFetchCoalescer != null) {
+			this.calendarFetchCoalescer.resetStatistics();
+		}
+		return "redirect:caldav-connections.html";
+	}
+}
@@ -29,6 +29,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.schedassist.RelationshipDao;
 import org.jasig.schedassist.SchedulingAssistantService;
+import org.jasig.schedassist.impl.BoundedCalendarRequestExecutor;
 import org.jasig.schedassist.impl.owner.OwnerDao;
 import org.jasig.schedassist.impl.owner.PublicProfileDao;
 import org.jasig.schedassist.impl.visitor.NotAVisitorException;
@@ -66,6 +67,7 @@ public class VisibleScheduleDisplayController {
 	private RelationshipDao relationshipDao;
 	private OwnerDao ownerDao;
 	private PublicProfileDao publicProfileDao;
+	private BoundedCalendarRequestExecutor calendarRequestExecutor;
 
 	/**
 	 * @param schedulingAssistantService the schedulingAssistantService to set
@@ -95,6 +97,19 @@ public class VisibleScheduleDisplayController {
 	public void setPublicProfileDao(PublicProfileDao publicProfileDao) {
 		this.publicProfileDao = publicProfileDao;
 	}
+	/**
+	 * @param calendarRequestExecutor the calendarRequestExecutor to set
+	 */
+	@Autowired
+	public void setCalendarRequestExecutor(BoundedCalendarRequestExecutor calendarRequestExecutor) {
+		this.calendarRequestExecutor = calendarRequestExecutor;
+	}
+	/**
+	 * @return the calendarRequestExecutor
+	 */
+	public BoundedCalendarRequestExecutor getCalendarRequestExecutor() {
+		return calendarRequestExecutor;
+	}
 	/**
 	 * @return the schedulingAssistantService
 	 */
@@ -151,8 +166,7 @@ public class VisibleScheduleDisplayController {
 
 		if(selectedOwner.hasMeetingLimit()) {
 			// we have to look at the whole visible schedule for attendings
-			schedule = schedulingAssistantService.getVisibleSchedule(
-					visitor, selectedOwner);
+			schedule = calendarRequestExecutor.getVisibleSchedule(schedulingAssistantService, visitor, selectedOwner, null, null);
 			if(selectedOwner.isExceedingMeetingLimit(schedule.getAttendingCount())) {	
 				// return attending only view
 				List<AvailableBlock> attendingList = schedule.getAttendingList();
@@ -165,8 +179,7 @@ public class VisibleScheduleDisplayController {
 			
 		} else {	
 			// only pull start->end of schedule
-			schedule = schedulingAssistantService.getVisibleSchedule(
-					visitor, selectedOwner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
+			schedule = calendarRequestExecutor.getVisibleSchedule(schedulingAssistantService, visitor, selectedOwner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
 		}
 		
 		model.put("visibleSchedule", schedule);
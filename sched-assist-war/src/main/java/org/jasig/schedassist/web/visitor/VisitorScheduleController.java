@@ -23,10 +23,12 @@ package org.jasig.schedassist.web.visitor;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.StringUtils;
 import org.jasig.schedassist.RelationshipDao;
 import org.jasig.schedassist.SchedulingAssistantService;
+import org.jasig.schedassist.impl.BoundedCalendarRequestExecutor;
 import org.jasig.schedassist.impl.owner.OwnerDao;
 import org.jasig.schedassist.impl.owner.PublicProfileDao;
 import org.jasig.schedassist.impl.visitor.NotAVisitorException;
@@ -64,6 +66,7 @@ public class VisitorScheduleController {
 	private RelationshipDao relationshipDao;
 	private PublicProfileDao publicProfileDao;
 	private SchedulingAssistantService schedulingAssistantService;
+	private BoundedCalendarRequestExecutor calendarRequestExecutor;
 	
 	/**
 	 * @param ownerDao the ownerDao to set
@@ -93,6 +96,13 @@ public class VisitorScheduleController {
 	public void setSchedulingAssistantService(SchedulingAssistantService schedulingAssistantService) {
 		this.schedulingAssistantService = schedulingAssistantService;
 	}
+	/**
+	 * @param calendarRequestExecutor the calendarRequestExecutor to set
+	 */
+	@Autowired
+	public void setCalendarRequestExecutor(BoundedCalendarRequestExecutor calendarRequestExecutor) {
+		this.calendarRequestExecutor = calendarRequestExecutor;
+	}
 	/**
 	 * @return the ownerDao
 	 */
@@ -117,6 +127,12 @@ public class VisitorScheduleController {
 	public SchedulingAssistantService getSchedulingAssistantService() {
 		return schedulingAssistantService;
 	}
+	/**
+	 * @return the calendarRequestExecutor
+	 */
+	public BoundedCalendarRequestExecutor getCalendarRequestExecutor() {
+		return calendarRequestExecutor;
+	}
 	/**
 	 * 
 	 * @param ownerIdentifier
@@ -130,13 +146,18 @@ public class VisitorScheduleController {
 			@RequestParam(value="weekStart", required=false, defaultValue="0") int weekStart,
 			final ModelMap model) throws NotAVisitorException, OwnerNotFoundException {
 		CalendarAccountUserDetailsImpl currentUser = (CalendarAccountUserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-		IScheduleVisitor visitor = currentUser.getScheduleVisitor();
+		final IScheduleVisitor visitor = currentUser.getScheduleVisitor();
 		
-		IScheduleOwner owner = locateOwnerFromIdentifier(ownerIdentifier, visitor);
-		VisibleScheduleRequestConstraints requestConstraints = VisibleScheduleRequestConstraints.newInstance(owner, weekStart);
+		final IScheduleOwner owner = locateOwnerFromIdentifier(ownerIdentifier, visitor);
+		final VisibleScheduleRequestConstraints requestConstraints = VisibleScheduleRequestConstraints.newInstance(owner, weekStart);
 		
-		List<AvailableBlock> visitorConflicts = this.schedulingAssistantService.calculateVisitorConflicts(visitor, 
-				owner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
+		List<AvailableBlock> visitorConflicts = this.calendarRequestExecutor.execute(new Callable<List<AvailableBlock>>() {
+			@Override
+			public List<AvailableBlock> call() {
+				return schedulingAssistantService.calculateVisitorConflicts(visitor, 
+						owner, requestConstraints.getTargetStartDate(), requestConstraints.getTargetEndDate());
+			}
+		});
 		List<String> conflictBlocks = new ArrayList<String>();
 		SimpleDateFormat df = CommonDateOperations.getDateTimeFormat();
 		for(AvailableBlock b: visitorConflicts) {
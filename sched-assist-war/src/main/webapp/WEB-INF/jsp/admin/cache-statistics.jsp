@@ -47,6 +47,7 @@
 <th><spring:message code="object.count"/></th>
 <th><spring:message code="hits"/></th>
 <th><spring:message code="misses"/></th>
+<th><spring:message code="evictions"/></th>
 <th><spring:message code="clear.question"/></th>
 </tr>
 </thead>
@@ -59,6 +60,7 @@
 <td>${statistics.objectCount}</td>
 <td>${statistics.cacheHits}</td>
 <td>${statistics.cacheMisses}</td>
+<td>${statistics.evictionCount}</td>
 <c:url value="cache-manager.html" var="clearUrl">
 <c:param name="action" value="clear"/>
 <c:param name="cacheName" value="${cacheName }"/>
@@ -0,0 +1,85 @@
+<%--
+
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+
+--%>
+
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<%@ include file="/WEB-INF/jsp/includes.jsp" %>
+<html xmlns="http://www.w3.org/1999/xhtml" lang="en">
+<head>
+<title><spring:message code="application.name.admin"/> - <spring:message code="caldav.connections"/></title>
+<%@ include file="/WEB-INF/jsp/themes/jasig/head-elements.jsp" %>
+</head>
+
+<body>
+<%@ include file="/WEB-INF/jsp/themes/jasig/body-start.jsp" %>
+<%@ include file="/WEB-INF/jsp/login-info.jsp" %>
+<div id="content" class="main col">
+
+<h3><spring:message code="caldav.connection.pool"/></h3>
+<c:choose>
+<c:when test="${empty connectionManager}">
+<p><spring:message code="caldav.connection.pool.not.found"/></p>
+</c:when>
+<c:otherwise>
+<table>
+<tbody>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.max.total"/></td><td>${connectionManager.maxTotal}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.max.per.route"/></td><td>${connectionManager.defaultMaxPerRoute}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.leased"/></td><td>${connectionManager.leasedConnections}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.available"/></td><td>${connectionManager.availableConnections}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.pending"/></td><td>${connectionManager.pendingRequests}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.leases"/></td><td>${connectionManager.leaseCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.lease.timeouts"/></td><td>${connectionManager.leaseTimeoutCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.average.lease.wait"/></td><td><fmt:formatNumber value="${connectionManager.averageLeaseWaitMillis}" maxFractionDigits="2"/></td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.connection.pool.max.lease.wait"/></td><td>${connectionManager.maxLeaseWaitMillis}</td></tr>
+</tbody>
+</table>
+</c:otherwise>
+</c:choose>
+
+<h3><spring:message code="caldav.fetch.coalescing"/></h3>
+<c:choose>
+<c:when test="${empty calendarFetchCoalescer}">
+<p><spring:message code="caldav.fetch.coalescing.not.found"/></p>
+</c:when>
+<c:otherwise>
+<table>
+<tbody>
+<tr class="stats-row"><td><spring:message code="caldav.fetch.coalescing.requests"/></td><td>${calendarFetchCoalescer.requestCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.fetch.coalescing.fetches"/></td><td>${calendarFetchCoalescer.fetchCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.fetch.coalescing.coalesced"/></td><td>${calendarFetchCoalescer.coalescedCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.fetch.coalescing.failed"/></td><td>${calendarFetchCoalescer.failedFetchCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="caldav.fetch.coalescing.in.flight"/></td><td>${calendarFetchCoalescer.inFlightCount}</td></tr>
+</tbody>
+</table>
+</c:otherwise>
+</c:choose>
+
+<c:url value="caldav-connections.html" var="resetUrl">
+<c:param name="action" value="reset"/>
+</c:url>
+<form action="${resetUrl}" method="post"><input type="submit" value="<spring:message code="reset.statistics"/>"/></form>
+
+<a href="<c:url value="/admin/index.html"/>">&laquo;<spring:message code="return.to.admin.home"/></a>
+</div> <!--  content -->
+
+<%@ include file="/WEB-INF/jsp/themes/jasig/body-end.jsp" %>
+</body>
+</html>
@@ -38,10 +38,11 @@
 <li><a href="<c:url value="reflection-service.html"/>"><spring:message code="reflection.service.admin"/></a></li>
 <li><a href="<c:url value="schedule-debug.html"/>"><spring:message code="visible.schedule.debug"/></a></li>
 <li><a href="<c:url value="cache-manager.html"/>"><spring:message code="cache.manager"/></a></li>
+<li><a href="<c:url value="caldav-connections.html"/>"><spring:message code="caldav.connections"/></a></li>
 </ul>
 <p>Value of 'org.jasig.schedassist.runScheduledTasks' for this instance: ${runScheduledTasks}</p>
 </div> <!--  content -->
 
 <%@ include file="/WEB-INF/jsp/themes/jasig/body-end.jsp" %>
 </body>
-</html>
\ No newline at end of file
+</html>
\ No newline at end of file
@@ -65,6 +65,26 @@ margin-top: 2px;
 </form:form>
 </div>
 
+<c:if test="${not empty reflectionQueue}">
+<h3><spring:message code="reflection.queue"/></h3>
+<table>
+<tbody>
+<tr class="stats-row"><td><spring:message code="reflection.queue.depth"/></td><td>${reflectionQueue.queueDepth}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.active"/></td><td>${reflectionQueue.activeCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.processed"/></td><td>${reflectionQueue.processedCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.coalesced"/></td><td>${reflectionQueue.coalescedCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.retries"/></td><td>${reflectionQueue.retryCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.failed"/></td><td>${reflectionQueue.failedCount}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.average.latency"/></td><td>${reflectionQueue.averageLatencyMillis}</td></tr>
+<tr class="stats-row"><td><spring:message code="reflection.queue.max.latency"/></td><td>${reflectionQueue.maxLatencyMillis}</td></tr>
+</tbody>
+</table>
+<c:url value="reflection-service.html" var="resetUrl">
+<c:param name="action" value="reset"/>
+</c:url>
+<form action="${resetUrl}" method="post"><input type="submit" value="<spring:message code="reset.statistics"/>"/></form>
+</c:if>
+
 <a href="<c:url value="/admin/index.html"/>">&laquo;<spring:message code="return.to.admin.home"/></a>
 </div> <!--  content -->
 